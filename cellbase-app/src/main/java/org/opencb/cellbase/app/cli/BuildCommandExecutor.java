@@ -61,6 +61,7 @@ public class BuildCommandExecutor extends CommandExecutor {
     private File proteinScriptsFolder;
 
     private boolean flexibleGTFParsing;
+    private int numThreads;
     private Species species;
 
     public BuildCommandExecutor(CliOptionsParser.BuildCommandOptions buildCommandOptions) {
@@ -85,6 +86,7 @@ public class BuildCommandExecutor extends CommandExecutor {
         this.ensemblScriptsFolder = new File(System.getProperty("basedir") + "/bin/ensembl-scripts/");
         this.proteinScriptsFolder = new File(System.getProperty("basedir") + "/bin/protein/");
         this.flexibleGTFParsing = buildCommandOptions.flexibleGTFParsing;
+        this.numThreads = buildCommandOptions.numThreads;
     }
 
 
@@ -289,7 +291,7 @@ public class BuildCommandExecutor extends CommandExecutor {
                 geneFolderPath.resolve("hpoVersion.json"), geneFolderPath.resolve("disgenetVersion.json")));
         Path genomeFastaFilePath = getFastaReferenceGenome();
         CellBaseSerializer serializer = new CellBaseJsonFileSerializer(output, "gene");
-        return new GeneParser(geneFolderPath, genomeFastaFilePath, species, flexibleGTFParsing, serializer);
+        return new GeneParser(geneFolderPath, genomeFastaFilePath, species, flexibleGTFParsing, numThreads, serializer);
     }
 
 
@@ -297,7 +299,7 @@ public class BuildCommandExecutor extends CommandExecutor {
         Path variationFolderPath = input.resolve("variation");
         copyVersionFiles(Arrays.asList(variationFolderPath.resolve("ensemblVariationVersion.json")));
         CellBaseFileSerializer serializer = new CellBaseJsonFileSerializer(output, null, true, true, true);
-        return new VariationParser(variationFolderPath, serializer);
+        return new VariationParser(variationFolderPath, numThreads, serializer);
     }
 
     private CellBaseParser buildCadd() {
@@ -315,7 +317,7 @@ public class BuildCommandExecutor extends CommandExecutor {
                 regulatoryRegionFilesDir.resolve("targetScanVersion.json"),
                 regulatoryRegionFilesDir.resolve("miRTarBaseVersion.json")));
         CellBaseSerializer serializer = new CellBaseJsonFileSerializer(output, "regulatory_region");
-        return new RegulatoryRegionParser(regulatoryRegionFilesDir, serializer);
+        return new RegulatoryRegionParser(regulatoryRegionFilesDir, numThreads, serializer);
 
     }
 
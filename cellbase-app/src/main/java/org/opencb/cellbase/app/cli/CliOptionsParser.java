@@ -184,6 +184,10 @@ public class CliOptionsParser {
                 + "requires more memory and is less efficient.", required = false, arity = 0)
         public boolean flexibleGTFParsing = false;
 
+        @Parameter(names = {"--num-threads"}, description = "Number of threads used to build the gene, variation and regulation data "
+                + "models, data is built in partitions of the same chromosome", required = false, arity = 1)
+        public int numThreads = 4;
+
     }
 
 
@@ -367,6 +371,15 @@ public class CliOptionsParser {
         @Parameter(names = {"--gzip"}, description = "Whether the output file is gzipped", required = false, arity = 0)
         public boolean gzip;
 
+        @Parameter(names = {"--avro-codec"}, description = "Compression codec of the blocks of Avro output files. Values:"
+                + " deflate, snappy, bzip2, xz, null", required = false, arity = 1)
+        public String avroCodec = "deflate";
+
+        @Parameter(names = {"--max-output-file-size"}, description = "Size in MB after which Avro output is continued in a"
+                + " new file, numbered before the extension, e.g. annotation.00001.avro. 0 for a single file", required = false,
+                arity = 1)
+        public long maxOutputFileSize = 0;
+
         @Parameter(names = {"--input-variation-collection"}, description = "Input will be a local installation of the"
                 + "CellBase variation collection. Connection details must be properly specified at a configuration.json file",
                 required = false, arity = 0)
@@ -378,6 +391,12 @@ public class CliOptionsParser {
                 required = false, arity = 1)
         public String chromosomeList;
 
+        @Parameter(names = {"--partition-size"}, description = "Size in bases of the chromosome ranges the variation"
+                + " collection is split into when the --input-variation-collection flag is activated. Ranges are read"
+                + " in parallel and written to one output file each. Ranges already written are skipped if --resume is"
+                + " present.", required = false, arity = 1)
+        public int partitionSize = 10000000;
+
         @Parameter(names = {"--benchmark"}, description = "Run variant annotation benchmark. If this flag is enabled,"
                 + "a directory containing a list of Variant Effect Predictor (VEP) files is expected at the -i parameter."
                 + " All .vep files within the directory will be processed - the directory must contain only .vep files that "
@@ -26,18 +26,18 @@ import htsjdk.variant.variantcontext.VariantContext;
 import htsjdk.variant.vcf.VCFFileReader;
 import htsjdk.variant.vcf.VCFHeader;
 import htsjdk.variant.vcf.VCFHeaderVersion;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.file.CodecFactory;
 import org.apache.commons.lang.math.NumberUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.bson.Document;
 import org.opencb.biodata.formats.variant.annotation.io.JsonAnnotationWriter;
-import org.opencb.biodata.formats.variant.annotation.io.VariantAvroDataWriter;
 import org.opencb.biodata.formats.variant.annotation.io.VepFormatReader;
 import org.opencb.biodata.formats.variant.annotation.io.VepFormatWriter;
 import org.opencb.biodata.formats.variant.io.JsonVariantReader;
 import org.opencb.biodata.formats.variant.vcf4.FullVcfCodec;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.VariantAnnotation;
-import org.opencb.biodata.models.variant.avro.VariantAvro;
 import org.opencb.biodata.models.variant.exceptions.NonStandardCompliantSampleField;
 import org.opencb.biodata.tools.sequence.FastaIndexManager;
 import org.opencb.biodata.tools.variant.VariantNormalizer;
@@ -52,8 +52,6 @@ import org.opencb.cellbase.core.variant.annotation.VariantAnnotationUtils;
 import org.opencb.cellbase.core.variant.annotation.VariantAnnotator;
 import org.opencb.cellbase.core.variant.annotation.CellBaseNormalizerSequenceAdaptor;
 import org.opencb.cellbase.lib.impl.MongoDBAdaptorFactory;
-import org.opencb.commons.ProgressLogger;
-import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.core.QueryResult;
 import org.opencb.commons.io.DataReader;
@@ -64,17 +62,16 @@ import org.opencb.commons.utils.FileUtils;
 import org.rocksdb.Options;
 import org.rocksdb.RocksDB;
 import org.rocksdb.RocksDBException;
-import org.rocksdb.RocksIterator;
 
 import java.io.*;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.zip.GZIPInputStream;
 
-import static java.nio.file.StandardOpenOption.APPEND;
 
 /**
  * Created by fjlopez on 18/03/15.
@@ -91,11 +88,15 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
     private boolean local;
     private boolean cellBaseAnnotation;
     private boolean benchmark;
+    private boolean phased;
     private Path referenceFasta;
     private boolean normalize;
     private boolean decompose;
     private boolean leftAlign;
     private List<String> chromosomeList;
+    private Map<String, Integer> chromosomeSizes;
+    private int partitionSize;
+    private boolean resume;
     private int port;
     private String species;
     private String assembly;
@@ -107,11 +108,14 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
     private List<RocksDB> dbIndexes;
     private List<Options> dbOptions;
     private List<String> dbLocations;
+    private VisitedVariants visitedVariants;
     private List<String> customFileIds;
     private List<List<String>> customFileFields;
     private int maxOpenFiles = -1;
     private FileFormat inputFormat;
     private FileFormat outputFormat;
+    private CodecFactory avroCodec;
+    private long maxOutputFileSize;
 
     private QueryOptions queryOptions;
 
@@ -120,6 +124,8 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
     private final int QUEUE_CAPACITY = 10;
     private final String TMP_DIR = "/tmp/";
     private static final String VARIATION_ANNOTATION_FILE_PREFIX = "variation_annotation_";
+    private static final String VARIATION_ANNOTATION_FILE_EXTENSION = ".json.gz";
+    private static final int REMAINING_POP_FREQUENCIES_BATCH_SIZE = 1000;
 
     public VariantAnnotationCommandExecutor(CliOptionsParser.VariantAnnotationCommandOptions variantAnnotationCommandOptions) {
         super(variantAnnotationCommandOptions.commonOptions.logLevel, variantAnnotationCommandOptions.commonOptions.verbose,
@@ -239,12 +245,17 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
             // expensive to parse, i.e.: multisample vcf with thousands of samples. A specific task is created to enable
             // parallel parsing of these lines
             if (input != null) {
-                DataReader<String> dataReader = new StringDataReader(input);
+                // BGZF compressed files, e.g. from bgzip, are decompressed on several threads
+                DataReader<String> dataReader = BgzfStringDataReader.isBgzf(input)
+                        ? new BgzfStringDataReader(input, numThreads)
+                        : new StringDataReader(input);
                 List<ParallelTaskRunner.TaskWithException<String, Variant, Exception>> variantAnnotatorTaskList
                         = getStringTaskList();
-                DataWriter<Variant> dataWriter = getVariantDataWriter(output.toString());
+                DataWriter<Variant> dataWriter = getVariantDataWriter(output.toString(), maxOutputFileSize);
 
-                ParallelTaskRunner.Config config = new ParallelTaskRunner.Config(numThreads, batchSize, QUEUE_CAPACITY, false);
+                // Output must keep the input order for variants not found in the input to be merged at the end
+                boolean sorted = phased || (populationFrequenciesFile != null && completeInputPopulation);
+                ParallelTaskRunner.Config config = new ParallelTaskRunner.Config(numThreads, batchSize, QUEUE_CAPACITY, sorted);
                 ParallelTaskRunner<String, Variant> runner =
                         new ParallelTaskRunner<>(dataReader, variantAnnotatorTaskList, dataWriter, config);
                 runner.run();
@@ -260,19 +271,20 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
                     QueryOptions options = new QueryOptions("include", "chromosome,start,reference,alternate,type");
                     List<ParallelTaskRunner.TaskWithException<Variant, Variant, Exception>> variantAnnotatorTaskList
                             = getVariantTaskList();
-                    ParallelTaskRunner.Config config = new ParallelTaskRunner.Config(numThreads, batchSize, QUEUE_CAPACITY, false);
-
-                    for (String chromosome : chromosomeList) {
-                        logger.info("Annotating chromosome {}", chromosome);
-                        Query query = new Query("chromosome", chromosome);
-                        DataReader<Variant> dataReader =
-                                new VariationDataReader(dbAdaptorFactory.getVariationDBAdaptor(species), query, options);
-                        DataWriter<Variant> dataWriter = getVariantDataWriter(output.toString() + "/"
-                                + VARIATION_ANNOTATION_FILE_PREFIX + chromosome + ".json.gz");
-                        ParallelTaskRunner<Variant, Variant> runner =
-                                new ParallelTaskRunner<Variant, Variant>(dataReader, variantAnnotatorTaskList, dataWriter, config);
-                        runner.run();
-                    }
+                    ParallelTaskRunner.Config config = new ParallelTaskRunner.Config(numThreads, batchSize, QUEUE_CAPACITY, phased);
+
+                    // Chromosomes are split into ranges read in parallel, each one written to its own file. Files are
+                    // only given their final name once complete, so resumed runs skip them
+                    List<VariationPartition> partitions = getVariationPartitions();
+                    DataReader<Variant> dataReader = new VariationDataReader(dbAdaptorFactory.getVariationDBAdaptor(species),
+                            partitions, options, numThreads);
+                    // Partitions are bounded already, their files are not rolled so that renaming one completes it
+                    DataWriter<Variant> dataWriter = new PartitionedVariantDataWriter(partitions, output,
+                            VARIATION_ANNOTATION_FILE_PREFIX, getVariationAnnotationFileExtension(),
+                            filename -> getVariantDataWriter(filename, 0));
+                    ParallelTaskRunner<Variant, Variant> runner =
+                            new ParallelTaskRunner<Variant, Variant>(dataReader, variantAnnotatorTaskList, dataWriter, config);
+                    runner.run();
                 }
             }
         } finally {
@@ -292,34 +304,54 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
         // For internal use only - will only be run when -Dpopulation-frequencies is activated
         if (populationFrequenciesFile != null) {
             if (completeInputPopulation) {
-                DataWriter dataWriter = new JsonAnnotationWriter(output.toString(), APPEND);
+                // Population frequencies rocks db will always be the last one in the list
+                RocksDB db = dbIndexes.get(dbIndexes.size() - 1);
+                int numUnvisited = visitedVariants.size() - visitedVariants.countVisited();
+                logger.info("Writing {} variants with frequencies that were not found within the input file to {}",
+                        numUnvisited, output.toString());
+
+                // Avro output cannot be merged line by line, remaining variants are kept in a file of their own
+                boolean avro = outputFormat.equals(FileFormat.AVRO);
+                Path remainingFile = Paths.get(output.toString() + (avro ? ".remaining.avro" : ".remaining.json"));
+                DataWriter<Variant> dataWriter = avro
+                        ? new RollingVariantAvroDataWriter(remainingFile, avroCodec, maxOutputFileSize)
+                        : new JsonAnnotationWriter(remainingFile.toString());
                 dataWriter.open();
                 dataWriter.pre();
-
-                // Population frequencies rocks db will always be the last one in the list. DO NOT change the name of the
-                // rocksIterator variable - for some unexplainable reason Java VM crashes if it's named "iterator"
-                RocksIterator rocksIterator = dbIndexes.get(dbIndexes.size() - 1).newIterator();
-
-                ObjectMapper mapper = new ObjectMapper();
-                logger.info("Writing variants with frequencies that were not found within the input file to {}",
-                        populationFrequenciesFile.toString(), output.toString());
+                // Only variants not visited during the annotation are looked up, by their ordinal, in the order they
+                // appear in the population frequencies file
+                IndexValueCodec indexValueCodec = new IndexValueCodec();
+                List<Integer> ordinals = new ArrayList<>(REMAINING_POP_FREQUENCIES_BATCH_SIZE);
                 int counter = 0;
-                for (rocksIterator.seekToFirst(); rocksIterator.isValid(); rocksIterator.next()) {
-                    VariantAvro variantAvro = mapper.readValue(rocksIterator.value(), VariantAvro.class);
-                    // The additional attributes field initialized with an empty map is used as the flag to indicate that
-                    // this variant was not visited during the annotation process
-                    if (variantAvro.getAnnotation().getAdditionalAttributes() == null) {
-                        dataWriter.write(new Variant(variantAvro));
-                    }
-
-                    counter++;
-                    if (counter % 10000 == 0) {
-                        logger.info("{} written", counter);
+                try {
+                    for (int ordinal = visitedVariants.nextUnvisited(0); ordinal >= 0;
+                         ordinal = visitedVariants.nextUnvisited(ordinal + 1)) {
+                        ordinals.add(ordinal);
+                        if (ordinals.size() == REMAINING_POP_FREQUENCIES_BATCH_SIZE) {
+                            counter += writeUnvisitedVariants(db, ordinals, indexValueCodec, dataWriter);
+                            ordinals.clear();
+                            logger.info("{} written", counter);
+                        }
                     }
+                    counter += writeUnvisitedVariants(db, ordinals, indexValueCodec, dataWriter);
+                } catch (RocksDBException e) {
+                    throw new IOException(e);
                 }
                 dataWriter.post();
                 dataWriter.close();
-                logger.info("Done.");
+                if (avro) {
+                    logger.info("Done. {} variants written to {}", counter, remainingFile);
+                    return;
+                }
+
+                // Annotated variants are written in input order, both files are merged so that the output stays sorted
+                Path mergedFile = Paths.get(output.toString() + ".merged");
+                SortedVariantJsonMerger.merge(output, remainingFile, mergedFile);
+                Files.move(mergedFile, output, StandardCopyOption.REPLACE_EXISTING);
+                Files.delete(remainingFile);
+                // Offsets of the annotated variants changed with the merge
+                Files.deleteIfExists(BgzfJsonAnnotationWriter.getIndexPath(output));
+                logger.info("Done. {} variants appended", counter);
             } else {
                 logger.warn("complete-input-population set to false, variants in population frequencies file {} not in "
                         + "input file {} will not be appended to output file.", populationFrequenciesFile, input);
@@ -327,7 +359,54 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
         }
     }
 
+    private int writeUnvisitedVariants(RocksDB db, List<Integer> ordinals, IndexValueCodec indexValueCodec,
+                                       DataWriter<Variant> dataWriter) throws RocksDBException, IOException {
+        if (ordinals.isEmpty()) {
+            return 0;
+        }
+        // Maps returned by multiGet are keyed by the same key instances
+        List<byte[]> ordinalKeys = new ArrayList<>(ordinals.size());
+        for (int ordinal : ordinals) {
+            ordinalKeys.add(IndexValueCodec.encodeOrdinalKey(ordinal));
+        }
+        Map<byte[], byte[]> variantKeyMap = db.multiGet(ordinalKeys);
+        List<byte[]> variantKeys = new ArrayList<>(ordinals.size());
+        List<Integer> foundOrdinals = new ArrayList<>(ordinals.size());
+        for (int i = 0; i < ordinals.size(); i++) {
+            byte[] variantKey = variantKeyMap.get(ordinalKeys.get(i));
+            if (variantKey != null) {
+                variantKeys.add(variantKey);
+                foundOrdinals.add(ordinals.get(i));
+            }
+        }
+        Map<byte[], byte[]> values = db.multiGet(variantKeys);
+
+        List<Variant> variants = new ArrayList<>(variantKeys.size());
+        for (int i = 0; i < variantKeys.size(); i++) {
+            byte[] value = values.get(variantKeys.get(i));
+            // Variants repeated in the population frequencies file are indexed with the ordinal of their last
+            // occurrence, other occurrences are skipped
+            if (value != null && indexValueCodec.decodeOrdinal(value) == foundOrdinals.get(i)) {
+                variants.add(new Variant(indexValueCodec.decodePopulationVariant(value)));
+            }
+        }
+        dataWriter.write(variants);
+        return variants.size();
+    }
+
     private void setChromosomeList() {
+        // Chromosome sizes are needed to split chromosomes into partitions
+        logger.info("Getting full list of chromosomes in the database");
+        dbAdaptorFactory = new MongoDBAdaptorFactory(configuration);
+        GenomeDBAdaptor genomeDBAdaptor = dbAdaptorFactory.getGenomeDBAdaptor(species, assembly);
+        QueryResult queryResult = genomeDBAdaptor.getGenomeInfo(new QueryOptions("include", "chromosomes.name,chromosomes.size"));
+
+        List<Document> chromosomeDocumentList = (List<Document>) ((List<Document>) queryResult.getResult()).get(0).get("chromosomes");
+        chromosomeSizes = new LinkedHashMap<>(chromosomeDocumentList.size());
+        for (Document chromosomeDocument : chromosomeDocumentList) {
+            Number size = (Number) chromosomeDocument.get("size");
+            chromosomeSizes.put((String) chromosomeDocument.get("name"), size != null ? size.intValue() : null);
+        }
 
         if (variantAnnotationCommandOptions.chromosomeList != null
                 && !variantAnnotationCommandOptions.chromosomeList.isEmpty()) {
@@ -336,32 +415,64 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
         // If the user does not provide any chromosome, fill chromosomeList with all available chromosomes in the
         // database
         } else {
-            logger.info("Getting full list of chromosome names in the database");
-            dbAdaptorFactory = new MongoDBAdaptorFactory(configuration);
-            GenomeDBAdaptor genomeDBAdaptor = dbAdaptorFactory.getGenomeDBAdaptor(species, assembly);
-            QueryResult queryResult = genomeDBAdaptor.getGenomeInfo(new QueryOptions("include", "chromosomes.name"));
+            chromosomeList = new ArrayList<>(chromosomeSizes.keySet());
+            logger.info("Available chromosomes: {}", chromosomeList.toString());
+        }
+    }
 
-            List<Document> chromosomeDocumentList = (List<Document>) ((List<Document>) queryResult.getResult()).get(0).get("chromosomes");
-            chromosomeList = new ArrayList<>(chromosomeDocumentList.size());
-            for (Document chromosomeDocument : chromosomeDocumentList) {
-                chromosomeList.add((String) chromosomeDocument.get("name"));
+    private List<VariationPartition> getVariationPartitions() {
+        List<VariationPartition> partitions = new ArrayList<>();
+        int skipped = 0;
+        for (String chromosome : chromosomeList) {
+            Integer size = chromosomeSizes.get(chromosome);
+            // Chromosomes of unknown size are read as a single partition
+            int end = (size != null && size > 0) ? size : Integer.MAX_VALUE;
+            int step = (size != null && size > 0) ? partitionSize : Integer.MAX_VALUE;
+            for (long start = 1; start <= end; start += step) {
+                VariationPartition partition = new VariationPartition(chromosome, (int) start,
+                        (int) Math.min(start + step - 1, end));
+                if (resume && Files.exists(PartitionedVariantDataWriter.getOutputFile(output, VARIATION_ANNOTATION_FILE_PREFIX,
+                        getVariationAnnotationFileExtension(), partition))) {
+                    skipped++;
+                } else {
+                    partitions.add(partition);
+                }
             }
-            logger.info("Available chromosomes: {}", chromosomeList.toString());
         }
+        logger.info("Annotating {} partitions of up to {} bases, {} partitions already annotated are skipped",
+                partitions.size(), partitionSize, skipped);
+        return partitions;
+    }
+
+    private String getVariationAnnotationFileExtension() {
+        return outputFormat.equals(FileFormat.AVRO) ? ".avro" : VARIATION_ANNOTATION_FILE_EXTENSION;
     }
 
-    private DataWriter<Variant> getVariantDataWriter(String filename) {
+    private DataWriter<Variant> getVariantDataWriter(String filename, long maxFileSize) {
         DataWriter<Variant> dataWriter = null;
         if (outputFormat.equals(FileFormat.JSON)) {
-            dataWriter = new JsonAnnotationWriter(filename);
+            // Compressed output is written as BGZF on several threads, along with a tabix index if sorted
+            if (filename.endsWith(".gz")) {
+                dataWriter = new BgzfJsonAnnotationWriter(Paths.get(filename), numThreads);
+            } else {
+                dataWriter = new JsonAnnotationWriter(filename);
+            }
         } else if (outputFormat.equals(FileFormat.AVRO)) {
-            ProgressLogger progressLogger = new ProgressLogger("Num written variants:");
-            dataWriter = new VariantAvroDataWriter(Paths.get(filename), true)
-                    .setProgressLogger(progressLogger);
+            // Avro container files compressed by blocks, a new file is started every maxFileSize bytes
+            dataWriter = new RollingVariantAvroDataWriter(Paths.get(filename), avroCodec, maxFileSize);
         } else if (outputFormat.equals(FileFormat.VEP)) {
             dataWriter = new VepFormatWriter(filename);
         }
 
+        // Phase is adjusted in this ordered stage rather than within each annotation batch, so that phased variants
+        // split across two batches are not missed. Batches are written in input order when phased is set
+        if (phased) {
+            if (dbAdaptorFactory == null) {
+                dbAdaptorFactory = new MongoDBAdaptorFactory(configuration);
+            }
+            dataWriter = new PhasedVariantDataWriter(dataWriter, dbAdaptorFactory.getProteinDBAdaptor(species, assembly));
+        }
+
         return dataWriter;
     }
 
@@ -371,6 +482,8 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
 //        Set<String> breakendMates = Collections.synchronizedSet(new HashSet<>());
         for (int i = 0; i < numThreads; i++) {
             List<VariantAnnotator> variantAnnotatorList = createAnnotators();
+            // One adaptor per task, each one prefetches the sequence around the indels of its batch
+            CellBaseNormalizerSequenceAdaptor normalizerSequenceAdaptor = getNormalizerSequenceAdaptor();
             switch (inputFormat) {
                 case VCF:
                     logger.info("Using HTSJDK to read variants.");
@@ -382,7 +495,8 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
                         VCFHeader header = (VCFHeader) codec.readActualHeader(lineIterator);
                         VCFHeaderVersion headerVersion = codec.getVCFHeaderVersion();
                         variantAnnotatorTaskList.add(new VcfStringAnnotatorTask(header, headerVersion,
-                                variantAnnotatorList, sharedContext, normalize, getNormalizerConfig()));
+                                variantAnnotatorList, sharedContext, normalize, getNormalizerConfig(normalizerSequenceAdaptor),
+                                normalizerSequenceAdaptor));
                     } catch (IOException e) {
                         throw new IOException("Unable to read VCFHeader");
                     }
@@ -390,7 +504,7 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
                 case JSON:
                     logger.info("Using a JSON parser to read variants...");
                     variantAnnotatorTaskList.add(new JsonStringAnnotatorTask(variantAnnotatorList, normalize,
-                            getNormalizerConfig()));
+                            getNormalizerConfig(normalizerSequenceAdaptor), normalizerSequenceAdaptor));
                     break;
                 default:
                     break;
@@ -400,6 +514,27 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
     }
 
     private VariantNormalizer.VariantNormalizerConfig getNormalizerConfig() throws IOException {
+        return getNormalizerConfig(getNormalizerSequenceAdaptor());
+    }
+
+    /**
+     * Sequence adaptor for left alignment using the CellBase reference genome, null if there is no left alignment or
+     * it uses the --reference-fasta file instead.
+     */
+    private CellBaseNormalizerSequenceAdaptor getNormalizerSequenceAdaptor() throws IOException {
+        if (!leftAlign || referenceFasta != null) {
+            return null;
+        }
+        // dbAdaptorFactory may have been already initialized while creating CellBase annotators or at execute if
+        // annotating CellBase variation collection
+        if (dbAdaptorFactory == null) {
+            dbAdaptorFactory = new MongoDBAdaptorFactory(configuration);
+        }
+        return new CellBaseNormalizerSequenceAdaptor(dbAdaptorFactory.getGenomeDBAdaptor(species, assembly));
+    }
+
+    private VariantNormalizer.VariantNormalizerConfig getNormalizerConfig(CellBaseNormalizerSequenceAdaptor normalizerSequenceAdaptor)
+            throws IOException {
         VariantNormalizer.VariantNormalizerConfig variantNormalizerConfig = (new VariantNormalizer.VariantNormalizerConfig())
                 .setReuseVariants(true)
                 .setNormalizeAlleles(false)
@@ -411,14 +546,7 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
             if (referenceFasta != null) {
                 return variantNormalizerConfig.enableLeftAlign(referenceFasta.toString());
             } else {
-                // dbAdaptorFactory may have been already initialized while creating CellBase annotators or at execute if
-                // annotating CellBase variation collection
-                if (dbAdaptorFactory == null) {
-                    dbAdaptorFactory = new MongoDBAdaptorFactory(configuration);
-                }
-                return variantNormalizerConfig
-                        .enableLeftAlign(new CellBaseNormalizerSequenceAdaptor(dbAdaptorFactory
-                                .getGenomeDBAdaptor(species, assembly)));
+                return variantNormalizerConfig.enableLeftAlign(normalizerSequenceAdaptor);
             }
         }
         return variantNormalizerConfig;
@@ -441,10 +569,6 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
             dbIndexes.get(i).close();
             dbOptions.get(i).dispose();
         }
-
-        if (populationFrequenciesFile != null) {
-            org.apache.commons.io.FileUtils.deleteDirectory(new File(dbLocations.get(dbLocations.size() - 1)));
-        }
     }
 
     private List<VariantAnnotator> createAnnotators() {
@@ -469,7 +593,7 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
             // Rocks db connection is always the last in the list
             int i = dbIndexes.size() - 1;
             variantAnnotatorList.add(new PopulationFrequenciesAnnotator(populationFrequenciesFile.toString(),
-                    dbIndexes.get(i)));
+                    dbIndexes.get(i), visitedVariants));
 
         }
 
@@ -486,8 +610,11 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
             // Normalization should just be performed in one place: before calling the annotation calculator - within the
             // corresponding *AnnotatorTask since the AnnotatorTasks need that the number of sent variants coincides
             // equals the number of returned annotations
+            // Phase is adjusted after annotation, by the PhasedVariantDataWriter
+            QueryOptions annotatorQueryOptions = new QueryOptions(queryOptions);
+            annotatorQueryOptions.put("phased", false);
             return new CellBaseLocalVariantAnnotator(new VariantAnnotationCalculator(species, assembly,
-                    dbAdaptorFactory), queryOptions);
+                    dbAdaptorFactory), annotatorQueryOptions);
         } else {
             try {
                 ClientConfiguration clientConfiguration = ClientConfiguration.load(getClass()
@@ -512,7 +639,7 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
 
     }
 
-    private void getIndexes() {
+    private void getIndexes() throws IOException {
         dbIndexes = new ArrayList<>();
         dbOptions = new ArrayList<>();
         dbLocations = new ArrayList<>();
@@ -521,14 +648,18 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
         if (customFiles != null) {
             for (int i = 0; i < customFiles.size(); i++) {
                 if (customFiles.get(i).toString().endsWith(".vcf") || customFiles.get(i).toString().endsWith(".vcf.gz")) {
-                    Object[] dbConnection = getDBConnection(customFiles.get(i).toString() + ".idx");
+                    // Values depend on the fields kept and on how variants are normalised, not only on the file
+                    String checksum = RocksDBIndexBuilder.checksum(customFiles.get(i),
+                            String.join(",", customFileFields.get(i)), "decompose=" + decompose, "leftAlign=" + leftAlign);
+                    Object[] dbConnection = getDBConnection(customFiles.get(i).toString() + ".idx", checksum);
                     RocksDB rocksDB = (RocksDB) dbConnection[0];
                     Options dbOption = (Options) dbConnection[1];
                     String dbLocation = (String) dbConnection[2];
                     boolean indexingNeeded = (boolean) dbConnection[3];
                     if (indexingNeeded) {
                         logger.info("Creating index DB at {} ", dbLocation);
-                        indexCustomVcfFile(i, rocksDB);
+                        long numRecords = indexCustomVcfFile(i, rocksDB, dbOption);
+                        RocksDBIndexBuilder.writeIndexInfo(Paths.get(dbLocation), checksum, numRecords);
                     } else {
                         logger.info("Index found at {}", dbLocation);
                         logger.info("Skipping index creation");
@@ -540,17 +671,28 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
             }
         }
 
-        // Index population frequencies file if provided
+        // Index population frequencies file if provided. The index is never modified during annotation, visited
+        // variants are flagged in memory, so an index built from the same file can be reused
         if (populationFrequenciesFile != null) {
-            // We force the creation of a new index even if there was one already - Annotation of frequencies from
-            // these files implies deletions on the RocksDB database. Whatever is already there will probably be wrong
-            Object[] dbConnection = getDBConnection(populationFrequenciesFile + ".idx", true);
+            String checksum = RocksDBIndexBuilder.checksum(populationFrequenciesFile,
+                    "version=" + IndexValueCodec.POPULATION_INDEX_VERSION);
+            Object[] dbConnection = getDBConnection(populationFrequenciesFile + ".idx", checksum);
             RocksDB rocksDB = (RocksDB) dbConnection[0];
             Options dbOption = (Options) dbConnection[1];
             String dbLocation = (String) dbConnection[2];
-
-            logger.info("Creating index DB at {} ", dbLocation);
-            indexPopulationFrequencies(rocksDB);
+            boolean indexingNeeded = (boolean) dbConnection[3];
+            int lineCounter;
+            if (indexingNeeded) {
+                logger.info("Creating index DB at {} ", dbLocation);
+                lineCounter = indexPopulationFrequencies(rocksDB, dbOption);
+                RocksDBIndexBuilder.writeIndexInfo(Paths.get(dbLocation), checksum, lineCounter);
+            } else {
+                logger.info("Index found at {}", dbLocation);
+                logger.info("Skipping index creation");
+                lineCounter = (int) (long) dbConnection[4];
+            }
+            // Variants are flagged as visited by their ordinal in the file, which is stored with each value
+            visitedVariants = new VisitedVariants(lineCounter);
 
             dbIndexes.add(rocksDB);
             dbOptions.add(dbOption);
@@ -558,45 +700,54 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
         }
     }
 
-    private void indexPopulationFrequencies(RocksDB db) {
-        ObjectMapper jsonObjectMapper = new ObjectMapper();
-        jsonObjectMapper.configure(MapperFeature.REQUIRE_SETTERS_FOR_GETTERS, true);
-        ObjectWriter jsonObjectWriter = jsonObjectMapper.writer();
-
-        try {
+    private int indexPopulationFrequencies(RocksDB db, Options options) {
+        IndexValueCodec indexValueCodec = new IndexValueCodec();
+        int lineCounter = 0;
+        try (RocksDBIndexBuilder indexBuilder = new RocksDBIndexBuilder(options,
+                Paths.get(TMP_DIR, populationFrequenciesFile.getFileName() + ".sort." + System.nanoTime()))) {
             DataReader<Variant> dataReader = new JsonVariantReader(populationFrequenciesFile.toString());
             dataReader.open();
             dataReader.pre();
-            int lineCounter = 0;
             List<Variant> variant = dataReader.read();
             while (variant != null) {
-                db.put(VariantAnnotationUtils.buildVariantId(variant.get(0).getChromosome(), variant.get(0).getStart(),
-                        variant.get(0).getReference(), variant.get(0).getAlternate()).getBytes(),
-                        jsonObjectWriter.writeValueAsBytes(variant.get(0).getImpl()));
+                byte[] variantKey = VariantAnnotationUtils.buildVariantId(variant.get(0).getChromosome(),
+                        variant.get(0).getStart(), variant.get(0).getReference(), variant.get(0).getAlternate()).getBytes();
+                indexBuilder.add(variantKey, indexValueCodec.encodePopulationVariant(lineCounter, variant.get(0).getImpl()));
+                indexBuilder.add(IndexValueCodec.encodeOrdinalKey(lineCounter), variantKey);
                 lineCounter++;
                 if (lineCounter % 100000 == 0) {
-                    logger.info("{} lines indexed", lineCounter);
+                    logger.info("{} lines read", lineCounter);
                 }
                 variant = dataReader.read();
             }
             dataReader.post();
             dataReader.close();
+            indexBuilder.ingest(db);
         } catch (IOException | RocksDBException e) {
             e.printStackTrace();
+            System.exit(1);
         }
+        return lineCounter;
     }
 
-    private Object[] getDBConnection(String dbLocation) {
-        return getDBConnection(dbLocation, false);
-    }
-
-    private Object[] getDBConnection(String dbLocation, boolean forceCreate) {
-        boolean indexingNeeded = forceCreate || !Files.exists(Paths.get(dbLocation));
+    private Object[] getDBConnection(String dbLocation, String checksum) {
+        // Indexes are only reused when they were completely built from the same input, otherwise built from scratch
+        long indexedRecords = RocksDBIndexBuilder.getIndexedRecords(Paths.get(dbLocation), checksum);
+        boolean indexingNeeded = indexedRecords < 0;
+        if (indexingNeeded && Files.exists(Paths.get(dbLocation))) {
+            logger.info("Index at {} is out of date or incomplete, it will be created again", dbLocation);
+            try {
+                org.apache.commons.io.FileUtils.deleteDirectory(new File(dbLocation));
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
         // a static method that loads the RocksDB C++ library.
         RocksDB.loadLibrary();
         // the Options class contains a set of configurable DB options
         // that determines the behavior of a database.
-        Options options = new Options().setCreateIfMissing(true);
+        Options options = RocksDBIndexBuilder.optimizeForPointLookup(new Options().setCreateIfMissing(true));
         if (maxOpenFiles > 0) {
             options.setMaxOpenFiles(maxOpenFiles);
         }
@@ -616,16 +767,17 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
             System.exit(1);
         }
 
-        return new Object[]{db, options, dbLocation, indexingNeeded};
+        return new Object[]{db, options, dbLocation, indexingNeeded, indexedRecords};
 
     }
 
-    private void indexCustomVcfFile(int customFileNumber, RocksDB db) {
-        ObjectMapper jsonObjectMapper = new ObjectMapper();
-        ObjectWriter jsonObjectWriter = jsonObjectMapper.writer();
+    private long indexCustomVcfFile(int customFileNumber, RocksDB db, Options options) {
+        IndexValueCodec indexValueCodec = new IndexValueCodec();
         int lineCounter = -1;
+        long numRecords = 0;
         VariantContext variantContext = null;
-        try {
+        try (RocksDBIndexBuilder indexBuilder = new RocksDBIndexBuilder(options,
+                Paths.get(TMP_DIR, customFiles.get(customFileNumber).getFileName() + ".sort." + System.nanoTime()))) {
             VCFFileReader vcfFileReader = new VCFFileReader(customFiles.get(customFileNumber).toFile(), false);
             Iterator<VariantContext> iterator = vcfFileReader.iterator();
             VariantContextToVariantConverter converter = new VariantContextToVariantConverter("", "",
@@ -644,9 +796,9 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
                     // of variants.
                     List<Variant> variantList = normalizer.normalize(converter.apply(Collections.singletonList(variantContext)), true);
                     for (Variant variant : variantList) {
-                        db.put((variant.getChromosome() + "_" + variant.getStart() + "_" + variant.getReference() + "_"
+                        indexBuilder.add((variant.getChromosome() + "_" + variant.getStart() + "_" + variant.getReference() + "_"
                                         + variant.getAlternate()).getBytes(),
-                                jsonObjectWriter.writeValueAsBytes(parseInfoAttributes(variant, customFileNumber)));
+                                indexValueCodec.encodeAttributes(parseInfoAttributes(variant, customFileNumber)));
                     }
                 }
                 lineCounter++;
@@ -655,6 +807,7 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
                 }
             }
             vcfFileReader.close();
+            numRecords = indexBuilder.ingest(db);
         } catch (IOException | RocksDBException | NonStandardCompliantSampleField e) {
             e.printStackTrace();
             System.exit(1);
@@ -667,6 +820,7 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
             }
             throw e;
         }
+        return numRecords;
     }
 
     protected Map<String, String> parseInfoAttributes(Variant variant, int customFileNumber) {
@@ -820,11 +974,19 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
                     outputFormat = FileFormat.VEP;
                     break;
                 default:
-                    throw  new ParameterException("Only JSON and VEP output formats are currently available. Please, select one of them.");
+                    throw  new ParameterException("Only JSON, Avro and VEP output formats are currently available. Please, select"
+                            + " one of them.");
             }
 
         }
 
+        try {
+            avroCodec = CodecFactory.fromString(variantAnnotationCommandOptions.avroCodec.toLowerCase());
+        } catch (AvroRuntimeException e) {
+            throw new ParameterException("Unrecognized Avro codec: " + variantAnnotationCommandOptions.avroCodec);
+        }
+        maxOutputFileSize = variantAnnotationCommandOptions.maxOutputFileSize * 1024L * 1024L;
+
         if (variantAnnotationCommandOptions.include != null && !variantAnnotationCommandOptions.include.isEmpty()) {
             queryOptions.add("include", variantAnnotationCommandOptions.include);
         }
@@ -967,6 +1129,15 @@ public class VariantAnnotationCommandExecutor extends CommandExecutor {
 
         // Annotate variation collection in CellBase
         cellBaseAnnotation = variantAnnotationCommandOptions.cellBaseAnnotation;
+        resume = variantAnnotationCommandOptions.resume;
+        partitionSize = variantAnnotationCommandOptions.partitionSize;
+        if (partitionSize <= 0) {
+            throw new ParameterException("Partition size must be > 0, value provided: " + partitionSize);
+        }
+
+        // Local annotation adjusts phase in an ordered stage after the parallel annotation, remote annotation leaves it
+        // to the server within each batch
+        phased = variantAnnotationCommandOptions.phased && (local || cellBaseAnnotation);
 
         // The list of chromosomes will only be used if annotating the variation collection
         if (cellBaseAnnotation) {
@@ -0,0 +1,165 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * BGZF blocks, as used by bgzip and tabix: gzip members of at most 64KB carrying their compressed size in an extra
+ * field. Each block can be compressed and decompressed independently, which is what allows to spread the work of
+ * reading and writing a single file over several threads.
+ */
+final class Bgzf {
+
+    static final int HEADER_LENGTH = 18;
+    static final int FOOTER_LENGTH = 8;
+    static final int MAX_BLOCK_SIZE = 64 * 1024;
+    // Largest input whose deflated block still fits in MAX_BLOCK_SIZE when stored without compression
+    static final int MAX_UNCOMPRESSED_BLOCK_SIZE = MAX_BLOCK_SIZE - (HEADER_LENGTH + FOOTER_LENGTH) - 12;
+    static final int DEFAULT_COMPRESSION_LEVEL = 5;
+
+    static final byte[] EOF_BLOCK = {
+        0x1f, (byte) 0x8b, 0x08, 0x04, 0x00, 0x00, 0x00, 0x00, 0x00, (byte) 0xff, 0x06, 0x00, 0x42, 0x43, 0x02, 0x00,
+        0x1b, 0x00, 0x03, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00,
+    };
+
+    private Bgzf() {
+    }
+
+    /**
+     * Checks whether a file starts with a BGZF block. Plain gzip files are not BGZF.
+     *
+     * @param file file to check
+     * @return true if the file is BGZF compressed
+     * @throws IOException if the file cannot be read
+     */
+    static boolean isBgzf(Path file) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            if (!readFully(inputStream, header, 0, HEADER_LENGTH)) {
+                return false;
+            }
+        }
+        return isBgzfHeader(header);
+    }
+
+    private static boolean isBgzfHeader(byte[] header) {
+        return header[0] == 0x1f && (header[1] & 0xff) == 0x8b && header[2] == 8 && (header[3] & 4) != 0
+                && header[10] == 6 && header[11] == 0 && header[12] == 'B' && header[13] == 'C';
+    }
+
+    /**
+     * Reads the next compressed block.
+     *
+     * @param inputStream BGZF stream positioned at the start of a block
+     * @return the whole block, header and footer included, or null at the end of the stream
+     * @throws IOException if the stream cannot be read or is not BGZF
+     */
+    static byte[] readBlock(InputStream inputStream) throws IOException {
+        byte[] header = new byte[HEADER_LENGTH];
+        if (!readFully(inputStream, header, 0, HEADER_LENGTH)) {
+            return null;
+        }
+        if (!isBgzfHeader(header)) {
+            throw new IOException("Invalid BGZF block header");
+        }
+        int blockSize = ((header[16] & 0xff) | (header[17] & 0xff) << 8) + 1;
+        byte[] block = new byte[blockSize];
+        System.arraycopy(header, 0, block, 0, HEADER_LENGTH);
+        if (!readFully(inputStream, block, HEADER_LENGTH, blockSize - HEADER_LENGTH)) {
+            throw new EOFException("Truncated BGZF block");
+        }
+        return block;
+    }
+
+    static byte[] inflate(byte[] block) throws IOException {
+        ByteBuffer footer = ByteBuffer.wrap(block, block.length - FOOTER_LENGTH, FOOTER_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        int crc = footer.getInt();
+        byte[] data = new byte[footer.getInt()];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(block, HEADER_LENGTH, block.length - HEADER_LENGTH - FOOTER_LENGTH);
+            int length = 0;
+            while (length < data.length) {
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput())) {
+                    throw new IOException("Corrupt BGZF block, " + length + " bytes inflated of " + data.length);
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt BGZF block", e);
+        } finally {
+            inflater.end();
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, data.length);
+        if ((int) crc32.getValue() != crc) {
+            throw new IOException("CRC mismatch in BGZF block");
+        }
+        return data;
+    }
+
+    /**
+     * Compresses one block. Data that does not shrink enough is stored without compression.
+     *
+     * @param data   data to compress
+     * @param length number of bytes of data to compress, at most {@link #MAX_UNCOMPRESSED_BLOCK_SIZE}
+     * @param level  deflate compression level
+     * @return the whole block, header and footer included
+     */
+    static byte[] deflate(byte[] data, int length, int level) {
+        byte[] compressed = new byte[MAX_BLOCK_SIZE];
+        int compressedLength = deflate(data, length, level, compressed);
+        if (compressedLength < 0) {
+            compressedLength = deflate(data, length, Deflater.NO_COMPRESSION, compressed);
+        }
+        CRC32 crc32 = new CRC32();
+        crc32.update(data, 0, length);
+
+        int blockSize = HEADER_LENGTH + compressedLength + FOOTER_LENGTH;
+        ByteBuffer block = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+        block.put(EOF_BLOCK, 0, 16);
+        block.putShort((short) (blockSize - 1));
+        block.put(compressed, 0, compressedLength);
+        block.putInt((int) crc32.getValue());
+        block.putInt(length);
+        return block.array();
+    }
+
+    private static int deflate(byte[] data, int length, int level, byte[] compressed) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            int maxLength = MAX_BLOCK_SIZE - HEADER_LENGTH - FOOTER_LENGTH;
+            int compressedLength = deflater.deflate(compressed, 0, maxLength);
+            return deflater.finished() ? compressedLength : -1;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static boolean readFully(InputStream inputStream, byte[] buffer, int offset, int length) throws IOException {
+        int read = 0;
+        while (read < length) {
+            int n = inputStream.read(buffer, offset + read, length - read);
+            if (n < 0) {
+                if (read == 0) {
+                    return false;
+                }
+                throw new EOFException("Truncated BGZF block");
+            }
+            read += n;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,179 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import htsjdk.tribble.SimpleFeature;
+import htsjdk.tribble.index.tabix.TabixFormat;
+import htsjdk.tribble.index.tabix.TabixIndexCreator;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.io.DataWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes annotated variants as JSON, one per line, to a BGZF file compressed on a pool of threads. BGZF files are
+ * regular gzip files for any other reader. While variants come sorted by chromosome and start a tabix index is built
+ * alongside, with the BGZF virtual offset of every line, so that the variants of a region can be located without
+ * decompressing the whole file. If variants come unsorted the index is dropped.
+ *
+ * The tabix command line tool cannot parse positions out of JSON lines, regions are read through the offsets instead:
+ * htsjdk's TabixIndex.getBlocks returns the chunks of virtual offsets holding the variants of a region, and a
+ * BlockCompressedInputStream is seeked to the start of each chunk.
+ */
+public class BgzfJsonAnnotationWriter implements DataWriter<Variant> {
+
+    // Columns are only meaningful to tools parsing tab separated lines, lines are located using the virtual offsets
+    private static final TabixFormat JSON_TABIX_FORMAT = new TabixFormat(TabixFormat.GENERIC_FLAGS, 1, 2, 0, '#', 0);
+
+    private final Path path;
+    private final int numThreads;
+    private ParallelBgzfOutputStream outputStream;
+    private ObjectWriter jsonObjectWriter;
+
+    private TabixIndexCreator indexCreator;
+    private final Deque<IndexedLine> pendingLines;
+    private final Set<String> indexedChromosomes;
+    private String lastChromosome;
+    private int lastStart;
+
+    private static Logger logger = LoggerFactory.getLogger(BgzfJsonAnnotationWriter.class);
+
+    public BgzfJsonAnnotationWriter(Path path, int numThreads) {
+        this.path = path;
+        this.numThreads = numThreads;
+        this.pendingLines = new ArrayDeque<>();
+        this.indexedChromosomes = new HashSet<>();
+    }
+
+    public static Path getIndexPath(Path path) {
+        return Paths.get(path.toString() + ".tbi");
+    }
+
+    @Override
+    public boolean open() {
+        try {
+            outputStream = new ParallelBgzfOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 20),
+                    numThreads);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean pre() {
+        ObjectMapper jsonObjectMapper = new ObjectMapper();
+        jsonObjectMapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        jsonObjectMapper.configure(MapperFeature.REQUIRE_SETTERS_FOR_GETTERS, true);
+        jsonObjectWriter = jsonObjectMapper.writer();
+        indexCreator = new TabixIndexCreator(JSON_TABIX_FORMAT);
+        return true;
+    }
+
+    @Override
+    public boolean write(Variant variant) {
+        return write(Collections.singletonList(variant));
+    }
+
+    @Override
+    public boolean write(List<Variant> batch) {
+        try {
+            for (Variant variant : batch) {
+                long position = outputStream.getPosition();
+                outputStream.write(jsonObjectWriter.writeValueAsBytes(variant.getImpl()));
+                outputStream.write('\n');
+                if (indexCreator != null) {
+                    addToIndex(variant, position);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        indexWrittenLines();
+        return true;
+    }
+
+    private void addToIndex(Variant variant, long position) {
+        String chromosome = variant.getChromosome();
+        int start = variant.getStart();
+        if (chromosome.equals(lastChromosome) ? start < lastStart : !indexedChromosomes.add(chromosome)) {
+            logger.warn("Variants written to {} are not sorted, {}:{} found after {}:{}. No index will be created",
+                    path, chromosome, start, lastChromosome, lastStart);
+            indexCreator = null;
+            pendingLines.clear();
+            return;
+        }
+        lastChromosome = chromosome;
+        lastStart = start;
+        // Insertions end before they start
+        pendingLines.add(new IndexedLine(chromosome, start, Math.max(start, variant.getEnd()), position));
+    }
+
+    /**
+     * Adds to the index the lines whose block has already been written, virtual offsets are not known before.
+     */
+    private void indexWrittenLines() {
+        while (indexCreator != null && !pendingLines.isEmpty()) {
+            IndexedLine line = pendingLines.peek();
+            long virtualOffset = outputStream.getVirtualOffset(line.position);
+            if (virtualOffset < 0) {
+                break;
+            }
+            indexCreator.addFeature(new SimpleFeature(line.chromosome, line.start, line.end), virtualOffset);
+            pendingLines.poll();
+        }
+    }
+
+    @Override
+    public boolean post() {
+        try {
+            outputStream.close();
+            indexWrittenLines();
+            if (indexCreator != null) {
+                long endOfData = (outputStream.getAddress() - Bgzf.EOF_BLOCK.length) << 16;
+                indexCreator.finalizeIndex(endOfData).write(getIndexPath(path).toFile());
+            } else {
+                // An index left by a previous run would not match the new file
+                Files.deleteIfExists(getIndexPath(path));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        return true;
+    }
+
+    private static class IndexedLine {
+
+        private final String chromosome;
+        private final int start;
+        private final int end;
+        private final long position;
+
+        IndexedLine(String chromosome, int start, int end, long position) {
+            this.chromosome = chromosome;
+            this.start = start;
+            this.end = end;
+            this.position = position;
+        }
+    }
+}
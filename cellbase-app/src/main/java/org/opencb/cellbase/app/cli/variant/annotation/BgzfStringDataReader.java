@@ -0,0 +1,202 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import org.opencb.commons.io.DataReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Line reader for BGZF compressed files, e.g. VCF files compressed with bgzip. A reader thread splits the file on
+ * BGZF block boundaries and blocks are decompressed on a pool of threads. Lines are returned in file order, lines
+ * spanning two blocks are joined.
+ */
+public class BgzfStringDataReader implements DataReader<String> {
+
+    private static final int PENDING_BLOCKS_PER_THREAD = 8;
+    // Put in the queue by the block reader once the end of the file is reached
+    private static final Future<byte[]> END_OF_FILE = CompletableFuture.completedFuture(new byte[0]);
+
+    private final Path path;
+    private final int numThreads;
+    private BlockingQueue<Future<byte[]>> blocks;
+    private ExecutorService inflaterService;
+    private Thread blockReader;
+    private volatile IOException blockReaderException;
+
+    private byte[] block;
+    private int blockOffset;
+    private final ByteArrayOutputStream partialLine;
+    private boolean finished;
+    private int nReadLines;
+
+    private static Logger logger = LoggerFactory.getLogger(BgzfStringDataReader.class);
+
+    public BgzfStringDataReader(Path path, int numThreads) {
+        this.path = path;
+        this.numThreads = Math.max(1, numThreads);
+        this.partialLine = new ByteArrayOutputStream(1024);
+    }
+
+    public static boolean isBgzf(Path path) throws IOException {
+        return Bgzf.isBgzf(path);
+    }
+
+    @Override
+    public boolean open() {
+        return Files.exists(path);
+    }
+
+    @Override
+    public boolean pre() {
+        blocks = new ArrayBlockingQueue<>(numThreads * PENDING_BLOCKS_PER_THREAD);
+        inflaterService = Executors.newFixedThreadPool(numThreads, runnable -> {
+            Thread thread = new Thread(runnable, "bgzf-inflater");
+            thread.setDaemon(true);
+            return thread;
+        });
+        blockReader = new Thread(this::readBlocks, "bgzf-block-reader");
+        blockReader.setDaemon(true);
+        blockReader.start();
+        return true;
+    }
+
+    private void readBlocks() {
+        try (InputStream inputStream = new BufferedInputStream(Files.newInputStream(path), 1 << 20)) {
+            byte[] compressedBlock;
+            while ((compressedBlock = Bgzf.readBlock(inputStream)) != null) {
+                byte[] data = compressedBlock;
+                // Futures are queued in file order, the queue bound keeps the reader a few blocks ahead at most
+                blocks.put(inflaterService.submit(() -> Bgzf.inflate(data)));
+            }
+        } catch (IOException e) {
+            blockReaderException = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        try {
+            blocks.put(END_OF_FILE);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public List<String> read() {
+        return read(1);
+    }
+
+    @Override
+    public List<String> read(int batchSize) {
+        List<String> lines = new ArrayList<>(batchSize);
+        try {
+            String line;
+            while (lines.size() < batchSize && (line = readLine()) != null) {
+                lines.add(line);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        nReadLines += lines.size();
+        if (!lines.isEmpty() && nReadLines % 100000 < lines.size()) {
+            logger.debug("{} lines read", nReadLines);
+        }
+        return lines;
+    }
+
+    private String readLine() throws IOException {
+        while (true) {
+            if (block == null || blockOffset == block.length) {
+                if (!nextBlock()) {
+                    // Last line of the file may have no line break
+                    if (partialLine.size() > 0) {
+                        String line = toLine(partialLine.toByteArray(), 0, partialLine.size());
+                        partialLine.reset();
+                        return line;
+                    }
+                    return null;
+                }
+                continue;
+            }
+            int end = blockOffset;
+            while (end < block.length && block[end] != '\n') {
+                end++;
+            }
+            if (end == block.length) {
+                // Line continues in the next block
+                partialLine.write(block, blockOffset, end - blockOffset);
+                blockOffset = end;
+                continue;
+            }
+            String line;
+            if (partialLine.size() > 0) {
+                partialLine.write(block, blockOffset, end - blockOffset);
+                line = toLine(partialLine.toByteArray(), 0, partialLine.size());
+                partialLine.reset();
+            } else {
+                line = toLine(block, blockOffset, end - blockOffset);
+            }
+            blockOffset = end + 1;
+            return line;
+        }
+    }
+
+    private static String toLine(byte[] bytes, int offset, int length) {
+        if (length > 0 && bytes[offset + length - 1] == '\r') {
+            length--;
+        }
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+
+    private boolean nextBlock() throws IOException {
+        if (finished) {
+            return false;
+        }
+        Future<byte[]> future;
+        try {
+            future = blocks.take();
+            if (future == END_OF_FILE) {
+                finished = true;
+                if (blockReaderException != null) {
+                    throw blockReaderException;
+                }
+                return false;
+            }
+            block = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading " + path, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error decompressing " + path, e.getCause());
+        }
+        blockOffset = 0;
+        return true;
+    }
+
+    @Override
+    public boolean post() {
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        if (blockReader != null) {
+            blockReader.interrupt();
+        }
+        if (inflaterService != null) {
+            inflaterService.shutdownNow();
+        }
+        return true;
+    }
+}
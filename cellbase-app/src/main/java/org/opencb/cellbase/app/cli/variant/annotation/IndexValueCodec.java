@@ -0,0 +1,146 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.io.BinaryDecoder;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.DecoderFactory;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Binary values of the RocksDB indexes used for custom annotation. Population frequency variants are stored as Avro
+ * binary preceded by the ordinal of the variant in the indexed file, which identifies it in {@link VisitedVariants}.
+ * Each population frequency variant also gets an ordinal key pointing to its variant key, so that variants not visited
+ * can be looked up by ordinal. Custom VCF attributes are stored as length prefixed UTF-8 strings. Both values start
+ * with a format byte so custom indexes created by previous versions, with JSON values, can still be read. Variants
+ * that cannot be written as Avro, e.g. because a required field is missing in the input file, fall back to JSON.
+ *
+ * Instances keep reusable Avro encoders and decoders and must not be shared between threads.
+ */
+public class IndexValueCodec {
+
+    private static final byte BINARY_FORMAT = 1;
+    private static final byte JSON_FORMAT = 2;
+    private static final byte JSON_OBJECT_START = '{';
+    private static final int POPULATION_HEADER_SIZE = 5;
+    // Ordinal keys map the ordinal of each population frequency variant to its variant key. They start with a byte no
+    // variant key starts with
+    private static final byte ORDINAL_KEY_PREFIX = 0;
+
+    /**
+     * Version of the population frequencies index layout, changes whenever the keys or values stored change.
+     */
+    public static final int POPULATION_INDEX_VERSION = 2;
+
+    private final SpecificDatumWriter<VariantAvro> variantWriter;
+    private final SpecificDatumReader<VariantAvro> variantReader;
+    private final ByteArrayOutputStream outputStream;
+    private BinaryEncoder encoder;
+    private BinaryDecoder decoder;
+    private ObjectMapper jsonObjectMapper;
+
+    public IndexValueCodec() {
+        variantWriter = new SpecificDatumWriter<>(VariantAvro.class);
+        variantReader = new SpecificDatumReader<>(VariantAvro.class);
+        outputStream = new ByteArrayOutputStream(4096);
+    }
+
+    public byte[] encodePopulationVariant(int ordinal, VariantAvro variantAvro) throws IOException {
+        byte[] header = ByteBuffer.allocate(POPULATION_HEADER_SIZE).put(BINARY_FORMAT).putInt(ordinal).array();
+        outputStream.reset();
+        outputStream.write(header);
+        try {
+            encoder = EncoderFactory.get().binaryEncoder(outputStream, encoder);
+            variantWriter.write(variantAvro, encoder);
+            encoder.flush();
+        } catch (NullPointerException | AvroRuntimeException e) {
+            header[0] = JSON_FORMAT;
+            outputStream.reset();
+            outputStream.write(header);
+            outputStream.write(getJsonObjectMapper().writeValueAsBytes(variantAvro));
+            // The encoder may have been left with buffered bytes of the failed variant
+            encoder = null;
+        }
+        return outputStream.toByteArray();
+    }
+
+    public static byte[] encodeOrdinalKey(int ordinal) {
+        return ByteBuffer.allocate(POPULATION_HEADER_SIZE).put(ORDINAL_KEY_PREFIX).putInt(ordinal).array();
+    }
+
+    public int decodeOrdinal(byte[] value) {
+        return ByteBuffer.wrap(value, 1, 4).getInt();
+    }
+
+    public VariantAvro decodePopulationVariant(byte[] value) throws IOException {
+        if (value[0] == JSON_FORMAT) {
+            return getJsonObjectMapper().readValue(value, POPULATION_HEADER_SIZE, value.length - POPULATION_HEADER_SIZE,
+                    VariantAvro.class);
+        }
+        decoder = DecoderFactory.get().binaryDecoder(value, POPULATION_HEADER_SIZE, value.length - POPULATION_HEADER_SIZE, decoder);
+        return variantReader.read(null, decoder);
+    }
+
+    public byte[] encodeAttributes(Map<String, String> attributes) {
+        int size = 5;
+        byte[][] keys = new byte[attributes.size()][];
+        byte[][] values = new byte[attributes.size()][];
+        int i = 0;
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            keys[i] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            values[i] = (entry.getValue() != null) ? entry.getValue().getBytes(StandardCharsets.UTF_8) : new byte[0];
+            size += 8 + keys[i].length + values[i].length;
+            i++;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(BINARY_FORMAT);
+        buffer.putInt(keys.length);
+        for (i = 0; i < keys.length; i++) {
+            buffer.putInt(keys[i].length).put(keys[i]);
+            buffer.putInt(values[i].length).put(values[i]);
+        }
+        return buffer.array();
+    }
+
+    public Map<String, String> decodeAttributes(byte[] value) throws IOException {
+        if (value.length > 0 && value[0] == JSON_OBJECT_START) {
+            return getJsonObjectMapper().readValue(value, Map.class);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(value, 1, value.length - 1);
+        int size = buffer.getInt();
+        Map<String, String> attributes = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            String key = readString(buffer);
+            attributes.put(key, readString(buffer));
+        }
+        return attributes;
+    }
+
+    private ObjectMapper getJsonObjectMapper() {
+        if (jsonObjectMapper == null) {
+            jsonObjectMapper = new ObjectMapper();
+            jsonObjectMapper.configure(MapperFeature.REQUIRE_SETTERS_FOR_GETTERS, true);
+        }
+        return jsonObjectMapper;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return string;
+    }
+}
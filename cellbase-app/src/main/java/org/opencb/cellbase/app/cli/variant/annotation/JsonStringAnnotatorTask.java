@@ -23,6 +23,7 @@ import org.mortbay.util.ajax.JSON;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.tools.variant.VariantNormalizer;
 import org.opencb.biodata.models.variant.avro.VariantAvro;
+import org.opencb.cellbase.core.variant.annotation.CellBaseNormalizerSequenceAdaptor;
 import org.opencb.cellbase.core.variant.annotation.VariantAnnotator;
 import org.opencb.commons.run.ParallelTaskRunner;
 import org.slf4j.Logger;
@@ -42,6 +43,7 @@ public class JsonStringAnnotatorTask implements ParallelTaskRunner.TaskWithExcep
     private boolean normalize;
     private static ObjectMapper jsonObjectMapper;
     private VariantNormalizer normalizer;
+    private CellBaseNormalizerSequenceAdaptor normalizerSequenceAdaptor;
 
     static {
         jsonObjectMapper = new ObjectMapper();
@@ -57,10 +59,26 @@ public class JsonStringAnnotatorTask implements ParallelTaskRunner.TaskWithExcep
 
     public JsonStringAnnotatorTask(List<VariantAnnotator> variantAnnotatorList, boolean normalize,
                                    VariantNormalizer.VariantNormalizerConfig variantNormalizerConfig) {
+        this(variantAnnotatorList, normalize, variantNormalizerConfig, null);
+    }
+
+    /**
+     * Sequence around the indels of each batch is prefetched through normalizerSequenceAdaptor, if not null. It must
+     * be the sequence adaptor used for left alignment by variantNormalizerConfig.
+     *
+     * @param variantAnnotatorList      annotators run on each batch
+     * @param normalize                 whether variants are normalized before being annotated
+     * @param variantNormalizerConfig   normalizer configuration
+     * @param normalizerSequenceAdaptor sequence adaptor used for left alignment, may be null
+     */
+    public JsonStringAnnotatorTask(List<VariantAnnotator> variantAnnotatorList, boolean normalize,
+                                   VariantNormalizer.VariantNormalizerConfig variantNormalizerConfig,
+                                   CellBaseNormalizerSequenceAdaptor normalizerSequenceAdaptor) {
         this.variantAnnotatorList = variantAnnotatorList;
         this.normalize = normalize;
         //normalizer = new VariantNormalizer(true, false, decompose);
         normalizer = new VariantNormalizer(variantNormalizerConfig);
+        this.normalizerSequenceAdaptor = normalizerSequenceAdaptor;
     }
 
     public void pre() {
@@ -73,6 +91,9 @@ public class JsonStringAnnotatorTask implements ParallelTaskRunner.TaskWithExcep
         List<Variant> variantList = parseVariantList(batch);
         List<Variant> normalizedVariantList;
         if (normalize) {
+            if (normalizerSequenceAdaptor != null) {
+                normalizerSequenceAdaptor.prefetch(variantList);
+            }
             normalizedVariantList = new ArrayList<>(variantList.size());
             for (Variant variant : variantList) {
                 try {
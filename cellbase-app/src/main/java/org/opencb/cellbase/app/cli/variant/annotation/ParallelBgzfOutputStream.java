@@ -0,0 +1,177 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.*;
+
+/**
+ * BGZF output stream compressing blocks on a pool of threads. Blocks are written in order as soon as they are ready,
+ * and at most a few blocks per thread are kept in memory waiting for compression.
+ *
+ * Positions in the uncompressed data are returned by {@link #getPosition()} as block number and offset. Once the block
+ * has been written {@link #getVirtualOffset(long)} turns them into BGZF virtual offsets, as used by tabix indexes.
+ * Not thread safe: data must be written from a single thread.
+ */
+public class ParallelBgzfOutputStream extends OutputStream {
+
+    private static final int PENDING_BLOCKS_PER_THREAD = 4;
+
+    private final OutputStream outputStream;
+    private final int compressionLevel;
+    private final ExecutorService executorService;
+    private final int maxPendingBlocks;
+    private final Deque<Future<byte[]>> pendingBlocks;
+
+    private byte[] buffer;
+    private int bufferLength;
+    private int numBlocks;
+    // Compressed address of every block written, grows as blocks are written
+    private long[] blockAddresses;
+    private int numWrittenBlocks;
+    private long address;
+    private boolean closed;
+
+    public ParallelBgzfOutputStream(OutputStream outputStream, int numThreads) {
+        this(outputStream, numThreads, Bgzf.DEFAULT_COMPRESSION_LEVEL);
+    }
+
+    public ParallelBgzfOutputStream(OutputStream outputStream, int numThreads, int compressionLevel) {
+        this.outputStream = outputStream;
+        this.compressionLevel = compressionLevel;
+        this.executorService = Executors.newFixedThreadPool(Math.max(1, numThreads), runnable -> {
+            Thread thread = new Thread(runnable, "bgzf-deflater");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxPendingBlocks = Math.max(1, numThreads) * PENDING_BLOCKS_PER_THREAD;
+        this.pendingBlocks = new ArrayDeque<>();
+        this.buffer = new byte[Bgzf.MAX_UNCOMPRESSED_BLOCK_SIZE];
+        this.blockAddresses = new long[1024];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer[bufferLength++] = (byte) b;
+        if (bufferLength == buffer.length) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int n = Math.min(length, buffer.length - bufferLength);
+            System.arraycopy(bytes, offset, buffer, bufferLength, n);
+            bufferLength += n;
+            offset += n;
+            length -= n;
+            // Full blocks are submitted right away, so the position is always within an open block
+            if (bufferLength == buffer.length) {
+                submitBlock();
+            }
+        }
+    }
+
+    /**
+     * @return current position in the uncompressed data, as block number in the upper 48 bits and offset within the
+     * block in the lower 16 bits
+     */
+    public long getPosition() {
+        return ((long) numBlocks << 16) | bufferLength;
+    }
+
+    /**
+     * @param position position returned by {@link #getPosition()}
+     * @return BGZF virtual offset, or -1 if the block of the position has not been written yet
+     */
+    public long getVirtualOffset(long position) {
+        int block = (int) (position >>> 16);
+        if (block >= numWrittenBlocks) {
+            return -1;
+        }
+        return (blockAddresses[block] << 16) | (position & 0xffff);
+    }
+
+    /**
+     * @return compressed size written so far
+     */
+    public long getAddress() {
+        return address;
+    }
+
+    /**
+     * Submits the current block even if not full. Blocks compressed so far are written, the rest are left compressing.
+     *
+     * @throws IOException if a block cannot be written
+     */
+    @Override
+    public void flush() throws IOException {
+        if (bufferLength > 0) {
+            submitBlock();
+        }
+        writeCompletedBlocks(false);
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (bufferLength > 0) {
+                submitBlock();
+            }
+            writeCompletedBlocks(true);
+            outputStream.write(Bgzf.EOF_BLOCK);
+            address += Bgzf.EOF_BLOCK.length;
+            outputStream.close();
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        byte[] data = buffer;
+        int length = bufferLength;
+        pendingBlocks.add(executorService.submit(() -> Bgzf.deflate(data, length, compressionLevel)));
+        numBlocks++;
+        buffer = new byte[Bgzf.MAX_UNCOMPRESSED_BLOCK_SIZE];
+        bufferLength = 0;
+
+        writeCompletedBlocks(false);
+        // Waits for the oldest block if too many are pending, so memory does not grow when writing faster than
+        // blocks can be compressed
+        while (pendingBlocks.size() > maxPendingBlocks) {
+            writeBlock(pendingBlocks.poll());
+        }
+    }
+
+    private void writeCompletedBlocks(boolean all) throws IOException {
+        while (!pendingBlocks.isEmpty() && (all || pendingBlocks.peek().isDone())) {
+            writeBlock(pendingBlocks.poll());
+        }
+    }
+
+    private void writeBlock(Future<byte[]> future) throws IOException {
+        byte[] block;
+        try {
+            block = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing BGZF block", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Error compressing BGZF block", e.getCause());
+        }
+        if (numWrittenBlocks == blockAddresses.length) {
+            blockAddresses = Arrays.copyOf(blockAddresses, blockAddresses.length * 2);
+        }
+        blockAddresses[numWrittenBlocks++] = address;
+        outputStream.write(block);
+        address += block.length;
+    }
+}
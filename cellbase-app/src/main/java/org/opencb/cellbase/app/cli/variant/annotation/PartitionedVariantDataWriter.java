@@ -0,0 +1,177 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.io.DataWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * Writes the annotation of the variation collection to one file per partition. Each file is written with a partial
+ * name and renamed once every variant read from its partition has been written, so the files present after an
+ * interrupted run are complete and their partitions can be skipped when resuming.
+ */
+public class PartitionedVariantDataWriter implements DataWriter<Variant> {
+
+    private static final String PARTIAL_SUFFIX = ".partial";
+
+    private final List<VariationPartition> partitions;
+    private final Map<String, List<VariationPartition>> partitionsByChromosome;
+    private final Path outdir;
+    private final String prefix;
+    private final String extension;
+    private final Function<String, DataWriter<Variant>> writerFactory;
+    private final Map<VariationPartition, DataWriter<Variant>> writers;
+    private final Set<VariationPartition> completedPartitions;
+
+    private static Logger logger = LoggerFactory.getLogger(PartitionedVariantDataWriter.class);
+
+    /**
+     * @param partitions    partitions being read, files are only written for these
+     * @param outdir        output directory
+     * @param prefix        prefix of the output file names, followed by the partition name
+     * @param extension     extension of the output file names, e.g. .json.gz
+     * @param writerFactory creates the writer for one output file given its name
+     */
+    public PartitionedVariantDataWriter(List<VariationPartition> partitions, Path outdir, String prefix, String extension,
+                                        Function<String, DataWriter<Variant>> writerFactory) {
+        this.partitions = partitions;
+        this.outdir = outdir;
+        this.prefix = prefix;
+        this.extension = extension;
+        this.writerFactory = writerFactory;
+        this.writers = new HashMap<>();
+        this.completedPartitions = new HashSet<>();
+
+        partitionsByChromosome = new HashMap<>();
+        for (VariationPartition partition : partitions) {
+            partitionsByChromosome.computeIfAbsent(partition.getChromosome(), key -> new ArrayList<>()).add(partition);
+        }
+        for (List<VariationPartition> chromosomePartitions : partitionsByChromosome.values()) {
+            chromosomePartitions.sort(Comparator.comparingInt(VariationPartition::getStart));
+        }
+    }
+
+    public static Path getOutputFile(Path outdir, String prefix, String extension, VariationPartition partition) {
+        return outdir.resolve(prefix + partition.getName() + extension);
+    }
+
+    @Override
+    public boolean open() {
+        return true;
+    }
+
+    @Override
+    public boolean pre() {
+        return true;
+    }
+
+    @Override
+    public boolean write(Variant variant) {
+        return write(Collections.singletonList(variant));
+    }
+
+    @Override
+    public boolean write(List<Variant> batch) {
+        Map<VariationPartition, List<Variant>> batchByPartition = new LinkedHashMap<>();
+        for (Variant variant : batch) {
+            batchByPartition.computeIfAbsent(getPartition(variant), key -> new ArrayList<>()).add(variant);
+        }
+        for (Map.Entry<VariationPartition, List<Variant>> entry : batchByPartition.entrySet()) {
+            DataWriter<Variant> dataWriter = writers.computeIfAbsent(entry.getKey(), this::createWriter);
+            dataWriter.write(entry.getValue());
+            entry.getKey().addWritten(entry.getValue().size());
+        }
+        completePartitions();
+        return true;
+    }
+
+    @Override
+    public boolean post() {
+        completePartitions();
+        // Anything left was interrupted, files are closed but keep the partial name
+        for (Map.Entry<VariationPartition, DataWriter<Variant>> entry : writers.entrySet()) {
+            logger.warn("Partition {} was not completely annotated, {} of {} variants written", entry.getKey(),
+                    entry.getKey().getNumWritten(), entry.getKey().getNumRead());
+            entry.getValue().post();
+            entry.getValue().close();
+        }
+        writers.clear();
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        return true;
+    }
+
+    private VariationPartition getPartition(Variant variant) {
+        List<VariationPartition> chromosomePartitions = partitionsByChromosome.get(variant.getChromosome());
+        if (chromosomePartitions != null) {
+            int low = 0;
+            int high = chromosomePartitions.size() - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                VariationPartition partition = chromosomePartitions.get(middle);
+                if (variant.getStart() < partition.getStart()) {
+                    high = middle - 1;
+                } else if (variant.getStart() > partition.getEnd()) {
+                    low = middle + 1;
+                } else {
+                    return partition;
+                }
+            }
+        }
+        throw new IllegalStateException("Variant " + variant + " does not belong to any partition");
+    }
+
+    private DataWriter<Variant> createWriter(VariationPartition partition) {
+        DataWriter<Variant> dataWriter = writerFactory.apply(getPartialFile(partition).toString());
+        dataWriter.open();
+        dataWriter.pre();
+        return dataWriter;
+    }
+
+    /**
+     * Closes and renames the files of the partitions completely read and written. Partitions without variants get an
+     * empty file, so they are not read again when resuming.
+     */
+    private void completePartitions() {
+        for (VariationPartition partition : partitions) {
+            if (!completedPartitions.contains(partition) && partition.isReadComplete()
+                    && partition.getNumWritten() == partition.getNumRead()) {
+                DataWriter<Variant> dataWriter = writers.remove(partition);
+                if (dataWriter == null) {
+                    dataWriter = createWriter(partition);
+                }
+                dataWriter.post();
+                dataWriter.close();
+                try {
+                    Path outputFile = getOutputFile(outdir, prefix, extension, partition);
+                    // Index files, if any, are renamed first so that a complete file never lacks its index
+                    Path partialIndex = BgzfJsonAnnotationWriter.getIndexPath(getPartialFile(partition));
+                    if (Files.exists(partialIndex)) {
+                        Files.move(partialIndex, BgzfJsonAnnotationWriter.getIndexPath(outputFile),
+                                StandardCopyOption.REPLACE_EXISTING);
+                    }
+                    Files.move(getPartialFile(partition), outputFile, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                completedPartitions.add(partition);
+                logger.info("Partition {} annotated, {} variants written", partition, partition.getNumWritten());
+            }
+        }
+    }
+
+    private Path getPartialFile(VariationPartition partition) {
+        return outdir.resolve(prefix + partition.getName() + PARTIAL_SUFFIX + extension);
+    }
+}
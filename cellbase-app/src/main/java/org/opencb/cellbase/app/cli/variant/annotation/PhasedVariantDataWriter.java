@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.cellbase.core.api.ProteinDBAdaptor;
+import org.opencb.cellbase.core.variant.annotation.PhasedConsequenceTypeAdjuster;
+import org.opencb.commons.io.DataWriter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered pipeline stage that adjusts the consequence types of phased variants before writing them. Batches must
+ * be received in input order, annotation itself can still run in parallel. The phase window is carried from one
+ * batch to the next, the last variants of a batch are held back until the next batch shows whether they share a
+ * codon with any of its variants.
+ */
+public class PhasedVariantDataWriter implements DataWriter<Variant> {
+
+    private final DataWriter<Variant> dataWriter;
+    private final PhasedConsequenceTypeAdjuster phasedConsequenceTypeAdjuster;
+    private List<Variant> pendingVariants;
+
+    public PhasedVariantDataWriter(DataWriter<Variant> dataWriter, ProteinDBAdaptor proteinDBAdaptor) {
+        this.dataWriter = dataWriter;
+        this.phasedConsequenceTypeAdjuster = new PhasedConsequenceTypeAdjuster(proteinDBAdaptor);
+        this.pendingVariants = new ArrayList<>();
+    }
+
+    @Override
+    public boolean open() {
+        return dataWriter.open();
+    }
+
+    @Override
+    public boolean close() {
+        return dataWriter.close();
+    }
+
+    @Override
+    public boolean pre() {
+        return dataWriter.pre();
+    }
+
+    @Override
+    public boolean post() {
+        phasedConsequenceTypeAdjuster.flush();
+        if (!pendingVariants.isEmpty()) {
+            dataWriter.write(pendingVariants);
+            pendingVariants = new ArrayList<>();
+        }
+        return dataWriter.post();
+    }
+
+    @Override
+    public boolean write(Variant variant) {
+        return write(Collections.singletonList(variant));
+    }
+
+    @Override
+    public boolean write(List<Variant> batch) {
+        for (Variant variant : batch) {
+            pendingVariants.add(variant);
+            phasedConsequenceTypeAdjuster.add(variant);
+        }
+
+        // Variants before the first one in the phase window will not be modified anymore
+        int releaseIndex = pendingVariants.size();
+        Variant firstPendingVariant = phasedConsequenceTypeAdjuster.getFirstPendingVariant();
+        if (firstPendingVariant != null) {
+            for (int i = pendingVariants.size() - 1; i >= 0; i--) {
+                if (pendingVariants.get(i) == firstPendingVariant) {
+                    releaseIndex = i;
+                    break;
+                }
+            }
+        }
+        if (releaseIndex == 0) {
+            return true;
+        }
+
+        List<Variant> variants = pendingVariants.subList(0, releaseIndex);
+        boolean written = dataWriter.write(new ArrayList<>(variants));
+        variants.clear();
+        return written;
+    }
+}
@@ -1,9 +1,5 @@
 package org.opencb.cellbase.app.cli.variant.annotation;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.MapperFeature;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectWriter;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.PopulationFrequency;
 import org.opencb.biodata.models.variant.avro.VariantAnnotation;
@@ -16,8 +12,9 @@ import org.rocksdb.RocksDBException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Created by fjlopez on 18/07/16.
@@ -28,18 +25,14 @@ public class PopulationFrequenciesAnnotator implements VariantAnnotator {
     private RocksDB dbIndex;
     private RandomAccessFile reader;
     private List<VariantAnnotation> variantAnnotationList;
+    private VisitedVariants visitedVariants;
+    private IndexValueCodec indexValueCodec;
 
-    private static ObjectMapper mapper = new ObjectMapper();
-    private static ObjectWriter jsonObjectWriter;
-
-    static {
-        mapper.configure(MapperFeature.REQUIRE_SETTERS_FOR_GETTERS, true);
-        jsonObjectWriter = mapper.writer();
-    }
-
-    public PopulationFrequenciesAnnotator(String fileName, RocksDB dbIndex) {
+    public PopulationFrequenciesAnnotator(String fileName, RocksDB dbIndex, VisitedVariants visitedVariants) {
         this.fileName = fileName;
         this.dbIndex = dbIndex;
+        this.visitedVariants = visitedVariants;
+        this.indexValueCodec = new IndexValueCodec();
     }
 
     public boolean open() {
@@ -58,8 +51,9 @@ public class PopulationFrequenciesAnnotator implements VariantAnnotator {
      *                    SAME order: variantAnnotation at position i must correspond to variant i
      */
     public void run(List<Variant> variantList) {
+        List<List<PopulationFrequency>> populationFrequenciesList = getPopulationFrequencies(variantList);
         for (int i = 0; i < variantList.size(); i++) {
-            List<PopulationFrequency> populationFrequencies = getPopulationFrequencies(variantList.get(i));
+            List<PopulationFrequency> populationFrequencies = populationFrequenciesList.get(i);
             // Update only if there are annotations for this variant. customAnnotation may be empty if the variant
             // exists in the vcf but the info field does not contain any of the required attributes
             if (populationFrequencies != null && populationFrequencies.size() > 0) {
@@ -73,37 +67,35 @@ public class PopulationFrequenciesAnnotator implements VariantAnnotator {
         }
     }
 
-    private List<PopulationFrequency> getPopulationFrequencies(Variant variant) {
-        try {
-            byte[] variantKey = VariantAnnotationUtils.buildVariantId(variant.getChromosome(),
-                    variant.getStart(), variant.getReference(), variant.getAlternate()).getBytes();
-            byte[] dbContent = dbIndex.get(variantKey);
-            if (dbContent == null) {
-                return null;
-            } else {
-//                dbIndex.remove(variantKey);
-                VariantAvro variantAvro = mapper.readValue(dbContent, VariantAvro.class);
-                flagVisitedVariant(variantKey, variantAvro);
-
-                return variantAvro.getAnnotation().getPopulationFrequencies();
-            }
-        } catch (RocksDBException | IOException e) {
-            e.printStackTrace();
-            return null;
+    private List<List<PopulationFrequency>> getPopulationFrequencies(List<Variant> variantList) {
+        List<List<PopulationFrequency>> populationFrequenciesList = new ArrayList<>(variantList.size());
+        List<byte[]> variantKeys = new ArrayList<>(variantList.size());
+        for (Variant variant : variantList) {
+            variantKeys.add(VariantAnnotationUtils.buildVariantId(variant.getChromosome(), variant.getStart(),
+                    variant.getReference(), variant.getAlternate()).getBytes());
         }
-    }
 
-    private void flagVisitedVariant(byte[] key, VariantAvro variantAvro) {
-        // The annotation.additionalAttributes field is initialized with an empty map to flag this variant as
-        // already visited
-        variantAvro.getAnnotation().setAdditionalAttributes(Collections.emptyMap());
         try {
-            dbIndex.put(key, jsonObjectWriter.writeValueAsBytes(variantAvro));
-        } catch (RocksDBException e) {
-            e.printStackTrace();
-        } catch (JsonProcessingException e) {
+            // The whole batch is looked up at once, the map returned is keyed by the same key instances
+            Map<byte[], byte[]> dbContents = dbIndex.multiGet(variantKeys);
+            for (byte[] variantKey : variantKeys) {
+                byte[] dbContent = dbContents.get(variantKey);
+                if (dbContent == null) {
+                    populationFrequenciesList.add(null);
+                } else {
+                    // Variants found are flagged so that they are not written again at the end of the annotation
+                    visitedVariants.visit(indexValueCodec.decodeOrdinal(dbContent));
+                    VariantAvro variantAvro = indexValueCodec.decodePopulationVariant(dbContent);
+                    populationFrequenciesList.add(variantAvro.getAnnotation().getPopulationFrequencies());
+                }
+            }
+        } catch (RocksDBException | IOException e) {
             e.printStackTrace();
+            while (populationFrequenciesList.size() < variantList.size()) {
+                populationFrequenciesList.add(null);
+            }
         }
+        return populationFrequenciesList;
     }
 
     public boolean close() {
@@ -0,0 +1,380 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import org.rocksdb.*;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Bulk loader for the RocksDB annotation indexes. Instead of one put per record, which goes through the memtable and
+ * keeps compaction busy for hours on whole-genome files, records are sorted externally: they are buffered in memory,
+ * spilled to sorted run files when the buffer is full and finally merged into SST files that are ingested at once.
+ * As with put, when a key is added more than once the last value wins.
+ *
+ * Indexes are persisted along with an info file holding a checksum of the input file and of the parameters used to
+ * build them, so that later runs can reuse an index instead of building it again.
+ */
+public class RocksDBIndexBuilder implements Closeable {
+
+    public static final String INDEX_INFO_FILE = "CELLBASE_INDEX_INFO";
+    private static final int INDEX_FORMAT_VERSION = 1;
+    private static final String CHECKSUM = "checksum";
+    private static final String NUM_RECORDS = "numRecords";
+    private static final String FORMAT_VERSION = "formatVersion";
+
+    private static final long DEFAULT_BUFFER_SIZE = 256L * 1024 * 1024;
+    private static final long MAX_SST_FILE_SIZE = 512L * 1024 * 1024;
+    // Approximate overhead of each buffered record: the pair array and two byte array headers
+    private static final int RECORD_OVERHEAD = 64;
+    private static final int BLOCK_CACHE_SIZE_MB = 256;
+    private static final int BLOOM_FILTER_BITS_PER_KEY = 10;
+
+    private static final Comparator<byte[]> BYTEWISE_COMPARATOR = RocksDBIndexBuilder::compare;
+
+    private final Options options;
+    private final Path tmpDirectory;
+    private final long bufferSize;
+    private List<byte[][]> buffer;
+    private long bufferedBytes;
+    private final List<Path> runs;
+    private long numRecords;
+
+    private static Logger logger = LoggerFactory.getLogger(RocksDBIndexBuilder.class);
+
+    /**
+     * @param options      options of the target database, SST files must be written with the same table format
+     * @param tmpDirectory directory where sorted runs and SST files are written before ingestion
+     * @throws IOException if the temporary directory cannot be created
+     */
+    public RocksDBIndexBuilder(Options options, Path tmpDirectory) throws IOException {
+        this(options, tmpDirectory, DEFAULT_BUFFER_SIZE);
+    }
+
+    public RocksDBIndexBuilder(Options options, Path tmpDirectory, long bufferSize) throws IOException {
+        this.options = options;
+        this.tmpDirectory = Files.createDirectories(tmpDirectory);
+        this.bufferSize = bufferSize;
+        this.buffer = new ArrayList<>();
+        this.runs = new ArrayList<>();
+    }
+
+    /**
+     * Tunes RocksDB options for indexes that are only read by point lookups: bloom filters skip SST files not holding
+     * the key and an LRU block cache keeps hot blocks in memory.
+     *
+     * @param options options to tune
+     * @return the same options
+     */
+    public static Options optimizeForPointLookup(Options options) {
+        BlockBasedTableConfig tableConfig = new BlockBasedTableConfig()
+                .setFilter(new BloomFilter(BLOOM_FILTER_BITS_PER_KEY, false))
+                .setBlockCacheSize(BLOCK_CACHE_SIZE_MB * 1024L * 1024L)
+                .setCacheIndexAndFilterBlocks(true);
+        return options.setTableFormatConfig(tableConfig);
+    }
+
+    public void add(byte[] key, byte[] value) throws IOException {
+        buffer.add(new byte[][]{key, value});
+        bufferedBytes += key.length + value.length + RECORD_OVERHEAD;
+        if (bufferedBytes >= bufferSize) {
+            spill();
+        }
+    }
+
+    /**
+     * Merges all records added so far into SST files and ingests them into the database, which is expected to be
+     * empty.
+     *
+     * @param db database to ingest the records into
+     * @return number of distinct keys ingested
+     * @throws IOException      if temporary files cannot be read or written
+     * @throws RocksDBException if SST files cannot be written or ingested
+     */
+    public long ingest(RocksDB db) throws IOException, RocksDBException {
+        Iterator<byte[][]> iterator;
+        List<RunReader> readers = new ArrayList<>(runs.size());
+        if (runs.isEmpty()) {
+            iterator = sortAndDeduplicate(buffer).iterator();
+        } else {
+            spill();
+            for (Path run : runs) {
+                readers.add(new RunReader(run, readers.size()));
+            }
+            iterator = new MergeIterator(readers);
+        }
+
+        List<String> sstFiles = new ArrayList<>();
+        try {
+            writeSstFiles(iterator, sstFiles);
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+        buffer = new ArrayList<>();
+
+        if (!sstFiles.isEmpty()) {
+            logger.info("Ingesting {} SST files with {} records", sstFiles.size(), numRecords);
+            try (IngestExternalFileOptions ingestOptions = new IngestExternalFileOptions()) {
+                ingestOptions.setMoveFiles(true);
+                db.ingestExternalFile(sstFiles, ingestOptions);
+            }
+        }
+        return numRecords;
+    }
+
+    private void writeSstFiles(Iterator<byte[][]> iterator, List<String> sstFiles) throws RocksDBException {
+        numRecords = 0;
+        try (EnvOptions envOptions = new EnvOptions()) {
+            SstFileWriter sstFileWriter = null;
+            long fileSize = 0;
+            try {
+                while (iterator.hasNext()) {
+                    byte[][] record = iterator.next();
+                    // Records come out sorted, so the SST files written never overlap
+                    if (sstFileWriter == null || fileSize >= MAX_SST_FILE_SIZE) {
+                        if (sstFileWriter != null) {
+                            sstFileWriter.finish();
+                            sstFileWriter.close();
+                        }
+                        String sstFile = tmpDirectory.resolve("index_" + sstFiles.size() + ".sst").toString();
+                        sstFileWriter = new SstFileWriter(envOptions, options);
+                        sstFileWriter.open(sstFile);
+                        sstFiles.add(sstFile);
+                        fileSize = 0;
+                    }
+                    sstFileWriter.put(record[0], record[1]);
+                    fileSize += record[0].length + record[1].length;
+                    numRecords++;
+                }
+                if (sstFileWriter != null) {
+                    sstFileWriter.finish();
+                }
+            } finally {
+                if (sstFileWriter != null) {
+                    sstFileWriter.close();
+                }
+            }
+        }
+    }
+
+    private void spill() throws IOException {
+        if (buffer.isEmpty()) {
+            return;
+        }
+        Path run = tmpDirectory.resolve("run_" + runs.size() + ".bin");
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 20))) {
+            for (byte[][] record : sortAndDeduplicate(buffer)) {
+                outputStream.writeInt(record[0].length);
+                outputStream.write(record[0]);
+                outputStream.writeInt(record[1].length);
+                outputStream.write(record[1]);
+            }
+        }
+        logger.debug("Sorted run {} written with {} records", run, buffer.size());
+        runs.add(run);
+        buffer = new ArrayList<>();
+        bufferedBytes = 0;
+    }
+
+    /**
+     * Sorts records by key keeping, for repeated keys, the last one added. The sort is stable so records with the same
+     * key keep their insertion order.
+     */
+    private static List<byte[][]> sortAndDeduplicate(List<byte[][]> records) {
+        records.sort((a, b) -> compare(a[0], b[0]));
+        List<byte[][]> sorted = new ArrayList<>(records.size());
+        for (int i = 0; i < records.size(); i++) {
+            if (i + 1 < records.size() && compare(records.get(i)[0], records.get(i + 1)[0]) == 0) {
+                continue;
+            }
+            sorted.add(records.get(i));
+        }
+        return sorted;
+    }
+
+    /**
+     * Unsigned lexicographic comparison, the order of the RocksDB default bytewise comparator.
+     */
+    static int compare(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; i < length; i++) {
+            int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        buffer = new ArrayList<>();
+        if (Files.exists(tmpDirectory)) {
+            org.apache.commons.io.FileUtils.deleteDirectory(tmpDirectory.toFile());
+        }
+    }
+
+    /**
+     * Computes the checksum identifying an index: a CRC32 of the whole input file plus its size and any parameter
+     * changing the values stored.
+     *
+     * @param input      indexed file
+     * @param parameters parameters used to build the index, e.g. the fields kept from the input file
+     * @return checksum as a string
+     * @throws IOException if the input file cannot be read
+     */
+    public static String checksum(Path input, String... parameters) throws IOException {
+        CRC32 crc32 = new CRC32();
+        byte[] bytes = new byte[1 << 20];
+        try (InputStream inputStream = Files.newInputStream(input)) {
+            int read;
+            while ((read = inputStream.read(bytes)) > 0) {
+                crc32.update(bytes, 0, read);
+            }
+        }
+        StringBuilder checksum = new StringBuilder(Long.toHexString(crc32.getValue())).append('-').append(Files.size(input));
+        for (String parameter : parameters) {
+            CRC32 parameterCrc32 = new CRC32();
+            parameterCrc32.update(String.valueOf(parameter).getBytes());
+            checksum.append('-').append(Long.toHexString(parameterCrc32.getValue()));
+        }
+        return checksum.toString();
+    }
+
+    /**
+     * Reads the info file of a persisted index.
+     *
+     * @param dbLocation index directory
+     * @param checksum   checksum of the input, as returned by {@link #checksum(Path, String...)}
+     * @return number of records in the index, or -1 if there is no complete index built from the same input
+     */
+    public static long getIndexedRecords(Path dbLocation, String checksum) {
+        Path infoFile = dbLocation.resolve(INDEX_INFO_FILE);
+        if (!Files.exists(infoFile)) {
+            return -1;
+        }
+        Properties properties = new Properties();
+        try (InputStream inputStream = Files.newInputStream(infoFile)) {
+            properties.load(inputStream);
+            if (String.valueOf(INDEX_FORMAT_VERSION).equals(properties.getProperty(FORMAT_VERSION))
+                    && checksum.equals(properties.getProperty(CHECKSUM))) {
+                return Long.parseLong(properties.getProperty(NUM_RECORDS));
+            }
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Index info file {} could not be read: {}", infoFile, e.getMessage());
+        }
+        return -1;
+    }
+
+    /**
+     * Writes the info file of an index, must be called once the index is complete.
+     *
+     * @param dbLocation index directory
+     * @param checksum   checksum of the input, as returned by {@link #checksum(Path, String...)}
+     * @param numRecords number of records in the index
+     * @throws IOException if the info file cannot be written
+     */
+    public static void writeIndexInfo(Path dbLocation, String checksum, long numRecords) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(FORMAT_VERSION, String.valueOf(INDEX_FORMAT_VERSION));
+        properties.setProperty(CHECKSUM, checksum);
+        properties.setProperty(NUM_RECORDS, String.valueOf(numRecords));
+        try (OutputStream outputStream = Files.newOutputStream(dbLocation.resolve(INDEX_INFO_FILE))) {
+            properties.store(outputStream, "CellBase annotation index");
+        }
+    }
+
+    /**
+     * Sorted run file being read during the final merge.
+     */
+    private static class RunReader implements Closeable {
+
+        private final DataInputStream inputStream;
+        private final int runNumber;
+        private byte[][] current;
+
+        RunReader(Path run, int runNumber) throws IOException {
+            this.inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 20));
+            this.runNumber = runNumber;
+            advance();
+        }
+
+        void advance() throws IOException {
+            int keyLength;
+            try {
+                keyLength = inputStream.readInt();
+            } catch (EOFException e) {
+                current = null;
+                return;
+            }
+            byte[] key = new byte[keyLength];
+            inputStream.readFully(key);
+            byte[] value = new byte[inputStream.readInt()];
+            inputStream.readFully(value);
+            current = new byte[][]{key, value};
+        }
+
+        @Override
+        public void close() throws IOException {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * K-way merge of the sorted runs. For keys present in several runs only the record from the latest run is
+     * returned, as later runs hold records added later.
+     */
+    private static class MergeIterator implements Iterator<byte[][]> {
+
+        private final PriorityQueue<RunReader> queue;
+
+        MergeIterator(List<RunReader> readers) {
+            queue = new PriorityQueue<>(Math.max(1, readers.size()), (a, b) -> {
+                int cmp = BYTEWISE_COMPARATOR.compare(a.current[0], b.current[0]);
+                return cmp != 0 ? cmp : Integer.compare(b.runNumber, a.runNumber);
+            });
+            for (RunReader reader : readers) {
+                if (reader.current != null) {
+                    queue.add(reader);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public byte[][] next() {
+            if (queue.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            RunReader reader = queue.poll();
+            byte[][] record = reader.current;
+            try {
+                advanceAndRequeue(reader);
+                // Drop older records with the same key
+                while (!queue.isEmpty() && compare(queue.peek().current[0], record[0]) == 0) {
+                    advanceAndRequeue(queue.poll());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return record;
+        }
+
+        private void advanceAndRequeue(RunReader reader) throws IOException {
+            reader.advance();
+            if (reader.current != null) {
+                queue.add(reader);
+            }
+        }
+    }
+}
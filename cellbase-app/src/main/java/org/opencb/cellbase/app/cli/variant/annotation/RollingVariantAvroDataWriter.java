@@ -0,0 +1,182 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.specific.SpecificDatumWriter;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+import org.opencb.commons.io.DataWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Writes annotated variants as Avro container files with the VariantAvro schema. Records are grouped in blocks that
+ * are compressed with the given codec, so files can be split and read back without parsing any text. Once a file
+ * reaches the maximum size a new one is started: the first file takes the given name and the following ones insert
+ * a part number before the extension, e.g. annotation.avro, annotation.00001.avro.
+ */
+public class RollingVariantAvroDataWriter implements DataWriter<Variant> {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+
+    private final Path path;
+    private final CodecFactory codec;
+    private final long maxFileSize;
+    private final List<Path> files;
+
+    private final SpecificDatumWriter<VariantAvro> datumWriter;
+    private final ByteArrayOutputStream recordOutputStream;
+    private BinaryEncoder encoder;
+    private DataFileWriter<VariantAvro> dataFileWriter;
+    private CountingOutputStream fileOutputStream;
+    private long numWritten;
+
+    private static Logger logger = LoggerFactory.getLogger(RollingVariantAvroDataWriter.class);
+
+    /**
+     * @param path        path of the first file
+     * @param codec       block compression codec, e.g. CodecFactory.deflateCodec(6) or CodecFactory.snappyCodec()
+     * @param maxFileSize size in bytes after which a new file is started, no limit if 0 or lower
+     */
+    public RollingVariantAvroDataWriter(Path path, CodecFactory codec, long maxFileSize) {
+        this.path = path;
+        this.codec = codec;
+        this.maxFileSize = maxFileSize;
+        this.files = new ArrayList<>();
+        this.datumWriter = new SpecificDatumWriter<>(VariantAvro.class);
+        this.recordOutputStream = new ByteArrayOutputStream(4096);
+    }
+
+    public static Path getPartPath(Path path, int part) {
+        if (part == 0) {
+            return path;
+        }
+        String fileName = path.getFileName().toString();
+        int extension = fileName.lastIndexOf('.');
+        String partName = String.format(".%05d", part);
+        return path.resolveSibling(extension > 0
+                ? fileName.substring(0, extension) + partName + fileName.substring(extension)
+                : fileName + partName);
+    }
+
+    @Override
+    public boolean open() {
+        return true;
+    }
+
+    @Override
+    public boolean pre() {
+        try {
+            startFile();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean write(Variant variant) {
+        return write(Collections.singletonList(variant));
+    }
+
+    @Override
+    public boolean write(List<Variant> batch) {
+        try {
+            // Only flushed blocks are counted, files may exceed the maximum size by one block. New files are started
+            // before writing so that the last one is never empty
+            if (maxFileSize > 0 && fileOutputStream.getCount() >= maxFileSize && !batch.isEmpty()) {
+                dataFileWriter.close();
+                startFile();
+            }
+            for (Variant variant : batch) {
+                dataFileWriter.appendEncoded(encode(variant));
+                numWritten++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Records are encoded before being appended, a variant missing a required field would otherwise leave part of it
+     * in the current block. Such a variant fails the write, as the output would silently lack it.
+     */
+    private ByteBuffer encode(Variant variant) throws IOException {
+        recordOutputStream.reset();
+        try {
+            encoder = EncoderFactory.get().binaryEncoder(recordOutputStream, encoder);
+            datumWriter.write(variant.getImpl(), encoder);
+            encoder.flush();
+        } catch (NullPointerException | AvroRuntimeException e) {
+            throw new AvroRuntimeException("Variant " + variant + " cannot be written as Avro", e);
+        }
+        return ByteBuffer.wrap(recordOutputStream.toByteArray());
+    }
+
+    private void startFile() throws IOException {
+        Path file = getPartPath(path, files.size());
+        fileOutputStream = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 20));
+        dataFileWriter = new DataFileWriter<>(datumWriter);
+        dataFileWriter.setCodec(codec);
+        dataFileWriter.setSyncInterval(DEFAULT_BLOCK_SIZE);
+        dataFileWriter.create(VariantAvro.getClassSchema(), fileOutputStream);
+        files.add(file);
+    }
+
+    @Override
+    public boolean post() {
+        try {
+            dataFileWriter.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        logger.info("{} variants written to {} Avro files", numWritten, files.size());
+        return true;
+    }
+
+    @Override
+    public boolean close() {
+        return true;
+    }
+
+    public List<Path> getFiles() {
+        return files;
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(OutputStream outputStream) {
+            super(outputStream);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        long getCount() {
+            return count;
+        }
+    }
+}
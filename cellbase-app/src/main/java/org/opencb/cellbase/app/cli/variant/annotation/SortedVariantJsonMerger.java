@@ -0,0 +1,148 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Merges two JSON files with one variant per line, both sorted by chromosome and start, into a single sorted file.
+ * Lines are copied as they are, only the chromosome and start of each variant are parsed. Numeric chromosomes go
+ * first, in numeric order, followed by the rest in alphabetical order. Files gzipped are detected by their content and
+ * the output is compressed like the first file, as BGZF.
+ */
+public class SortedVariantJsonMerger {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * @param first  first sorted file, lines from this file go first when coordinates are the same
+     * @param second second sorted file
+     * @param output merged file
+     * @return number of lines written
+     * @throws IOException if any of the files cannot be read or written
+     */
+    public static long merge(Path first, Path second, Path output) throws IOException {
+        long numLines = 0;
+        try (BufferedReader firstReader = newBufferedReader(first);
+             BufferedReader secondReader = newBufferedReader(second);
+             BufferedWriter writer = newBufferedWriter(output, isGzipped(first))) {
+            String firstLine = firstReader.readLine();
+            String secondLine = secondReader.readLine();
+            VariantCoordinates firstCoordinates = parseCoordinates(firstLine);
+            VariantCoordinates secondCoordinates = parseCoordinates(secondLine);
+            while (firstLine != null || secondLine != null) {
+                if (secondLine == null || (firstLine != null && firstCoordinates.compareTo(secondCoordinates) <= 0)) {
+                    writer.write(firstLine);
+                    firstLine = firstReader.readLine();
+                    firstCoordinates = parseCoordinates(firstLine);
+                } else {
+                    writer.write(secondLine);
+                    secondLine = secondReader.readLine();
+                    secondCoordinates = parseCoordinates(secondLine);
+                }
+                writer.newLine();
+                numLines++;
+            }
+        }
+        return numLines;
+    }
+
+    static int compareChromosomes(String chromosome1, String chromosome2) {
+        boolean numeric1 = StringUtils.isNumeric(chromosome1);
+        boolean numeric2 = StringUtils.isNumeric(chromosome2);
+        if (numeric1 && numeric2) {
+            return Long.compare(Long.parseLong(chromosome1), Long.parseLong(chromosome2));
+        } else if (numeric1) {
+            return -1;
+        } else if (numeric2) {
+            return 1;
+        }
+        return chromosome1.compareTo(chromosome2);
+    }
+
+    /**
+     * Reads the top level chromosome and start fields of a variant, skipping nested objects.
+     */
+    static VariantCoordinates parseCoordinates(String line) throws IOException {
+        if (line == null) {
+            return null;
+        }
+        String chromosome = "";
+        int start = 0;
+        boolean chromosomeFound = false;
+        boolean startFound = false;
+        try (JsonParser parser = JSON_FACTORY.createParser(line)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Not a JSON object: " + StringUtils.abbreviate(line, 100));
+            }
+            while (!(chromosomeFound && startFound) && parser.nextToken() == JsonToken.FIELD_NAME) {
+                String fieldName = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("chromosome".equals(fieldName)) {
+                    chromosome = parser.getValueAsString("");
+                    chromosomeFound = true;
+                } else if ("start".equals(fieldName)) {
+                    start = parser.getValueAsInt();
+                    startFound = true;
+                } else if (token == JsonToken.START_OBJECT || token == JsonToken.START_ARRAY) {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return new VariantCoordinates(chromosome, start);
+    }
+
+    private static boolean isGzipped(Path file) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            return inputStream.read() == 0x1f && inputStream.read() == 0x8b;
+        }
+    }
+
+    private static BufferedReader newBufferedReader(Path file) throws IOException {
+        InputStream inputStream = Files.newInputStream(file);
+        if (isGzipped(file)) {
+            inputStream = new GZIPInputStream(inputStream, 1 << 16);
+        }
+        return new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    private static BufferedWriter newBufferedWriter(Path file, boolean gzip) throws IOException {
+        OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(file), 1 << 20);
+        if (gzip) {
+            outputStream = new ParallelBgzfOutputStream(outputStream, Runtime.getRuntime().availableProcessors());
+        }
+        return new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    static class VariantCoordinates implements Comparable<VariantCoordinates> {
+
+        private final String chromosome;
+        private final int start;
+
+        VariantCoordinates(String chromosome, int start) {
+            this.chromosome = chromosome;
+            this.start = start;
+        }
+
+        @Override
+        public int compareTo(VariantCoordinates other) {
+            int cmp = compareChromosomes(chromosome, other.chromosome);
+            return cmp != 0 ? cmp : Integer.compare(start, other.start);
+        }
+
+        String getChromosome() {
+            return chromosome;
+        }
+
+        int getStart() {
+            return start;
+        }
+    }
+}
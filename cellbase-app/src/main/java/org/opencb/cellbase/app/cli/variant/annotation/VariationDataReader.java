@@ -8,28 +8,45 @@ import org.opencb.commons.io.DataReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by fjlopez on 11/02/16.
+ *
+ * Reads the variation collection split into partitions. Partitions are scanned in parallel, each one with its own
+ * cursor, by a pool of reader threads that fill a bounded queue of chunks of valid variants, so the database is not
+ * read faster than variants are annotated.
  */
 public class VariationDataReader implements DataReader<Variant> {
 
+    private static final int CHUNK_SIZE = 500;
+    private static final int CHUNKS_PER_READER = 4;
+    // Put in the queue by the last reader thread to finish
+    private static final List<Variant> END_OF_PARTITIONS = new ArrayList<>(0);
+
     private VariantDBAdaptor dbAdaptor;
-    private Query query;
+    private List<VariationPartition> partitions;
     private QueryOptions options;
-    private Iterator<Variant> iterator;
+    private int numReaders;
+    private BlockingQueue<List<Variant>> queue;
+    private ExecutorService executorService;
+    private volatile Exception readerException;
+    private Deque<Variant> pending;
+    private boolean finished;
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
     private int nReadVariants = 0;
     private static final String VARIANT_STRING_PATTERN = "[ACGT]*";
 
-    public VariationDataReader(VariantDBAdaptor dbAdaptor, Query query, QueryOptions options) {
+    public VariationDataReader(VariantDBAdaptor dbAdaptor, List<VariationPartition> partitions, QueryOptions options,
+                               int numReaders) {
         this.dbAdaptor = dbAdaptor;
-        this.query = query;
+        this.partitions = partitions;
         this.options = options;
+        this.numReaders = Math.max(1, Math.min(numReaders, partitions.size()));
     }
 
     public boolean open() {
@@ -37,9 +54,87 @@ public class VariationDataReader implements DataReader<Variant> {
     }
 
     public boolean pre() {
-        this.iterator = dbAdaptor.iterator(query, options);
+        queue = new ArrayBlockingQueue<>(numReaders * CHUNKS_PER_READER + 1);
+        pending = new ArrayDeque<>();
+        finished = false;
+
+        Queue<VariationPartition> pendingPartitions = new ConcurrentLinkedQueue<>(partitions);
+        AtomicInteger runningReaders = new AtomicInteger(numReaders);
+        AtomicInteger threadNumber = new AtomicInteger();
+        executorService = Executors.newFixedThreadPool(numReaders, runnable -> {
+            Thread thread = new Thread(runnable, "variation-reader-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < numReaders; i++) {
+            executorService.submit(() -> readPartitions(pendingPartitions, runningReaders));
+        }
+        executorService.shutdown();
+        logger.info("Reading {} partitions with {} reader threads", partitions.size(), numReaders);
 
-        return this.iterator != null;
+        return true;
+    }
+
+    private void readPartitions(Queue<VariationPartition> pendingPartitions, AtomicInteger runningReaders) {
+        try {
+            VariationPartition partition;
+            while (readerException == null && (partition = pendingPartitions.poll()) != null) {
+                readPartition(partition);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.error("Error reading the variation collection", e);
+            readerException = e;
+        } finally {
+            if (runningReaders.decrementAndGet() == 0) {
+                try {
+                    queue.put(END_OF_PARTITIONS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void readPartition(VariationPartition partition) throws InterruptedException {
+        Query query = new Query(VariantDBAdaptor.QueryParams.REGION.key(), partition.getQueryRegion());
+        Iterator<Variant> iterator = dbAdaptor.iterator(query, options);
+        long numRead = 0;
+        try {
+            List<Variant> chunk = new ArrayList<>(CHUNK_SIZE);
+            while (iterator.hasNext()) {
+                Variant variant = iterator.next();
+                // Region queries return every overlapping variant, each one is only taken by the partition where it
+                // starts
+                if (partition.contains(variant) && isValid(variant)) {
+                    // New variants in the variation collection created during the update of the frequencies may not
+                    // have the variant type set and this might cause NPE
+                    if (variant.getType() == null) {
+                        variant.setType(variant.inferType(variant.getReference(), variant.getAlternate()));
+                    }
+                    chunk.add(variant);
+                    numRead++;
+                    if (chunk.size() == CHUNK_SIZE) {
+                        queue.put(chunk);
+                        chunk = new ArrayList<>(CHUNK_SIZE);
+                    }
+                }
+            }
+            if (!chunk.isEmpty()) {
+                queue.put(chunk);
+            }
+        } finally {
+            if (iterator instanceof Closeable) {
+                try {
+                    ((Closeable) iterator).close();
+                } catch (IOException e) {
+                    logger.warn("Cursor for partition {} could not be closed: {}", partition, e.getMessage());
+                }
+            }
+        }
+        partition.setReadComplete(numRead);
+        logger.debug("Partition {} read, {} variants", partition, numRead);
     }
 
     /**
@@ -48,22 +143,8 @@ public class VariationDataReader implements DataReader<Variant> {
      * @return  List of variants. It can be expected to contain only one variant.
      */
     public List<Variant> read() {
-        Variant variant = null;
-        boolean valid = false;
-        while (iterator.hasNext() && !valid) {
-            variant = iterator.next();
-            valid = isValid(variant);
-        }
-        if (valid) {
-            // New variants in the variation collection created during the update of the frequencies may not have
-            // the variant type set and this might cause NPE
-            if (variant.getType() == null) {
-                variant.setType(variant.inferType(variant.getReference(), variant.getAlternate()));
-            }
-            return Collections.singletonList(variant);
-        } else {
-            return null;
-        }
+        List<Variant> variants = read(1);
+        return variants.isEmpty() ? null : variants;
     }
 
     /**
@@ -83,26 +164,48 @@ public class VariationDataReader implements DataReader<Variant> {
 
     public List<Variant> read(int batchSize) {
         List<Variant> listRecords = new ArrayList<>(batchSize);
-        for (int i = 0; i < batchSize; i++) {
-            List<Variant> variants = this.read();
-            if (variants != null) {
-                listRecords.addAll(variants);
-                nReadVariants += variants.size();
-            } else {
-                logger.info("{} variants read", nReadVariants);
-                return listRecords;
+        while (listRecords.size() < batchSize) {
+            if (pending.isEmpty() && !takeChunk()) {
+                break;
             }
+            listRecords.add(pending.poll());
         }
+        nReadVariants += listRecords.size();
 
         logger.info("{} variants read", nReadVariants);
         return listRecords;
     }
 
+    private boolean takeChunk() {
+        if (finished) {
+            return false;
+        }
+        List<Variant> chunk;
+        try {
+            chunk = queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while reading the variation collection", e);
+        }
+        if (readerException != null) {
+            throw new RuntimeException("Error reading the variation collection", readerException);
+        }
+        if (chunk == END_OF_PARTITIONS) {
+            finished = true;
+            return false;
+        }
+        pending.addAll(chunk);
+        return true;
+    }
+
     public boolean post() {
         return true;
     }
 
     public boolean close() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
         return true;
     }
 
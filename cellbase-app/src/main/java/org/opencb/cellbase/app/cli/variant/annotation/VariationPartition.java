@@ -0,0 +1,82 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import org.opencb.biodata.models.variant.Variant;
+
+/**
+ * Range of one chromosome of the variation collection, read by its own cursor during the annotation of the
+ * collection. A variant belongs to the partition where it starts. The partition is complete once all the variants
+ * read have been written: the reader sets the number of variants read when the cursor is exhausted and the writer
+ * counts the variants written.
+ */
+public class VariationPartition {
+
+    private final String chromosome;
+    private final int start;
+    private final int end;
+
+    private volatile long numRead;
+    private volatile boolean readComplete;
+    private long numWritten;
+
+    public VariationPartition(String chromosome, int start, int end) {
+        this.chromosome = chromosome;
+        this.start = start;
+        this.end = end;
+    }
+
+    public boolean contains(Variant variant) {
+        return chromosome.equals(variant.getChromosome()) && variant.getStart() >= start && variant.getStart() <= end;
+    }
+
+    /**
+     * Region to query. Extended one position to the left, since insertions starting at the first position of the
+     * partition end one position before it.
+     *
+     * @return region string
+     */
+    public String getQueryRegion() {
+        return chromosome + ":" + Math.max(1, start - 1) + "-" + end;
+    }
+
+    public String getName() {
+        return chromosome + "_" + start + "-" + end;
+    }
+
+    void setReadComplete(long numRead) {
+        this.numRead = numRead;
+        this.readComplete = true;
+    }
+
+    boolean isReadComplete() {
+        return readComplete;
+    }
+
+    long getNumRead() {
+        return numRead;
+    }
+
+    void addWritten(int numWritten) {
+        this.numWritten += numWritten;
+    }
+
+    long getNumWritten() {
+        return numWritten;
+    }
+
+    public String getChromosome() {
+        return chromosome;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    @Override
+    public String toString() {
+        return getName();
+    }
+}
@@ -27,6 +27,7 @@ import org.opencb.biodata.formats.variant.vcf4.FullVcfCodec;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.tools.variant.VariantNormalizer;
 import org.opencb.biodata.tools.variant.converters.avro.VariantContextToVariantConverter;
+import org.opencb.cellbase.core.variant.annotation.CellBaseNormalizerSequenceAdaptor;
 import org.opencb.cellbase.core.variant.annotation.VariantAnnotator;
 import org.opencb.commons.run.ParallelTaskRunner;
 import org.slf4j.Logger;
@@ -51,6 +52,7 @@ public class VcfStringAnnotatorTask implements ParallelTaskRunner.TaskWithExcept
     private VariantContextToVariantConverter converter;
 //    private static VariantNormalizer normalizer = new VariantNormalizer(true, false, true);
     private VariantNormalizer normalizer;
+    private CellBaseNormalizerSequenceAdaptor normalizerSequenceAdaptor;
     private boolean normalize;
 
     public VcfStringAnnotatorTask(VCFHeader header, VCFHeaderVersion version,
@@ -62,6 +64,26 @@ public class VcfStringAnnotatorTask implements ParallelTaskRunner.TaskWithExcept
     public VcfStringAnnotatorTask(VCFHeader header, VCFHeaderVersion version,
                                   List<VariantAnnotator> variantAnnotatorList, SharedContext sharedContext,
                                   boolean normalize, VariantNormalizer.VariantNormalizerConfig variantNormalizerConfig) {
+        this(header, version, variantAnnotatorList, sharedContext, normalize, variantNormalizerConfig, null);
+    }
+
+    /**
+     * Sequence around the indels of each batch is prefetched through normalizerSequenceAdaptor, if not null. It must
+     * be the sequence adaptor used for left alignment by variantNormalizerConfig.
+     *
+     * @param header                    VCF header
+     * @param version                   VCF header version
+     * @param variantAnnotatorList      annotators run on each batch
+     * @param sharedContext             context shared by all the tasks
+     * @param normalize                 whether variants are normalized before being annotated
+     * @param variantNormalizerConfig   normalizer configuration
+     * @param normalizerSequenceAdaptor sequence adaptor used for left alignment, may be null
+     */
+    public VcfStringAnnotatorTask(VCFHeader header, VCFHeaderVersion version,
+                                  List<VariantAnnotator> variantAnnotatorList, SharedContext sharedContext,
+                                  boolean normalize, VariantNormalizer.VariantNormalizerConfig variantNormalizerConfig,
+                                  CellBaseNormalizerSequenceAdaptor normalizerSequenceAdaptor) {
+        this.normalizerSequenceAdaptor = normalizerSequenceAdaptor;
         this.vcfCodec = new FullVcfCodec();
         this.vcfCodec.setVCFHeader(header, version);
         this.converter = new VariantContextToVariantConverter("", "", header.getSampleNamesInOrder());
@@ -87,6 +109,9 @@ public class VcfStringAnnotatorTask implements ParallelTaskRunner.TaskWithExcept
     private List<Variant> normalizeAndAnnotate(List<Variant> variantList) throws InterruptedException, ExecutionException {
         List<Variant> normalizedVariantList;
         if (normalize) {
+            if (normalizerSequenceAdaptor != null) {
+                normalizerSequenceAdaptor.prefetch(variantList);
+            }
             normalizedVariantList = new ArrayList<>(variantList.size());
             for (Variant variant : variantList) {
                 try {
@@ -1,6 +1,5 @@
 package org.opencb.cellbase.app.cli.variant.annotation;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.AdditionalAttribute;
 import org.opencb.biodata.models.variant.avro.VariantAnnotation;
@@ -11,6 +10,7 @@ import org.rocksdb.RocksDBException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -26,12 +26,14 @@ public class VcfVariantAnnotator implements VariantAnnotator {
     private List<String> infoFields;
     private RandomAccessFile reader;
     private List<VariantAnnotation> variantAnnotationList;
+    private IndexValueCodec indexValueCodec;
 
     public VcfVariantAnnotator(String fileName, RocksDB dbIndex, String fileId, List<String> infoFields) {
         this.fileName = fileName;
         this.dbIndex = dbIndex;
         this.fileId = fileId;
         this.infoFields = infoFields;
+        this.indexValueCodec = new IndexValueCodec();
     }
 
     public boolean open() {
@@ -87,8 +89,9 @@ public class VcfVariantAnnotator implements VariantAnnotator {
      *                    SAME order: variantAnnotation at position i must correspond to variant i
      */
     public void run(List<Variant> variantList) {
+        List<Map<String, AdditionalAttribute>> customAnnotationList = getCustomAnnotation(variantList);
         for (int i = 0; i < variantList.size(); i++) {
-            Map<String, AdditionalAttribute> customAnnotation = getCustomAnnotation(variantList.get(i));
+            Map<String, AdditionalAttribute> customAnnotation = customAnnotationList.get(i);
             // Update only if there are annotations for this variant. customAnnotation may be empty if the variant
             // exists in the vcf but the info field does not contain any of the required attributes
             if (customAnnotation != null && customAnnotation.get(fileId).getAttribute().size() > 0) {
@@ -110,24 +113,36 @@ public class VcfVariantAnnotator implements VariantAnnotator {
         }
     }
 
-    private Map<String, AdditionalAttribute> getCustomAnnotation(Variant variant) {
-        try {
-            byte[] dbContent = dbIndex.get((variant.getChromosome() + "_" + variant.getStart() + "_"
-                    + variant.getReference() + "_" + variant.getAlternate()).getBytes());
-            if (dbContent == null) {
-                return null;
-            } else {
-                ObjectMapper mapper = new ObjectMapper();
-                AdditionalAttribute infoAttribute = new AdditionalAttribute();
-                infoAttribute.setAttribute(mapper.readValue(dbContent, Map.class));
-                Map<String, AdditionalAttribute> customAnnotation = new HashMap<>(1);
-                customAnnotation.put(fileId, infoAttribute);
+    private List<Map<String, AdditionalAttribute>> getCustomAnnotation(List<Variant> variantList) {
+        List<Map<String, AdditionalAttribute>> customAnnotationList = new ArrayList<>(variantList.size());
+        List<byte[]> variantKeys = new ArrayList<>(variantList.size());
+        for (Variant variant : variantList) {
+            variantKeys.add((variant.getChromosome() + "_" + variant.getStart() + "_" + variant.getReference() + "_"
+                    + variant.getAlternate()).getBytes());
+        }
 
-                return customAnnotation;
+        try {
+            // The whole batch is looked up at once, the map returned is keyed by the same key instances
+            Map<byte[], byte[]> dbContents = dbIndex.multiGet(variantKeys);
+            for (byte[] variantKey : variantKeys) {
+                byte[] dbContent = dbContents.get(variantKey);
+                if (dbContent == null) {
+                    customAnnotationList.add(null);
+                } else {
+                    AdditionalAttribute infoAttribute = new AdditionalAttribute();
+                    infoAttribute.setAttribute(indexValueCodec.decodeAttributes(dbContent));
+                    Map<String, AdditionalAttribute> customAnnotation = new HashMap<>(1);
+                    customAnnotation.put(fileId, infoAttribute);
+                    customAnnotationList.add(customAnnotation);
+                }
             }
         } catch (RocksDBException | IOException e) {
-            return null;
+            customAnnotationList.clear();
+        }
+        while (customAnnotationList.size() < variantList.size()) {
+            customAnnotationList.add(null);
         }
+        return customAnnotationList;
     }
 
     public boolean close() {
@@ -0,0 +1,66 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe bitmap of the population frequency variants found in the input file, indexed by the ordinal of each
+ * variant in the population frequencies file. Flagging a variant is a single atomic operation instead of rewriting
+ * its value in the RocksDB index.
+ */
+public class VisitedVariants {
+
+    private final AtomicLongArray words;
+    private final int size;
+
+    public VisitedVariants(int size) {
+        this.size = size;
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+    }
+
+    public void visit(int ordinal) {
+        int index = ordinal >>> 6;
+        long mask = 1L << (ordinal & 63);
+        long word = words.get(index);
+        while ((word & mask) == 0 && !words.compareAndSet(index, word, word | mask)) {
+            word = words.get(index);
+        }
+    }
+
+    public boolean isVisited(int ordinal) {
+        return (words.get(ordinal >>> 6) & (1L << (ordinal & 63))) != 0;
+    }
+
+    /**
+     * Finds the next variant not visited. Words with all their variants visited are skipped at once.
+     *
+     * @param from first ordinal to check
+     * @return ordinal of the first variant not visited from the given one, -1 if there is none
+     */
+    public int nextUnvisited(int from) {
+        if (from >= size) {
+            return -1;
+        }
+        int index = from >>> 6;
+        long word = ~words.get(index) & (-1L << (from & 63));
+        while (word == 0) {
+            if (++index >= words.length()) {
+                return -1;
+            }
+            word = ~words.get(index);
+        }
+        int ordinal = (index << 6) + Long.numberOfTrailingZeros(word);
+        return ordinal < size ? ordinal : -1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int countVisited() {
+        int count = 0;
+        for (int i = 0; i < words.length(); i++) {
+            count += Long.bitCount(words.get(i));
+        }
+        return count;
+    }
+}
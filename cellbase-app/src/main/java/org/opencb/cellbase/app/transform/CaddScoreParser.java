@@ -16,7 +16,8 @@
 
 package org.opencb.cellbase.app.transform;
 
-import org.opencb.biodata.models.core.GenomicScoreRegion;
+import org.opencb.cellbase.core.common.EncodedScoreRegion;
+import org.opencb.cellbase.core.common.GenomicScoreCodec;
 import org.opencb.cellbase.core.serializer.CellBaseSerializer;
 import org.opencb.commons.utils.FileUtils;
 import org.slf4j.LoggerFactory;
@@ -107,12 +108,8 @@ public class CaddScoreParser extends CellBaseParser {
                 if (!chromosome.equals(fields[0])) {
                     logger.info("Parsing chr {} ", fields[0]);
                     // both raw and scaled are serialized
-                    GenomicScoreRegion<Long> genomicScoreRegion =
-                            new GenomicScoreRegion<>(chromosome, start, previousPosition, "cadd_raw", rawValues);
-                    serializer.serialize(genomicScoreRegion);
-
-                    genomicScoreRegion = new GenomicScoreRegion<>(chromosome, start, previousPosition, "cadd_scaled", scaledValues);
-                    serializer.serialize(genomicScoreRegion);
+                    serializeChunk(chromosome, start, previousPosition, "cadd_raw", rawValues);
+                    serializeChunk(chromosome, start, previousPosition, "cadd_scaled", scaledValues);
 
                     serializedChunks++;
                     chromosome = fields[0];
@@ -130,13 +127,8 @@ public class CaddScoreParser extends CellBaseParser {
                 // The series of cadd scores is not continuous through the whole chromosome
                 } else if (end < newPosition || (newPosition - previousPosition) > 1) {
                     // both raw and scaled are serialized
-                    GenomicScoreRegion genomicScoreRegion
-                            = new GenomicScoreRegion<>(fields[0], start, previousPosition, "cadd_raw", rawValues);
-                    serializer.serialize(genomicScoreRegion);
-
-                    genomicScoreRegion
-                            = new GenomicScoreRegion<>(fields[0], start, previousPosition, "cadd_scaled", scaledValues);
-                    serializer.serialize(genomicScoreRegion);
+                    serializeChunk(fields[0], start, previousPosition, "cadd_raw", rawValues);
+                    serializeChunk(fields[0], start, previousPosition, "cadd_scaled", scaledValues);
 
                     serializedChunks++;
                     start = newPosition;
@@ -192,16 +184,19 @@ public class CaddScoreParser extends CellBaseParser {
         // Last chunks can be incomplete for both raw and scaled are serialized
 //        GenomicScoreRegion<Long> genomicScoreRegion =
 //                new GenomicScoreRegion<>(fields[0], start, start + rawValues.size() - 1, "cadd_raw", rawValues);
-        GenomicScoreRegion<Long> genomicScoreRegion =
-                new GenomicScoreRegion<>(fields[0], start, newPosition, "cadd_raw", rawValues);
-        serializer.serialize(genomicScoreRegion);
+        serializeChunk(fields[0], start, newPosition, "cadd_raw", rawValues);
 
 //        genomicScoreRegion = new GenomicScoreRegion<>(fields[0], start, start + scaledValues.size() - 1, "cadd_scaled", scaledValues);
-        genomicScoreRegion = new GenomicScoreRegion<>(fields[0], start, newPosition, "cadd_scaled", scaledValues);
-        serializer.serialize(genomicScoreRegion);
+        serializeChunk(fields[0], start, newPosition, "cadd_scaled", scaledValues);
 
         serializer.close();
         bufferedReader.close();
         logger.info("Parsing finished.");
     }
+
+    private void serializeChunk(String chromosome, int start, int end, String source, List<Long> values) {
+        // Packed scores are stored as a binary field of 8 bytes per position instead of an array of int64
+        serializer.serialize(new EncodedScoreRegion(chromosome, start, end, source, GenomicScoreCodec.CADD_ENCODING,
+                GenomicScoreCodec.encodeCadd(values)));
+    }
 }
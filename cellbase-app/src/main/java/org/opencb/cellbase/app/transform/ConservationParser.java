@@ -16,8 +16,9 @@
 
 package org.opencb.cellbase.app.transform;
 
-import org.opencb.biodata.models.core.GenomicScoreRegion;
 import org.opencb.cellbase.app.cli.EtlCommons;
+import org.opencb.cellbase.core.common.EncodedScoreRegion;
+import org.opencb.cellbase.core.common.GenomicScoreCodec;
 import org.opencb.cellbase.core.serializer.CellBaseFileSerializer;
 import org.opencb.commons.utils.FileUtils;
 import org.slf4j.Logger;
@@ -140,9 +141,7 @@ public class ConservationParser extends CellBaseParser {
                 counter++;
                 if (counter == chunkSize) {
 //                    ConservationScoreRegion conservationScoreRegion = new ConservationScoreRegion(chromosome[0], start, end, "gerp", val);
-                    GenomicScoreRegion<Float> conservationScoreRegion =
-                            new GenomicScoreRegion<>(chromosome[0], start, end, "gerp", val);
-                    fileSerializer.serialize(conservationScoreRegion, getOutputFileName(chromosome[0]));
+                    serializeChunk(chromosome[0], start, end, "gerp", val);
 
                     start = end + 1;
                     end += chunkSize;
@@ -155,9 +154,7 @@ public class ConservationParser extends CellBaseParser {
             // we need to serialize the last chunk that might be incomplete
 //            ConservationScoreRegion conservationScoreRegion =
 //                    new ConservationScoreRegion(chromosome[0], start, start + val.size() - 1, "gerp", val);
-            GenomicScoreRegion<Float> conservationScoreRegion =
-                    new GenomicScoreRegion<>(chromosome[0], start, start + val.size() - 1, "gerp", val);
-            fileSerializer.serialize(conservationScoreRegion, getOutputFileName(chromosome[0]));
+            serializeChunk(chromosome[0], start, start + val.size() - 1, "gerp", val);
 
             bufferedReader.close();
         }
@@ -181,17 +178,14 @@ public class ConservationParser extends CellBaseParser {
 //        ConservedRegion conservedRegion =  null;
         List<Float> values = new ArrayList<>();
 //        ConservationScoreRegion conservedRegion = null;
-        GenomicScoreRegion<Float> conservedRegion = null;
 
         while ((line = bufferedReader.readLine()) != null) {
             if (line.startsWith("fixedStep")) {
                 //new group, save last
-                if (conservedRegion != null) {
+                if (!values.isEmpty()) {
 //                    conservedRegion.setEnd(end);
 //                    conservedRegion = new ConservationScoreRegion(chromosome, start, end, conservationSource, values);
-                    conservedRegion = new GenomicScoreRegion<>(chromosome, start, start + values.size() - 1,
-                            conservationSource, values);
-                    fileSerializer.serialize(conservedRegion, getOutputFileName(chromosome));
+                    serializeChunk(chromosome, start, start + values.size() - 1, conservationSource, values);
                 }
 
 //                offset = 0;
@@ -225,9 +219,7 @@ public class ConservationParser extends CellBaseParser {
                                                                      // the old code
                 if (startChunk != endChunk) {
 //                    conservedRegion = new ConservationScoreRegion(chromosome, start, end - 1, conservationSource, values);
-                    conservedRegion = new GenomicScoreRegion<>(chromosome, start, start + values.size() - 1,
-                            conservationSource, values);
-                    fileSerializer.serialize(conservedRegion, getOutputFileName(chromosome));
+                    serializeChunk(chromosome, start, start + values.size() - 1, conservationSource, values);
                     start = start + values.size();
                     values.clear();
                 }
@@ -238,12 +230,17 @@ public class ConservationParser extends CellBaseParser {
         }
         //write last
 //        conservedRegion = new ConservationScoreRegion(chromosome, start, end, conservationSource, values);
-        conservedRegion = new GenomicScoreRegion<>(chromosome, start, start + values.size() - 1, conservationSource,
-                values);
-        fileSerializer.serialize(conservedRegion, getOutputFileName(chromosome));
+        serializeChunk(chromosome, start, start + values.size() - 1, conservationSource, values);
         bufferedReader.close();
     }
 
+    private void serializeChunk(String chromosome, int start, int end, String source, List<Float> values) {
+        // Scores are quantized to 16-bit integers and stored as a binary field, see GenomicScoreCodec
+        EncodedScoreRegion conservationScoreRegion = new EncodedScoreRegion(chromosome, start, end, source,
+                GenomicScoreCodec.CONSERVATION_ENCODING, GenomicScoreCodec.encodeConservation(values));
+        fileSerializer.serialize(conservationScoreRegion, getOutputFileName(chromosome));
+    }
+
     private String getOutputFileName(String chromosome) {
         String outputFileName = outputFileNames.get(chromosome);
         if (outputFileName == null) {
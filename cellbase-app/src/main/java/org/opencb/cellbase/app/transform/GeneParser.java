@@ -21,8 +21,6 @@ import org.opencb.biodata.formats.feature.gff.Gff2;
 import org.opencb.biodata.formats.feature.gtf.Gtf;
 import org.opencb.biodata.formats.feature.gtf.io.GtfReader;
 import org.opencb.biodata.formats.io.FileFormatException;
-import org.opencb.biodata.formats.sequence.fasta.Fasta;
-import org.opencb.biodata.formats.sequence.fasta.io.FastaReader;
 import org.opencb.biodata.models.core.*;
 import org.opencb.biodata.models.variant.avro.Expression;
 import org.opencb.biodata.models.variant.avro.GeneDrugInteraction;
@@ -41,14 +39,21 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class GeneParser extends CellBaseParser {
 
     private static final String ENSEMBL_GTF_DBNAME = "ensembl_gtf";
     private static final java.lang.String ENSEMBL_GTF_DISPLAY = "Ensembl GTF";
-    private Map<String, Integer> transcriptDict;
-    private Map<String, Exon> exonDict;
 
+    /**
+     * Maximum number of GTF lines of a partition, partitions never span two chromosomes and are always closed at a gene
+     * boundary so this is just a soft limit.
+     */
+    private static final int MAX_PARTITION_SIZE = 20000;
 
     private Path gtfFile;
     private Path proteinFastaFile;
@@ -64,9 +69,20 @@ public class GeneParser extends CellBaseParser {
     private Path disgenetFile;
     private Path genomeSequenceFilePath;
     private boolean flexibleGTFParsing;
+    private int numThreads;
 
     private Species species;
 
+    // Read-only data shared by all the partition tasks
+    private Map<String, String> geneDescriptionMap;
+    private Map<String, SortedSet<Gff2>> tfbsMap;
+    private Map<String, MiRNAGene> mirnaGeneMap;
+    private Map<String, List<Expression>> geneExpressionMap;
+    private Map<String, List<GeneDrugInteraction>> geneDrugMap;
+    private Map<String, List<GeneTraitAssociation>> diseaseAssociationMap;
+    private TranscriptDataIndex transcriptDataIndex;
+    private FastaIndexManager fastaIndexManager;
+
     private Connection sqlConn;
     private PreparedStatement sqlQuery;
 
@@ -99,6 +115,12 @@ public class GeneParser extends CellBaseParser {
     public GeneParser(Path geneDirectoryPath, Path genomeSequenceFastaFile,
                       Species species, boolean flexibleGTFParsing,
                       CellBaseSerializer serializer) {
+        this(geneDirectoryPath, genomeSequenceFastaFile, species, flexibleGTFParsing, 1, serializer);
+    }
+
+    public GeneParser(Path geneDirectoryPath, Path genomeSequenceFastaFile,
+                      Species species, boolean flexibleGTFParsing, int numThreads,
+                      CellBaseSerializer serializer) {
         this(null, geneDirectoryPath.resolve("description.txt"), geneDirectoryPath.resolve("xrefs.txt"),
                 geneDirectoryPath.resolve("idmapping_selected.tab.gz"), geneDirectoryPath.resolve("MotifFeatures.gff.gz"),
                 geneDirectoryPath.resolve("mirna.txt"),
@@ -107,6 +129,7 @@ public class GeneParser extends CellBaseParser {
                 geneDirectoryPath.resolve("ALL_SOURCES_ALL_FREQUENCIES_diseases_to_genes_to_phenotypes.txt"),
                 geneDirectoryPath.resolve("all_gene_disease_associations.txt.gz"),
                 genomeSequenceFastaFile, species, flexibleGTFParsing, serializer);
+        this.numThreads = Math.max(1, numThreads);
         getGtfFileFromGeneDirectoryPath(geneDirectoryPath);
         getProteinFastaFileFromGeneDirectoryPath(geneDirectoryPath);
         getCDnaFastaFileFromGeneDirectoryPath(geneDirectoryPath);
@@ -130,37 +153,36 @@ public class GeneParser extends CellBaseParser {
         this.genomeSequenceFilePath = genomeSequenceFilePath;
         this.species = species;
         this.flexibleGTFParsing = flexibleGTFParsing;
-
-        transcriptDict = new HashMap<>(250000);
-        exonDict = new HashMap<>(8000000);
+        this.numThreads = 1;
     }
 
+    /**
+     * GTF lines are grouped by gene into partitions of consecutive genes from the same chromosome. Partitions are built
+     * in parallel by numThreads threads and genes are serialized in the same order than they appear in the GTF. At most
+     * 2 * numThreads partitions are held in memory at any time.
+     *
+     * @throws Exception if any of the input files cannot be read or a partition fails to be built
+     */
     public void parse() throws Exception {
-        Gene gene = null;
-        Transcript transcript;
-        Exon exon = null;
-        int cdna = 1;
-        int cds = 1;
-        Map<String, String> geneDescriptionMap = getGeneDescriptionMap();
-        Map<String, ArrayList<Xref>> xrefMap = GeneParserUtils.getXrefMap(xrefsFile, uniprotIdMappingFile);
-        Map<String, Fasta> proteinSequencesMap = getProteinSequencesMap();
-        Map<String, Fasta> cDnaSequencesMap = getCDnaSequencesMap();
-        Map<String, SortedSet<Gff2>> tfbsMap = GeneParserUtils.getTfbsMap(tfbsFile);
-        Map<String, MiRNAGene> mirnaGeneMap = GeneParserUtils.getmiRNAGeneMap(mirnaFile);
+        geneDescriptionMap = getGeneDescriptionMap();
+        tfbsMap = GeneParserUtils.getTfbsMap(tfbsFile);
+        mirnaGeneMap = GeneParserUtils.getmiRNAGeneMap(mirnaFile);
 
         // Gene annotation data
-        Map<String, List<Expression>> geneExpressionMap = GeneParserUtils
-                .getGeneExpressionMap(species.getScientificName(), geneExpressionFile);
-        Map<String, List<GeneDrugInteraction>> geneDrugMap = GeneParserUtils.getGeneDrugMap(geneDrugFile);
-        Map<String, List<GeneTraitAssociation>> diseaseAssociationMap = GeneParserUtils.getGeneDiseaseAssociationMap(hpoFile, disgenetFile);
+        geneExpressionMap = GeneParserUtils.getGeneExpressionMap(species.getScientificName(), geneExpressionFile);
+        geneDrugMap = GeneParserUtils.getGeneDrugMap(geneDrugFile);
+        diseaseAssociationMap = GeneParserUtils.getGeneDiseaseAssociationMap(hpoFile, disgenetFile);
+
+        // Xrefs, protein and cDNA sequences are indexed on disk, see TranscriptDataIndex
+        transcriptDataIndex = new TranscriptDataIndex(gtfFile.getParent().resolve("transcript_data.idx"));
+        transcriptDataIndex.indexXrefs(xrefsFile, uniprotIdMappingFile);
+        transcriptDataIndex.indexProteinSequences(proteinFastaFile);
+        transcriptDataIndex.indexCDnaSequences(cDnaFastaFile);
 
         // Preparing the fasta file for fast accessing
-        FastaIndexManager fastaIndexManager = getFastaIndexManager();
+        fastaIndexManager = getFastaIndexManager();
 
-        // Empty transcript and exon dictionaries
-        transcriptDict.clear();
-        exonDict.clear();
-        logger.info("Parsing gtf...");
+        logger.info("Parsing gtf using {} threads...", numThreads);
         GtfReader gtfReader = new GtfReader(gtfFile);
 
         // Gene->Transcript->Feature->GTF line
@@ -170,32 +192,126 @@ public class GeneParser extends CellBaseParser {
             initializePointers(gtfMap);
         }
 
-        Gtf gtf;
-        while ((gtf = getGTFEntry(gtfReader, gtfMap)) != null) {
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        Deque<Future<List<Gene>>> pendingPartitions = new ArrayDeque<>();
+        try {
+            List<List<Gtf>> partition = new ArrayList<>();
+            int partitionSize = 0;
+            List<Gtf> geneGtfList = null;
+            String currentGeneId = null;
+            Gtf gtf;
+            while ((gtf = getGTFEntry(gtfReader, gtfMap)) != null) {
+
+                if (gtf.getFeature().equals("gene") || gtf.getFeature().equals("transcript")
+                        || gtf.getFeature().equals("UTR") || gtf.getFeature().equals("Selenocysteine")) {
+                    continue;
+                }
 
-            if (gtf.getFeature().equals("gene") || gtf.getFeature().equals("transcript")
-                    || gtf.getFeature().equals("UTR") || gtf.getFeature().equals("Selenocysteine")) {
-                continue;
+                String geneId = gtf.getAttributes().get("gene_id");
+                if (!geneId.equals(currentGeneId)) {
+                    if (!partition.isEmpty() && (partitionSize >= MAX_PARTITION_SIZE
+                            || !gtf.getSequenceName().equals(partition.get(0).get(0).getSequenceName()))) {
+                        submitPartition(partition, executorService, pendingPartitions);
+                        partition = new ArrayList<>();
+                        partitionSize = 0;
+                    }
+                    geneGtfList = new ArrayList<>();
+                    partition.add(geneGtfList);
+                    currentGeneId = geneId;
+                }
+                geneGtfList.add(gtf);
+                partitionSize++;
+            }
+            if (!partition.isEmpty()) {
+                submitPartition(partition, executorService, pendingPartitions);
+            }
+            while (!pendingPartitions.isEmpty()) {
+                serializePartition(pendingPartitions.poll());
             }
+        } finally {
+            // cleaning
+            executorService.shutdownNow();
+            gtfReader.close();
+            serializer.close();
+            fastaIndexManager.close();
+            transcriptDataIndex.close();
+        }
+    }
 
-            String geneId = gtf.getAttributes().get("gene_id");
-            String transcriptId = gtf.getAttributes().get("transcript_id");
-            if (newGene(gene, geneId)) {
-                // If new geneId is different from the current then we must serialize before data new gene
-                if (gene != null) {
-                    serializer.serialize(gene);
-                }
+    private void submitPartition(List<List<Gtf>> partition, ExecutorService executorService,
+                                 Deque<Future<List<Gene>>> pendingPartitions) throws Exception {
+        pendingPartitions.add(executorService.submit(() -> buildPartition(partition)));
+        while (pendingPartitions.size() > 2 * numThreads) {
+            serializePartition(pendingPartitions.poll());
+        }
+    }
+
+    private void serializePartition(Future<List<Gene>> futurePartition) throws Exception {
+        List<Gene> genes;
+        try {
+            genes = futurePartition.get();
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+        }
+        for (Gene gene : genes) {
+            serializer.serialize(gene);
+        }
+    }
 
-                GeneAnnotation geneAnnotation = new GeneAnnotation(geneExpressionMap.get(geneId),
-                        diseaseAssociationMap.get(gtf.getAttributes().get("gene_name")),
-                        geneDrugMap.get(gtf.getAttributes().get("gene_name")));
+    private List<Gene> buildPartition(List<List<Gtf>> partition) throws RocksDBException {
+        Map<Gtf, String> exonSequences = getExonSequences(partition);
+        List<Gene> genes = new ArrayList<>(partition.size());
+        for (List<Gtf> geneGtfList : partition) {
+            genes.add(buildGene(geneGtfList, exonSequences));
+        }
+        return genes;
+    }
+
+    private Map<Gtf, String> getExonSequences(List<List<Gtf>> partition) {
+        List<Gtf> exonGtfList = new ArrayList<>();
+        for (List<Gtf> geneGtfList : partition) {
+            for (Gtf gtf : geneGtfList) {
+                if (gtf.getFeature().equalsIgnoreCase("exon")) {
+                    exonGtfList.add(gtf);
+                }
+            }
+        }
 
-                gene = new Gene(geneId, gtf.getAttributes().get("gene_name"), gtf.getAttributes().get("gene_biotype"),
-                        "KNOWN", gtf.getSequenceName().replaceFirst("chr", ""), gtf.getStart(), gtf.getEnd(),
-                        gtf.getStrand(), "Ensembl", geneDescriptionMap.get(geneId), new ArrayList<>(),
-                        mirnaGeneMap.get(geneId), geneAnnotation);
-                // Do not change order!! size()-1 is the index of the gene ID
+        // All exons in a partition belong to the same chromosome, querying them sorted by position makes consecutive
+        // queries hit the same or neighbouring chunks of the genome index
+        exonGtfList.sort(Comparator.comparingInt(Gtf::getStart));
+        Map<Gtf, String> exonSequences = new IdentityHashMap<>(exonGtfList.size());
+        for (Gtf gtf : exonGtfList) {
+            try {
+                exonSequences.put(gtf, fastaIndexManager.query(gtf.getSequenceName(), gtf.getStart(), gtf.getEnd()));
+            } catch (RocksDBException e) {
+                logger.error("Error obtaining exon sequence ({}:{}-{})", gtf.getSequenceName(), gtf.getStart(), gtf.getEnd());
             }
+        }
+        return exonSequences;
+    }
+
+    private Gene buildGene(List<Gtf> geneGtfList, Map<Gtf, String> exonSequences) throws RocksDBException {
+        Map<String, Integer> transcriptDict = new HashMap<>();
+        Map<String, Exon> exonDict = new HashMap<>();
+        Transcript transcript;
+        Exon exon = null;
+        int cdna = 1;
+        int cds = 1;
+
+        Gtf geneGtf = geneGtfList.get(0);
+        String geneId = geneGtf.getAttributes().get("gene_id");
+        GeneAnnotation geneAnnotation = new GeneAnnotation(geneExpressionMap.get(geneId),
+                diseaseAssociationMap.get(geneGtf.getAttributes().get("gene_name")),
+                geneDrugMap.get(geneGtf.getAttributes().get("gene_name")));
+
+        Gene gene = new Gene(geneId, geneGtf.getAttributes().get("gene_name"), geneGtf.getAttributes().get("gene_biotype"),
+                "KNOWN", geneGtf.getSequenceName().replaceFirst("chr", ""), geneGtf.getStart(), geneGtf.getEnd(),
+                geneGtf.getStrand(), "Ensembl", geneDescriptionMap.get(geneId), new ArrayList<>(),
+                mirnaGeneMap.get(geneId), geneAnnotation);
+
+        for (Gtf gtf : geneGtfList) {
+            String transcriptId = gtf.getAttributes().get("transcript_id");
 
             // Check if Transcript exist in the Gene Set of transcripts
             if (!transcriptDict.containsKey(transcriptId)) {
@@ -207,7 +323,7 @@ public class GeneParser extends CellBaseParser {
                         (gtfAttributes.get("transcript_biotype") != null) ? gtfAttributes.get("transcript_biotype") : gtf.getSource(),
                         "KNOWN", transcriptChrosome, gtf.getStart(), gtf.getEnd(),
                         gtf.getStrand(), 0, 0, 0, 0,
-                        0, "", "", xrefMap.get(transcriptId), new ArrayList<Exon>(),
+                        0, "", "", transcriptDataIndex.getXrefs(transcriptId), new ArrayList<Exon>(),
                         transcriptTfbses);
 
                 // Adding Ids appearing in the GTF to the xrefs is required, since for some unknown reason the ENSEMBL
@@ -220,17 +336,16 @@ public class GeneParser extends CellBaseParser {
                     transcript.setAnnotationFlags(new HashSet<String>(Arrays.asList(tags.split(","))));
                 }
 
-                Fasta proteinFasta = proteinSequencesMap.get(transcriptId);
-                if (proteinFasta != null) {
-                    transcript.setProteinSequence(proteinFasta.getSeq());
+                String proteinSequence = transcriptDataIndex.getProteinSequence(transcriptId);
+                if (proteinSequence != null) {
+                    transcript.setProteinSequence(proteinSequence);
                 }
 
-                Fasta cDnaFasta = cDnaSequencesMap.get(transcriptId);
-                if (cDnaFasta != null) {
-                    transcript.setcDnaSequence(cDnaFasta.getSeq());
+                String cDnaSequence = transcriptDataIndex.getCDnaSequence(transcriptId);
+                if (cDnaSequence != null) {
+                    transcript.setcDnaSequence(cDnaSequence);
                 }
                 gene.getTranscripts().add(transcript);
-                // TODO: could use a transcriptId -> transcript map?
                 // Do not change order!! size()-1 is the index of the transcript ID
                 transcriptDict.put(transcriptId, gene.getTranscripts().size() - 1);
             } else {
@@ -243,14 +358,8 @@ public class GeneParser extends CellBaseParser {
             updateTranscriptAndGeneCoords(transcript, gene, gtf);
 
             if (gtf.getFeature().equalsIgnoreCase("exon")) {
-                // Obtaining the exon sequence
-                //String exonSequence = getExonSequence(gtf.getSequenceName(), gtf.getStart(), gtf.getEnd());
-                String exonSequence = null;
-                try {
-                    exonSequence = fastaIndexManager.query(gtf.getSequenceName(), gtf.getStart(), gtf.getEnd());
-                } catch (RocksDBException e) {
-                    e.printStackTrace();
-                }
+                // Exon sequences have been fetched for the whole partition
+                String exonSequence = exonSequences.get(gtf);
 
                 exon = new Exon(gtf.getAttributes().get("exon_id"), gtf.getSequenceName().replaceFirst("chr", ""),
                         gtf.getStart(), gtf.getEnd(), gtf.getStrand(), 0, 0, 0, 0, 0, 0, -1, Integer.parseInt(gtf
@@ -333,10 +442,6 @@ public class GeneParser extends CellBaseParser {
                     // no strand dependent
                     transcript.setProteinID(gtf.getAttributes().get("protein_id"));
                 }
-                if (gtf.getFeature().equalsIgnoreCase("start_codon")) {
-                    // nothing to do
-                    System.out.println("Empty block, this should be redesigned");
-                }
                 if (gtf.getFeature().equalsIgnoreCase("stop_codon")) {
                     //                      setCdnaCodingEnd = false; // stop_codon found, cdnaCodingEnd will be set here,
                     //                      no need to set it at the beginning of next feature
@@ -369,13 +474,7 @@ public class GeneParser extends CellBaseParser {
             }
         }
 
-        // last gene must be serialized
-        serializer.serialize(gene);
-
-        // cleaning
-        gtfReader.close();
-        serializer.close();
-        fastaIndexManager.close();
+        return gene;
     }
 
     private FastaIndexManager getFastaIndexManager() throws Exception {
@@ -669,43 +768,6 @@ public class GeneParser extends CellBaseParser {
     }
 
 
-    private Map<String, Fasta> getCDnaSequencesMap() throws IOException, FileFormatException {
-        logger.info("Loading ENSEMBL's cDNA sequences...");
-        Map<String, Fasta> cDnaSequencesMap = new HashMap<>();
-        if (cDnaFastaFile != null && Files.exists(cDnaFastaFile) && !Files.isDirectory(cDnaFastaFile)
-                && Files.size(cDnaFastaFile) > 0) {
-            FastaReader fastaReader = new FastaReader(cDnaFastaFile);
-            List<Fasta> fastaList = fastaReader.readAll();
-            fastaReader.close();
-            for (Fasta fasta : fastaList) {
-                cDnaSequencesMap.put(fasta.getId(), fasta);
-            }
-        } else {
-            logger.warn("cDNA fasta file " + cDnaFastaFile + " not found");
-            logger.warn("ENSEMBL's cDNA sequences not loaded");
-        }
-        return cDnaSequencesMap;
-    }
-
-    private Map<String, Fasta> getProteinSequencesMap() throws IOException, FileFormatException {
-        logger.info("Loading ENSEMBL's protein sequences...");
-        Map<String, Fasta> proteinSequencesMap = new HashMap<>();
-        if (proteinFastaFile != null && Files.exists(proteinFastaFile) && !Files.isDirectory(proteinFastaFile)
-                && Files.size(proteinFastaFile) > 0) {
-            FastaReader fastaReader = new FastaReader(proteinFastaFile);
-            List<Fasta> fastaList = fastaReader.readAll();
-            fastaReader.close();
-            for (Fasta fasta : fastaList) {
-                proteinSequencesMap.put(fasta.getDescription().split("transcript:")[1].split("\\s")[0], fasta);
-            }
-        } else {
-            logger.warn("Protein fasta file " + proteinFastaFile + " not found");
-            logger.warn("ENSEMBL's protein sequences not loaded");
-        }
-        return proteinSequencesMap;
-    }
-
-
     private Map<String, String> getGeneDescriptionMap() throws IOException {
         logger.info("Loading gene description data...");
         Map<String, String> geneDescriptionMap = new HashMap<>();
@@ -725,10 +787,6 @@ public class GeneParser extends CellBaseParser {
     }
 
 
-    private boolean newGene(Gene previousGene, String newGeneId) {
-        return previousGene == null || !newGeneId.equals(previousGene.getId());
-    }
-
     @Deprecated
     private void connect(Path genomeSequenceFilePath) throws ClassNotFoundException, SQLException, IOException {
         logger.info("Connecting to reference genome sequence database ...");
@@ -117,18 +117,30 @@ public class GeneParserUtils {
 
     public static Map<String, ArrayList<Xref>> getXrefMap(Path xrefsFile, Path uniprotIdMappingFile) throws IOException {
         Map<String, ArrayList<Xref>> xrefMap = new HashMap<>();
+        readXrefs(xrefsFile, uniprotIdMappingFile,
+                (transcriptId, xref) -> xrefMap.computeIfAbsent(transcriptId, k -> new ArrayList<>()).add(xref));
+        return xrefMap;
+    }
+
+    /**
+     * Reads the xrefs of the transcripts line by line, in the order of the files, without keeping them in memory.
+     *
+     * @param xrefsFile            Ensembl xrefs file, skipped if it does not exist
+     * @param uniprotIdMappingFile UniProt id mapping file, UniProtKB ACC and ID are added to the transcripts of column 20
+     * @param xrefConsumer         called with each xref and the id of its transcript
+     * @throws IOException if the files cannot be read or the consumer fails
+     */
+    public static void readXrefs(Path xrefsFile, Path uniprotIdMappingFile, XrefConsumer xrefConsumer) throws IOException {
         logger.info("Loading xref data...");
         String[] fields;
         if (xrefsFile != null && Files.exists(xrefsFile) && Files.size(xrefsFile) > 0) {
-            List<String> lines = Files.readAllLines(xrefsFile, Charset.forName("ISO-8859-1"));
-//            List<String> lines = Files.readAllLines(xrefsFile, Charset.defaultCharset());
-            for (String line : lines) {
-                fields = line.split("\t", -1);
-                if (fields.length >= 4) {
-                    if (!xrefMap.containsKey(fields[0])) {
-                        xrefMap.put(fields[0], new ArrayList<>());
+            try (BufferedReader br = Files.newBufferedReader(xrefsFile, Charset.forName("ISO-8859-1"))) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    fields = line.split("\t", -1);
+                    if (fields.length >= 4) {
+                        xrefConsumer.accept(fields[0], new Xref(fields[1], fields[2], fields[3]));
                     }
-                    xrefMap.get(fields[0]).add(new Xref(fields[1], fields[2], fields[3]));
                 }
             }
         } else {
@@ -138,28 +150,32 @@ public class GeneParserUtils {
 
         logger.info("Loading protein mapping into xref data...");
         if (uniprotIdMappingFile != null && Files.exists(uniprotIdMappingFile) && Files.size(uniprotIdMappingFile) > 0) {
-            BufferedReader br = FileUtils.newBufferedReader(uniprotIdMappingFile);
-            String line;
-            while ((line = br.readLine()) != null) {
-                fields = line.split("\t", -1);
-                if (fields.length >= 19 && fields[19].startsWith("ENST")) {
-                    String[] transcripts = fields[19].split("; ");
-                    for (String transcript : transcripts) {
-                        if (!xrefMap.containsKey(transcript)) {
-                            xrefMap.put(transcript, new ArrayList<Xref>());
+            try (BufferedReader br = FileUtils.newBufferedReader(uniprotIdMappingFile)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    fields = line.split("\t", -1);
+                    // Ensembl transcripts are the 20th column, lines with fewer columns have none
+                    if (fields.length > 19 && fields[19].startsWith("ENST")) {
+                        String[] transcripts = fields[19].split("; ");
+                        for (String transcript : transcripts) {
+                            xrefConsumer.accept(transcript, new Xref(fields[0], "uniprotkb_acc", "UniProtKB ACC"));
+                            xrefConsumer.accept(transcript, new Xref(fields[1], "uniprotkb_id", "UniProtKB ID"));
                         }
-                        xrefMap.get(transcript).add(new Xref(fields[0], "uniprotkb_acc", "UniProtKB ACC"));
-                        xrefMap.get(transcript).add(new Xref(fields[1], "uniprotkb_id", "UniProtKB ID"));
                     }
                 }
             }
-            br.close();
         } else {
             logger.warn("Uniprot if mapping file " + uniprotIdMappingFile + " not found");
             logger.warn("Protein mapping into xref data not loaded");
         }
+    }
 
-        return xrefMap;
+    /**
+     * Receives the xrefs read by readXrefs.
+     */
+    @FunctionalInterface
+    public interface XrefConsumer {
+        void accept(String transcriptId, Xref xref) throws IOException;
     }
 
     public static Map<String, List<GeneDrugInteraction>> getGeneDrugMap(Path geneDrugFile) throws IOException {
@@ -22,21 +22,30 @@ import org.opencb.cellbase.core.serializer.CellBaseSerializer;
 import org.opencb.commons.utils.FileUtils;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
+ * Builds the regulatory_region data model from the ENSEMBL regulatory GFF files. Each GFF is first split by chromosome,
+ * then every chromosome is processed by a separate task: the GFF lines of each source are sorted by start, using an
+ * external merge sort of MAX_LINES_PER_RUN lines runs for the largest ones, and all sorted runs are merged in a single
+ * pass into RegulatoryFeature objects ordered by start.
+ *
  * User: fsalavert.
  * Date: 4/10/13
  * Time: 10:14 AM
  */
 public class RegulatoryRegionParser extends CellBaseParser {
 
-    private static final int CHUNK_SIZE = 2000;
     private static final String REGULATORY_FEATURES = "regulatory_features";
     @Deprecated
     private static final String DEPRECATED_MOTIF_FEATURES = "deprecated_motif_features";
@@ -45,306 +54,231 @@ public class RegulatoryRegionParser extends CellBaseParser {
     private static final String ID = "id";
     private static final String BINDING_MATRIX = "binding_matrix";
     private static final String MOTIF_FEATURE_TYPE = "motif_feature_type";
-    private Path regulatoryRegionPath;
-
-    public RegulatoryRegionParser(Path regulatoryRegionFilesDir, CellBaseSerializer serializer) {
-        super(serializer);
-
-        this.regulatoryRegionPath = regulatoryRegionFilesDir;
-
-    }
-
-    public void createSQLiteRegulatoryFiles(Path regulatoryRegionPath)
-            throws SQLException, IOException, ClassNotFoundException, NoSuchMethodException {
-        List<String> gffColumnNames = Arrays.asList("seqname", "source", "feature", "start", "end", "score", "strand", "frame", "group");
-        List<String> gffColumnTypes = Arrays.asList("TEXT", "TEXT", "TEXT", "INT", "INT", "TEXT", "TEXT", "TEXT", "TEXT");
-
-        //        Path regulatoryRegionPath = regulationDir.toPath();
-
-        Path filePath;
-
-        filePath = regulatoryRegionPath.resolve(EtlCommons.REGULATORY_FEATURES_FILE);
-        createSQLiteRegulatoryFiles(filePath, REGULATORY_FEATURES, gffColumnNames, gffColumnTypes);
-
-        filePath = regulatoryRegionPath.resolve(EtlCommons.MOTIF_FEATURES_FILE);
-        createSQLiteRegulatoryFiles(filePath, MOTIF_FEATURES, gffColumnNames, gffColumnTypes);
-
-        // TODO: REMOVE
-        // >>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>>> DEPRECATED
-        filePath = regulatoryRegionPath.resolve("AnnotatedFeatures.gff.gz");
-        createSQLiteRegulatoryFiles(filePath, "annotated_features", gffColumnNames, gffColumnTypes);
 
+    // GFF files and their source type, the position in these lists is the source index and breaks ties when merging
+    private static final List<String> SOURCE_FILES = Arrays.asList(EtlCommons.REGULATORY_FEATURES_FILE,
+            EtlCommons.MOTIF_FEATURES_FILE, "AnnotatedFeatures.gff.gz", "MotifFeatures.gff.gz",
+            "RegulatoryFeatures_MultiCell.gff.gz", "mirna_uniq.gff.gz");
+    private static final List<String> SOURCE_TYPES = Arrays.asList(REGULATORY_FEATURES, MOTIF_FEATURES, "annotated_features",
+            DEPRECATED_MOTIF_FEATURES, "regulatory_features_multicell", "mirna_uniq");
 
-        filePath = regulatoryRegionPath.resolve("MotifFeatures.gff.gz");
-        createSQLiteRegulatoryFiles(filePath, DEPRECATED_MOTIF_FEATURES, gffColumnNames, gffColumnTypes);
-
-
-        filePath = regulatoryRegionPath.resolve("RegulatoryFeatures_MultiCell.gff.gz");
-        createSQLiteRegulatoryFiles(filePath, "regulatory_features_multicell", gffColumnNames, gffColumnTypes);
-        // <<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<< DEPRECATED
+    private static final int MAX_LINES_PER_RUN = 1000000;
+    private static final int SERIALIZE_BATCH_SIZE = 1000;
 
+    private Path regulatoryRegionPath;
+    private int numThreads;
 
+    public RegulatoryRegionParser(Path regulatoryRegionFilesDir, CellBaseSerializer serializer) {
+        this(regulatoryRegionFilesDir, 1, serializer);
+    }
 
-//  GFFColumnNames = Arrays.asList("seqname", "source", "feature", "start", "end", "score", "strand", "frame");
-//  GFFColumnTypes = Arrays.asList("TEXT", "TEXT", "TEXT", "INT", "INT", "TEXT", "TEXT", "TEXT");
-        filePath = regulatoryRegionPath.resolve("mirna_uniq.gff.gz");
-        if (Files.exists(filePath)) {
-            createSQLiteRegulatoryFiles(filePath, "mirna_uniq", gffColumnNames, gffColumnTypes);
-        }
+    public RegulatoryRegionParser(Path regulatoryRegionFilesDir, int numThreads, CellBaseSerializer serializer) {
+        super(serializer);
 
+        this.regulatoryRegionPath = regulatoryRegionFilesDir;
+        this.numThreads = Math.max(1, numThreads);
     }
 
     @Override
-    public void parse() throws SQLException, IOException, ClassNotFoundException, NoSuchMethodException {
+    public void parse() throws IOException {
         if (regulatoryRegionPath == null || !Files.exists(regulatoryRegionPath) || !Files.isDirectory(regulatoryRegionPath)) {
             throw new IOException("Regulation directory whether does not exist, is not a directory or cannot be read");
         }
 
-        // Create the SQLite databases
-        createSQLiteRegulatoryFiles(regulatoryRegionPath);
-
-        String chunkIdSuffix = CHUNK_SIZE / 1000 + "k";
-
-        Path regulatoryFilePath = regulatoryRegionPath.resolve(EtlCommons.REGULATORY_FEATURES_FILE + ".db");
-        Path motifFilePath = regulatoryRegionPath.resolve(EtlCommons.MOTIF_FEATURES_FILE + ".db");
-        Path annotatedFilePath = regulatoryRegionPath.resolve("AnnotatedFeatures.gff.gz.db");
-        Path deprecatedMotifFilePath = regulatoryRegionPath.resolve("MotifFeatures.gff.gz.db");
-        Path deprecatedRegulatoryFilePath = regulatoryRegionPath.resolve("RegulatoryFeatures_MultiCell.gff.gz.db");
-        Path mirnaFilePath = regulatoryRegionPath.resolve("mirna_uniq.gff.gz.db");
-
-        List<Path> filePaths = Arrays.asList(regulatoryFilePath, motifFilePath, annotatedFilePath,
-                deprecatedMotifFilePath, deprecatedRegulatoryFilePath);
-        List<String> tableNames = Arrays.asList(REGULATORY_FEATURES, MOTIF_FEATURES, "annotated_features",
-                DEPRECATED_MOTIF_FEATURES, "regulatory_features_multicell");
-
-        if (Files.exists(mirnaFilePath)) {
-            filePaths.add(mirnaFilePath);
-            tableNames.add("mirna_uniq");
-        }
-
-        // Fetching and joining all chromosomes found in the different databases
-        Set<String> setChr = new HashSet<>();
-        setChr.addAll(getChromosomesList(regulatoryFilePath, REGULATORY_FEATURES));
-        setChr.addAll(getChromosomesList(motifFilePath, MOTIF_FEATURES));
-        setChr.addAll(getChromosomesList(annotatedFilePath, "annotated_features"));
-        setChr.addAll(getChromosomesList(deprecatedMotifFilePath, DEPRECATED_MOTIF_FEATURES));
-        setChr.addAll(getChromosomesList(deprecatedRegulatoryFilePath, "regulatory_features_multicell"));
-        if (Files.exists(mirnaFilePath)) {
-            setChr.addAll(getChromosomesList(mirnaFilePath, "mirna_uniq"));
-        }
-
-        List<String> chromosomes = new ArrayList<>(setChr);
-        List<RegulatoryFeature> regulatoryFeatures;
-        HashSet<Integer> chunksHash;
-        for (String chromosome : chromosomes) {
-            for (int i = 0; i < tableNames.size(); i++) {
-                chunksHash = new HashSet<>();
-                regulatoryFeatures = queryChromosomesRegulatoryDB(filePaths.get(i), tableNames.get(i), chromosome);
-                for (RegulatoryFeature regulatoryFeature : regulatoryFeatures) {
-                    int firstChunkId = getChunkId(regulatoryFeature.getStart(), CHUNK_SIZE);
-                    int lastChunkId = getChunkId(regulatoryFeature.getEnd(), CHUNK_SIZE);
-
-                    List<String> chunkIds = new ArrayList<>();
-                    String chunkId;
-                    for (int j = firstChunkId; j <= lastChunkId; j++) {
-                        chunkId = chromosome + "_" + j + "_" + chunkIdSuffix;
-                        chunkIds.add(chunkId);
-                        //count chunks
-                        if (!chunksHash.contains(j)) {
-                            chunksHash.add(j);
-                        }
-                    }
-//                    regulatoryFeature.setChunkIds(chunkIds);
+        Path tmpPath = regulatoryRegionPath.resolve("regulatory_features.tmp");
+        deleteDirectory(tmpPath);
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        try {
+            // Split all the GFF files by chromosome, one file per chromosome and source
+            Set<String> chromosomes = new LinkedHashSet<>();
+            for (int sourceIndex = 0; sourceIndex < SOURCE_FILES.size(); sourceIndex++) {
+                splitByChromosome(regulatoryRegionPath.resolve(SOURCE_FILES.get(sourceIndex)), sourceIndex, tmpPath, chromosomes);
+            }
 
-                    // remove 'chr' prefix
-//                    if (genericFeature.getChromosome() != null) {
-//                        genericFeature.setSequenceName(genericFeature.getSequenceName().replace("chr", ""));
-//                    }
-                    serializer.serialize(regulatoryFeature);
-                }
+            logger.info("Merging regulatory features from {} chromosomes using {} threads...", chromosomes.size(), numThreads);
+            List<Future<Integer>> futures = new ArrayList<>(chromosomes.size());
+            for (String chromosome : chromosomes) {
+                futures.add(executorService.submit(() -> mergeChromosome(tmpPath.resolve(chromosome))));
             }
+            int numFeatures = 0;
+            for (Future<Integer> future : futures) {
+                numFeatures += getResult(future);
+            }
+            logger.info("{} regulatory features serialized", numFeatures);
+        } finally {
+            executorService.shutdownNow();
+            deleteDirectory(tmpPath);
         }
     }
 
-
-    public void createSQLiteRegulatoryFiles(Path filePath, String tableName, List<String> columnNames, List<String> columnTypes)
-            throws ClassNotFoundException, IOException, SQLException {
-        int limitRows = 100000;
-        int batchCount = 0;
-
+    private void splitByChromosome(Path filePath, int sourceIndex, Path tmpPath, Set<String> chromosomes) throws IOException {
         if (!Files.exists(filePath) || Files.size(filePath) == 0) {
             return;
         }
 
-        Path dbPath = Paths.get(filePath.toString() + ".db");
-        if (Files.exists(dbPath) && Files.size(dbPath) > 0) {
-            return;
-        }
-
-        BufferedReader br = FileUtils.newBufferedReader(filePath);
-
-        Class.forName("org.sqlite.JDBC");
-        Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbPath.toString());
-        conn.setAutoCommit(false); //Set false to perform commits manually and increase performance on insertion
-
-        //Create table query
-        Statement createTables = conn.createStatement();
-
-        StringBuilder sbQuery = new StringBuilder();
-        sbQuery.append("CREATE TABLE if not exists " + tableName + "(");
-        for (int i = 0; i < columnNames.size(); i++) {    //columnNames and columnTypes must have the same size
-            sbQuery.append("'" + columnNames.get(i) + "' " + columnTypes.get(i) + ",");
-        }
-        sbQuery.deleteCharAt(sbQuery.length() - 1);
-        sbQuery.append(")");
-
-        System.out.println(sbQuery.toString());
-        createTables.executeUpdate(sbQuery.toString());
-
-        //Prepare insert query
-        sbQuery = new StringBuilder();
-        sbQuery.append("INSERT INTO " + tableName + "(");
-        for (int i = 0; i < columnNames.size(); i++) {
-            sbQuery.append("'" + columnNames.get(i) + "',");
-        }
-        sbQuery.deleteCharAt(sbQuery.length() - 1);
-        sbQuery.append(") values (");
-        sbQuery.append(repeat("?,", columnNames.size()));
-        sbQuery.deleteCharAt(sbQuery.length() - 1);
-        sbQuery.append(")");
-        System.out.println(sbQuery.toString());
-
-        PreparedStatement ps = conn.prepareStatement(sbQuery.toString());
-
-        //Read file
-        String line = null;
-        while ((line = br.readLine()) != null) {
-
-            insertByType(ps, getFields(line, tableName), columnTypes);
-            ps.addBatch();
-            batchCount++;
-
-            //commit batch
-            if (batchCount % limitRows == 0 && batchCount != 0) {
-                ps.executeBatch();
-                conn.commit();
+        logger.info("Splitting {} by chromosome...", filePath);
+        Map<String, BufferedWriter> writers = new HashMap<>();
+        try (BufferedReader br = FileUtils.newBufferedReader(filePath)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String chromosome = line.substring(0, line.indexOf('\t')).replace("chr", "");
+                BufferedWriter writer = writers.get(chromosome);
+                if (writer == null) {
+                    Path chromosomePath = Files.createDirectories(tmpPath.resolve(chromosome));
+                    writer = Files.newBufferedWriter(chromosomePath.resolve(sourceIndex + ".gff"));
+                    writers.put(chromosome, writer);
+                    chromosomes.add(chromosome);
+                }
+                writer.write(line);
+                writer.newLine();
+            }
+        } finally {
+            for (BufferedWriter writer : writers.values()) {
+                writer.close();
             }
-
         }
-        br.close();
-
-        //Execute last Batch
-        ps.executeBatch();
-        conn.commit();
-
-        //Create index
-        System.out.println("creating indices...");
-        createTables.executeUpdate("CREATE INDEX " + tableName + "_seqname_idx on " + tableName + "(" + columnNames.get(0) + ")");
-        System.out.println("indices created.");
-
-        conn.commit();
-        conn.close();
     }
 
-    public List<String> getChromosomesList(Path dbPath, String tableName) throws IOException {
-
-        try {
-            FileUtils.checkFile(dbPath);
-        } catch (IOException e) {
-            logger.warn(e.getMessage());
-            return Collections.emptyList();
+    private int mergeChromosome(Path chromosomePath) throws IOException {
+        PriorityQueue<SortedRun> queue = new PriorityQueue<>();
+        for (int sourceIndex = 0; sourceIndex < SOURCE_FILES.size(); sourceIndex++) {
+            Path sourcePath = chromosomePath.resolve(sourceIndex + ".gff");
+            if (Files.exists(sourcePath)) {
+                for (SortedRun sortedRun : sortSource(sourcePath, sourceIndex)) {
+                    if (sortedRun.next()) {
+                        queue.add(sortedRun);
+                    } else {
+                        sortedRun.close();
+                    }
+                }
+            }
         }
 
-        List<String> chromosomes = new ArrayList<>();
+        int numFeatures = 0;
+        List<RegulatoryFeature> regulatoryFeatures = new ArrayList<>(SERIALIZE_BATCH_SIZE);
         try {
-            Class.forName("org.sqlite.JDBC");
-            Connection conn = DriverManager.getConnection("jdbc:sqlite:" + dbPath.toString());
-
-            Statement query = conn.createStatement();
-            ResultSet rs = query.executeQuery("select distinct(seqname) from " + tableName);
-//            ResultSet rs = query.executeQuery("select distinct(seqname) from " + tableName + " where seqname like 'chr%'");
+            while (!queue.isEmpty()) {
+                SortedRun sortedRun = queue.poll();
+                regulatoryFeatures.add(getRegulatoryFeature(sortedRun.fields, SOURCE_TYPES.get(sortedRun.sourceIndex)));
+                if (sortedRun.next()) {
+                    queue.add(sortedRun);
+                } else {
+                    sortedRun.close();
+                }
 
-            while (rs.next()) {
-                chromosomes.add(rs.getString(1));
+                if (regulatoryFeatures.size() == SERIALIZE_BATCH_SIZE) {
+                    numFeatures += serialize(regulatoryFeatures);
+                }
+            }
+            numFeatures += serialize(regulatoryFeatures);
+        } finally {
+            for (SortedRun sortedRun : queue) {
+                sortedRun.close();
             }
-            conn.close();
-
-        } catch (ClassNotFoundException | SQLException e) {
-            e.printStackTrace();
         }
-        return chromosomes;
+        return numFeatures;
     }
 
-    public List<RegulatoryFeature> queryChromosomesRegulatoryDB(Path dbPath, String tableName, String chromosome) {
-
-        try {
-            FileUtils.checkFile(dbPath);
-        } catch (IOException e) {
-            logger.warn(e.getMessage());
-            return Collections.emptyList();
+    /**
+     * Sorts the GFF lines of one chromosome and source by start. Files of up to MAX_LINES_PER_RUN lines are sorted in
+     * memory, larger files are sorted in runs of MAX_LINES_PER_RUN lines written next to the source file.
+     *
+     * @param sourcePath GFF lines of one chromosome and source
+     * @param sourceIndex index of the source in SOURCE_FILES
+     * @return list of sorted runs
+     * @throws IOException if the file cannot be read or the runs cannot be written
+     */
+    private List<SortedRun> sortSource(Path sourcePath, int sourceIndex) throws IOException {
+        List<SortedRun> sortedRuns = new ArrayList<>();
+        List<GffLine> gffLines = new ArrayList<>();
+        try (BufferedReader br = Files.newBufferedReader(sourcePath)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                gffLines.add(new GffLine(line));
+                if (gffLines.size() == MAX_LINES_PER_RUN) {
+                    sortedRuns.add(writeRun(gffLines, sourcePath.resolveSibling(sourceIndex + ".run" + sortedRuns.size()),
+                            sourceIndex, sortedRuns.size()));
+                    gffLines = new ArrayList<>();
+                }
+            }
+        }
+        if (!gffLines.isEmpty()) {
+            // Stable sort, lines with the same start keep the order of the GFF
+            gffLines.sort(Comparator.comparingInt(gffLine -> gffLine.start));
+            sortedRuns.add(new SortedRun(sourceIndex, sortedRuns.size(), gffLines.iterator(), null));
         }
+        return sortedRuns;
+    }
 
-        Connection conn;
-        List<RegulatoryFeature> regulatoryFeatures = new ArrayList<>();
-        try {
-            Class.forName("org.sqlite.JDBC");
-            conn = DriverManager.getConnection("jdbc:sqlite:" + dbPath.toString());
-
-            Statement query = conn.createStatement();
-            ResultSet rs = query.executeQuery("select * from " + tableName + " where seqname='" + chromosome + "'");
-//            ResultSet rs = query.executeQuery("select * from " + tableName + " where seqname='chr" + chromosome + "'");
-            while (rs.next()) {
-                regulatoryFeatures.add(getDeprecatedRegulatoryFeature(rs, tableName));
+    private SortedRun writeRun(List<GffLine> gffLines, Path runPath, int sourceIndex, int runIndex) throws IOException {
+        gffLines.sort(Comparator.comparingInt(gffLine -> gffLine.start));
+        try (BufferedWriter writer = Files.newBufferedWriter(runPath)) {
+            for (GffLine gffLine : gffLines) {
+                writer.write(gffLine.line);
+                writer.newLine();
             }
-            conn.close();
+        }
+        return new SortedRun(sourceIndex, runIndex, null, Files.newBufferedReader(runPath));
+    }
 
-        } catch (ClassNotFoundException | SQLException e) {
-            e.printStackTrace();
+    private int serialize(List<RegulatoryFeature> regulatoryFeatures) {
+        int numFeatures = regulatoryFeatures.size();
+        // Chromosomes are merged in parallel, batches are written one at a time
+        synchronized (serializer) {
+            for (RegulatoryFeature regulatoryFeature : regulatoryFeatures) {
+                serializer.serialize(regulatoryFeature);
+            }
         }
-        return regulatoryFeatures;
+        regulatoryFeatures.clear();
+        return numFeatures;
     }
 
-    public static List<RegulatoryFeature> queryRegulatoryDB(Path dbPath, String tableName, String chrFile, int start, int end) {
-        Connection conn = null;
-        List<RegulatoryFeature> regulatoryFeatures = new ArrayList<>();
+    private int getResult(Future<Integer> future) throws IOException {
         try {
-            Class.forName("org.sqlite.JDBC");
-            conn = DriverManager.getConnection("jdbc:sqlite:" + dbPath.toString());
-
-            Statement query = conn.createStatement();
-            ResultSet rs = query.executeQuery("select * from " + tableName + " where start<=" + end + " AND end>=" + start);
-
-            while (rs.next()) {
-                regulatoryFeatures.add(getDeprecatedRegulatoryFeature(rs, tableName));
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while merging regulatory features", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
             }
-            conn.close();
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
 
-        } catch (ClassNotFoundException | SQLException e) {
-            e.printStackTrace();
+    private void deleteDirectory(Path path) throws IOException {
+        if (Files.exists(path)) {
+            org.apache.commons.io.FileUtils.deleteDirectory(new File(path.toString()));
         }
-        return regulatoryFeatures;
     }
 
-    private static RegulatoryFeature getDeprecatedRegulatoryFeature(ResultSet rs, String tableName) throws SQLException {
+    private static RegulatoryFeature getRegulatoryFeature(String[] fields, String sourceType) {
         RegulatoryFeature regulatoryFeature = null;
-        switch (tableName.toLowerCase()) {
+        switch (sourceType) {
             case REGULATORY_FEATURES:
-                regulatoryFeature = getRegulatoryFeature(rs);
+                regulatoryFeature = getRegulatoryFeature(fields);
                 break;
             case MOTIF_FEATURES:
-                regulatoryFeature = getMotifFeature(rs);
+                regulatoryFeature = getMotifFeature(fields);
                 break;
             case "annotated_features":
-                regulatoryFeature = getAnnotatedFeature(rs);
+                regulatoryFeature = getAnnotatedFeature(fields);
                 break;
             case "regulatory_features_multicell":
-                regulatoryFeature = getDeprecatedRegulatoryFeature(rs);
+                regulatoryFeature = getDeprecatedRegulatoryFeature(fields);
                 break;
             case DEPRECATED_MOTIF_FEATURES:
-                regulatoryFeature = getDeprecatedMotifFeature(rs);
+                regulatoryFeature = getDeprecatedMotifFeature(fields);
                 break;
             case "mirna_uniq":
-                regulatoryFeature = getMirnaFeature(rs);
+                regulatoryFeature = getMirnaFeature(fields);
                 break;
             default:
                 break;
@@ -352,18 +286,18 @@ public class RegulatoryRegionParser extends CellBaseParser {
         return regulatoryFeature;
     }
 
-    private static RegulatoryFeature getMotifFeature(ResultSet rs) throws SQLException {
+    private static RegulatoryFeature getMotifFeature(String[] fields) {
         //   GFF     https://genome.ucsc.edu/FAQ/FAQformat.html#format3
         RegulatoryFeature regulatoryFeature = new RegulatoryFeature();
-        Map<String, String> groupFields = getGroupFields(rs.getString(9));
+        Map<String, String> groupFields = getGroupFields(getField(fields, 8));
 
-        regulatoryFeature.setChromosome(rs.getString(1));
-        regulatoryFeature.setSource(rs.getString(2));
-        regulatoryFeature.setFeatureType(rs.getString(3));
-        regulatoryFeature.setStart(rs.getInt(4));
-        regulatoryFeature.setEnd(rs.getInt(5));
-        regulatoryFeature.setScore(rs.getString(6));
-        regulatoryFeature.setStrand(rs.getString(7));
+        regulatoryFeature.setChromosome(getField(fields, 0));
+        regulatoryFeature.setSource(getField(fields, 1));
+        regulatoryFeature.setFeatureType(getField(fields, 2));
+        regulatoryFeature.setStart(Integer.parseInt(fields[3]));
+        regulatoryFeature.setEnd(Integer.parseInt(fields[4]));
+        regulatoryFeature.setScore(getField(fields, 5));
+        regulatoryFeature.setStrand(getField(fields, 6));
 
         // Seems weird that the motif_feature_type property is used to fill the Name field. However, this is how the
         // it was being done from the previous ENSEMBL files
@@ -374,36 +308,36 @@ public class RegulatoryRegionParser extends CellBaseParser {
         return regulatoryFeature;
     }
 
-    private static RegulatoryFeature getRegulatoryFeature(ResultSet rs) throws SQLException {
+    private static RegulatoryFeature getRegulatoryFeature(String[] fields) {
         //   GFF     https://genome.ucsc.edu/FAQ/FAQformat.html#format3
         RegulatoryFeature regulatoryFeature = new RegulatoryFeature();
-        Map<String, String> groupFields = getGroupFields(rs.getString(9));
+        Map<String, String> groupFields = getGroupFields(getField(fields, 8));
 
         regulatoryFeature.setId(groupFields.get(ID));
-        regulatoryFeature.setChromosome(rs.getString(1));
-        regulatoryFeature.setSource(rs.getString(2));
+        regulatoryFeature.setChromosome(getField(fields, 0));
+        regulatoryFeature.setSource(getField(fields, 1));
         regulatoryFeature.setFeatureType(groupFields.get(FEATURE_TYPE).replace(" ", "_"));
-        regulatoryFeature.setStart(rs.getInt(4));
-        regulatoryFeature.setEnd(rs.getInt(5));
-        regulatoryFeature.setScore(rs.getString(6));
-        regulatoryFeature.setStrand(rs.getString(7));
+        regulatoryFeature.setStart(Integer.parseInt(fields[3]));
+        regulatoryFeature.setEnd(Integer.parseInt(fields[4]));
+        regulatoryFeature.setScore(getField(fields, 5));
+        regulatoryFeature.setStrand(getField(fields, 6));
 
         return regulatoryFeature;
     }
 
-    private static RegulatoryFeature getAnnotatedFeature(ResultSet rs) throws SQLException {
+    private static RegulatoryFeature getAnnotatedFeature(String[] fields) {
         //   GFF     https://genome.ucsc.edu/FAQ/FAQformat.html#format3
         RegulatoryFeature regulatoryFeature = new RegulatoryFeature();
-        Map<String, String> groupFields = getGroupFields(rs.getString(9));
+        Map<String, String> groupFields = getGroupFields(getField(fields, 8));
 
-        regulatoryFeature.setChromosome(rs.getString(1));
-        regulatoryFeature.setSource(rs.getString(2));
-        regulatoryFeature.setFeatureType(rs.getString(3));
-        regulatoryFeature.setStart(rs.getInt(4));
-        regulatoryFeature.setEnd(rs.getInt(5));
-        regulatoryFeature.setScore(rs.getString(6));
-        regulatoryFeature.setStrand(rs.getString(7));
-        regulatoryFeature.setFrame(rs.getString(8));
+        regulatoryFeature.setChromosome(getField(fields, 0));
+        regulatoryFeature.setSource(getField(fields, 1));
+        regulatoryFeature.setFeatureType(getField(fields, 2));
+        regulatoryFeature.setStart(Integer.parseInt(fields[3]));
+        regulatoryFeature.setEnd(Integer.parseInt(fields[4]));
+        regulatoryFeature.setScore(getField(fields, 5));
+        regulatoryFeature.setStrand(getField(fields, 6));
+        regulatoryFeature.setFrame(getField(fields, 7));
 
         regulatoryFeature.setName(groupFields.get("name"));
         regulatoryFeature.setAlias(groupFields.get("alias"));
@@ -414,38 +348,38 @@ public class RegulatoryRegionParser extends CellBaseParser {
     }
 
     @Deprecated
-    private static RegulatoryFeature getDeprecatedRegulatoryFeature(ResultSet rs) throws SQLException {
+    private static RegulatoryFeature getDeprecatedRegulatoryFeature(String[] fields) {
         //   GFF     https://genome.ucsc.edu/FAQ/FAQformat.html#format3
         RegulatoryFeature regulatoryFeature = new RegulatoryFeature();
-        Map<String, String> groupFields = getGroupFields(rs.getString(9));
-
-        regulatoryFeature.setChromosome(rs.getString(1));
-        regulatoryFeature.setSource(rs.getString(2));
-        regulatoryFeature.setFeatureType(rs.getString(3));
-        regulatoryFeature.setStart(rs.getInt(4));
-        regulatoryFeature.setEnd(rs.getInt(5));
-        regulatoryFeature.setScore(rs.getString(6));
-        regulatoryFeature.setStrand(rs.getString(7));
-        regulatoryFeature.setFrame(rs.getString(8));
-        regulatoryFeature.setFrame(rs.getString(9));
+        Map<String, String> groupFields = getGroupFields(getField(fields, 8));
+
+        regulatoryFeature.setChromosome(getField(fields, 0));
+        regulatoryFeature.setSource(getField(fields, 1));
+        regulatoryFeature.setFeatureType(getField(fields, 2));
+        regulatoryFeature.setStart(Integer.parseInt(fields[3]));
+        regulatoryFeature.setEnd(Integer.parseInt(fields[4]));
+        regulatoryFeature.setScore(getField(fields, 5));
+        regulatoryFeature.setStrand(getField(fields, 6));
+        regulatoryFeature.setFrame(getField(fields, 7));
+        regulatoryFeature.setFrame(getField(fields, 8));
 
         return regulatoryFeature;
     }
 
     @Deprecated
-    private static RegulatoryFeature getDeprecatedMotifFeature(ResultSet rs) throws SQLException {
+    private static RegulatoryFeature getDeprecatedMotifFeature(String[] fields) {
         //   GFF     https://genome.ucsc.edu/FAQ/FAQformat.html#format3
         RegulatoryFeature regulatoryFeature = new RegulatoryFeature();
-        Map<String, String> groupFields = getGroupFields(rs.getString(9));
+        Map<String, String> groupFields = getGroupFields(getField(fields, 8));
 
-        regulatoryFeature.setChromosome(rs.getString(1));
-        regulatoryFeature.setSource(rs.getString(2));
-        regulatoryFeature.setFeatureType(rs.getString(3) + "_motif");
-        regulatoryFeature.setStart(rs.getInt(4));
-        regulatoryFeature.setEnd(rs.getInt(5));
-        regulatoryFeature.setScore(rs.getString(6));
-        regulatoryFeature.setStrand(rs.getString(7));
-        regulatoryFeature.setFrame(rs.getString(8));
+        regulatoryFeature.setChromosome(getField(fields, 0));
+        regulatoryFeature.setSource(getField(fields, 1));
+        regulatoryFeature.setFeatureType(getField(fields, 2) + "_motif");
+        regulatoryFeature.setStart(Integer.parseInt(fields[3]));
+        regulatoryFeature.setEnd(Integer.parseInt(fields[4]));
+        regulatoryFeature.setScore(getField(fields, 5));
+        regulatoryFeature.setStrand(getField(fields, 6));
+        regulatoryFeature.setFrame(getField(fields, 7));
 
         String[] split = groupFields.get("name").split(":");
         regulatoryFeature.setName(split[0]);
@@ -454,19 +388,19 @@ public class RegulatoryRegionParser extends CellBaseParser {
         return regulatoryFeature;
     }
 
-    private static RegulatoryFeature getMirnaFeature(ResultSet rs) throws SQLException {
+    private static RegulatoryFeature getMirnaFeature(String[] fields) {
         //   GFF     https://genome.ucsc.edu/FAQ/FAQformat.html#format3
         RegulatoryFeature regulatoryFeature = new RegulatoryFeature();
-        Map<String, String> groupFields = getGroupFields(rs.getString(9));
+        Map<String, String> groupFields = getGroupFields(getField(fields, 8));
 
-        regulatoryFeature.setChromosome(rs.getString(1));
-        regulatoryFeature.setSource(rs.getString(2));
-        regulatoryFeature.setFeatureType(rs.getString(3));
-        regulatoryFeature.setStart(rs.getInt(4));
-        regulatoryFeature.setEnd(rs.getInt(5));
-        regulatoryFeature.setScore(rs.getString(6));
-        regulatoryFeature.setStrand(rs.getString(7));
-        regulatoryFeature.setFrame(rs.getString(8));
+        regulatoryFeature.setChromosome(getField(fields, 0));
+        regulatoryFeature.setSource(getField(fields, 1));
+        regulatoryFeature.setFeatureType(getField(fields, 2));
+        regulatoryFeature.setStart(Integer.parseInt(fields[3]));
+        regulatoryFeature.setEnd(Integer.parseInt(fields[4]));
+        regulatoryFeature.setScore(getField(fields, 5));
+        regulatoryFeature.setStrand(getField(fields, 6));
+        regulatoryFeature.setFrame(getField(fields, 7));
 
         regulatoryFeature.setFeatureClass("microRNA");
         regulatoryFeature.setName(groupFields.get("name"));
@@ -477,6 +411,9 @@ public class RegulatoryRegionParser extends CellBaseParser {
     private static Map<String, String> getGroupFields(String group) {
         //process group column
         Map<String, String> groupFields = new HashMap<>();
+        if (group == null) {
+            return groupFields;
+        }
         String[] attributeFields = group.split(";");
         String[] attributeKeyValue;
         for (String attributeField : attributeFields) {
@@ -486,121 +423,77 @@ public class RegulatoryRegionParser extends CellBaseParser {
         return groupFields;
     }
 
-
-    public static List<String> getFields(String line, String tableName) {
-        List<String> fields = new ArrayList<>();
-        switch (tableName.toLowerCase()) {
-            case REGULATORY_FEATURES:
-                fields = getRegulatoryFeaturesFields(line);
-                break;
-            case MOTIF_FEATURES:
-                fields = getMotifFeaturesFields(line);
-                break;
-            case "annotated_features":
-                fields = getAnnotatedFeaturesFields(line);
-                break;
-            case "regulatory_features_multicell":
-                fields = getRegulatoryFeaturesFields(line);
-                break;
-            case DEPRECATED_MOTIF_FEATURES:
-                fields = getMotifFeaturesFields(line);
-                break;
-            case "mirna_uniq":
-                fields = getMirnaFeaturesFields(line);
-                break;
-            default:
-                break;
-        }
-        return fields;
-    }
-
-    @Deprecated
-    public static List<String> getAnnotatedFeaturesFields(String line) {
-        String[] fields = line.split("\t");
-        fields[0] = fields[0].replace("chr", "");
-        return Arrays.asList(fields);
+    private static String getField(String[] fields, int index) {
+        return (index < fields.length) ? fields[index] : null;
     }
 
-    public static List<String> getRegulatoryFeaturesFields(String line) {
-        String[] fields = line.split("\t");
-        fields[0] = fields[0].replace("chr", "");
-        return Arrays.asList(fields);
-    }
+    /**
+     * GFF line and its start, which is parsed only once for sorting.
+     */
+    private static class GffLine {
 
-    public static List<String> getMotifFeaturesFields(String line) {
-        String[] fields = line.split("\t");
-        fields[0] = fields[0].replace("chr", "");
-        return Arrays.asList(fields);
-    }
+        private final int start;
+        private final String line;
 
-    public static List<String> getMirnaFeaturesFields(String line) {
-        String[] fields = line.split("\t");
-        fields[0] = fields[0].replace("chr", "");
-        return Arrays.asList(fields);
-    }
-
-    public static void insertByType(PreparedStatement ps, List<String> fields, List<String> types) throws SQLException {
-        //Datatypes In SQLite Version 3 -> http://www.sqlite.org/datatype3.html
-        String raw;
-        String type;
-        if (types.size() == fields.size()) {
-            for (int i = 0; i < fields.size(); i++) { //columnNames and columnTypes must have same size
-                int sqliteIndex = i + 1;
-                raw = fields.get(i);
-                type = types.get(i);
-
-                switch (type) {
-                    case "INTEGER":
-                    case "INT":
-                        ps.setInt(sqliteIndex, Integer.parseInt(raw));
-                        break;
-                    case "REAL":
-                        ps.setFloat(sqliteIndex, Float.parseFloat(raw));
-                        break;
-                    case "TEXT":
-                        ps.setString(sqliteIndex, raw);
-                        break;
-                    default:
-                        ps.setString(sqliteIndex, raw);
-                        break;
-                }
-            }
+        GffLine(String line) {
+            this.line = line;
+            this.start = Integer.parseInt(line.split("\t", 5)[3]);
         }
-
     }
 
-    public String repeat(String s, int n) {
-        if (s == null) {
-            return null;
-        }
-        final StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < n; i++) {
-            sb.append(s);
+    /**
+     * Sorted run of GFF lines, kept in memory or read from a run file. Runs are ordered by the start of their current
+     * line, ties are broken by source and run index so that the merge is deterministic.
+     */
+    private static class SortedRun implements Comparable<SortedRun>, Closeable {
+
+        private final int sourceIndex;
+        private final int runIndex;
+        private final Iterator<GffLine> gffLineIterator;
+        private final BufferedReader reader;
+
+        private String[] fields;
+        private int start;
+
+        SortedRun(int sourceIndex, int runIndex, Iterator<GffLine> gffLineIterator, BufferedReader reader) {
+            this.sourceIndex = sourceIndex;
+            this.runIndex = runIndex;
+            this.gffLineIterator = gffLineIterator;
+            this.reader = reader;
         }
-        return sb.toString();
-    }
 
-    private int getChunkId(int position, int chunksize) {
-        if (chunksize <= 0) {
-            return position / CHUNK_SIZE;
-        } else {
-            return position / chunksize;
+        boolean next() throws IOException {
+            String line;
+            if (gffLineIterator != null) {
+                line = gffLineIterator.hasNext() ? gffLineIterator.next().line : null;
+            } else {
+                line = reader.readLine();
+            }
+            if (line == null) {
+                return false;
+            }
+            fields = line.split("\t");
+            fields[0] = fields[0].replace("chr", "");
+            start = Integer.parseInt(fields[3]);
+            return true;
         }
-    }
 
-    private int getChunkStart(int id, int chunksize) {
-        if (chunksize <= 0) {
-            return (id == 0) ? 1 : id * CHUNK_SIZE;
-        } else {
-            return (id == 0) ? 1 : id * chunksize;
+        @Override
+        public int compareTo(SortedRun other) {
+            if (start != other.start) {
+                return Integer.compare(start, other.start);
+            }
+            if (sourceIndex != other.sourceIndex) {
+                return Integer.compare(sourceIndex, other.sourceIndex);
+            }
+            return Integer.compare(runIndex, other.runIndex);
         }
-    }
 
-    private int getChunkEnd(int id, int chunksize) {
-        if (chunksize <= 0) {
-            return (id * CHUNK_SIZE) + CHUNK_SIZE - 1;
-        } else {
-            return (id * chunksize) + chunksize - 1;
+        @Override
+        public void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+            }
         }
     }
 }
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.app.transform;
+
+import org.opencb.biodata.formats.io.FileFormatException;
+import org.opencb.biodata.formats.sequence.fasta.Fasta;
+import org.opencb.biodata.formats.sequence.fasta.io.FastaReader;
+import org.opencb.biodata.models.core.Xref;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.rocksdb.RocksDBException;
+import org.rocksdb.RocksIterator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.function.Function;
+
+/**
+ * Disk-backed index of the transcript data needed to build genes: xrefs and ENSEMBL protein and cDNA sequences.
+ * These are by far the largest side tables of the gene build, keeping them in RocksDB instead of in HashMaps keeps
+ * the heap used by the GeneParser bounded. Lookups are thread safe.
+ */
+class TranscriptDataIndex implements Closeable {
+
+    private static final String PROTEIN_PREFIX = "p:";
+    private static final String CDNA_PREFIX = "c:";
+    private static final String XREF_PREFIX = "x:";
+
+    private final Path dbLocation;
+    private Options options;
+    private RocksDB rdb;
+    private long numXrefs;
+
+    private Logger logger = LoggerFactory.getLogger(TranscriptDataIndex.class);
+
+    TranscriptDataIndex(Path dbLocation) throws IOException, RocksDBException {
+        this.dbLocation = dbLocation;
+        deleteIndex();
+
+        RocksDB.loadLibrary();
+        options = new Options().setCreateIfMissing(true);
+        rdb = RocksDB.open(options, dbLocation.toString());
+    }
+
+    void indexXrefs(Path xrefsFile, Path uniprotIdMappingFile) throws IOException {
+        logger.info("Indexing xref data...");
+        GeneParserUtils.readXrefs(xrefsFile, uniprotIdMappingFile, this::putXref);
+    }
+
+    void indexProteinSequences(Path proteinFastaFile) throws IOException, FileFormatException, RocksDBException {
+        logger.info("Indexing ENSEMBL's protein sequences...");
+        if (isValidFile(proteinFastaFile)) {
+            indexFasta(proteinFastaFile, PROTEIN_PREFIX, fasta -> fasta.getDescription().split("transcript:")[1].split("\\s")[0]);
+        } else {
+            logger.warn("Protein fasta file " + proteinFastaFile + " not found");
+            logger.warn("ENSEMBL's protein sequences not loaded");
+        }
+    }
+
+    void indexCDnaSequences(Path cDnaFastaFile) throws IOException, FileFormatException, RocksDBException {
+        logger.info("Indexing ENSEMBL's cDNA sequences...");
+        if (isValidFile(cDnaFastaFile)) {
+            indexFasta(cDnaFastaFile, CDNA_PREFIX, Fasta::getId);
+        } else {
+            logger.warn("cDNA fasta file " + cDnaFastaFile + " not found");
+            logger.warn("ENSEMBL's cDNA sequences not loaded");
+        }
+    }
+
+    String getProteinSequence(String transcriptId) throws RocksDBException {
+        return getString(PROTEIN_PREFIX + transcriptId);
+    }
+
+    String getCDnaSequence(String transcriptId) throws RocksDBException {
+        return getString(CDNA_PREFIX + transcriptId);
+    }
+
+    /**
+     * Xrefs of a transcript, in the same order they were indexed.
+     *
+     * @param transcriptId ENSEMBL transcript id
+     * @return list of xrefs, null if there is none
+     */
+    ArrayList<Xref> getXrefs(String transcriptId) {
+        byte[] prefix = (XREF_PREFIX + transcriptId + "\t").getBytes();
+        ArrayList<Xref> xrefs = null;
+        // DO NOT rename rocksIterator - see ClinicalVariantParser
+        RocksIterator rocksIterator = rdb.newIterator();
+        try {
+            for (rocksIterator.seek(prefix); rocksIterator.isValid() && startsWith(rocksIterator.key(), prefix);
+                 rocksIterator.next()) {
+                String[] fields = new String(rocksIterator.value()).split("\t", -1);
+                if (xrefs == null) {
+                    xrefs = new ArrayList<>();
+                }
+                xrefs.add(new Xref(fields[0], fields[1], fields[2]));
+            }
+        } finally {
+            rocksIterator.dispose();
+        }
+        return xrefs;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (rdb != null) {
+            rdb.close();
+        }
+        if (options != null) {
+            options.dispose();
+        }
+        deleteIndex();
+    }
+
+    private void putXref(String transcriptId, Xref xref) throws IOException {
+        // A zero-padded counter keeps the xrefs of each transcript in the order they were read
+        String key = XREF_PREFIX + transcriptId + "\t" + String.format("%012d", numXrefs++);
+        try {
+            rdb.put(key.getBytes(), (xref.getId() + "\t" + xref.getDbName() + "\t" + xref.getDbDisplayName()).getBytes());
+        } catch (RocksDBException e) {
+            throw new IOException("Error indexing xrefs of transcript " + transcriptId, e);
+        }
+    }
+
+    private void indexFasta(Path fastaFile, String prefix, Function<Fasta, String> transcriptIdFunction)
+            throws IOException, FileFormatException, RocksDBException {
+        FastaReader fastaReader = new FastaReader(fastaFile);
+        try {
+            Fasta fasta;
+            while ((fasta = fastaReader.read()) != null) {
+                rdb.put((prefix + transcriptIdFunction.apply(fasta)).getBytes(), fasta.getSeq().getBytes());
+            }
+        } finally {
+            fastaReader.close();
+        }
+    }
+
+    private String getString(String key) throws RocksDBException {
+        byte[] value = rdb.get(key.getBytes());
+        return (value != null) ? new String(value) : null;
+    }
+
+    private boolean isValidFile(Path file) throws IOException {
+        return file != null && Files.exists(file) && !Files.isDirectory(file) && Files.size(file) > 0;
+    }
+
+    private static boolean startsWith(byte[] key, byte[] prefix) {
+        return key.length >= prefix.length && Arrays.equals(Arrays.copyOf(key, prefix.length), prefix);
+    }
+
+    private void deleteIndex() throws IOException {
+        if (Files.exists(dbLocation)) {
+            org.apache.commons.io.FileUtils.deleteDirectory(new File(dbLocation.toString()));
+        }
+    }
+}
@@ -31,6 +31,7 @@ public abstract class AbstractVariationFile {
     protected BufferedReader fileReader;
 
     protected int variationIdColumnIndex;
+    protected int numThreads = 1;
     private boolean endOfFile;
     private String[] lastReadLine;
     private int lastReadVariationId;
@@ -49,6 +50,10 @@ public abstract class AbstractVariationFile {
         this.variationIdColumnIndex = variationIdColumnIndexInFile;
     }
 
+    public void setNumThreads(int numThreads) {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
     public void createBufferedReader() throws IOException {
         this.fileReader = getBufferedReader(preprocessedFileName);
     }
@@ -123,6 +128,18 @@ public abstract class AbstractVariationFile {
                 || Files.exists(variationDirectory.resolve(baseFilename + ".gz"));
     }
 
+    /**
+     * Returns the path to the uncompressed unprocessed file, gunzipping it first if needed.
+     *
+     * @return path to the unprocessed file
+     * @throws IOException          if neither the compressed nor the uncompressed file exist
+     * @throws InterruptedException if interrupted while waiting for gunzip
+     */
+    protected Path getUnzippedUnprocessedFile() throws IOException, InterruptedException {
+        gunzipFileIfNeeded(variationDirectory, unprocessedFileName);
+        return variationDirectory.resolve(unprocessedFileName);
+    }
+
     private void gunzipFileIfNeeded(Path directory, String fileName) throws IOException, InterruptedException {
         Path zippedFile = directory.resolve(fileName + ".gz");
         if (Files.exists(zippedFile)) {
@@ -153,7 +170,8 @@ public abstract class AbstractVariationFile {
         // increment column index by 1, beacause Java indexes are 0-based and 'sort' command uses 1-based indexes
         columnIndex++;
         ProcessBuilder pb = new ProcessBuilder("sort", "-t", "\t", "-k", Integer.toString(columnIndex),
-                "-n", "--stable", inputFile.toAbsolutePath().toString(), "-T", variationDirectory.toString(),
+                "-n", "--stable", "--parallel=" + numThreads, inputFile.toAbsolutePath().toString(),
+                "-T", variationDirectory.toString(),
                 "-o", outputFile.toAbsolutePath().toString());
         logger.debug("Executing '{}' ...", StringUtils.join(pb.command(), " "));
         Stopwatch stopwatch = Stopwatch.createStarted();
@@ -35,8 +35,9 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -50,12 +51,17 @@ public class VariationParser extends CellBaseParser {
 
     private static final int VARIATION_FEATURE_ID_COLUMN_INDEX_IN_TRANSCRIPT_VARIATION_FILE = 1;
 
+    // Number of variations sent at once to a worker and number of batches each worker can have queued
+    private static final int BATCH_SIZE = 1000;
+    private static final int WORKER_QUEUE_SIZE = 10;
+
     private Pattern cnvPattern;
     private static final String SEQUENCE_GROUP = "seq";
     private static final String COUNT_GROUP = "count";
 
     private CellBaseFileSerializer fileSerializer;
     private Map<String, String> outputFileNames;
+    private int numThreads;
 
     private VariationFile variationFile;
     private VariationTranscriptFile variationTranscriptFile;
@@ -63,25 +69,49 @@ public class VariationParser extends CellBaseParser {
     private VariationSynonymFile variationSynonymFile;
     private ObjectWriter jsonObjectWriter;
 
+    private Map<String, String> sourceMap;
+    private AtomicLong countprocess;
+    private AtomicLong incorrectEndVariants;
+    private AtomicLong incorrectAllelesVariants;
+    private volatile boolean failed;
+
     public VariationParser(Path variationDirectoryPath, CellBaseFileSerializer serializer) {
+        this(variationDirectoryPath, 1, serializer);
+    }
+
+    public VariationParser(Path variationDirectoryPath, int numThreads, CellBaseFileSerializer serializer) {
         super(serializer);
         fileSerializer = serializer;
         this.variationDirectoryPath = variationDirectoryPath;
+        this.numThreads = Math.max(1, numThreads);
         //cnvPattern = Pattern.compile("((?<" + SEQUENCE_GROUP + ">\\(\\w+\\))" + "(?<" + COUNT_GROUP + ">\\d*))+");
         // Avoid patterns alleles like "(AG)15(TG)16" to be procesed as CNVs - just one occurrence like "(AG)15"
         // will be accepted
         cnvPattern = Pattern.compile("((?<" + SEQUENCE_GROUP + ">\\(\\w+\\))" + "(?<" + COUNT_GROUP + ">\\d*))");
-        outputFileNames = new HashMap<>();
+        outputFileNames = new ConcurrentHashMap<>();
         // create files
         variationFile = new VariationFile(variationDirectoryPath);
         variationFeatureFile = new VariationFeatureFile(variationDirectoryPath);
         variationTranscriptFile = new VariationTranscriptFile(variationDirectoryPath);
         variationSynonymFile = new VariationSynonymFile(variationDirectoryPath);
+        for (AbstractVariationFile file : Arrays.asList(variationFile, variationFeatureFile, variationTranscriptFile,
+                variationSynonymFile)) {
+            file.setNumThreads(this.numThreads);
+        }
         initializeJsonWriter();
     }
 
+    /**
+     * Variations are read on a single thread, merge-joining variation, variation_feature, transcript_variation and
+     * variation_synonym files which are all sorted by variation id. The joined records are partitioned by chromosome
+     * into numThreads workers which build and serialize the Variant objects, each chromosome file being written and
+     * compressed by one worker.
+     *
+     * @throws IOException          if any input file cannot be read
+     * @throws InterruptedException if interrupted while waiting for the external processes or the workers
+     */
     @Override
-    public void parse() throws IOException, InterruptedException, SQLException, ClassNotFoundException {
+    public void parse() throws IOException, InterruptedException {
 
         if (!Files.exists(variationDirectoryPath) || !Files.isDirectory(variationDirectoryPath)
                 || !Files.isReadable(variationDirectoryPath)) {
@@ -101,106 +131,62 @@ public class VariationParser extends CellBaseParser {
         createVariationFilesReaders();
 
         Map<String, String> seqRegionMap = VariationUtils.parseSeqRegionToMap(variationDirectoryPath);
-        Map<String, String> sourceMap = VariationUtils.parseSourceToMap(variationDirectoryPath);
+        sourceMap = VariationUtils.parseSourceToMap(variationDirectoryPath);
 
         Stopwatch globalStartwatch = Stopwatch.createStarted();
-        Stopwatch batchWatch = Stopwatch.createStarted();
-        logger.info("Parsing variation file {} ...", variationDirectoryPath.resolve(PREPROCESSED_VARIATION_FILENAME));
-        long countprocess = 0, incorrectEndVariants = 0, incorrectAllelesVariants = 0;
-
-        String line;
-        while ((line = bufferedReaderVariation.readLine()) != null) {
-            String[] variationFields = line.split("\t");
-
-            int variationId = Integer.parseInt(variationFields[0]);
-
-            List<String[]> resultVariationFeature = variationFeatureFile.getVariationRelatedLines(variationId);
-            if (resultVariationFeature != null && resultVariationFeature.size() > 0) {
-                String[] variationFeatureFields = resultVariationFeature.get(0);
-
-                List<TranscriptVariation> transcriptVariation = getTranscriptVariations(variationId, variationFeatureFields[0]);
-                List<Xref> xrefs = getXrefs(sourceMap, variationId);
-
-                try {
-                    // Preparing the variation alleles
-                    String[] allelesArray = getAllelesArray(variationFeatureFields);
-                    if (allelesArray == null) {
-                        logger.debug("Incorrect allele string: {}", variationFeatureFields[6]);
-                        incorrectAllelesVariants++;
-                    } else {
-                        String chromosome = seqRegionMap.get(variationFeatureFields[1]);
-
-                        if (!chromosome.contains("PATCH") && !chromosome.contains("HSCHR") && !chromosome.contains("contig")) {
-                            int start = Integer.valueOf(variationFeatureFields[2]);
-                            int end = Integer.valueOf(variationFeatureFields[3]);
-                            String id = (variationFields[2] != null && !variationFields[2].equals("\\N")) ? variationFields[2] : "";
-                            String reference = (allelesArray[0] != null && !allelesArray[0].equals("\\N")) ? allelesArray[0] : "";
-                            List<String> alternates = getAlternates(allelesArray);
-
-                            List<String> ids = new LinkedList<>();
-                            ids.add(id);
-
-                            List<String> hgvs = getHgvs(transcriptVariation);
-                            Map<String, AdditionalAttribute> additionalAttributes
-                                    = getAdditionalAttributes(variationFields, variationFeatureFields);
-
-                            List<ConsequenceType> conseqTypes = getConsequenceTypes(transcriptVariation);
-                            String displayConsequenceTypes = getDisplayConsequenceType(variationFeatureFields);
-                            String strand = variationFeatureFields[4];
-                            String ancestralAllele = (variationFields[4] != null && !variationFields[4].equals("\\N"))
-                                    ? variationFields[4] : "";
-                            String minorAllele = (variationFeatureFields[16] != null && !variationFeatureFields[16].equals("\\N"))
-                                    ? variationFeatureFields[16] : "";
-                            Float minorAlleleFreq = (variationFeatureFields[17] != null && !variationFeatureFields[17].equals("\\N"))
-                                    ? Float.parseFloat(variationFeatureFields[17]) : null;
-
-                            // create a variation object for each alternative
-                            for (String alternate : alternates) {
-                                VariantType type = getVariantType(reference, alternate);
-                                if (type == null) {
-                                    logger.warn("Unrecognized variant type (won't be parsed): {}:{}-{} {}/{}", chromosome, start, end,
-                                            reference, alternate);
-                                } else if (incorrectStartAndEnd(start, end, reference)) {
-                                    logger.debug("Incorrect variant start-end pair:  {}:{}-{} {}/{}", chromosome, start, end, reference,
-                                            alternate);
-                                    incorrectEndVariants++;
-                                } else {
-                                    // build and serialize variant
-                                    Variant variation = buildVariant(chromosome, start, end, reference, alternate, type, ids, hgvs,
-                                            additionalAttributes, displayConsequenceTypes, conseqTypes, id, xrefs, strand, ancestralAllele,
-                                            minorAllele, minorAlleleFreq);
-                                    fileSerializer.serialize(variation, getOutputFileName(chromosome));
-                                }
-                                countprocess++;
-                            }
-                        }
-                    }
+        logger.info("Parsing variation file {} using {} threads ...", variationDirectoryPath.resolve(PREPROCESSED_VARIATION_FILENAME),
+                numThreads);
+        countprocess = new AtomicLong();
+        incorrectEndVariants = new AtomicLong();
+        incorrectAllelesVariants = new AtomicLong();
+        failed = false;
+
+        ExecutorService executorService = Executors.newFixedThreadPool(numThreads);
+        List<VariationWorker> workers = new ArrayList<>(numThreads);
+        for (int i = 0; i < numThreads; i++) {
+            VariationWorker worker = new VariationWorker();
+            workers.add(worker);
+            executorService.submit(worker);
+        }
+        // Each chromosome is always processed by the same worker, so that its output file is written in order
+        Map<String, VariationWorker> chromosomeWorkers = new HashMap<>();
 
-                    if (countprocess % 100000 == 0 && countprocess != 0) {
-                        logger.info("Processed variations: {}", countprocess);
-                        logger.debug("Elapsed time processing batch: {}", batchWatch);
-                        batchWatch.reset();
-                        batchWatch.start();
+        try {
+            String line;
+            while (!failed && (line = bufferedReaderVariation.readLine()) != null) {
+                String[] variationFields = line.split("\t");
+
+                int variationId = Integer.parseInt(variationFields[0]);
+
+                List<String[]> resultVariationFeature = variationFeatureFile.getVariationRelatedLines(variationId);
+                if (resultVariationFeature != null && resultVariationFeature.size() > 0) {
+                    String[] variationFeatureFields = resultVariationFeature.get(0);
+                    String chromosome = seqRegionMap.get(variationFeatureFields[1]);
+                    VariationRecord variationRecord = new VariationRecord(line, variationFields, variationFeatureFields, chromosome,
+                            variationTranscriptFile.getVariationRelatedLines(variationId),
+                            variationSynonymFile.getVariationRelatedLines(variationId));
+
+                    VariationWorker worker = chromosomeWorkers.get(chromosome);
+                    if (worker == null) {
+                        worker = workers.get(chromosomeWorkers.size() % numThreads);
+                        chromosomeWorkers.put(chromosome, worker);
                     }
-
-                } catch (Exception e) {
-                    e.printStackTrace();
-                    logger.error("Error parsing variation: {}", e.getMessage());
-                    logger.error("Last line processed: {}", line);
-                    break;
+                    worker.add(variationRecord);
                 }
             }
-//            // TODO: just for testing, remove
-//            if (countprocess % 1000000 == 0) {
-//                break;
-//            }
+        } finally {
+            for (VariationWorker worker : workers) {
+                worker.finish();
+            }
+            executorService.shutdown();
+            executorService.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
         }
 
         serializer.close();
         logger.info("Variation parsing finished");
-        logger.info("Variants processed: {}", countprocess);
-        logger.info("Variants not parsed due to incorrect start-end: {}", incorrectEndVariants);
-        logger.info("Variants not parsed due to incorrect alleles: {}", incorrectAllelesVariants);
+        logger.info("Variants processed: {}", countprocess.get());
+        logger.info("Variants not parsed due to incorrect start-end: {}", incorrectEndVariants.get());
+        logger.info("Variants not parsed due to incorrect alleles: {}", incorrectAllelesVariants.get());
         logger.debug("Elapsed time parsing: {}", globalStartwatch);
 
         gzipVariationFiles(variationDirectoryPath);
@@ -212,6 +198,77 @@ public class VariationParser extends CellBaseParser {
         }
     }
 
+    private void processVariation(VariationRecord variationRecord) {
+        String[] variationFields = variationRecord.variationFields;
+        String[] variationFeatureFields = variationRecord.variationFeatureFields;
+        try {
+            List<TranscriptVariation> transcriptVariation = getTranscriptVariations(variationRecord.transcriptVariationLines,
+                    variationFeatureFields[0]);
+            List<Xref> xrefs = getXrefs(sourceMap, variationRecord.synonymLines);
+
+            // Preparing the variation alleles
+            String[] allelesArray = getAllelesArray(variationFeatureFields);
+            if (allelesArray == null) {
+                logger.debug("Incorrect allele string: {}", variationFeatureFields[6]);
+                incorrectAllelesVariants.incrementAndGet();
+            } else {
+                String chromosome = variationRecord.chromosome;
+
+                if (!chromosome.contains("PATCH") && !chromosome.contains("HSCHR") && !chromosome.contains("contig")) {
+                    int start = Integer.valueOf(variationFeatureFields[2]);
+                    int end = Integer.valueOf(variationFeatureFields[3]);
+                    String id = (variationFields[2] != null && !variationFields[2].equals("\\N")) ? variationFields[2] : "";
+                    String reference = (allelesArray[0] != null && !allelesArray[0].equals("\\N")) ? allelesArray[0] : "";
+                    List<String> alternates = getAlternates(allelesArray);
+
+                    List<String> ids = new LinkedList<>();
+                    ids.add(id);
+
+                    List<String> hgvs = getHgvs(transcriptVariation);
+                    Map<String, AdditionalAttribute> additionalAttributes
+                            = getAdditionalAttributes(variationFields, variationFeatureFields);
+
+                    List<ConsequenceType> conseqTypes = getConsequenceTypes(transcriptVariation);
+                    String displayConsequenceTypes = getDisplayConsequenceType(variationFeatureFields);
+                    String strand = variationFeatureFields[4];
+                    String ancestralAllele = (variationFields[4] != null && !variationFields[4].equals("\\N"))
+                            ? variationFields[4] : "";
+                    String minorAllele = (variationFeatureFields[16] != null && !variationFeatureFields[16].equals("\\N"))
+                            ? variationFeatureFields[16] : "";
+                    Float minorAlleleFreq = (variationFeatureFields[17] != null && !variationFeatureFields[17].equals("\\N"))
+                            ? Float.parseFloat(variationFeatureFields[17]) : null;
+
+                    // create a variation object for each alternative
+                    for (String alternate : alternates) {
+                        VariantType type = getVariantType(reference, alternate);
+                        if (type == null) {
+                            logger.warn("Unrecognized variant type (won't be parsed): {}:{}-{} {}/{}", chromosome, start, end,
+                                    reference, alternate);
+                        } else if (incorrectStartAndEnd(start, end, reference)) {
+                            logger.debug("Incorrect variant start-end pair:  {}:{}-{} {}/{}", chromosome, start, end, reference,
+                                    alternate);
+                            incorrectEndVariants.incrementAndGet();
+                        } else {
+                            // build and serialize variant
+                            Variant variation = buildVariant(chromosome, start, end, reference, alternate, type, ids, hgvs,
+                                    additionalAttributes, displayConsequenceTypes, conseqTypes, id, xrefs, strand, ancestralAllele,
+                                    minorAllele, minorAlleleFreq);
+                            fileSerializer.serialize(variation, getOutputFileName(chromosome));
+                        }
+                        if (countprocess.incrementAndGet() % 100000 == 0) {
+                            logger.info("Processed variations: {}", countprocess.get());
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            logger.error("Error parsing variation: {}", e.getMessage());
+            logger.error("Last line processed: {}", variationRecord.line);
+            failed = true;
+        }
+    }
+
     private void preprocessInputFiles() throws IOException, InterruptedException {
         gunzipVariationInputFiles();
         variationFile.sort();
@@ -476,8 +533,7 @@ public class VariationParser extends CellBaseParser {
         return additionalAttributes;
     }
 
-    private List<Xref> getXrefs(Map<String, String> sourceMap, int variationId) throws IOException, SQLException {
-        List<String[]> variationSynonyms = variationSynonymFile.getVariationRelatedLines(variationId);
+    private List<Xref> getXrefs(Map<String, String> sourceMap, List<String[]> variationSynonyms) {
         List<Xref> xrefs = null;
         if (variationSynonyms != null && variationSynonyms.size() > 0) {
             String[] arr;
@@ -495,11 +551,9 @@ public class VariationParser extends CellBaseParser {
         return xrefs;
     }
 
-    private List<TranscriptVariation> getTranscriptVariations(int variationId, String variationFeatureId) throws IOException, SQLException {
+    private List<TranscriptVariation> getTranscriptVariations(List<String[]> resultTranscriptVariations, String variationFeatureId) {
         // Note the ID used, TranscriptVariation references to VariationFeature no Variation !!!
         List<TranscriptVariation> transcriptVariation = new ArrayList<>();
-        List<String[]> resultTranscriptVariations = variationTranscriptFile.getVariationRelatedLines(variationId);
-        //getVariationTranscripts(variationId, Integer.parseInt(variationFeatureId));
         if (resultTranscriptVariations != null && resultTranscriptVariations.size() > 0) {
             for (String[] transcriptVariationFields : resultTranscriptVariations) {
                 if (transcriptVariationFields[VARIATION_FEATURE_ID_COLUMN_INDEX_IN_TRANSCRIPT_VARIATION_FILE].equals(variationFeatureId)) {
@@ -552,21 +606,96 @@ public class VariationParser extends CellBaseParser {
         logger.info("Compressing variation files ...");
         Stopwatch stopwatch = Stopwatch.createStarted();
 
-        variationFile.gzip();
-        variationFeatureFile.gzip();
-        variationTranscriptFile.gzip();
-        variationSynonymFile.gzip();
+        // Files are independent, each one is compressed by a different gzip process
+        List<AbstractVariationFile> files = Arrays.asList(variationFile, variationFeatureFile, variationTranscriptFile,
+                variationSynonymFile);
+        ExecutorService executorService = Executors.newFixedThreadPool(files.size());
+        try {
+            List<Future<Void>> futures = new ArrayList<>(files.size());
+            for (AbstractVariationFile file : files) {
+                futures.add(executorService.submit(() -> {
+                    file.gzip();
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Error compressing variation files", e.getCause());
+        } finally {
+            executorService.shutdown();
+        }
 
         logger.info("Files compressed");
         logger.debug("Elapsed time compressing files: {}", stopwatch);
     }
 
     private String getOutputFileName(String chromosome) {
-        String outputFileName = outputFileNames.get(chromosome);
-        if (outputFileName == null) {
-            outputFileName = "variation_chr" + chromosome;
-            outputFileNames.put(chromosome, outputFileName);
+        return outputFileNames.computeIfAbsent(chromosome, k -> "variation_chr" + k);
+    }
+
+    /**
+     * A variation and its related lines from the variation_feature, transcript_variation and variation_synonym files.
+     */
+    private static class VariationRecord {
+
+        private final String line;
+        private final String[] variationFields;
+        private final String[] variationFeatureFields;
+        private final String chromosome;
+        private final List<String[]> transcriptVariationLines;
+        private final List<String[]> synonymLines;
+
+        VariationRecord(String line, String[] variationFields, String[] variationFeatureFields, String chromosome,
+                        List<String[]> transcriptVariationLines, List<String[]> synonymLines) {
+            this.line = line;
+            this.variationFields = variationFields;
+            this.variationFeatureFields = variationFeatureFields;
+            this.chromosome = chromosome;
+            this.transcriptVariationLines = transcriptVariationLines;
+            this.synonymLines = synonymLines;
+        }
+    }
+
+    /**
+     * Builds and serializes the variations of the chromosomes assigned to it. Records are received in batches through a
+     * bounded queue, so the reader blocks when workers fall behind. An empty batch signals the end of the input.
+     */
+    private class VariationWorker implements Runnable {
+
+        private final BlockingQueue<List<VariationRecord>> queue = new ArrayBlockingQueue<>(WORKER_QUEUE_SIZE);
+        private List<VariationRecord> batch = new ArrayList<>(BATCH_SIZE);
+
+        void add(VariationRecord variationRecord) throws InterruptedException {
+            batch.add(variationRecord);
+            if (batch.size() == BATCH_SIZE) {
+                queue.put(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+
+        void finish() throws InterruptedException {
+            if (!batch.isEmpty()) {
+                queue.put(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+            queue.put(Collections.emptyList());
+        }
+
+        @Override
+        public void run() {
+            try {
+                List<VariationRecord> variationRecords;
+                while (!(variationRecords = queue.take()).isEmpty()) {
+                    // After an error remaining batches are just drained, so that the reader never blocks
+                    for (int i = 0; i < variationRecords.size() && !failed; i++) {
+                        processVariation(variationRecords.get(i));
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
-        return outputFileName;
     }
 }
@@ -9,8 +9,6 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.HashMap;
-import java.util.Map;
 
 /**
  * Created by parce on 09/12/15.
@@ -20,6 +18,11 @@ public class VariationTranscriptFile extends AbstractVariationFile {
     public static final String TRANSCRIPT_VARIATION_FILENAME = "transcript_variation.txt";
     public static final String PREPROCESSED_TRANSCRIPT_VARIATION_FILENAME = "transcript_variation.includingVariationId.txt";
 
+    private static final int VARIATION_FEATURE_ID_COLUMN_INDEX = 1;
+    private static final int VARIATION_FEATURE_ID_COLUMN_INDEX_IN_VARIATION_FEATURE_FILE = 0;
+    private static final int VARIATION_ID_COLUMN_INDEX_IN_VARIATION_FEATURE_FILE =
+            VariationFeatureFile.VARIATION_ID_COLUMN_INDEX_IN_VARIATION_FEATURE_FILE;
+
     public VariationTranscriptFile(Path variationDirectory) {
         super(variationDirectory, TRANSCRIPT_VARIATION_FILENAME, PREPROCESSED_TRANSCRIPT_VARIATION_FILENAME);
     }
@@ -30,9 +33,20 @@ public class VariationTranscriptFile extends AbstractVariationFile {
             logger.info("Preprocessing {} file ...", preprocessedFileName);
             Stopwatch stopwatch = Stopwatch.createStarted();
 
-            // add variationId to transcript_variation file
-            Map<Integer, Integer> variationFeatureToVariationId = createVariationFeatureIdToVariationIdMap(variationFeatureFile);
-            Path transcriptVariationTempFile = addVariationIdToTranscriptVariationFile(variationFeatureToVariationId);
+            // add variationId to transcript_variation file. Both transcript_variation and variation_feature are sorted by
+            // variation_feature_id and merge-joined, instead of loading a variationFeatureId -> variationId map in memory
+            Path transcriptVariationByFeatureIdFile = variationDirectory.resolve(unprocessedFileName + ".byFeatureId.tmp");
+            sortFileByNumericColumn(getUnzippedUnprocessedFile(), transcriptVariationByFeatureIdFile,
+                    VARIATION_FEATURE_ID_COLUMN_INDEX);
+            Path variationFeatureByIdFile = variationDirectory.resolve(VariationFeatureFile.VARIATION_FEATURE_FILENAME + ".byId.tmp");
+            sortFileByNumericColumn(variationFeatureFile.getUnzippedUnprocessedFile(), variationFeatureByIdFile,
+                    VARIATION_FEATURE_ID_COLUMN_INDEX_IN_VARIATION_FEATURE_FILE);
+
+            Path transcriptVariationTempFile = addVariationIdToTranscriptVariationFile(transcriptVariationByFeatureIdFile,
+                    variationFeatureByIdFile);
+            Files.delete(transcriptVariationByFeatureIdFile);
+            Files.delete(variationFeatureByIdFile);
+
             // transcript_variation file columns number can vary, so we need to save the variationId column index because it is not constant
             variationIdColumnIndex =
                     getVariationIdColumnIndexInTranscriptVariationFile(transcriptVariationTempFile.getFileName().toString());
@@ -51,52 +65,45 @@ public class VariationTranscriptFile extends AbstractVariationFile {
         }
     }
 
-    private Map<Integer, Integer> createVariationFeatureIdToVariationIdMap(VariationFeatureFile variationFeatureFile) throws IOException {
-        logger.info("Creating variationFeatureId to variationId map ...");
-        Stopwatch stopwatch = Stopwatch.createStarted();
-        Map<Integer, Integer> variationFeatureToVariationId = new HashMap<>();
-
-        BufferedReader variationFeatFileReader = variationFeatureFile.getUnprocessedFileBufferedReader();
-
-        String line;
-        while ((line = variationFeatFileReader.readLine()) != null) {
-            // TODO: add limit parameter would do that run faster?
-            // TODO: use a precompiled pattern would improve efficiency
-            String[] fields = line.split("\t");
-            Integer variationFeatureId = Integer.valueOf(fields[0]);
-            Integer variationId = Integer.valueOf(fields[5]);
-            variationFeatureToVariationId.put(variationFeatureId, variationId);
-        }
-
-        variationFeatFileReader.close();
-
-        logger.info("Done");
-        logger.debug("Elapsed time creating variationFeatureId to variationId map: {}", stopwatch);
-
-        return variationFeatureToVariationId;
-    }
-
-    private Path addVariationIdToTranscriptVariationFile(Map<Integer, Integer> variationFeatureToVariationId) throws IOException {
+    private Path addVariationIdToTranscriptVariationFile(Path transcriptVariationByFeatureIdFile, Path variationFeatureByIdFile)
+            throws IOException {
         Path transcriptVariationTempFile = variationDirectory.resolve(unprocessedFileName + ".tmp");
         logger.info("Adding variation Id to transcript variations and saving them into {} ...", transcriptVariationTempFile);
         Stopwatch stopwatch = Stopwatch.createStarted();
 
-        BufferedReader br = getUnprocessedFileBufferedReader();
-        BufferedWriter bw = Files.newBufferedWriter(transcriptVariationTempFile, Charset.defaultCharset(),
-                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
-
-        String line;
-        while ((line = br.readLine()) != null) {
-            // TODO: add limit parameter would do that run faster?
-            // TODO: use a precompiled pattern would improve efficiency
-            Integer variationFeatureId = Integer.valueOf(line.split("\t")[1]);
-            Integer variationId = variationFeatureToVariationId.get(variationFeatureId);
-            bw.write(line + "\t" + variationId + "\n");
+        int variationFeatureId = -1;
+        String variationId = null;
+        long notFound = 0;
+        try (BufferedReader br = Files.newBufferedReader(transcriptVariationByFeatureIdFile, Charset.defaultCharset());
+             BufferedReader variationFeatureReader = Files.newBufferedReader(variationFeatureByIdFile, Charset.defaultCharset());
+             BufferedWriter bw = Files.newBufferedWriter(transcriptVariationTempFile, Charset.defaultCharset(),
+                     StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                int transcriptVariationFeatureId = Integer.parseInt(line.split("\t", 3)[VARIATION_FEATURE_ID_COLUMN_INDEX]);
+                // Both files are sorted by variation_feature_id, the variation_feature reader only moves forward
+                while (variationFeatureId < transcriptVariationFeatureId) {
+                    String variationFeatureLine = variationFeatureReader.readLine();
+                    if (variationFeatureLine == null) {
+                        variationFeatureId = Integer.MAX_VALUE;
+                        variationId = null;
+                    } else {
+                        String[] fields = variationFeatureLine.split("\t", VARIATION_ID_COLUMN_INDEX_IN_VARIATION_FEATURE_FILE + 2);
+                        variationFeatureId = Integer.parseInt(fields[VARIATION_FEATURE_ID_COLUMN_INDEX_IN_VARIATION_FEATURE_FILE]);
+                        variationId = fields[VARIATION_ID_COLUMN_INDEX_IN_VARIATION_FEATURE_FILE];
+                    }
+                }
+                if (variationFeatureId == transcriptVariationFeatureId) {
+                    bw.write(line + "\t" + variationId + "\n");
+                } else {
+                    notFound++;
+                }
+            }
         }
 
-        br.close();
-        bw.close();
-
+        if (notFound > 0) {
+            logger.warn("{} transcript variations skipped, their variation feature was not found", notFound);
+        }
         logger.info("Added");
         logger.debug("Elapsed time adding variation Id to transcript variation file: {}", stopwatch);
 
@@ -33,6 +33,7 @@ class GeneParserTest extends Specification {
 
 
     static List<Gene> serializedGenes
+    static List<Gene> parallelSerializedGenes
     static List<Gene> ebolaSerializedGenes
 
     def setupSpec() {
@@ -48,6 +49,11 @@ class GeneParserTest extends Specification {
         def geneParser = new GeneParser(geneTestDir, genomeSequenceFasta, species, serializer)
         geneParser.parse()
 
+        def parallelSerializer = Mock(CellBaseSerializer)
+        parallelSerializedGenes = new ArrayList<Gene>()
+        parallelSerializer.serialize(_) >> { Gene arg -> parallelSerializedGenes.add(arg) }
+        new GeneParser(geneTestDir, genomeSequenceFasta, species, false, 4, parallelSerializer).parse()
+
         def ebolaGeneTestDir = Paths.get(GeneParserTest.class.getResource("/ebolaGenome").toURI())
         def ebolaGenomeSequenceFasta = Paths.get(GeneParserTest.class.getResource("/ebolaGenome/Ebola_virus.KM034562v1.fa.gz").toURI())
 
@@ -192,6 +198,13 @@ class GeneParserTest extends Specification {
         "L"    || "KM034562v1" | 11501 | 18282 | "+"    | 1                 | 81              | 6719          | 11581              | 18219
     }
 
+    def "parallel build serializes the same genes in the GTF order"() {
+        expect:
+        parallelSerializedGenes.collect({gene -> gene.getId()}) == serializedGenes.collect({gene -> gene.getId()})
+        parallelSerializedGenes.collect({gene -> gene.getTranscripts().size()}) ==
+                serializedGenes.collect({gene -> gene.getTranscripts().size()})
+    }
+
     def cleanupSpec() {
         // delete reference genome sqlLite
         File referenceGenomeSqlLiteFile = Paths.get(GeneParserTest.class.getResource("/geneParser/Homo_sapiens.GRCh38.fa.rdb").toURI()).toFile()
@@ -0,0 +1,78 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.avro.file.CodecFactory;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Wall time and size of writing and reading back the same annotation as gzipped JSON and as Avro container files. It
+ * is not run with the tests, the number of variants is an optional argument:
+ *
+ * mvn -pl cellbase-app test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=org.opencb.cellbase.app.cli.variant.annotation.AvroAnnotationBenchmark -Dexec.args="500000"
+ */
+public class AvroAnnotationBenchmark {
+
+    private static Logger logger = LoggerFactory.getLogger(AvroAnnotationBenchmark.class);
+
+    public static void main(String[] args) throws Exception {
+        int numVariants = (args.length > 0) ? Integer.parseInt(args[0]) : 500000;
+
+        List<Variant> variants = RollingVariantAvroDataWriterTest.createVariants(numVariants);
+        Path jsonFile = Files.createTempFile("annotation", ".json.gz");
+        Path avroFile = Files.createTempFile("annotation", ".avro");
+        ObjectMapper jsonObjectMapper = new ObjectMapper();
+        jsonObjectMapper.configure(MapperFeature.REQUIRE_SETTERS_FOR_GETTERS, true);
+        try {
+            for (int round = 0; round < 3; round++) {
+                long start = System.currentTimeMillis();
+                RollingVariantAvroDataWriterTest.write(new BgzfJsonAnnotationWriter(jsonFile, 1), variants, 200);
+                long jsonWrite = System.currentTimeMillis() - start;
+
+                start = System.currentTimeMillis();
+                RollingVariantAvroDataWriter avroWriter = new RollingVariantAvroDataWriter(avroFile, CodecFactory.deflateCodec(6), 0);
+                RollingVariantAvroDataWriterTest.write(avroWriter, variants, 200);
+                long avroWrite = System.currentTimeMillis() - start;
+
+                start = System.currentTimeMillis();
+                long jsonConsequenceTypes = 0;
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                        Files.newInputStream(jsonFile)), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        jsonConsequenceTypes += jsonObjectMapper.readValue(line, VariantAvro.class).getAnnotation()
+                                .getConsequenceTypes().size();
+                    }
+                }
+                long jsonRead = System.currentTimeMillis() - start;
+
+                start = System.currentTimeMillis();
+                long avroConsequenceTypes = 0;
+                for (VariantAvro variantAvro : RollingVariantAvroDataWriterTest.read(avroWriter.getFiles())) {
+                    avroConsequenceTypes += variantAvro.getAnnotation().getConsequenceTypes().size();
+                }
+                long avroRead = System.currentTimeMillis() - start;
+
+                logger.info("Round {}, {} variants. JSON: write {}ms, read {}ms, {} bytes, {} consequence types. "
+                                + "Avro: write {}ms, read {}ms, {} bytes, {} consequence types", round, variants.size(), jsonWrite,
+                        jsonRead, Files.size(jsonFile), jsonConsequenceTypes, avroWrite, avroRead, Files.size(avroFile),
+                        avroConsequenceTypes);
+            }
+        } finally {
+            Files.deleteIfExists(jsonFile);
+            Files.deleteIfExists(avroFile);
+        }
+    }
+}
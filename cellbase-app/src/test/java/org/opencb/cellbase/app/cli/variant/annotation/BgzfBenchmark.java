@@ -0,0 +1,86 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Wall time of writing and reading a synthetic VCF with gzip and with BGZF on several threads. It is not run with the
+ * tests, the number of lines and threads are optional arguments:
+ *
+ * mvn -pl cellbase-app test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=org.opencb.cellbase.app.cli.variant.annotation.BgzfBenchmark -Dexec.args="5000000 8"
+ */
+public class BgzfBenchmark {
+
+    private static Logger logger = LoggerFactory.getLogger(BgzfBenchmark.class);
+
+    public static void main(String[] args) throws IOException {
+        int numLines = (args.length > 0) ? Integer.parseInt(args[0]) : 5000000;
+        int numThreads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        List<String> lines = ParallelBgzfTest.createVcfLines(numLines);
+        Path gzipFile = Files.createTempFile("gzip", ".vcf.gz");
+        Path bgzfFile = Files.createTempFile("bgzf", ".vcf.gz");
+        try {
+            for (int round = 0; round < 3; round++) {
+                long start = System.currentTimeMillis();
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(
+                        Files.newOutputStream(gzipFile), 1 << 16), StandardCharsets.UTF_8))) {
+                    write(writer, lines);
+                }
+                long gzipWrite = System.currentTimeMillis() - start;
+
+                start = System.currentTimeMillis();
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(new ParallelBgzfOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(bgzfFile), 1 << 20), numThreads), StandardCharsets.UTF_8))) {
+                    write(writer, lines);
+                }
+                long bgzfWrite = System.currentTimeMillis() - start;
+
+                start = System.currentTimeMillis();
+                long gzipLines = 0;
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(
+                        Files.newInputStream(gzipFile), 1 << 16), StandardCharsets.UTF_8))) {
+                    while (reader.readLine() != null) {
+                        gzipLines++;
+                    }
+                }
+                long gzipRead = System.currentTimeMillis() - start;
+
+                start = System.currentTimeMillis();
+                long bgzfLines = 0;
+                BgzfStringDataReader dataReader = new BgzfStringDataReader(bgzfFile, numThreads);
+                dataReader.open();
+                dataReader.pre();
+                for (List<String> batch = dataReader.read(200); !batch.isEmpty(); batch = dataReader.read(200)) {
+                    bgzfLines += batch.size();
+                }
+                dataReader.post();
+                dataReader.close();
+                long bgzfRead = System.currentTimeMillis() - start;
+
+                logger.info("Round {}, {} lines, {} threads. Write: gzip {}ms ({} bytes), BGZF {}ms ({} bytes). "
+                                + "Read: gzip {}ms ({} lines), BGZF {}ms ({} lines)", round, lines.size(), numThreads, gzipWrite,
+                        Files.size(gzipFile), bgzfWrite, Files.size(bgzfFile), gzipRead, gzipLines, bgzfRead, bgzfLines);
+            }
+        } finally {
+            Files.deleteIfExists(gzipFile);
+            Files.deleteIfExists(bgzfFile);
+        }
+    }
+
+    private static void write(Writer writer, List<String> lines) throws IOException {
+        for (String line : lines) {
+            writer.write(line);
+            writer.write('\n');
+        }
+    }
+}
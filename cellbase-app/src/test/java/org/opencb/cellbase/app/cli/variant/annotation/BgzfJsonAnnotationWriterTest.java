@@ -0,0 +1,80 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import htsjdk.samtools.Chunk;
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import htsjdk.tribble.index.tabix.TabixIndex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.Variant;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class BgzfJsonAnnotationWriterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void queryRegionThroughIndex() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("annotation.json.gz");
+        List<Variant> variants = RollingVariantAvroDataWriterTest.createVariants(20000);
+        RollingVariantAvroDataWriterTest.write(new BgzfJsonAnnotationWriter(file, 4), variants, 200);
+        assertTrue(Files.exists(BgzfJsonAnnotationWriter.getIndexPath(file)));
+
+        int start = variants.get(12000).getStart();
+        int end = variants.get(12500).getStart();
+        List<String> expected = new ArrayList<>();
+        for (Variant variant : variants.subList(12000, 12501)) {
+            expected.add(variant.toString());
+        }
+
+        TabixIndex index = new TabixIndex(BgzfJsonAnnotationWriter.getIndexPath(file).toFile());
+        List<Chunk> chunks = index.getBlocks("1", start, end);
+        // Lines before the region are skipped by seeking, not decompressed
+        assertTrue(chunks.get(0).getChunkStart() > 0);
+        assertEquals(expected, query(file, chunks, start, end));
+
+        assertTrue(index.getBlocks("2", 1, end).isEmpty());
+    }
+
+    @Test
+    public void unsortedVariantsAreNotIndexed() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("annotation.json.gz");
+        // An index left by a previous run would not match the new file
+        Files.createFile(BgzfJsonAnnotationWriter.getIndexPath(file));
+        List<Variant> variants = new ArrayList<>(RollingVariantAvroDataWriterTest.createVariants(100));
+        Collections.reverse(variants);
+        RollingVariantAvroDataWriterTest.write(new BgzfJsonAnnotationWriter(file, 2), variants, 10);
+
+        assertTrue(Files.exists(file));
+        assertFalse(Files.exists(BgzfJsonAnnotationWriter.getIndexPath(file)));
+    }
+
+    /**
+     * Reads the lines of the chunks and keeps the variants overlapping the region, chunks may contain lines around it.
+     */
+    private List<String> query(Path file, List<Chunk> chunks, int start, int end) throws Exception {
+        ObjectMapper jsonObjectMapper = new ObjectMapper();
+        List<String> variants = new ArrayList<>();
+        try (BlockCompressedInputStream inputStream = new BlockCompressedInputStream(file.toFile())) {
+            for (Chunk chunk : chunks) {
+                inputStream.seek(chunk.getChunkStart());
+                while (inputStream.getFilePointer() < chunk.getChunkEnd()) {
+                    JsonNode variant = jsonObjectMapper.readTree(inputStream.readLine());
+                    if (variant.get("start").asInt() <= end && variant.get("end").asInt() >= start) {
+                        variants.add(variant.get("chromosome").asText() + ":" + variant.get("start").asInt() + ":"
+                                + variant.get("reference").asText() + ":" + variant.get("alternate").asText());
+                    }
+                }
+            }
+        }
+        return variants;
+    }
+}
@@ -0,0 +1,97 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.apache.commons.io.FileUtils;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+import org.opencb.cellbase.core.variant.annotation.VariantAnnotationUtils;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wall time of looking up the population frequencies of a synthetic set of variants in a custom annotation index.
+ * The same variants are indexed twice: with JSON values, read with one get per variant and flagged as visited by
+ * writing the value back as the annotators did before, and with binary values, read with one multiGet per batch and
+ * flagged in VisitedVariants. It is not run with the tests, the number of variants and the batch size are optional
+ * arguments:
+ *
+ * mvn -pl cellbase-app test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=org.opencb.cellbase.app.cli.variant.annotation.IndexLookupBenchmark -Dexec.args="1000000 200"
+ */
+public class IndexLookupBenchmark {
+
+    private static Logger logger = LoggerFactory.getLogger(IndexLookupBenchmark.class);
+
+    public static void main(String[] args) throws Exception {
+        int numVariants = (args.length > 0) ? Integer.parseInt(args[0]) : 1000000;
+        int batchSize = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+
+        RocksDB.loadLibrary();
+        ObjectMapper jsonObjectMapper = new ObjectMapper();
+        jsonObjectMapper.configure(MapperFeature.REQUIRE_SETTERS_FOR_GETTERS, true);
+        ObjectWriter jsonObjectWriter = jsonObjectMapper.writer();
+        IndexValueCodec indexValueCodec = new IndexValueCodec();
+
+        Path jsonIndex = Files.createTempDirectory("json.idx");
+        Path binaryIndex = Files.createTempDirectory("binary.idx");
+        try (Options options = RocksDBIndexBuilder.optimizeForPointLookup(new Options().setCreateIfMissing(true));
+             RocksDB jsonDB = RocksDB.open(options, jsonIndex.toString());
+             RocksDB binaryDB = RocksDB.open(options, binaryIndex.toString())) {
+            List<byte[]> variantKeys = new ArrayList<>(numVariants);
+            for (int i = 0; i < numVariants; i++) {
+                VariantAvro variantAvro = IndexValueCodecTest.createVariant(i + 1).getImpl();
+                byte[] variantKey = VariantAnnotationUtils.buildVariantId(variantAvro.getChromosome(), variantAvro.getStart(),
+                        variantAvro.getReference(), variantAvro.getAlternate()).getBytes();
+                variantKeys.add(variantKey);
+                jsonDB.put(variantKey, jsonObjectWriter.writeValueAsBytes(variantAvro));
+                binaryDB.put(variantKey, indexValueCodec.encodePopulationVariant(i, variantAvro));
+            }
+            jsonDB.compactRange();
+            binaryDB.compactRange();
+
+            for (int round = 0; round < 3; round++) {
+                long start = System.currentTimeMillis();
+                long jsonFrequencies = 0;
+                for (byte[] variantKey : variantKeys) {
+                    VariantAvro variantAvro = jsonObjectMapper.readValue(jsonDB.get(variantKey), VariantAvro.class);
+                    jsonFrequencies += variantAvro.getAnnotation().getPopulationFrequencies().size();
+                    variantAvro.getAnnotation().setAdditionalAttributes(Collections.emptyMap());
+                    jsonDB.put(variantKey, jsonObjectWriter.writeValueAsBytes(variantAvro));
+                }
+                long json = System.currentTimeMillis() - start;
+
+                start = System.currentTimeMillis();
+                long binaryFrequencies = 0;
+                VisitedVariants visitedVariants = new VisitedVariants(numVariants);
+                for (int i = 0; i < variantKeys.size(); i += batchSize) {
+                    List<byte[]> batchKeys = variantKeys.subList(i, Math.min(i + batchSize, variantKeys.size()));
+                    Map<byte[], byte[]> values = binaryDB.multiGet(batchKeys);
+                    for (byte[] variantKey : batchKeys) {
+                        byte[] value = values.get(variantKey);
+                        visitedVariants.visit(indexValueCodec.decodeOrdinal(value));
+                        binaryFrequencies += indexValueCodec.decodePopulationVariant(value).getAnnotation()
+                                .getPopulationFrequencies().size();
+                    }
+                }
+                long binary = System.currentTimeMillis() - start;
+
+                logger.info("Round {}, {} variants. JSON, one get per variant: {}ms, {} frequencies. Binary, multiGet of {}: "
+                                + "{}ms, {} frequencies", round, numVariants, json, jsonFrequencies, batchSize, binary,
+                        binaryFrequencies);
+            }
+        } finally {
+            FileUtils.deleteDirectory(jsonIndex.toFile());
+            FileUtils.deleteDirectory(binaryIndex.toFile());
+        }
+    }
+}
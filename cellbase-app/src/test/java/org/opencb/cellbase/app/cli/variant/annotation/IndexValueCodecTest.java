@@ -0,0 +1,74 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.PopulationFrequency;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class IndexValueCodecTest {
+
+    @Test
+    public void populationVariant() throws Exception {
+        IndexValueCodec indexValueCodec = new IndexValueCodec();
+        VariantAvro variantAvro = createVariant(1000).getImpl();
+
+        byte[] value = indexValueCodec.encodePopulationVariant(123456, variantAvro);
+        assertEquals(123456, indexValueCodec.decodeOrdinal(value));
+        VariantAvro decoded = indexValueCodec.decodePopulationVariant(value);
+        assertEquals(variantAvro.getStart(), decoded.getStart());
+        assertEquals(variantAvro.getAlternate(), decoded.getAlternate());
+        assertEquals(variantAvro.getAnnotation().getPopulationFrequencies().get(0).getAltAlleleFreq(),
+                decoded.getAnnotation().getPopulationFrequencies().get(0).getAltAlleleFreq());
+    }
+
+    @Test
+    public void attributes() throws Exception {
+        IndexValueCodec indexValueCodec = new IndexValueCodec();
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("AF", "0.25");
+        attributes.put("CLNSIG", "Pathogenic,Likely_pathogenic");
+        attributes.put("EMPTY", "");
+
+        assertEquals(attributes, indexValueCodec.decodeAttributes(indexValueCodec.encodeAttributes(attributes)));
+        assertEquals(Collections.emptyMap(), indexValueCodec.decodeAttributes(indexValueCodec.encodeAttributes(Collections.emptyMap())));
+        // Values of indexes created by previous versions are JSON
+        assertEquals(attributes, indexValueCodec.decodeAttributes(new ObjectMapper().writeValueAsBytes(attributes)));
+    }
+
+    @Test
+    public void visitedVariants() throws Exception {
+        VisitedVariants visitedVariants = new VisitedVariants(130);
+        visitedVariants.visit(0);
+        visitedVariants.visit(64);
+        visitedVariants.visit(129);
+        visitedVariants.visit(129);
+        assertTrue(visitedVariants.isVisited(64));
+        assertFalse(visitedVariants.isVisited(63));
+        assertEquals(3, visitedVariants.countVisited());
+    }
+
+    static Variant createVariant(int position) {
+        Variant variant = new Variant("1:" + position + ":A:T");
+        VariantAnnotation variantAnnotation = new VariantAnnotation();
+        List<PopulationFrequency> populationFrequencies = new ArrayList<>();
+        for (String population : Arrays.asList("ALL", "AFR", "AMR", "EAS", "EUR", "SAS")) {
+            PopulationFrequency populationFrequency = new PopulationFrequency();
+            populationFrequency.setStudy("1kG_phase3");
+            populationFrequency.setPopulation(population);
+            populationFrequency.setRefAllele("A");
+            populationFrequency.setAltAllele("T");
+            populationFrequency.setRefAlleleFreq(0.75f);
+            populationFrequency.setAltAlleleFreq(0.25f);
+            populationFrequencies.add(populationFrequency);
+        }
+        variantAnnotation.setPopulationFrequencies(populationFrequencies);
+        variant.setAnnotation(variantAnnotation);
+        return variant;
+    }
+}
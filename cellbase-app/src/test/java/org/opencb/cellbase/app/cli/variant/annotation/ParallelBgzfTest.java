@@ -0,0 +1,89 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import htsjdk.samtools.util.BlockCompressedInputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+public class ParallelBgzfTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void writeAndRead() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("test.vcf.gz");
+        List<String> lines = createVcfLines(50000);
+        List<Long> positions = new ArrayList<>();
+        ParallelBgzfOutputStream outputStream = new ParallelBgzfOutputStream(Files.newOutputStream(file), 4);
+        for (String line : lines) {
+            positions.add(outputStream.getPosition());
+            outputStream.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        outputStream.close();
+        assertTrue(BgzfStringDataReader.isBgzf(file));
+
+        // Lines spanning blocks are joined back
+        BgzfStringDataReader dataReader = new BgzfStringDataReader(file, 4);
+        dataReader.open();
+        dataReader.pre();
+        List<String> readLines = new ArrayList<>();
+        List<String> batch = dataReader.read(1000);
+        while (!batch.isEmpty()) {
+            readLines.addAll(batch);
+            batch = dataReader.read(1000);
+        }
+        dataReader.post();
+        dataReader.close();
+        assertEquals(lines, readLines);
+
+        // Any gzip reader can read BGZF
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new GZIPInputStream(Files.newInputStream(file))))) {
+            assertEquals(lines.get(lines.size() - 1), reader.lines().reduce((a, b) -> b).orElse(null));
+        }
+
+        // Virtual offsets point to the start of each line
+        try (BlockCompressedInputStream inputStream = new BlockCompressedInputStream(file.toFile())) {
+            for (int i = 0; i < lines.size(); i += 4999) {
+                inputStream.seek(outputStream.getVirtualOffset(positions.get(i)));
+                assertEquals(lines.get(i), inputStream.readLine());
+            }
+        }
+    }
+
+    @Test
+    public void plainGzipIsNotBgzf() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("test.vcf.gz");
+        try (OutputStream outputStream = new GZIPOutputStream(Files.newOutputStream(file))) {
+            outputStream.write("#CHROM\tPOS\n".getBytes(StandardCharsets.UTF_8));
+        }
+        assertFalse(BgzfStringDataReader.isBgzf(file));
+    }
+
+    static List<String> createVcfLines(int numLines) {
+        Random random = new Random(42);
+        String[] bases = {"A", "C", "G", "T"};
+        List<String> lines = new ArrayList<>(numLines + 2);
+        lines.add("##fileformat=VCFv4.2");
+        lines.add("#CHROM\tPOS\tID\tREF\tALT\tQUAL\tFILTER\tINFO");
+        int position = 1;
+        for (int i = 0; i < numLines; i++) {
+            position += 1 + random.nextInt(200);
+            lines.add("1\t" + position + "\trs" + i + "\t" + bases[random.nextInt(4)] + "\t" + bases[random.nextInt(4)]
+                    + "\t" + random.nextInt(100) + "\tPASS\tAF=" + random.nextDouble() + ";DP=" + random.nextInt(1000));
+        }
+        return lines;
+    }
+}
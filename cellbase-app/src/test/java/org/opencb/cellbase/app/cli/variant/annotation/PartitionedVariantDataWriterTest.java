@@ -0,0 +1,130 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.commons.io.DataWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PartitionedVariantDataWriterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void partitionContains() throws Exception {
+        VariationPartition partition = new VariationPartition("1", 101, 200);
+        assertTrue(partition.contains(new Variant("1:101:A:T")));
+        assertTrue(partition.contains(new Variant("1:200:A:T")));
+        assertFalse(partition.contains(new Variant("1:100:A:T")));
+        assertFalse(partition.contains(new Variant("2:150:A:T")));
+        assertEquals("1:100-200", partition.getQueryRegion());
+    }
+
+    @Test
+    public void completedPartitionsAreRenamed() throws Exception {
+        Path outdir = temporaryFolder.getRoot().toPath();
+        VariationPartition first = new VariationPartition("1", 1, 100);
+        VariationPartition second = new VariationPartition("1", 101, 200);
+        VariationPartition empty = new VariationPartition("2", 1, 100);
+        List<VariationPartition> partitions = Arrays.asList(first, second, empty);
+        PartitionedVariantDataWriter dataWriter = new PartitionedVariantDataWriter(partitions, outdir, "annotation_",
+                ".txt", FileWriter::new);
+
+        dataWriter.open();
+        dataWriter.pre();
+        first.setReadComplete(2);
+        empty.setReadComplete(0);
+        dataWriter.write(Arrays.asList(new Variant("1:10:A:T"), new Variant("1:150:C:G"), new Variant("1:20:A:T")));
+
+        assertEquals(2, Files.readAllLines(getOutputFile(outdir, first)).size());
+        assertTrue(Files.exists(getOutputFile(outdir, empty)));
+        // Second partition is still being read, its file keeps the partial name
+        assertFalse(Files.exists(getOutputFile(outdir, second)));
+
+        second.setReadComplete(1);
+        dataWriter.post();
+        dataWriter.close();
+        assertEquals(Collections.singletonList("1:150:C:G"), Files.readAllLines(getOutputFile(outdir, second)));
+    }
+
+    @Test
+    public void interruptedPartitionsAreNotRenamed() throws Exception {
+        Path outdir = temporaryFolder.getRoot().toPath();
+        VariationPartition partition = new VariationPartition("1", 1, 100);
+        PartitionedVariantDataWriter dataWriter = new PartitionedVariantDataWriter(Collections.singletonList(partition),
+                outdir, "annotation_", ".txt", FileWriter::new);
+
+        dataWriter.open();
+        dataWriter.pre();
+        dataWriter.write(Collections.singletonList(new Variant("1:10:A:T")));
+        dataWriter.post();
+        dataWriter.close();
+        assertFalse(Files.exists(getOutputFile(outdir, partition)));
+    }
+
+    private Path getOutputFile(Path outdir, VariationPartition partition) {
+        return PartitionedVariantDataWriter.getOutputFile(outdir, "annotation_", ".txt", partition);
+    }
+
+    /**
+     * Writes one variant per line.
+     */
+    private static class FileWriter implements DataWriter<Variant> {
+
+        private final Path file;
+        private final List<String> lines;
+
+        FileWriter(String fileName) {
+            this.file = Paths.get(fileName);
+            this.lines = new ArrayList<>();
+        }
+
+        @Override
+        public boolean open() {
+            return true;
+        }
+
+        @Override
+        public boolean close() {
+            return true;
+        }
+
+        @Override
+        public boolean pre() {
+            return true;
+        }
+
+        @Override
+        public boolean write(Variant variant) {
+            return write(Collections.singletonList(variant));
+        }
+
+        @Override
+        public boolean write(List<Variant> batch) {
+            for (Variant variant : batch) {
+                lines.add(variant.toString());
+            }
+            return true;
+        }
+
+        @Override
+        public boolean post() {
+            try {
+                Files.write(file, lines);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return true;
+        }
+    }
+}
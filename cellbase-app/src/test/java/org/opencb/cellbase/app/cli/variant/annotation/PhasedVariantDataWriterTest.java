@@ -0,0 +1,188 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import org.junit.Test;
+import org.opencb.biodata.models.variant.StudyEntry;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.annotation.ConsequenceTypeMappings;
+import org.opencb.biodata.models.variant.avro.*;
+import org.opencb.cellbase.core.variant.annotation.PhasedConsequenceTypeAdjuster;
+import org.opencb.commons.io.DataWriter;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PhasedVariantDataWriterTest {
+
+    @Test
+    public void phasedPairsAcrossBatches() throws Exception {
+        // Same variants adjusted in a single batch, as VariantAnnotationCalculator does
+        List<Variant> expected = createVariants();
+        PhasedConsequenceTypeAdjuster phasedConsequenceTypeAdjuster = new PhasedConsequenceTypeAdjuster(new ProteinDBAdaptorStub());
+        for (Variant variant : expected) {
+            phasedConsequenceTypeAdjuster.add(variant);
+        }
+        phasedConsequenceTypeAdjuster.flush();
+
+        // 1:101 and 1:102 are split across the first two batches, 1:1001 and 2:1002 across a chromosome change
+        List<Variant> variants = createVariants();
+        CollectingDataWriter collectingDataWriter = new CollectingDataWriter();
+        PhasedVariantDataWriter dataWriter = new PhasedVariantDataWriter(collectingDataWriter, new ProteinDBAdaptorStub());
+        dataWriter.open();
+        dataWriter.pre();
+        dataWriter.write(variants.subList(0, 2));
+        dataWriter.write(variants.subList(2, 5));
+        dataWriter.write(variants.subList(5, 8));
+        dataWriter.post();
+        dataWriter.close();
+
+        assertEquals(variants, collectingDataWriter.getVariants());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).toString(), expected.get(i).getAnnotation().toString(),
+                    variants.get(i).getAnnotation().toString());
+        }
+
+        // The pair sharing codon tCG becomes tAC, a missense variant, instead of a stop gained and a synonymous variant
+        for (Variant variant : Arrays.asList(variants.get(1), variants.get(2), variants.get(6), variants.get(7))) {
+            ConsequenceType consequenceType = variant.getAnnotation().getConsequenceTypes().get(0);
+            assertEquals(variant.toString(), "tCG/tAC", consequenceType.getCodon());
+            assertEquals(variant.toString(), "missense_variant", getSoNames(consequenceType));
+            assertEquals(variant.toString(), "missense_variant", variant.getAnnotation().getDisplayConsequenceType());
+        }
+        // Same transcript and codon, but on different chromosomes
+        assertEquals("stop_gained", getSoNames(variants.get(4).getAnnotation().getConsequenceTypes().get(0)));
+        assertEquals("synonymous_variant", getSoNames(variants.get(5).getAnnotation().getConsequenceTypes().get(0)));
+        assertEquals("intron_variant", getSoNames(variants.get(0).getAnnotation().getConsequenceTypes().get(0)));
+    }
+
+    @Test
+    public void postWritesHeldVariants() throws Exception {
+        List<Variant> variants = createVariants();
+        CollectingDataWriter collectingDataWriter = new CollectingDataWriter();
+        PhasedVariantDataWriter dataWriter = new PhasedVariantDataWriter(collectingDataWriter, new ProteinDBAdaptorStub());
+        dataWriter.open();
+        dataWriter.pre();
+
+        // 1:101 may still share a codon with the first variant of the next batch
+        dataWriter.write(variants.subList(0, 2));
+        assertEquals(variants.subList(0, 1), collectingDataWriter.getVariants());
+        dataWriter.write(variants.subList(2, 5));
+        assertEquals(variants.subList(0, 4), collectingDataWriter.getVariants());
+        // The last pair, 2:2001 and 2:2002, is held until the end of the input
+        dataWriter.write(variants.subList(5, 8));
+        assertEquals(variants.subList(0, 6), collectingDataWriter.getVariants());
+        assertEquals("stop_gained", getSoNames(variants.get(6).getAnnotation().getConsequenceTypes().get(0)));
+
+        dataWriter.post();
+        assertEquals(variants, collectingDataWriter.getVariants());
+        assertEquals("missense_variant", getSoNames(variants.get(6).getAnnotation().getConsequenceTypes().get(0)));
+        assertEquals("missense_variant", getSoNames(variants.get(7).getAnnotation().getConsequenceTypes().get(0)));
+        dataWriter.close();
+    }
+
+    /**
+     * Variants sorted by position. Phased SNVs at the second and third bases of codon tcg, Ser, change it to tAg, a
+     * stop, and to tcC, Ser, when alone.
+     */
+    private static List<Variant> createVariants() {
+        return Arrays.asList(
+                createVariant("1:50:A:G", false, "ENST01", "intron_variant", null, 0, null),
+                createVariant("1:101:C:A", true, "ENST01", "stop_gained", "tCg/tAg", 34, "*"),
+                createVariant("1:102:G:C", true, "ENST01", "synonymous_variant", "tcG/tcC", 34, "S"),
+                createVariant("1:500:A:T", false, "ENST01", "intron_variant", null, 0, null),
+                createVariant("1:1001:C:A", true, "ENST02", "stop_gained", "tCg/tAg", 334, "*"),
+                createVariant("2:1002:G:C", true, "ENST02", "synonymous_variant", "tcG/tcC", 334, "S"),
+                createVariant("2:2001:C:A", true, "ENST03", "stop_gained", "tCg/tAg", 10, "*"),
+                createVariant("2:2002:G:C", true, "ENST03", "synonymous_variant", "tcG/tcC", 10, "S"));
+    }
+
+    private static Variant createVariant(String id, boolean phased, String transcriptId, String soName, String codon,
+                                         int aaPosition, String aaAlternate) {
+        Variant variant = new Variant(id);
+        if (phased) {
+            FileEntry fileEntry = new FileEntry();
+            fileEntry.setFileId("file");
+            fileEntry.setCall("");
+            fileEntry.setAttributes(Collections.emptyMap());
+            StudyEntry studyEntry = new StudyEntry();
+            studyEntry.setStudyId("study");
+            studyEntry.setFormat(Arrays.asList("GT", "PS"));
+            studyEntry.setSamplesData(Collections.singletonList(Arrays.asList("0|1", "100")));
+            studyEntry.setFiles(Collections.singletonList(fileEntry));
+            variant.setStudies(Collections.singletonList(studyEntry));
+        }
+
+        ConsequenceType consequenceType = new ConsequenceType();
+        consequenceType.setEnsemblTranscriptId(transcriptId);
+        consequenceType.setBiotype("protein_coding");
+        consequenceType.setSequenceOntologyTerms(new ArrayList<>(Collections.singletonList(
+                new SequenceOntologyTerm(ConsequenceTypeMappings.getSoAccessionString(soName), soName))));
+        if (codon != null) {
+            consequenceType.setCodon(codon);
+            consequenceType.setCdnaPosition(aaPosition * 3 + 50);
+            consequenceType.setCdsPosition(aaPosition * 3);
+            ProteinVariantAnnotation proteinVariantAnnotation = new ProteinVariantAnnotation();
+            proteinVariantAnnotation.setPosition(aaPosition);
+            proteinVariantAnnotation.setReference("S");
+            proteinVariantAnnotation.setAlternate(aaAlternate);
+            consequenceType.setProteinVariantAnnotation(proteinVariantAnnotation);
+        }
+
+        VariantAnnotation variantAnnotation = new VariantAnnotation();
+        variantAnnotation.setConsequenceTypes(new ArrayList<>(Collections.singletonList(consequenceType)));
+        variantAnnotation.setDisplayConsequenceType(soName);
+        variant.setAnnotation(variantAnnotation);
+        return variant;
+    }
+
+    private static String getSoNames(ConsequenceType consequenceType) {
+        StringJoiner soNames = new StringJoiner(",");
+        for (SequenceOntologyTerm sequenceOntologyTerm : consequenceType.getSequenceOntologyTerms()) {
+            soNames.add(sequenceOntologyTerm.getName());
+        }
+        return soNames.toString();
+    }
+
+    /**
+     * Keeps every variant written, in order.
+     */
+    private static class CollectingDataWriter implements DataWriter<Variant> {
+
+        private final List<Variant> variants = new ArrayList<>();
+
+        @Override
+        public boolean open() {
+            return true;
+        }
+
+        @Override
+        public boolean close() {
+            return true;
+        }
+
+        @Override
+        public boolean pre() {
+            return true;
+        }
+
+        @Override
+        public boolean post() {
+            return true;
+        }
+
+        @Override
+        public boolean write(Variant variant) {
+            return write(Collections.singletonList(variant));
+        }
+
+        @Override
+        public boolean write(List<Variant> batch) {
+            variants.addAll(batch);
+            return true;
+        }
+
+        List<Variant> getVariants() {
+            return variants;
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import org.opencb.biodata.models.variant.avro.ProteinVariantAnnotation;
+import org.opencb.biodata.models.variant.avro.Score;
+import org.opencb.cellbase.core.api.ProteinDBAdaptor;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Protein adaptor for tests, variant annotations hold just the transcript, position and amino acids asked for.
+ * Other queries return empty results.
+ */
+class ProteinDBAdaptorStub implements ProteinDBAdaptor {
+
+    @Override
+    public QueryResult<ProteinVariantAnnotation> getVariantAnnotation(String enstranscriptId, int position, String aaReference,
+                                                                      String aaAlternate, QueryOptions options) {
+        ProteinVariantAnnotation proteinVariantAnnotation = new ProteinVariantAnnotation();
+        proteinVariantAnnotation.setUniprotAccession(enstranscriptId);
+        proteinVariantAnnotation.setPosition(position);
+        proteinVariantAnnotation.setReference(aaReference);
+        proteinVariantAnnotation.setAlternate(aaAlternate);
+        return new QueryResult<>(enstranscriptId, 0, 1, 1, null, null, Collections.singletonList(proteinVariantAnnotation));
+    }
+
+    @Override
+    public QueryResult<Score> getSubstitutionScores(Query query, QueryOptions options) {
+        return new QueryResult<>();
+    }
+
+    @Override
+    public QueryResult<Long> update(List objectList, String field, String[] innerFields) {
+        return new QueryResult<>();
+    }
+
+    @Override
+    public QueryResult<Long> count(Query query) {
+        return new QueryResult<>();
+    }
+
+    @Override
+    public QueryResult distinct(Query query, String field) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult stats(Query query) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult get(Query query, QueryOptions options) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult nativeGet(Query query, QueryOptions options) {
+        return new QueryResult();
+    }
+
+    @Override
+    public Iterator iterator(Query query, QueryOptions options) {
+        return Collections.emptyIterator();
+    }
+
+    @Override
+    public Iterator nativeIterator(Query query, QueryOptions options) {
+        return Collections.emptyIterator();
+    }
+
+    @Override
+    public QueryResult rank(Query query, String field, int numResults, boolean asc) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult groupBy(Query query, String field, QueryOptions options) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult groupBy(Query query, List fields, QueryOptions options) {
+        return new QueryResult();
+    }
+
+    @Override
+    public void forEach(Query query, Consumer action, QueryOptions options) {
+    }
+}
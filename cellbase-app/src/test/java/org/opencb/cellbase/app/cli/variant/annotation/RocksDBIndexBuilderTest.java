@@ -0,0 +1,86 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class RocksDBIndexBuilderTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void ingestSpilledRuns() throws Exception {
+        RocksDB.loadLibrary();
+        Path dbLocation = temporaryFolder.getRoot().toPath().resolve("index.idx");
+        try (Options options = RocksDBIndexBuilder.optimizeForPointLookup(new Options().setCreateIfMissing(true));
+             RocksDB db = RocksDB.open(options, dbLocation.toString())) {
+            // A tiny buffer makes every few records spill into a new sorted run
+            RocksDBIndexBuilder indexBuilder = new RocksDBIndexBuilder(options, temporaryFolder.newFolder("sort").toPath(), 1024);
+            for (int i = 999; i >= 0; i--) {
+                indexBuilder.add(("1_" + i + "_A_T").getBytes(), ("v" + i).getBytes());
+            }
+            // Repeated keys, the last value added must win
+            indexBuilder.add("1_10_A_T".getBytes(), "first".getBytes());
+            indexBuilder.add("1_10_A_T".getBytes(), "last".getBytes());
+            long numRecords = indexBuilder.ingest(db);
+            indexBuilder.close();
+
+            assertEquals(1000, numRecords);
+            assertEquals("v0", new String(db.get("1_0_A_T".getBytes())));
+            assertEquals("v999", new String(db.get("1_999_A_T".getBytes())));
+            assertEquals("last", new String(db.get("1_10_A_T".getBytes())));
+            assertNull(db.get("1_1000_A_T".getBytes()));
+        }
+    }
+
+    @Test
+    public void ingestInMemory() throws Exception {
+        RocksDB.loadLibrary();
+        Path dbLocation = temporaryFolder.getRoot().toPath().resolve("index.idx");
+        try (Options options = new Options().setCreateIfMissing(true);
+             RocksDB db = RocksDB.open(options, dbLocation.toString());
+             RocksDBIndexBuilder indexBuilder = new RocksDBIndexBuilder(options, temporaryFolder.newFolder("sort").toPath())) {
+            indexBuilder.add("2_100_C_G".getBytes(), "a".getBytes());
+            indexBuilder.add("10_100_C_G".getBytes(), "b".getBytes());
+            indexBuilder.add("2_100_C_G".getBytes(), "c".getBytes());
+
+            assertEquals(2, indexBuilder.ingest(db));
+            assertEquals("c", new String(db.get("2_100_C_G".getBytes())));
+            assertEquals("b", new String(db.get("10_100_C_G".getBytes())));
+        }
+    }
+
+    @Test
+    public void compare() throws Exception {
+        assertTrue(RocksDBIndexBuilder.compare(new byte[]{1}, new byte[]{(byte) 0xff}) < 0);
+        assertTrue(RocksDBIndexBuilder.compare(new byte[]{1, 2}, new byte[]{1}) > 0);
+        assertEquals(0, RocksDBIndexBuilder.compare(new byte[]{1, 2}, new byte[]{1, 2}));
+    }
+
+    @Test
+    public void indexInfo() throws Exception {
+        Path input = temporaryFolder.newFile("input.vcf").toPath();
+        Files.write(input, "1\t100\t.\tA\tT\n".getBytes());
+        Path dbLocation = temporaryFolder.newFolder("input.vcf.idx").toPath();
+
+        String checksum = RocksDBIndexBuilder.checksum(input, "AF,AC");
+        assertEquals(checksum, RocksDBIndexBuilder.checksum(input, "AF,AC"));
+        assertNotEquals(checksum, RocksDBIndexBuilder.checksum(input, "AF"));
+        assertEquals(-1, RocksDBIndexBuilder.getIndexedRecords(dbLocation, checksum));
+
+        RocksDBIndexBuilder.writeIndexInfo(dbLocation, checksum, 42);
+        assertEquals(42, RocksDBIndexBuilder.getIndexedRecords(dbLocation, checksum));
+
+        // Any change in the input invalidates the index
+        Files.write(input, "1\t101\t.\tA\tT\n".getBytes());
+        assertEquals(-1, RocksDBIndexBuilder.getIndexedRecords(dbLocation, RocksDBIndexBuilder.checksum(input, "AF,AC")));
+    }
+}
@@ -0,0 +1,144 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import org.apache.avro.AvroRuntimeException;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileReader;
+import org.apache.avro.specific.SpecificDatumReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
+import org.opencb.biodata.models.variant.avro.PopulationFrequency;
+import org.opencb.biodata.models.variant.avro.VariantAnnotation;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class RollingVariantAvroDataWriterTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void writeAndRead() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("annotation.avro");
+        List<Variant> variants = createVariants(2000);
+        RollingVariantAvroDataWriter dataWriter = new RollingVariantAvroDataWriter(file, CodecFactory.deflateCodec(6), 0);
+        write(dataWriter, variants, 100);
+
+        assertEquals(Collections.singletonList(file), dataWriter.getFiles());
+        List<VariantAvro> read = read(dataWriter.getFiles());
+        assertEquals(variants.size(), read.size());
+        for (int i = 0; i < variants.size(); i++) {
+            assertEquals(variants.get(i).getImpl(), read.get(i));
+        }
+    }
+
+    @Test
+    public void rollBySize() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("annotation.avro");
+        List<Variant> variants = createVariants(20000);
+        // Files are full once their first block is flushed, a new file is started for the next batch
+        RollingVariantAvroDataWriter dataWriter = new RollingVariantAvroDataWriter(file, CodecFactory.nullCodec(), 1);
+        write(dataWriter, variants, 5000);
+
+        assertTrue(dataWriter.getFiles().size() > 1);
+        assertEquals(file, dataWriter.getFiles().get(0));
+        assertEquals(temporaryFolder.getRoot().toPath().resolve("annotation.00001.avro"), dataWriter.getFiles().get(1));
+        List<VariantAvro> read = read(dataWriter.getFiles());
+        assertEquals(variants.size(), read.size());
+        assertEquals(variants.get(variants.size() - 1).getImpl(), read.get(read.size() - 1));
+    }
+
+    @Test
+    public void partPath() {
+        assertEquals(Paths.get("/tmp/out.avro"), RollingVariantAvroDataWriter.getPartPath(Paths.get("/tmp/out.avro"), 0));
+        assertEquals(Paths.get("/tmp/out.00012.avro"), RollingVariantAvroDataWriter.getPartPath(Paths.get("/tmp/out.avro"), 12));
+        assertEquals(Paths.get("/tmp/out.00001"), RollingVariantAvroDataWriter.getPartPath(Paths.get("/tmp/out"), 1));
+    }
+
+    @Test
+    public void variantsThatCannotBeEncodedFailTheWrite() throws Exception {
+        Path file = temporaryFolder.getRoot().toPath().resolve("annotation.avro");
+        List<Variant> variants = createVariants(10);
+        // Required by the schema
+        variants.get(5).getAnnotation().getConsequenceTypes().get(0).setSequenceOntologyTerms(null);
+        RollingVariantAvroDataWriter dataWriter = new RollingVariantAvroDataWriter(file, CodecFactory.nullCodec(), 0);
+        dataWriter.open();
+        dataWriter.pre();
+        try {
+            dataWriter.write(variants);
+            fail();
+        } catch (AvroRuntimeException e) {
+            assertEquals("Variant " + variants.get(5) + " cannot be written as Avro", e.getMessage());
+        }
+    }
+
+    static void write(org.opencb.commons.io.DataWriter<Variant> dataWriter, List<Variant> variants, int batchSize) {
+        dataWriter.open();
+        dataWriter.pre();
+        for (int i = 0; i < variants.size(); i += batchSize) {
+            dataWriter.write(variants.subList(i, Math.min(i + batchSize, variants.size())));
+        }
+        dataWriter.post();
+        dataWriter.close();
+    }
+
+    static List<VariantAvro> read(List<Path> files) throws Exception {
+        List<VariantAvro> variants = new ArrayList<>();
+        for (Path file : files) {
+            try (DataFileReader<VariantAvro> reader = new DataFileReader<>(file.toFile(),
+                    new SpecificDatumReader<>(VariantAvro.class))) {
+                for (VariantAvro variantAvro : reader) {
+                    variants.add(variantAvro);
+                }
+            }
+        }
+        return variants;
+    }
+
+    static List<Variant> createVariants(int numVariants) {
+        Random random = new Random(42);
+        String[] bases = {"A", "C", "G", "T"};
+        List<Variant> variants = new ArrayList<>(numVariants);
+        int position = 1;
+        for (int i = 0; i < numVariants; i++) {
+            position += 1 + random.nextInt(1000);
+            String reference = bases[random.nextInt(4)];
+            String alternate = bases[(Arrays.asList(bases).indexOf(reference) + 1 + random.nextInt(3)) % 4];
+            Variant variant = new Variant("1:" + position + ":" + reference + ":" + alternate);
+
+            VariantAnnotation variantAnnotation = new VariantAnnotation();
+            variantAnnotation.setChromosome("1");
+            variantAnnotation.setStart(position);
+            variantAnnotation.setReference(reference);
+            variantAnnotation.setAlternate(alternate);
+            List<ConsequenceType> consequenceTypes = new ArrayList<>();
+            for (int j = 0; j < 1 + random.nextInt(4); j++) {
+                ConsequenceType consequenceType = new ConsequenceType();
+                consequenceType.setGeneName("GENE" + random.nextInt(20000));
+                consequenceType.setEnsemblTranscriptId("ENST" + String.format("%011d", random.nextInt(1000000)));
+                consequenceType.setBiotype("protein_coding");
+                consequenceType.setSequenceOntologyTerms(Collections.emptyList());
+                consequenceTypes.add(consequenceType);
+            }
+            variantAnnotation.setConsequenceTypes(consequenceTypes);
+            PopulationFrequency populationFrequency = new PopulationFrequency();
+            populationFrequency.setStudy("GNOMAD_GENOMES");
+            populationFrequency.setPopulation("ALL");
+            populationFrequency.setRefAllele(reference);
+            populationFrequency.setAltAllele(alternate);
+            populationFrequency.setAltAlleleFreq(random.nextFloat());
+            populationFrequency.setRefAlleleFreq(1 - populationFrequency.getAltAlleleFreq());
+            variantAnnotation.setPopulationFrequencies(Collections.singletonList(populationFrequency));
+            variant.setAnnotation(variantAnnotation);
+            variants.add(variant);
+        }
+        return variants;
+    }
+}
@@ -0,0 +1,51 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SortedVariantJsonMergerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void merge() throws Exception {
+        Path annotated = temporaryFolder.newFile("annotated.json").toPath();
+        Files.write(annotated, Arrays.asList(
+                "{\"annotation\":{\"chromosome\":\"9\",\"start\":1},\"chromosome\":\"1\",\"start\":100}",
+                "{\"chromosome\":\"2\",\"start\":50,\"reference\":\"A\"}",
+                "{\"chromosome\":\"X\",\"start\":10}"));
+        Path remaining = temporaryFolder.newFile("remaining.json").toPath();
+        Files.write(remaining, Arrays.asList(
+                "{\"chromosome\":\"1\",\"start\":20}",
+                "{\"start\":100,\"chromosome\":\"1\",\"id\":\"b\"}",
+                "{\"chromosome\":\"10\",\"start\":5}",
+                "{\"chromosome\":\"Y\",\"start\":1}"));
+        Path output = temporaryFolder.getRoot().toPath().resolve("merged.json");
+
+        assertEquals(7, SortedVariantJsonMerger.merge(annotated, remaining, output));
+        assertEquals(Arrays.asList(
+                "{\"chromosome\":\"1\",\"start\":20}",
+                "{\"annotation\":{\"chromosome\":\"9\",\"start\":1},\"chromosome\":\"1\",\"start\":100}",
+                "{\"start\":100,\"chromosome\":\"1\",\"id\":\"b\"}",
+                "{\"chromosome\":\"2\",\"start\":50,\"reference\":\"A\"}",
+                "{\"chromosome\":\"10\",\"start\":5}",
+                "{\"chromosome\":\"X\",\"start\":10}",
+                "{\"chromosome\":\"Y\",\"start\":1}"), Files.readAllLines(output));
+    }
+
+    @Test
+    public void compareChromosomes() throws Exception {
+        assertTrue(SortedVariantJsonMerger.compareChromosomes("2", "10") < 0);
+        assertTrue(SortedVariantJsonMerger.compareChromosomes("22", "X") < 0);
+        assertTrue(SortedVariantJsonMerger.compareChromosomes("X", "Y") < 0);
+        assertEquals(0, SortedVariantJsonMerger.compareChromosomes("MT", "MT"));
+    }
+}
@@ -0,0 +1,28 @@
+package org.opencb.cellbase.app.cli.variant.annotation;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VisitedVariantsTest {
+
+    @Test
+    public void nextUnvisited() throws Exception {
+        VisitedVariants visitedVariants = new VisitedVariants(200);
+        for (int i = 0; i < 200; i++) {
+            if (i != 3 && i != 130 && i != 199) {
+                visitedVariants.visit(i);
+            }
+        }
+
+        assertEquals(197, visitedVariants.countVisited());
+        assertEquals(3, visitedVariants.nextUnvisited(0));
+        assertEquals(130, visitedVariants.nextUnvisited(4));
+        assertEquals(199, visitedVariants.nextUnvisited(131));
+        assertEquals(-1, visitedVariants.nextUnvisited(200));
+
+        // Bits beyond the size are never returned
+        visitedVariants.visit(199);
+        assertEquals(-1, visitedVariants.nextUnvisited(131));
+    }
+}
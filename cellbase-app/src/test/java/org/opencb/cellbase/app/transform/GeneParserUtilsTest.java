@@ -0,0 +1,71 @@
+package org.opencb.cellbase.app.transform;
+
+import org.junit.Test;
+import org.opencb.biodata.models.core.Xref;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class GeneParserUtilsTest {
+
+    @Test
+    public void getXrefMap() throws Exception {
+        Path xrefsFile = Files.createTempFile("xrefs", ".txt");
+        Path uniprotIdMappingFile = Files.createTempFile("idmapping", ".dat");
+        try {
+            Files.write(xrefsFile, Arrays.asList(
+                    "ENST00000380152\tBRCA2-001\tensembl_havana_transcript\tEnsembl Havana transcript",
+                    "ENST00000380152\tP51587\tuniprotkb_acc\tUniProtKB ACC",
+                    "ENST00000357654\tBRCA1"));
+            Files.write(uniprotIdMappingFile, Arrays.asList(
+                    // 19 columns, no Ensembl transcripts
+                    uniprotLine("P38398", "BRCA1_HUMAN", 19, null),
+                    uniprotLine("P38398", "BRCA1_HUMAN", 20, "ENST00000357654; ENST00000471181"),
+                    uniprotLine("Q00000", "NONE_HUMAN", 20, "")));
+
+            Map<String, ArrayList<Xref>> xrefMap = GeneParserUtils.getXrefMap(xrefsFile, uniprotIdMappingFile);
+            assertEquals(new HashSet<>(Arrays.asList("ENST00000380152", "ENST00000357654", "ENST00000471181")),
+                    xrefMap.keySet());
+            assertEquals(Arrays.asList("BRCA2-001", "P51587"), ids(xrefMap.get("ENST00000380152")));
+            assertEquals("ensembl_havana_transcript", xrefMap.get("ENST00000380152").get(0).getDbName());
+            assertEquals(Arrays.asList("P38398", "BRCA1_HUMAN"), ids(xrefMap.get("ENST00000357654")));
+            assertEquals("uniprotkb_id", xrefMap.get("ENST00000471181").get(1).getDbName());
+        } finally {
+            Files.deleteIfExists(xrefsFile);
+            Files.deleteIfExists(uniprotIdMappingFile);
+        }
+    }
+
+    @Test
+    public void readXrefsInFileOrder() throws Exception {
+        Path xrefsFile = Files.createTempFile("xrefs", ".txt");
+        try {
+            Files.write(xrefsFile, Arrays.asList("T1\tA\tdb\tDB", "T2\tB\tdb\tDB", "T1\tC\tdb\tDB"));
+
+            List<String> xrefs = new ArrayList<>();
+            GeneParserUtils.readXrefs(xrefsFile, null, (transcriptId, xref) -> xrefs.add(transcriptId + ":" + xref.getId()));
+            assertEquals(Arrays.asList("T1:A", "T2:B", "T1:C"), xrefs);
+        } finally {
+            Files.deleteIfExists(xrefsFile);
+        }
+    }
+
+    private static String uniprotLine(String accession, String id, int numColumns, String transcripts) {
+        List<String> columns = new ArrayList<>(Arrays.asList(accession, id));
+        while (columns.size() < numColumns) {
+            columns.add(columns.size() == 19 ? transcripts : "");
+        }
+        return String.join("\t", columns);
+    }
+
+    private static List<String> ids(List<Xref> xrefs) {
+        List<String> ids = new ArrayList<>(xrefs.size());
+        for (Xref xref : xrefs) {
+            ids.add(xref.getId());
+        }
+        return ids;
+    }
+}
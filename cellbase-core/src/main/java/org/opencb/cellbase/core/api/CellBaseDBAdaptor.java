@@ -100,6 +100,19 @@ public interface CellBaseDBAdaptor<T> extends Iterable<T> {
 
     Iterator nativeIterator(Query query, QueryOptions options);
 
+    /**
+     * Iterator over the documents in the binary format of the database, e.g. raw BSON for MongoDB, so that they can be
+     * streamed without decoding them into intermediate objects. Implementations not supporting this fall back to
+     * nativeIterator.
+     *
+     * @param query   query to be executed
+     * @param options query options
+     * @return iterator over the raw documents
+     */
+    default Iterator rawIterator(Query query, QueryOptions options) {
+        return nativeIterator(query, options);
+    }
+
 
 
     QueryResult rank(Query query, String field, int numResults, boolean asc);
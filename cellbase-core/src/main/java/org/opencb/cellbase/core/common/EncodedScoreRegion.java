@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.common;
+
+/**
+ * Chunk of per-base scores whose values have been encoded with GenomicScoreCodec. Values are serialized to JSON as
+ * a base64 string and stored in MongoDB as a binary field.
+ */
+public class EncodedScoreRegion {
+
+    private String chromosome;
+    private int start;
+    private int end;
+    private String source;
+    private String encoding;
+    private byte[] values;
+
+    public EncodedScoreRegion() {
+    }
+
+    public EncodedScoreRegion(String chromosome, int start, int end, String source, String encoding, byte[] values) {
+        this.chromosome = chromosome;
+        this.start = start;
+        this.end = end;
+        this.source = source;
+        this.encoding = encoding;
+        this.values = values;
+    }
+
+    public String getChromosome() {
+        return chromosome;
+    }
+
+    public void setChromosome(String chromosome) {
+        this.chromosome = chromosome;
+    }
+
+    public int getStart() {
+        return start;
+    }
+
+    public void setStart(int start) {
+        this.start = start;
+    }
+
+    public int getEnd() {
+        return end;
+    }
+
+    public void setEnd(int end) {
+        this.end = end;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getEncoding() {
+        return encoding;
+    }
+
+    public void setEncoding(String encoding) {
+        this.encoding = encoding;
+    }
+
+    public byte[] getValues() {
+        return values;
+    }
+
+    public void setValues(byte[] values) {
+        this.values = values;
+    }
+}
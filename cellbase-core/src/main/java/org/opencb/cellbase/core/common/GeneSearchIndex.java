@@ -0,0 +1,578 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.common;
+
+import org.opencb.cellbase.core.api.GeneDBAdaptor;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Prefix index of the gene ids and names, transcript ids and names and the xref ids of SEARCHED_XREF_DBNAMES, for
+ * autocompletion without regex queries on the gene collection. Terms are kept upper case in a sorted array, which is
+ * walked as a trie: the terms below a node are a contiguous range and its children are found by binary search. Prefix
+ * queries are a binary search, queries allowing typos walk the trie keeping a row of Levenshtein distances per node.
+ *
+ * The index is built from the gene collection, and can be saved to a file so servers load it without scanning it.
+ * The file keeps a fingerprint of the collection it was built from, so a file left from a previous load of the
+ * database can be detected and rebuilt. Indexes are registered by species and assembly.
+ */
+public final class GeneSearchIndex {
+
+    public static final String GENE_NAME = "name";
+    public static final String GENE_ID = "id";
+    public static final String TRANSCRIPT = "transcript";
+    public static final String XREF = "xref";
+
+    public static final Set<String> SEARCHED_XREF_DBNAMES = new HashSet<>(Arrays.asList("hgnc_symbol", "uniprotkb_gene_name",
+            "entrezgene", "wikigene", "uniprotkb_acc", "uniprotkb_id", "refseq_mrna", "refseq_ncrna", "refseq_peptide", "ccds",
+            "omim_gene", "ensembl_protein", "lrg_display_in_ensembl", "vega_gene", "havana_gene", "ucsc_stable_id"));
+    public static final int MAX_EDITS = 2;
+    // Shorter queries allowing typos would match most of the terms: one typo from 3 characters on, two from 6
+    public static final int MIN_FUZZY_QUERY_LENGTH = 3;
+    public static final int MIN_TWO_EDITS_QUERY_LENGTH = 6;
+
+    private static final String[] TYPES = {GENE_NAME, GENE_ID, TRANSCRIPT, XREF};
+    private static final int TYPE_BITS = 2;
+    // Terms ranked per query, the first ones in alphabetical order of each matching range
+    private static final int MAX_CANDIDATES = 5000;
+
+    private static final int MAGIC = 0x43424753;
+    private static final int FORMAT_VERSION = 2;
+
+    private static final Map<String, GeneSearchIndex> INDEXES = new ConcurrentHashMap<>();
+    private static final List<String> TYPE_ORDER = Arrays.asList(TYPES);
+    private static final Comparator<Match> MATCH_ORDER = Comparator.comparingInt(Match::getEditDistance)
+            .thenComparing(match -> !match.isExact())
+            .thenComparingInt(match -> TYPE_ORDER.indexOf(match.getType()))
+            .thenComparingInt(match -> match.getTerm().length())
+            .thenComparing(Match::getTerm)
+            .thenComparing(Match::getId);
+
+    private final String[] geneIds;
+    private final String[] geneNames;
+    private final String[] chromosomes;
+    private final int[] starts;
+    private final int[] ends;
+    // Sorted upper case terms, the terms as found in the genes and the genes of each term with the type of the match
+    private final String[] keys;
+    private final String[] terms;
+    private final int[] postingOffsets;
+    private final int[] postings;
+
+    private GeneSearchIndex(String[] geneIds, String[] geneNames, String[] chromosomes, int[] starts, int[] ends,
+                            String[] keys, String[] terms, int[] postingOffsets, int[] postings) {
+        this.geneIds = geneIds;
+        this.geneNames = geneNames;
+        this.chromosomes = chromosomes;
+        this.starts = starts;
+        this.ends = ends;
+        this.keys = keys;
+        this.terms = terms;
+        this.postingOffsets = postingOffsets;
+        this.postings = postings;
+    }
+
+    /**
+     * Builds the index scanning the whole gene collection.
+     *
+     * @param geneDBAdaptor gene adaptor of the species and assembly
+     * @return the index
+     * @throws IOException if the iterator cannot be closed
+     */
+    public static GeneSearchIndex build(GeneDBAdaptor geneDBAdaptor) throws IOException {
+        Builder builder = new Builder();
+        QueryOptions queryOptions = new QueryOptions(QueryOptions.INCLUDE,
+                "id,name,chromosome,start,end,transcripts.id,transcripts.name,transcripts.xrefs.id,transcripts.xrefs.dbName");
+        Iterator iterator = geneDBAdaptor.nativeIterator(new Query(), queryOptions);
+        try {
+            while (iterator.hasNext()) {
+                Object document = iterator.next();
+                if (!(document instanceof Map)) {
+                    continue;
+                }
+                Map<String, Object> gene = (Map<String, Object>) document;
+                if (gene.get("id") == null || gene.get("chromosome") == null) {
+                    continue;
+                }
+                int geneIndex = builder.addGene(gene.get("id").toString(), Objects.toString(gene.get("name"), null),
+                        gene.get("chromosome").toString(), ((Number) gene.get("start")).intValue(),
+                        ((Number) gene.get("end")).intValue());
+                builder.addTerm(geneIndex, Objects.toString(gene.get("name"), null), GENE_NAME);
+                builder.addTerm(geneIndex, gene.get("id").toString(), GENE_ID);
+                if (!(gene.get("transcripts") instanceof List)) {
+                    continue;
+                }
+                for (Object transcriptObject : (List) gene.get("transcripts")) {
+                    Map<String, Object> transcript = (Map<String, Object>) transcriptObject;
+                    builder.addTerm(geneIndex, Objects.toString(transcript.get("id"), null), TRANSCRIPT);
+                    builder.addTerm(geneIndex, Objects.toString(transcript.get("name"), null), TRANSCRIPT);
+                    if (!(transcript.get("xrefs") instanceof List)) {
+                        continue;
+                    }
+                    for (Object xrefObject : (List) transcript.get("xrefs")) {
+                        Map<String, Object> xref = (Map<String, Object>) xrefObject;
+                        if (SEARCHED_XREF_DBNAMES.contains(xref.get("dbName"))) {
+                            builder.addTerm(geneIndex, Objects.toString(xref.get("id"), null), XREF);
+                        }
+                    }
+                }
+            }
+        } finally {
+            if (iterator instanceof Closeable) {
+                ((Closeable) iterator).close();
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Loads an index saved with save.
+     *
+     * @param path index file
+     * @return the index
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    public static GeneSearchIndex load(Path path) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            readHeader(inputStream, path);
+            int numGenes = inputStream.readInt();
+            String[] geneIds = new String[numGenes];
+            String[] geneNames = new String[numGenes];
+            String[] chromosomes = new String[numGenes];
+            int[] starts = new int[numGenes];
+            int[] ends = new int[numGenes];
+            for (int i = 0; i < numGenes; i++) {
+                geneIds[i] = inputStream.readUTF();
+                geneNames[i] = inputStream.readBoolean() ? inputStream.readUTF() : null;
+                chromosomes[i] = inputStream.readUTF();
+                starts[i] = inputStream.readInt();
+                ends[i] = inputStream.readInt();
+            }
+            int numKeys = inputStream.readInt();
+            String[] keys = new String[numKeys];
+            String[] terms = new String[numKeys];
+            int[] postingOffsets = new int[numKeys + 1];
+            int[] postings = new int[inputStream.readInt()];
+            for (int i = 0; i < numKeys; i++) {
+                terms[i] = inputStream.readUTF();
+                keys[i] = normalize(terms[i]);
+                postingOffsets[i + 1] = postingOffsets[i] + inputStream.readInt();
+                for (int j = postingOffsets[i]; j < postingOffsets[i + 1]; j++) {
+                    postings[j] = inputStream.readInt();
+                }
+            }
+            return new GeneSearchIndex(geneIds, geneNames, chromosomes, starts, ends, keys, terms, postingOffsets, postings);
+        }
+    }
+
+    /**
+     * Reads the fingerprint of the collection an index file was built from, without loading the terms.
+     *
+     * @param path index file
+     * @return the fingerprint given to save
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    public static String readFingerprint(Path path) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return readHeader(inputStream, path);
+        }
+    }
+
+    private static String readHeader(DataInputStream inputStream, Path path) throws IOException {
+        if (inputStream.readInt() != MAGIC || inputStream.readInt() != FORMAT_VERSION) {
+            throw new IOException("Not a gene search index file: " + path);
+        }
+        return inputStream.readUTF();
+    }
+
+    /**
+     * Saves the index to a file.
+     *
+     * @param path        index file
+     * @param fingerprint fingerprint of the gene collection the index was built from
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path path, String fingerprint) throws IOException {
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeUTF(fingerprint);
+            outputStream.writeInt(geneIds.length);
+            for (int i = 0; i < geneIds.length; i++) {
+                outputStream.writeUTF(geneIds[i]);
+                outputStream.writeBoolean(geneNames[i] != null);
+                if (geneNames[i] != null) {
+                    outputStream.writeUTF(geneNames[i]);
+                }
+                outputStream.writeUTF(chromosomes[i]);
+                outputStream.writeInt(starts[i]);
+                outputStream.writeInt(ends[i]);
+            }
+            outputStream.writeInt(keys.length);
+            outputStream.writeInt(postings.length);
+            for (int i = 0; i < keys.length; i++) {
+                outputStream.writeUTF(terms[i]);
+                outputStream.writeInt(postingOffsets[i + 1] - postingOffsets[i]);
+                for (int j = postingOffsets[i]; j < postingOffsets[i + 1]; j++) {
+                    outputStream.writeInt(postings[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Genes with a term starting with the query, case insensitive, allowing up to maxEdits typos in the query.
+     * Genes are ranked by edit distance, exact matches first, then by type of term matched (gene name, gene id,
+     * transcript and xref) and by length of the term; each gene is returned once, for its best match.
+     *
+     * @param query    beginning of a gene name, id or xref
+     * @param maxEdits maximum edit distance between the query and the beginning of a term, up to MAX_EDITS. Lowered
+     *                 to 1 for queries shorter than MIN_TWO_EDITS_QUERY_LENGTH and to 0 for those shorter than
+     *                 MIN_FUZZY_QUERY_LENGTH
+     * @param limit    maximum number of genes returned
+     * @return the best matches, empty if none
+     */
+    public List<Match> search(String query, int maxEdits, int limit) {
+        String normalizedQuery = normalize(query);
+        if (normalizedQuery.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        // Ranges of matching terms, in increasing edit distance
+        List<int[]> ranges = new ArrayList<>();
+        int low = lowerBound(normalizedQuery);
+        int high = prefixEnd(normalizedQuery, low);
+        if (low < high) {
+            ranges.add(new int[]{low, high, 0});
+        }
+        int edits = Math.min(Math.max(maxEdits, 0), MAX_EDITS);
+        if (normalizedQuery.length() < MIN_FUZZY_QUERY_LENGTH) {
+            edits = 0;
+        } else if (normalizedQuery.length() < MIN_TWO_EDITS_QUERY_LENGTH) {
+            edits = Math.min(edits, 1);
+        }
+        if (edits > 0) {
+            int[] row = new int[normalizedQuery.length() + 1];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = i;
+            }
+            List<int[]> fuzzyRanges = new ArrayList<>();
+            collectFuzzyRanges(normalizedQuery, edits, 0, 0, keys.length, row, edits + 1, fuzzyRanges);
+            fuzzyRanges.sort(Comparator.comparingInt(range -> range[2]));
+            ranges.addAll(fuzzyRanges);
+        }
+
+        Map<Integer, Match> bestByGene = new HashMap<>();
+        Set<Integer> seenKeys = new HashSet<>();
+        int candidates = 0;
+        for (int[] range : ranges) {
+            for (int key = range[0]; key < range[1] && candidates < MAX_CANDIDATES; key++) {
+                if (!seenKeys.add(key)) {
+                    continue;
+                }
+                candidates++;
+                for (int i = postingOffsets[key]; i < postingOffsets[key + 1]; i++) {
+                    int gene = postings[i] >>> TYPE_BITS;
+                    Match match = new Match(this, gene, terms[key], TYPES[postings[i] & ((1 << TYPE_BITS) - 1)], range[2],
+                            keys[key].length() == normalizedQuery.length());
+                    Match best = bestByGene.get(gene);
+                    if (best == null || MATCH_ORDER.compare(match, best) < 0) {
+                        bestByGene.put(gene, match);
+                    }
+                }
+            }
+        }
+
+        List<Match> matches = new ArrayList<>(bestByGene.values());
+        matches.sort(MATCH_ORDER);
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    /**
+     * Walks the trie node of the terms in [low, high) sharing their first depth characters. A range is recorded for
+     * each node whose path is within maxEdits of the query, unless an ancestor was already recorded with the same or a
+     * lower distance.
+     */
+    private void collectFuzzyRanges(String query, int maxEdits, int depth, int low, int high, int[] row, int recordedDistance,
+                                    List<int[]> ranges) {
+        int i = low;
+        // Terms ending at this node sort first
+        while (i < high && keys[i].length() == depth) {
+            i++;
+        }
+        int[] childRow = new int[row.length];
+        while (i < high) {
+            char c = keys[i].charAt(depth);
+            int childHigh = childEnd(depth, c, i, high);
+            childRow[0] = row[0] + 1;
+            int minDistance = childRow[0];
+            for (int j = 1; j < row.length; j++) {
+                childRow[j] = Math.min(Math.min(row[j] + 1, childRow[j - 1] + 1), row[j - 1] + (query.charAt(j - 1) == c ? 0 : 1));
+                minDistance = Math.min(minDistance, childRow[j]);
+            }
+            int distance = childRow[row.length - 1];
+            int childRecordedDistance = recordedDistance;
+            if (distance <= maxEdits && distance < recordedDistance) {
+                // Exact prefix matches are already ranged
+                if (distance > 0) {
+                    ranges.add(new int[]{i, childHigh, distance});
+                }
+                childRecordedDistance = distance;
+            }
+            // Deeper nodes may only get a lower distance than the one recorded
+            if (minDistance <= maxEdits && minDistance < childRecordedDistance) {
+                collectFuzzyRanges(query, maxEdits, depth + 1, i, childHigh, childRow.clone(), childRecordedDistance, ranges);
+            }
+            i = childHigh;
+        }
+    }
+
+    /**
+     * First term after low, within high, not having c at depth. Terms in [low, high) share their first depth
+     * characters and are longer than depth.
+     */
+    private int childEnd(int depth, char c, int low, int high) {
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].charAt(depth) <= c) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int lowerBound(String key) {
+        int low = 0;
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].compareTo(key) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private int prefixEnd(String prefix, int low) {
+        int high = keys.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (keys[middle].startsWith(prefix)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return number of genes indexed
+     */
+    public int size() {
+        return geneIds.length;
+    }
+
+    /**
+     * @return number of distinct terms indexed
+     */
+    public int getNumTerms() {
+        return keys.length;
+    }
+
+    /**
+     * Registers the index of a species and assembly, replacing any previous one.
+     *
+     * @param species  species
+     * @param assembly assembly, null or empty for the default one
+     * @param index    the index
+     */
+    public static void register(String species, String assembly, GeneSearchIndex index) {
+        INDEXES.put(key(species, assembly), index);
+    }
+
+    /**
+     * Removes the index of a species and assembly.
+     *
+     * @param species  species
+     * @param assembly assembly, null or empty for the default one
+     */
+    public static void unregister(String species, String assembly) {
+        INDEXES.remove(key(species, assembly));
+    }
+
+    /**
+     * @param species  species
+     * @param assembly assembly, null or empty for the default one
+     * @return the index registered for the species and assembly, null if none
+     */
+    public static GeneSearchIndex get(String species, String assembly) {
+        return INDEXES.get(key(species, assembly));
+    }
+
+    private static String key(String species, String assembly) {
+        return species + "_" + ((assembly == null || assembly.isEmpty()) ? "default" : assembly.toLowerCase());
+    }
+
+    private static String normalize(String term) {
+        return term == null ? "" : term.trim().toUpperCase(Locale.ROOT);
+    }
+
+    /**
+     * Gene matching a query, with the term matched.
+     */
+    public static final class Match {
+
+        private final String id;
+        private final String name;
+        private final String chromosome;
+        private final int start;
+        private final int end;
+        private final String term;
+        private final String type;
+        private final int editDistance;
+        private final boolean exact;
+
+        Match(GeneSearchIndex index, int gene, String term, String type, int editDistance, boolean exact) {
+            this(index.geneIds[gene], index.geneNames[gene], index.chromosomes[gene], index.starts[gene], index.ends[gene],
+                    term, type, editDistance, exact);
+        }
+
+        public Match(String id, String name, String chromosome, int start, int end, String term, String type,
+                     int editDistance, boolean exact) {
+            this.id = id;
+            this.name = name;
+            this.chromosome = chromosome;
+            this.start = start;
+            this.end = end;
+            this.term = term;
+            this.type = type;
+            this.editDistance = editDistance;
+            this.exact = exact;
+        }
+
+        @Override
+        public String toString() {
+            return id + ":" + name + ":" + term + ":" + type + ":" + editDistance;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getChromosome() {
+            return chromosome;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public String getTerm() {
+            return term;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public int getEditDistance() {
+            return editDistance;
+        }
+
+        public boolean isExact() {
+            return exact;
+        }
+    }
+
+    static final class Builder {
+
+        private final List<String> geneIds = new ArrayList<>();
+        private final List<String> geneNames = new ArrayList<>();
+        private final List<String> chromosomes = new ArrayList<>();
+        private final List<Integer> starts = new ArrayList<>();
+        private final List<Integer> ends = new ArrayList<>();
+        private final Map<String, String> terms = new HashMap<>();
+        // Best type of each term by gene, ordered by gene
+        private final Map<String, LinkedHashMap<Integer, Integer>> postings = new HashMap<>();
+
+        int addGene(String id, String name, String chromosome, int start, int end) {
+            geneIds.add(id);
+            geneNames.add(name);
+            chromosomes.add(chromosome);
+            starts.add(start);
+            ends.add(end);
+            return geneIds.size() - 1;
+        }
+
+        Builder addTerm(int gene, String term, String type) {
+            String key = normalize(term);
+            if (key.isEmpty()) {
+                return this;
+            }
+            terms.putIfAbsent(key, term.trim());
+            postings.computeIfAbsent(key, k -> new LinkedHashMap<>())
+                    .merge(gene, TYPE_ORDER.indexOf(type), Math::min);
+            return this;
+        }
+
+        GeneSearchIndex build() {
+            String[] keys = terms.keySet().toArray(new String[0]);
+            Arrays.sort(keys);
+            String[] keyTerms = new String[keys.length];
+            int[] postingOffsets = new int[keys.length + 1];
+            for (int i = 0; i < keys.length; i++) {
+                keyTerms[i] = terms.get(keys[i]);
+                postingOffsets[i + 1] = postingOffsets[i] + postings.get(keys[i]).size();
+            }
+            int[] postingArray = new int[postingOffsets[keys.length]];
+            for (int i = 0; i < keys.length; i++) {
+                int j = postingOffsets[i];
+                for (Map.Entry<Integer, Integer> entry : postings.get(keys[i]).entrySet()) {
+                    postingArray[j++] = entry.getKey() << TYPE_BITS | entry.getValue();
+                }
+            }
+
+            int[] startArray = new int[starts.size()];
+            int[] endArray = new int[ends.size()];
+            for (int i = 0; i < startArray.length; i++) {
+                startArray[i] = starts.get(i);
+                endArray[i] = ends.get(i);
+            }
+            return new GeneSearchIndex(geneIds.toArray(new String[0]), geneNames.toArray(new String[0]),
+                    chromosomes.toArray(new String[0]), startArray, endArray, keys, keyTerms, postingOffsets, postingArray);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.common;
+
+import java.util.List;
+
+/**
+ * Compact binary representation of the per-base genomic scores stored in conservation and variation_functional_score
+ * chunks. Conservation scores (phastCons, phyloP and GERP) are quantized to 16-bit integers with 3 decimals of
+ * resolution, which is the precision of the source files. CADD scores keep the same 4 x 16-bit packing used so far,
+ * one 64-bit value per position. All values are stored little-endian.
+ */
+public final class GenomicScoreCodec {
+
+    public static final String ENCODING_FIELD = "encoding";
+    public static final String CONSERVATION_ENCODING = "int16";
+    public static final String CADD_ENCODING = "int64";
+
+    public static final float CONSERVATION_RESOLUTION = 1000f;
+    public static final short MISSING_CONSERVATION_VALUE = Short.MIN_VALUE;
+
+    private GenomicScoreCodec() {
+    }
+
+    public static byte[] encodeConservation(List<Float> values) {
+        byte[] bytes = new byte[values.size() * 2];
+        for (int i = 0; i < values.size(); i++) {
+            short quantized = quantize(values.get(i));
+            bytes[2 * i] = (byte) quantized;
+            bytes[2 * i + 1] = (byte) (quantized >> 8);
+        }
+        return bytes;
+    }
+
+    public static int getNumConservationValues(byte[] bytes) {
+        return bytes.length / 2;
+    }
+
+    public static float decodeConservation(byte[] bytes, int index) {
+        short quantized = (short) ((bytes[2 * index] & 0xFF) | (bytes[2 * index + 1] << 8));
+        return (quantized == MISSING_CONSERVATION_VALUE) ? Float.NaN : quantized / CONSERVATION_RESOLUTION;
+    }
+
+    public static byte[] encodeCadd(List<Long> values) {
+        byte[] bytes = new byte[values.size() * 8];
+        for (int i = 0; i < values.size(); i++) {
+            long value = values.get(i);
+            for (int j = 0; j < 8; j++) {
+                bytes[8 * i + j] = (byte) (value >> (8 * j));
+            }
+        }
+        return bytes;
+    }
+
+    public static int getNumCaddValues(byte[] bytes) {
+        return bytes.length / 8;
+    }
+
+    public static long decodeCadd(byte[] bytes, int index) {
+        long value = 0;
+        for (int j = 7; j >= 0; j--) {
+            value = (value << 8) | (bytes[8 * index + j] & 0xFF);
+        }
+        return value;
+    }
+
+    private static short quantize(Float value) {
+        if (value == null || value.isNaN()) {
+            return MISSING_CONSERVATION_VALUE;
+        }
+        // Out of range values are clamped, MISSING_CONSERVATION_VALUE is reserved
+        long quantized = Math.round(value * CONSERVATION_RESOLUTION);
+        return (short) Math.max(Short.MIN_VALUE + 1, Math.min(Short.MAX_VALUE, quantized));
+    }
+
+}
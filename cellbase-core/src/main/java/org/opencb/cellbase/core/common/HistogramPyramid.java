@@ -0,0 +1,278 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.common;
+
+import org.opencb.cellbase.core.api.CellBaseDBAdaptor;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Number of features of a collection starting in each bin of a chromosome, precomputed so region histograms are
+ * served without aggregating the collection. The finest bins are BIN_SIZE bases long and each level above halves the
+ * number of bins, so the count of any range is the sum of a few bins per level. Ranges not aligned to BIN_SIZE are
+ * rounded: a feature is counted in the range holding the first base of its bin.
+ *
+ * Pyramids are built scanning the collection, and can be saved to a file so servers load them without scanning it.
+ * The file keeps a fingerprint of the collection it was built from, so a file left from a previous load of the
+ * database can be detected and rebuilt. They are registered by species, assembly and collection for the adaptors to find them.
+ */
+public final class HistogramPyramid {
+
+    public static final int BIN_SIZE_BITS = 10;
+    public static final int BIN_SIZE = 1 << BIN_SIZE_BITS;
+
+    private static final int MAGIC = 0x43424850;
+    private static final int FORMAT_VERSION = 2;
+
+    private static final Map<String, HistogramPyramid> PYRAMIDS = new ConcurrentHashMap<>();
+
+    // Bins of each level by chromosome, level 0 holds the finest bins and the last level a single bin
+    private final Map<String, int[][]> chromosomes;
+    private final long size;
+
+    private HistogramPyramid(Map<String, int[][]> chromosomes, long size) {
+        this.chromosomes = chromosomes;
+        this.size = size;
+    }
+
+    /**
+     * Builds the pyramid scanning the whole collection of an adaptor, only chromosome and start are fetched.
+     *
+     * @param dbAdaptor adaptor of the collection
+     * @return the pyramid
+     * @throws IOException if the iterator cannot be closed
+     */
+    public static HistogramPyramid build(CellBaseDBAdaptor dbAdaptor) throws IOException {
+        Builder builder = new Builder();
+        Iterator iterator = dbAdaptor.nativeIterator(new Query(), new QueryOptions(QueryOptions.INCLUDE, "chromosome,start"));
+        try {
+            while (iterator.hasNext()) {
+                Object document = iterator.next();
+                if (!(document instanceof Map)) {
+                    continue;
+                }
+                Map<String, Object> map = (Map<String, Object>) document;
+                if (map.get("chromosome") == null || !(map.get("start") instanceof Number)) {
+                    continue;
+                }
+                builder.add(map.get("chromosome").toString(), ((Number) map.get("start")).intValue());
+            }
+        } finally {
+            if (iterator instanceof Closeable) {
+                ((Closeable) iterator).close();
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Loads a pyramid saved with save.
+     *
+     * @param path pyramid file
+     * @return the pyramid
+     * @throws IOException if the file cannot be read or is not a pyramid
+     */
+    public static HistogramPyramid load(Path path) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            readHeader(inputStream, path);
+            Builder builder = new Builder();
+            int numChromosomes = inputStream.readInt();
+            for (int i = 0; i < numChromosomes; i++) {
+                String chromosome = inputStream.readUTF();
+                int[] bins = new int[inputStream.readInt()];
+                for (int j = 0; j < bins.length; j++) {
+                    bins[j] = inputStream.readInt();
+                }
+                builder.bins.put(chromosome, bins);
+            }
+            return builder.build();
+        }
+    }
+
+    /**
+     * Reads the fingerprint of the collection a pyramid file was built from, without loading the bins.
+     *
+     * @param path pyramid file
+     * @return the fingerprint given to save
+     * @throws IOException if the file cannot be read or is not a pyramid
+     */
+    public static String readFingerprint(Path path) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return readHeader(inputStream, path);
+        }
+    }
+
+    private static String readHeader(DataInputStream inputStream, Path path) throws IOException {
+        if (inputStream.readInt() != MAGIC || inputStream.readInt() != FORMAT_VERSION) {
+            throw new IOException("Not a histogram pyramid file: " + path);
+        }
+        return inputStream.readUTF();
+    }
+
+    /**
+     * Saves the pyramid to a file, only the finest bins are written.
+     *
+     * @param path        pyramid file
+     * @param fingerprint fingerprint of the collection the pyramid was built from
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path path, String fingerprint) throws IOException {
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeUTF(fingerprint);
+            outputStream.writeInt(chromosomes.size());
+            for (Map.Entry<String, int[][]> entry : chromosomes.entrySet()) {
+                int[] bins = entry.getValue()[0];
+                outputStream.writeUTF(entry.getKey());
+                outputStream.writeInt(bins.length);
+                for (int bin : bins) {
+                    outputStream.writeInt(bin);
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of features starting in a range, rounded to BIN_SIZE: features of the bins whose first base lies in the
+     * range are counted. Consecutive ranges never count a feature twice.
+     *
+     * @param chromosome chromosome of the range
+     * @param start      start of the range, 1-based
+     * @param end        end of the range, inclusive
+     * @return number of features, 0 for unknown chromosomes
+     */
+    public long count(String chromosome, int start, int end) {
+        int[][] levels = chromosomes.get(chromosome);
+        if (levels == null || end < start) {
+            return 0;
+        }
+        int low = (int) ((Math.max(start, 0) + (long) BIN_SIZE - 1) >> BIN_SIZE_BITS);
+        int high = Math.min(Math.max(end, 0) >> BIN_SIZE_BITS, levels[0].length - 1);
+        long total = 0;
+        for (int level = 0; level < levels.length && low <= high; level++) {
+            // Bins not paired with their sibling are added at this level, pairs are added as a bin of the next one
+            if ((low & 1) == 1) {
+                total += levels[level][low++];
+            }
+            if ((high & 1) == 0) {
+                total += levels[level][high--];
+            }
+            low >>= 1;
+            high >>= 1;
+        }
+        return total;
+    }
+
+    /**
+     * @return number of features counted
+     */
+    public long size() {
+        return size;
+    }
+
+    public Set<String> getChromosomes() {
+        return Collections.unmodifiableSet(chromosomes.keySet());
+    }
+
+    /**
+     * Registers the pyramid of a collection, replacing any previous one.
+     *
+     * @param species    species
+     * @param assembly   assembly, null or empty for the default one
+     * @param collection name of the collection counted
+     * @param pyramid    the pyramid
+     */
+    public static void register(String species, String assembly, String collection, HistogramPyramid pyramid) {
+        PYRAMIDS.put(key(species, assembly, collection), pyramid);
+    }
+
+    /**
+     * Removes the pyramid of a collection, histograms are aggregated again.
+     *
+     * @param species    species
+     * @param assembly   assembly, null or empty for the default one
+     * @param collection name of the collection counted
+     */
+    public static void unregister(String species, String assembly, String collection) {
+        PYRAMIDS.remove(key(species, assembly, collection));
+    }
+
+    /**
+     * @param species    species
+     * @param assembly   assembly, null or empty for the default one
+     * @param collection name of the collection counted
+     * @return the pyramid registered for the collection, null if none
+     */
+    public static HistogramPyramid get(String species, String assembly, String collection) {
+        return PYRAMIDS.get(key(species, assembly, collection));
+    }
+
+    private static String key(String species, String assembly, String collection) {
+        return species + "_" + ((assembly == null || assembly.isEmpty()) ? "default" : assembly.toLowerCase()) + "_" + collection;
+    }
+
+    static final class Builder {
+
+        private final Map<String, int[]> bins = new HashMap<>();
+
+        Builder add(String chromosome, int start) {
+            int bin = Math.max(start, 0) >> BIN_SIZE_BITS;
+            int[] chromosomeBins = bins.get(chromosome);
+            if (chromosomeBins == null || bin >= chromosomeBins.length) {
+                chromosomeBins = Arrays.copyOf(chromosomeBins != null ? chromosomeBins : new int[0],
+                        Math.max(bin + 1, chromosomeBins != null ? chromosomeBins.length * 2 : 1024));
+                bins.put(chromosome, chromosomeBins);
+            }
+            chromosomeBins[bin]++;
+            return this;
+        }
+
+        HistogramPyramid build() {
+            Map<String, int[][]> chromosomes = new HashMap<>();
+            long size = 0;
+            for (Map.Entry<String, int[]> entry : bins.entrySet()) {
+                int[] finest = entry.getValue();
+                int length = finest.length;
+                while (length > 1 && finest[length - 1] == 0) {
+                    length--;
+                }
+                List<int[]> levels = new ArrayList<>();
+                levels.add(Arrays.copyOf(finest, length));
+                while (levels.get(levels.size() - 1).length > 1) {
+                    int[] previous = levels.get(levels.size() - 1);
+                    int[] level = new int[(previous.length + 1) / 2];
+                    for (int i = 0; i < previous.length; i++) {
+                        level[i >> 1] += previous[i];
+                    }
+                    levels.add(level);
+                }
+                for (int count : levels.get(0)) {
+                    size += count;
+                }
+                chromosomes.put(entry.getKey(), levels.toArray(new int[0][]));
+            }
+            return new HistogramPyramid(chromosomes, size);
+        }
+    }
+}
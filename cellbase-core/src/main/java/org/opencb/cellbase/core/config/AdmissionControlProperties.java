@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.config;
+
+/**
+ * Concurrency limits of the REST server. Requests are split in classes: variant annotation, whose cost is the number
+ * of variants, bulk exports, and the rest of queries. Meta endpoints are never limited.
+ */
+public class AdmissionControlProperties {
+
+    private boolean enabled;
+    private ConcurrencyLimit annotation;
+    private ConcurrencyLimit export;
+    private ConcurrencyLimit query;
+
+    public AdmissionControlProperties() {
+        enabled = true;
+        annotation = new ConcurrencyLimit(5000, 20, 30000, 30);
+        export = new ConcurrencyLimit(4, 8, 10000, 60);
+        query = new ConcurrencyLimit(200, 400, 2000, 1);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("AdmissionControlProperties{");
+        sb.append("enabled=").append(enabled);
+        sb.append(", annotation=").append(annotation);
+        sb.append(", export=").append(export);
+        sb.append(", query=").append(query);
+        sb.append('}');
+        return sb.toString();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public AdmissionControlProperties setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    public ConcurrencyLimit getAnnotation() {
+        return annotation;
+    }
+
+    public AdmissionControlProperties setAnnotation(ConcurrencyLimit annotation) {
+        this.annotation = annotation;
+        return this;
+    }
+
+    public ConcurrencyLimit getExport() {
+        return export;
+    }
+
+    public AdmissionControlProperties setExport(ConcurrencyLimit export) {
+        this.export = export;
+        return this;
+    }
+
+    public ConcurrencyLimit getQuery() {
+        return query;
+    }
+
+    public AdmissionControlProperties setQuery(ConcurrencyLimit query) {
+        this.query = query;
+        return this;
+    }
+
+    /**
+     * Limit of one class of requests. Capacity is the total cost that can run at the same time, e.g. number of variants
+     * being annotated. Requests that do not fit wait up to maxWaitMillis, with at most maxQueued requests waiting.
+     */
+    public static class ConcurrencyLimit {
+
+        private int capacity;
+        private int maxQueued;
+        private int maxWaitMillis;
+        private int retryAfterSeconds;
+
+        public ConcurrencyLimit() {
+        }
+
+        public ConcurrencyLimit(int capacity, int maxQueued, int maxWaitMillis, int retryAfterSeconds) {
+            this.capacity = capacity;
+            this.maxQueued = maxQueued;
+            this.maxWaitMillis = maxWaitMillis;
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("ConcurrencyLimit{");
+            sb.append("capacity=").append(capacity);
+            sb.append(", maxQueued=").append(maxQueued);
+            sb.append(", maxWaitMillis=").append(maxWaitMillis);
+            sb.append(", retryAfterSeconds=").append(retryAfterSeconds);
+            sb.append('}');
+            return sb.toString();
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        public ConcurrencyLimit setCapacity(int capacity) {
+            this.capacity = capacity;
+            return this;
+        }
+
+        public int getMaxQueued() {
+            return maxQueued;
+        }
+
+        public ConcurrencyLimit setMaxQueued(int maxQueued) {
+            this.maxQueued = maxQueued;
+            return this;
+        }
+
+        public int getMaxWaitMillis() {
+            return maxWaitMillis;
+        }
+
+        public ConcurrencyLimit setMaxWaitMillis(int maxWaitMillis) {
+            this.maxWaitMillis = maxWaitMillis;
+            return this;
+        }
+
+        public int getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+
+        public ConcurrencyLimit setRetryAfterSeconds(int retryAfterSeconds) {
+            this.retryAfterSeconds = retryAfterSeconds;
+            return this;
+        }
+    }
+}
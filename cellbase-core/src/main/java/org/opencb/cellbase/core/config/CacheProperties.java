@@ -0,0 +1,137 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.config;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches of the server. The gene cache keeps the decoded genes used by the variant annotation, it can be warmed up at
+ * startup with the hot genes of each species, e.g. those of the panels most requested. For the species listed in
+ * geneIndexSpecies all the genes are preloaded in a compact index and annotation never queries the gene collection;
+ * if geneIndexDirectory is set the index is loaded from there, or saved there the first time it is built. Likewise,
+ * region histograms of genes, variants and regulatory regions of the species listed in histogramSpecies are counted
+ * with histogram pyramids, loaded from or saved to histogramDirectory if set. Gene names, ids and xrefs of the species
+ * listed in searchIndexSpecies are autocompleted from a search index, loaded from or saved to searchIndexDirectory.
+ */
+public class CacheProperties {
+
+    private int geneCacheSizeMB;
+    private Map<String, List<String>> hotGenes;
+    private List<String> geneIndexSpecies;
+    private String geneIndexDirectory;
+    private List<String> histogramSpecies;
+    private String histogramDirectory;
+    private List<String> searchIndexSpecies;
+    private String searchIndexDirectory;
+
+    public CacheProperties() {
+        geneCacheSizeMB = 512;
+        hotGenes = Collections.emptyMap();
+        geneIndexSpecies = Collections.emptyList();
+        histogramSpecies = Collections.emptyList();
+        searchIndexSpecies = Collections.emptyList();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("CacheProperties{");
+        sb.append("geneCacheSizeMB=").append(geneCacheSizeMB);
+        sb.append(", hotGenes=").append(hotGenes);
+        sb.append(", geneIndexSpecies=").append(geneIndexSpecies);
+        sb.append(", geneIndexDirectory='").append(geneIndexDirectory).append('\'');
+        sb.append(", histogramSpecies=").append(histogramSpecies);
+        sb.append(", histogramDirectory='").append(histogramDirectory).append('\'');
+        sb.append(", searchIndexSpecies=").append(searchIndexSpecies);
+        sb.append(", searchIndexDirectory='").append(searchIndexDirectory).append('\'');
+        sb.append('}');
+        return sb.toString();
+    }
+
+    public int getGeneCacheSizeMB() {
+        return geneCacheSizeMB;
+    }
+
+    public CacheProperties setGeneCacheSizeMB(int geneCacheSizeMB) {
+        this.geneCacheSizeMB = geneCacheSizeMB;
+        return this;
+    }
+
+    public Map<String, List<String>> getHotGenes() {
+        return hotGenes;
+    }
+
+    public CacheProperties setHotGenes(Map<String, List<String>> hotGenes) {
+        this.hotGenes = hotGenes;
+        return this;
+    }
+
+    public List<String> getGeneIndexSpecies() {
+        return geneIndexSpecies;
+    }
+
+    public CacheProperties setGeneIndexSpecies(List<String> geneIndexSpecies) {
+        this.geneIndexSpecies = geneIndexSpecies;
+        return this;
+    }
+
+    public String getGeneIndexDirectory() {
+        return geneIndexDirectory;
+    }
+
+    public CacheProperties setGeneIndexDirectory(String geneIndexDirectory) {
+        this.geneIndexDirectory = geneIndexDirectory;
+        return this;
+    }
+
+    public List<String> getHistogramSpecies() {
+        return histogramSpecies;
+    }
+
+    public CacheProperties setHistogramSpecies(List<String> histogramSpecies) {
+        this.histogramSpecies = histogramSpecies;
+        return this;
+    }
+
+    public String getHistogramDirectory() {
+        return histogramDirectory;
+    }
+
+    public CacheProperties setHistogramDirectory(String histogramDirectory) {
+        this.histogramDirectory = histogramDirectory;
+        return this;
+    }
+
+    public List<String> getSearchIndexSpecies() {
+        return searchIndexSpecies;
+    }
+
+    public CacheProperties setSearchIndexSpecies(List<String> searchIndexSpecies) {
+        this.searchIndexSpecies = searchIndexSpecies;
+        return this;
+    }
+
+    public String getSearchIndexDirectory() {
+        return searchIndexDirectory;
+    }
+
+    public CacheProperties setSearchIndexDirectory(String searchIndexDirectory) {
+        this.searchIndexDirectory = searchIndexDirectory;
+        return this;
+    }
+}
@@ -37,6 +37,8 @@ public class CellBaseConfiguration {
     private Databases databases;
     private DownloadProperties download;
     private SpeciesProperties species;
+    private AdmissionControlProperties admissionControl;
+    private CacheProperties cache;
 
 
     public static CellBaseConfiguration load(InputStream configurationInputStream) throws IOException {
@@ -109,6 +111,22 @@ public class CellBaseConfiguration {
         this.download = download;
     }
 
+    public AdmissionControlProperties getAdmissionControl() {
+        return admissionControl;
+    }
+
+    public void setAdmissionControl(AdmissionControlProperties admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    public CacheProperties getCache() {
+        return cache;
+    }
+
+    public void setCache(CacheProperties cache) {
+        this.cache = cache;
+    }
+
     public SpeciesProperties getSpecies() {
         return species;
     }
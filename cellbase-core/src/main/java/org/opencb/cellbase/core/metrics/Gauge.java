@@ -0,0 +1,37 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.metrics;
+
+import java.util.function.Supplier;
+
+/**
+ * Instantaneous value sampled when it is read, e.g. the size of a queue or the number of busy threads.
+ */
+public class Gauge implements GaugeMXBean {
+
+    private final Supplier<? extends Number> supplier;
+
+    public Gauge(Supplier<? extends Number> supplier) {
+        this.supplier = supplier;
+    }
+
+    @Override
+    public double getValue() {
+        Number value = supplier.get();
+        return (value != null) ? value.doubleValue() : Double.NaN;
+    }
+}
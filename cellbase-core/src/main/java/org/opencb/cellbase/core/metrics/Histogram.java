@@ -0,0 +1,138 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative long values. Values are counted in log-linear buckets, four per power of two,
+ * so percentiles are estimated with a relative error below 25% whatever the range of the values, using a fixed
+ * amount of memory. Counts are cumulative since the histogram was created.
+ */
+public class Histogram implements HistogramMXBean {
+
+    private static final int SUB_BUCKETS = 4;
+    private static final int NUM_BUCKETS = 62 * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+    private final LongAdder count;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+    public Histogram() {
+        buckets = new AtomicLongArray(NUM_BUCKETS);
+        count = new LongAdder();
+        sum = new LongAdder();
+        max = new LongAccumulator(Math::max, 0);
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(getBucketIndex(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMean() {
+        long n = count.sum();
+        return (n > 0) ? (double) sum.sum() / n : 0;
+    }
+
+    @Override
+    public long getMax() {
+        return max.get();
+    }
+
+    @Override
+    public long get50thPercentile() {
+        return getPercentile(50);
+    }
+
+    @Override
+    public long get95thPercentile() {
+        return getPercentile(95);
+    }
+
+    @Override
+    public long get99thPercentile() {
+        return getPercentile(99);
+    }
+
+    /**
+     * Estimates a percentile as the upper bound of the bucket holding it, never above the maximum value recorded.
+     *
+     * @param percentile percentile between 0 and 100
+     * @return estimated value, 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(n * percentile / 100));
+        long accumulated = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            accumulated += buckets.get(i);
+            if (accumulated >= rank) {
+                return Math.min(getBucketUpperBound(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("count", getCount());
+        snapshot.put("mean", getMean());
+        snapshot.put("p50", get50thPercentile());
+        snapshot.put("p95", get95thPercentile());
+        snapshot.put("p99", get99thPercentile());
+        snapshot.put("max", getMax());
+        return snapshot;
+    }
+
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int power = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (power - 2)) & (SUB_BUCKETS - 1);
+        return Math.min((power - 1) * SUB_BUCKETS + subBucket, NUM_BUCKETS - 1);
+    }
+
+    static long getBucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int power = index / SUB_BUCKETS + 1;
+        long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << (power - 2);
+        return lowerBound + (1L << (power - 2)) - 1;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the timers, histograms and gauges of a process. Metrics are created on first use and registered in the
+ * platform MBean server under the org.opencb.cellbase domain, so they can be read with any JMX client; snapshot()
+ * returns all of them for the REST /meta/metrics endpoint. Names are dot separated, e.g. "db.GeneDBAdaptor.get".
+ */
+public class MetricsRegistry {
+
+    public static final String JMX_DOMAIN = "org.opencb.cellbase";
+
+    private static final MetricsRegistry DEFAULT_REGISTRY = new MetricsRegistry(true);
+
+    // DB adaptor calls made by the current thread since the last reset, see instrument()
+    private static final ThreadLocal<int[]> DB_CALLS = ThreadLocal.withInitial(() -> new int[1]);
+
+    private final boolean jmxEnabled;
+    private final ConcurrentMap<String, Timer> timers;
+    private final ConcurrentMap<String, Histogram> histograms;
+    private final ConcurrentMap<String, Gauge> gauges;
+
+    private Logger logger = LoggerFactory.getLogger(MetricsRegistry.class);
+
+    public MetricsRegistry(boolean jmxEnabled) {
+        this.jmxEnabled = jmxEnabled;
+        this.timers = new ConcurrentHashMap<>();
+        this.histograms = new ConcurrentHashMap<>();
+        this.gauges = new ConcurrentHashMap<>();
+    }
+
+    public static MetricsRegistry getDefault() {
+        return DEFAULT_REGISTRY;
+    }
+
+    public Timer timer(String name) {
+        return getOrCreate(timers, name, "Timer", key -> new Timer());
+    }
+
+    public Histogram histogram(String name) {
+        return getOrCreate(histograms, name, "Histogram", key -> new Histogram());
+    }
+
+    /**
+     * Registers a gauge, a gauge already registered with the same name is kept.
+     *
+     * @param name     gauge name
+     * @param supplier function sampling the value each time the gauge is read
+     * @return the gauge registered with this name
+     */
+    public Gauge gauge(String name, Supplier<? extends Number> supplier) {
+        return getOrCreate(gauges, name, "Gauge", key -> new Gauge(supplier));
+    }
+
+    /**
+     * Current values of all the metrics, sorted by name.
+     *
+     * @return map with one entry per metric, timers and histograms are maps with count, mean, percentiles and max
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        timers.forEach((name, timer) -> snapshot.put(name, timer.snapshot()));
+        histograms.forEach((name, histogram) -> snapshot.put(name, histogram.snapshot()));
+        gauges.forEach((name, gauge) -> snapshot.put(name, gauge.getValue()));
+        return snapshot;
+    }
+
+    /**
+     * Wraps an object so that every call to a method of the interface is timed in a timer named
+     * prefix.InterfaceName.methodName. Calls are also counted per thread, see getThreadDBCalls(). Methods returning
+     * lazy iterators are only timed until the iterator is returned.
+     *
+     * @param iface  interface implemented by target, only its methods are exposed by the returned object
+     * @param target object to wrap
+     * @param prefix prefix of the timer names, e.g. "db"
+     * @param <T>    interface type
+     * @return instrumented proxy of target
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T instrument(Class<T> iface, T target, String prefix) {
+        return (T) Proxy.newProxyInstance(iface.getClassLoader(), new Class<?>[]{iface},
+                new TimedInvocationHandler(this, target, prefix + "." + iface.getSimpleName()));
+    }
+
+    /**
+     * Resets the number of calls to instrumented objects made by the current thread, to be called when a request starts.
+     */
+    public static void resetThreadDBCalls() {
+        DB_CALLS.get()[0] = 0;
+    }
+
+    /**
+     * Number of calls to instrumented objects made by the current thread since the last reset. Calls made by other
+     * threads on behalf of the same request, e.g. annotation futures, are not included.
+     *
+     * @return number of calls
+     */
+    public static int getThreadDBCalls() {
+        return DB_CALLS.get()[0];
+    }
+
+    static void incrementThreadDBCalls() {
+        DB_CALLS.get()[0]++;
+    }
+
+    private <M> M getOrCreate(ConcurrentMap<String, M> metrics, String name, String type, Function<String, M> factory) {
+        M metric = metrics.get(name);
+        if (metric != null) {
+            return metric;
+        }
+        metric = metrics.computeIfAbsent(name, factory);
+        if (jmxEnabled) {
+            registerMBean(metric, type, name);
+        }
+        return metric;
+    }
+
+    private synchronized void registerMBean(Object metric, String type, String name) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(JMX_DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+            if (!mBeanServer.isRegistered(objectName)) {
+                mBeanServer.registerMBean(metric, objectName);
+            }
+        } catch (Exception e) {
+            // Metrics are still available through snapshot()
+            logger.warn("Metric '{}' could not be registered in JMX: {}", name, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Times every call to the wrapped object, see MetricsRegistry.instrument.
+ */
+class TimedInvocationHandler implements InvocationHandler {
+
+    private final MetricsRegistry metricsRegistry;
+    private final Object target;
+    private final String prefix;
+    private final Map<Method, Timer> timers;
+
+    TimedInvocationHandler(MetricsRegistry metricsRegistry, Object target, String prefix) {
+        this.metricsRegistry = metricsRegistry;
+        this.target = target;
+        this.prefix = prefix;
+        this.timers = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            return method.invoke(target, args);
+        }
+
+        Timer timer = timers.computeIfAbsent(method, key -> metricsRegistry.timer(prefix + "." + key.getName()));
+        MetricsRegistry.incrementThreadDBCalls();
+        long start = System.nanoTime();
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        } finally {
+            timer.recordSince(start);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency histogram. Durations are recorded in microseconds and reported in milliseconds.
+ */
+public class Timer implements TimerMXBean {
+
+    private final Histogram histogram;
+
+    public Timer() {
+        histogram = new Histogram();
+    }
+
+    public void record(long duration, TimeUnit unit) {
+        histogram.record(unit.toMicros(duration));
+    }
+
+    /**
+     * Records the time elapsed since startNanos.
+     *
+     * @param startNanos value returned by System.nanoTime() when the timed operation started
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return histogram.getMean() / 1000;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return histogram.getMax() / 1000.0;
+    }
+
+    @Override
+    public double get50thPercentileMillis() {
+        return histogram.getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double get95thPercentileMillis() {
+        return histogram.getPercentile(95) / 1000.0;
+    }
+
+    @Override
+    public double get99thPercentileMillis() {
+        return histogram.getPercentile(99) / 1000.0;
+    }
+
+    Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("count", getCount());
+        snapshot.put("meanMs", getMeanMillis());
+        snapshot.put("p50Ms", get50thPercentileMillis());
+        snapshot.put("p95Ms", get95thPercentileMillis());
+        snapshot.put("p99Ms", get99thPercentileMillis());
+        snapshot.put("maxMs", getMaxMillis());
+        return snapshot;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.monitor;
+
+import org.opencb.cellbase.core.monitor.HealthStatus.ApplicationDetails.DependenciesStatus;
+import org.opencb.cellbase.core.monitor.HealthStatus.ApplicationDetails.DependenciesStatus.DatastoreDependenciesStatus;
+import org.opencb.cellbase.core.monitor.HealthStatus.ApplicationDetails.DependenciesStatus.DatastoreDependenciesStatus.DatastoreStatus;
+
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Last datastore status sampled for one species and assembly, plus a rolling window with the last response times of
+ * every datastore member. Each update replaces the whole DependenciesStatus, objects already returned are never
+ * modified so they can be serialized while a new sample is being taken.
+ */
+class HealthSample {
+
+    static final int LATENCY_WINDOW_SIZE = 20;
+    // A response time this many times above the rolling average is considered a sudden degradation
+    static final int DEGRADATION_FACTOR = 3;
+    // Minimum number of samples in the window before latency degradation is checked
+    private static final int MIN_SAMPLES = 3;
+
+    private final String species;
+    private final String assembly;
+    private final Map<String, Deque<Long>> responseTimes;
+    private final AtomicBoolean refreshRequested;
+
+    private volatile DependenciesStatus dependenciesStatus;
+    private volatile long sampledAt;
+
+    HealthSample(String species, String assembly) {
+        this.species = species;
+        this.assembly = assembly;
+        this.responseTimes = new HashMap<>();
+        this.refreshRequested = new AtomicBoolean(false);
+    }
+
+    /**
+     * Replaces the current sample. Must not be called concurrently, samples are taken by a single thread.
+     *
+     * @param datastoreStatusMap datastore status as returned by DBAdaptorFactory.getDatabaseStatus, may be null
+     * @param timestamp          time the sample was taken, in milliseconds
+     * @return true if the sample shows a degradation: a member not responding or responding much slower than usual
+     */
+    synchronized boolean update(Map<String, DatastoreStatus> datastoreStatusMap, long timestamp) {
+        boolean degraded = datastoreStatusMap == null || datastoreStatusMap.isEmpty();
+        if (datastoreStatusMap != null) {
+            for (Map.Entry<String, DatastoreStatus> entry : datastoreStatusMap.entrySet()) {
+                DatastoreStatus datastoreStatus = entry.getValue();
+                Long responseTime = parseResponseTime(datastoreStatus.getResponseTime());
+                if (responseTime == null) {
+                    degraded = true;
+                    continue;
+                }
+
+                Deque<Long> window = responseTimes.computeIfAbsent(entry.getKey(), key -> new ArrayDeque<>());
+                if (window.size() >= MIN_SAMPLES && responseTime > DEGRADATION_FACTOR * Math.max(1, average(window))) {
+                    degraded = true;
+                }
+                window.addLast(responseTime);
+                if (window.size() > LATENCY_WINDOW_SIZE) {
+                    window.removeFirst();
+                }
+                datastoreStatus.setAverageResponseTime(average(window) + "ms");
+            }
+        }
+
+        DatastoreDependenciesStatus datastores = new DatastoreDependenciesStatus();
+        datastores.setMongodb(datastoreStatusMap);
+        DependenciesStatus dependencies = new DependenciesStatus();
+        dependencies.setDatastores(datastores);
+        dependencies.setSampled(new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date(timestamp)));
+
+        sampledAt = timestamp;
+        dependenciesStatus = dependencies;
+        return degraded;
+    }
+
+    String getSpecies() {
+        return species;
+    }
+
+    String getAssembly() {
+        return assembly;
+    }
+
+    DependenciesStatus getDependenciesStatus() {
+        return dependenciesStatus;
+    }
+
+    long getSampledAt() {
+        return sampledAt;
+    }
+
+    AtomicBoolean getRefreshRequested() {
+        return refreshRequested;
+    }
+
+    static Long parseResponseTime(String responseTime) {
+        if (responseTime == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(responseTime.endsWith("ms") ? responseTime.substring(0, responseTime.length() - 2) : responseTime);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long average(Collection<Long> values) {
+        long sum = 0;
+        for (long value : values) {
+            sum += value;
+        }
+        return values.isEmpty() ? 0 : sum / values.size();
+    }
+}
@@ -140,10 +140,19 @@ public class HealthStatus {
         public static class DependenciesStatus {
 
             private DatastoreDependenciesStatus datastores;
+            private String sampled;
 
             public DependenciesStatus() {
             }
 
+            public String getSampled() {
+                return sampled;
+            }
+
+            public void setSampled(String sampled) {
+                this.sampled = sampled;
+            }
+
             public DatastoreDependenciesStatus getDatastores() {
                 return datastores;
             }
@@ -168,12 +177,21 @@ public class HealthStatus {
 
                 public static class DatastoreStatus {
                     private String responseTime;
+                    private String averageResponseTime;
                     private String role;
                     private String repset;
 
                     public DatastoreStatus() {
                     }
 
+                    public String getAverageResponseTime() {
+                        return averageResponseTime;
+                    }
+
+                    public void setAverageResponseTime(String averageResponseTime) {
+                        this.averageResponseTime = averageResponseTime;
+                    }
+
                     public String getResponseTime() {
                         return responseTime;
                     }
@@ -26,6 +26,9 @@ import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -43,12 +46,23 @@ public class Monitor {
     private static final String CELLBASE_TOMCAT = "CellBase-tomcat";
     private static final String REPLICA_SET = "replica_set";
     private static final String ASSEMBLY = "assembly";
+    private static final long DEFAULT_REFRESH_INTERVAL = TimeUnit.SECONDS.toMillis(30);
+    // While the datastore looks degraded it is sampled this many times more often
+    private static final int DEGRADED_REFRESH_SPEEDUP = 10;
+    private static final long MIN_REFRESH_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    // Samples older than this many refresh intervals mean the sampler is stuck, e.g. blocked by the database
+    private static final int MAX_SAMPLE_AGE_INTERVALS = 3;
     private static ObjectMapper jsonObjectMapper;
     private static Logger logger;
 
     private WebTarget webTarget = null;
     private DBAdaptorFactory dbAdaptorFactory = null;
 
+    private long refreshInterval;
+    private ScheduledExecutorService healthSampler;
+    private Map<String, HealthSample> healthSamples;
+    private String serverName;
+
     static {
         jsonObjectMapper = new ObjectMapper();
         jsonObjectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
@@ -56,7 +70,26 @@ public class Monitor {
     }
 
     public Monitor(DBAdaptorFactory dbAdaptorFactory) {
+        this(dbAdaptorFactory, DEFAULT_REFRESH_INTERVAL);
+    }
+
+    /**
+     * Local monitor. Datastore status is sampled in background every refreshInterval milliseconds, run() returns the
+     * last sample without querying the database. Sampling of a species and assembly starts on its first run() call.
+     *
+     * @param dbAdaptorFactory DB adaptor factory used to sample the datastore status
+     * @param refreshInterval  time between two samples, in milliseconds
+     */
+    public Monitor(DBAdaptorFactory dbAdaptorFactory, long refreshInterval) {
         this.dbAdaptorFactory = dbAdaptorFactory;
+        this.refreshInterval = refreshInterval;
+        this.healthSamples = new ConcurrentHashMap<>();
+        this.serverName = getServerName();
+        this.healthSampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "health-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     public Monitor(String restHost) {
@@ -101,21 +134,107 @@ public class Monitor {
         }
     }
 
+    /**
+     * Asks for an immediate refresh of the datastore status, e.g. after a request failed because the database did not
+     * respond. Refreshes are asynchronous and coalesced: several requests arriving before the refresh runs cause a single
+     * one. Nothing is done for species and assemblies whose status has never been requested, or for remote monitors.
+     *
+     * @param species  species
+     * @param assembly assembly
+     */
+    public void requestRefresh(String species, String assembly) {
+        if (dbAdaptorFactory == null) {
+            return;
+        }
+        HealthSample healthSample = healthSamples.get(getSampleKey(species, assembly));
+        if (healthSample != null && healthSample.getRefreshRequested().compareAndSet(false, true)) {
+            healthSampler.execute(() -> {
+                healthSample.getRefreshRequested().set(false);
+                refresh(healthSample);
+            });
+        }
+    }
+
     private HealthStatus runLocalMonitoring(String species, String assembly) {
+        HealthSample healthSample = getHealthSample(species, assembly);
+
         HealthStatus healthStatus = new HealthStatus();
-        healthStatus.setApplication(getApplicationDetails(species, assembly));
+        healthStatus.setApplication(getApplicationDetails(healthSample.getDependenciesStatus()));
         healthStatus.setInfrastructure(new HealthStatus.Infrastructure(1, NONE));
-        healthStatus.setService(getService(healthStatus.getApplication()));
+        healthStatus.setService(getService(healthStatus.getApplication(), healthSample));
 
         return healthStatus;
     }
 
-    private HealthStatus.Service getService(HealthStatus.ApplicationDetails applicationDetails) {
+    private HealthSample getHealthSample(String species, String assembly) {
+        HealthSample healthSample = healthSamples.computeIfAbsent(getSampleKey(species, assembly),
+                key -> new HealthSample(species, assembly));
+        if (healthSample.getDependenciesStatus() == null) {
+            // First request for this species and assembly, sampled synchronously just once
+            synchronized (healthSample) {
+                if (healthSample.getDependenciesStatus() == null) {
+                    boolean degraded = refresh(healthSample);
+                    scheduleRefresh(healthSample, getNextRefreshDelay(degraded));
+                }
+            }
+        }
+        return healthSample;
+    }
+
+    private String getSampleKey(String species, String assembly) {
+        return species + ":" + assembly;
+    }
+
+    /**
+     * Samples the datastore status, no exception is thrown: a datastore that cannot be sampled is reported as down.
+     *
+     * @param healthSample sample to refresh
+     * @return true if the datastore looks degraded
+     */
+    private boolean refresh(HealthSample healthSample) {
+        Map<String, HealthStatus.ApplicationDetails.DependenciesStatus.DatastoreDependenciesStatus.DatastoreStatus> datastoreStatusMap;
+        try {
+            datastoreStatusMap = dbAdaptorFactory.getDatabaseStatus(healthSample.getSpecies(), healthSample.getAssembly());
+        } catch (RuntimeException e) {
+            logger.warn("Datastore status of {} {} could not be sampled: {}", healthSample.getSpecies(),
+                    healthSample.getAssembly(), e.getMessage());
+            datastoreStatusMap = null;
+        }
+        boolean degraded = healthSample.update(datastoreStatusMap, System.currentTimeMillis());
+        if (degraded) {
+            logger.warn("Datastore of {} {} looks degraded, sampling every {} ms", healthSample.getSpecies(),
+                    healthSample.getAssembly(), getNextRefreshDelay(true));
+        }
+        return degraded;
+    }
+
+    private void scheduleRefresh(HealthSample healthSample, long delay) {
+        healthSampler.schedule(() -> {
+            boolean degraded = true;
+            try {
+                degraded = refresh(healthSample);
+            } finally {
+                scheduleRefresh(healthSample, getNextRefreshDelay(degraded));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private long getNextRefreshDelay(boolean degraded) {
+        return degraded ? Math.max(MIN_REFRESH_INTERVAL, refreshInterval / DEGRADED_REFRESH_SPEEDUP) : refreshInterval;
+    }
+
+    private HealthStatus.Service getService(HealthStatus.ApplicationDetails applicationDetails, HealthSample healthSample) {
         HealthStatus.ApplicationDetails.DependenciesStatus dependencies = applicationDetails.getDependencies();
         HealthStatus.Service service = new HealthStatus.Service();
         service.setName(CELLBASE)
                .setApplicationTier(CELLBASE_TOMCAT);
-        service.setStatus(getOverallServiceStatus(dependencies));
+        HealthStatus.ServiceStatus status = getOverallServiceStatus(dependencies);
+        // A sample that has not been refreshed for too long cannot be trusted to report the service as healthy
+        if (status == HealthStatus.ServiceStatus.OK
+                && System.currentTimeMillis() - healthSample.getSampledAt() > MAX_SAMPLE_AGE_INTERVALS * refreshInterval) {
+            status = HealthStatus.ServiceStatus.DEGRADED;
+        }
+        service.setStatus(status);
 
         return service;
     }
@@ -154,20 +273,10 @@ public class Monitor {
         }
     }
 
-    private HealthStatus.ApplicationDetails.DependenciesStatus getDependenciesStatus(String species, String assembly) {
-        HealthStatus.ApplicationDetails.DependenciesStatus.DatastoreDependenciesStatus datastores
-                = new HealthStatus.ApplicationDetails.DependenciesStatus.DatastoreDependenciesStatus();
-        datastores.setMongodb(dbAdaptorFactory.getDatabaseStatus(species, assembly));
-        HealthStatus.ApplicationDetails.DependenciesStatus dependenciesStatus = new HealthStatus.ApplicationDetails.DependenciesStatus();
-        dependenciesStatus.setDatastores(datastores);
-
-        return dependenciesStatus;
-    }
-
-    private HealthStatus.ApplicationDetails getApplicationDetails(String species, String assembly) {
+    private HealthStatus.ApplicationDetails getApplicationDetails(HealthStatus.ApplicationDetails.DependenciesStatus dependencies) {
         HealthStatus.ApplicationDetails applicationDetails = new HealthStatus.ApplicationDetails();
         applicationDetails.setMaintainer(dbAdaptorFactory.getCellBaseConfiguration().getMaintainerContact());
-        applicationDetails.setServer(getServerName());
+        applicationDetails.setServer(serverName);
         applicationDetails.setStarted(new SimpleDateFormat("yyyyMMdd_HHmmss")
                 .format(new Date(ManagementFactory.getRuntimeMXBean().getStartTime())));
         applicationDetails.setUptime(TimeUnit.MILLISECONDS.toMinutes(ManagementFactory.getRuntimeMXBean().getUptime())
@@ -175,7 +284,7 @@ public class Monitor {
         applicationDetails.setVersion(
                 new HealthStatus.ApplicationDetails.Version(GitRepositoryState.get().getBuildVersion(),
                         GitRepositoryState.get().getCommitId().substring(0, 8)));
-        applicationDetails.setDependencies(getDependenciesStatus(species, assembly));
+        applicationDetails.setDependencies(dependencies);
 
         return applicationDetails;
     }
@@ -24,19 +24,24 @@ import com.fasterxml.jackson.databind.ObjectWriter;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.GZIPOutputStream;
 
 /**
  * Created by parce on 2/6/15.
+ *
+ * Objects can be serialized from several threads. JSON conversion runs in the calling thread and writes are
+ * synchronized per file, so threads writing to different files compress their output in parallel.
  */
 public class CellBaseJsonFileSerializer implements CellBaseFileSerializer {
 
     private final Path outdir;
     private final String fileName;
-    private final HashMap<String, BufferedWriter> bufferedWriters;
+    private final Map<String, BufferedWriter> bufferedWriters;
 
     private boolean serializeEmptyValues;
     private boolean excludeNullValues;
@@ -62,7 +67,7 @@ public class CellBaseJsonFileSerializer implements CellBaseFileSerializer {
         this.serializeEmptyValues = serializeEmptyValues;
         this.excludeNullValues = excludeNullValues;
         this.requireGettersForSetters = requireGettersForSetters;
-        this.bufferedWriters = new HashMap<>();
+        this.bufferedWriters = new ConcurrentHashMap<>();
         init();
     }
 
@@ -93,19 +98,26 @@ public class CellBaseJsonFileSerializer implements CellBaseFileSerializer {
 
     public void serialize(Object elem, String filename) {
         try {
-            if (bufferedWriters.get(filename) == null) {
-                Path outputFilePath = outdir.resolve(filename + ".json.gz");
-                BufferedWriter bw = new BufferedWriter(
-                        new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(outputFilePath))));
-                bufferedWriters.put(filename, bw);
+            BufferedWriter bw = bufferedWriters.computeIfAbsent(filename, this::newBufferedWriter);
+            String json = jsonObjectWriter.writeValueAsString(elem);
+            synchronized (bw) {
+                bw.write(json);
+                bw.newLine();
             }
-            bufferedWriters.get(filename).write(jsonObjectWriter.writeValueAsString(elem));
-            bufferedWriters.get(filename).newLine();
-        } catch (IOException e) {
+        } catch (IOException | UncheckedIOException e) {
             e.printStackTrace();
         }
     }
 
+    private BufferedWriter newBufferedWriter(String filename) {
+        try {
+            Path outputFilePath = outdir.resolve(filename + ".json.gz");
+            return new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(outputFilePath))));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     public Object deserialize(String line) {
         // TODO: implement
         // TODO: receive class object?
@@ -3,6 +3,7 @@ package org.opencb.cellbase.core.variant.annotation;
 import org.apache.commons.lang3.StringUtils;
 import org.opencb.biodata.models.core.GenomeSequenceFeature;
 import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.tools.sequence.SequenceAdaptor;
 import org.opencb.cellbase.core.api.GenomeDBAdaptor;
 import org.opencb.commons.datastore.core.QueryOptions;
@@ -10,13 +11,79 @@ import org.opencb.commons.datastore.core.QueryResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.*;
+
 public class CellBaseNormalizerSequenceAdaptor implements SequenceAdaptor {
     private static final String EMPTY_STRING = "";
+    // Bases fetched at each side of the indels of a batch, enough for most left alignments
+    public static final int DEFAULT_PREFETCH_PADDING = 100;
+    private static final int MAX_PREFETCH_REGION_SIZE = 1000000;
+
     private final GenomeDBAdaptor genomeDBAdaptor;
+    private final int prefetchPadding;
+    // Sequences fetched for the current batch by chromosome and start. Replaced as a whole at each prefetch, a query
+    // from another thread sees either the previous or the new buffer and falls back to the database if not found
+    private volatile Map<String, TreeMap<Integer, String>> prefetchedSequences = Collections.emptyMap();
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     public CellBaseNormalizerSequenceAdaptor(GenomeDBAdaptor genomeDBAdaptor) {
+        this(genomeDBAdaptor, DEFAULT_PREFETCH_PADDING);
+    }
+
+    public CellBaseNormalizerSequenceAdaptor(GenomeDBAdaptor genomeDBAdaptor, int prefetchPadding) {
         this.genomeDBAdaptor = genomeDBAdaptor;
+        this.prefetchPadding = prefetchPadding;
+    }
+
+    /**
+     * Fetches the sequence around the indels of a batch before normalizing it, so that left alignment queries are served
+     * without a database round trip per variant. Windows of overlapping indels are merged and each merged region is
+     * fetched once. Sequences prefetched for the previous batch are discarded.
+     * @param variants batch of variants about to be normalized
+     */
+    public void prefetch(List<Variant> variants) {
+        Map<String, List<Region>> windows = new HashMap<>();
+        for (Variant variant : variants) {
+            if (variant.getReference() == null || variant.getAlternate() == null
+                    || variant.getReference().length() == variant.getAlternate().length()) {
+                // Only indels may be left aligned
+                continue;
+            }
+            int start = Math.max(1, Math.min(variant.getStart(), variant.getEnd()) - prefetchPadding);
+            int end = Math.max(variant.getStart(), variant.getEnd()) + prefetchPadding;
+            windows.computeIfAbsent(variant.getChromosome(), key -> new ArrayList<>())
+                    .add(new Region(variant.getChromosome(), start, end));
+        }
+
+        List<Region> regions = new ArrayList<>();
+        for (List<Region> chromosomeWindows : windows.values()) {
+            chromosomeWindows.sort(Comparator.comparingInt(Region::getStart));
+            Region current = null;
+            for (Region window : chromosomeWindows) {
+                if (current != null && window.getStart() <= current.getEnd() + 1
+                        && window.getEnd() - current.getStart() < MAX_PREFETCH_REGION_SIZE) {
+                    current.setEnd(Math.max(current.getEnd(), window.getEnd()));
+                } else {
+                    current = new Region(window.getChromosome(), window.getStart(), window.getEnd());
+                    regions.add(current);
+                }
+            }
+        }
+
+        Map<String, TreeMap<Integer, String>> sequences = new HashMap<>();
+        if (!regions.isEmpty()) {
+            List<QueryResult<GenomeSequenceFeature>> queryResults = genomeDBAdaptor.getSequence(regions, QueryOptions.empty());
+            for (int i = 0; i < regions.size(); i++) {
+                List<GenomeSequenceFeature> result = queryResults.get(i).getResult();
+                // Regions not found are left out, queries on them go to the database and fail as usual
+                if (!result.isEmpty() && StringUtils.isNotBlank(result.get(0).getSequence())) {
+                    sequences.computeIfAbsent(regions.get(i).getChromosome(), key -> new TreeMap<>())
+                            .put(regions.get(i).getStart(), result.get(0).getSequence());
+                }
+            }
+            logger.debug("{} sequence regions prefetched for {} variants", regions.size(), variants.size());
+        }
+        prefetchedSequences = sequences;
     }
 
     /**
@@ -39,6 +106,11 @@ public class CellBaseNormalizerSequenceAdaptor implements SequenceAdaptor {
      */
     @Override
     public String query(String contig, int start, int end) throws Exception {
+        String prefetchedSequence = getPrefetchedSequence(contig, start, end);
+        if (prefetchedSequence != null) {
+            return prefetchedSequence;
+        }
+
         Region region = new Region(contig, start, end);
         QueryResult<GenomeSequenceFeature> queryResult
                  = genomeDBAdaptor.getSequence(region, QueryOptions.empty());
@@ -57,4 +129,20 @@ public class CellBaseNormalizerSequenceAdaptor implements SequenceAdaptor {
             throw new RuntimeException("Unable to find entry for " + region.toString());
         }
     }
+
+    /**
+     * Only ranges completely within a prefetched region are served, e.g. left alignment running past the window or
+     * ranges beyond the end of the chromosome are fetched from the database.
+     */
+    private String getPrefetchedSequence(String contig, int start, int end) {
+        TreeMap<Integer, String> contigSequences = prefetchedSequences.get(contig);
+        if (contigSequences == null || start < 1 || end < start) {
+            return null;
+        }
+        Map.Entry<Integer, String> entry = contigSequences.floorEntry(start);
+        if (entry == null || end - entry.getKey() >= entry.getValue().length()) {
+            return null;
+        }
+        return entry.getValue().substring(start - entry.getKey(), end - entry.getKey() + 1);
+    }
 }
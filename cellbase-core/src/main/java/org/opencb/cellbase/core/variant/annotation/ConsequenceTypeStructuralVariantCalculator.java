@@ -0,0 +1,216 @@
+package org.opencb.cellbase.core.variant.annotation;
+
+import org.opencb.biodata.models.core.Gene;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
+import org.opencb.biodata.models.variant.avro.ExonOverlap;
+import org.opencb.cellbase.core.variant.annotation.TranscriptCoordinateIndex.TranscriptCoordinates;
+import org.opencb.commons.datastore.core.QueryOptions;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Consequence types of structural variants spanning many genes, e.g. large CNVs, duplications and inversions, from
+ * transcript and exon coordinates only. Transcripts are looked up in a TranscriptCoordinateIndex and each one is
+ * solved with a single pass over its exons: whole transcripts affected, exon overlaps, UTR, coding, codon and intron
+ * terms. Exon sequences are never needed, and splice site terms are not reported for variants this big.
+ */
+public class ConsequenceTypeStructuralVariantCalculator extends ConsequenceTypeGenericRegionCalculator {
+
+    private static final int FLANKING_REGION_SIZE = 5000;
+    private static final int SHORT_FLANKING_REGION_SIZE = 2000;
+
+    private final boolean gain;
+
+    /**
+     * @param gain true for copy number gains and duplications, whole transcripts are then annotated as
+     *             transcript_amplification instead of structural_variant
+     */
+    public ConsequenceTypeStructuralVariantCalculator(boolean gain) {
+        this.gain = gain;
+    }
+
+    @Override
+    public List<ConsequenceType> run(Variant inputVariant, List<Gene> geneList, boolean[] overlapsRegulatoryRegion,
+                                     QueryOptions queryOptions) {
+        return run(inputVariant, TranscriptCoordinateIndex.build(geneList), overlapsRegulatoryRegion, queryOptions);
+    }
+
+    public List<ConsequenceType> run(Variant inputVariant, TranscriptCoordinateIndex transcriptIndex,
+                                     boolean[] overlapsRegulatoryRegion, QueryOptions queryOptions) {
+        parseQueryParam(queryOptions);
+        List<ConsequenceType> consequenceTypeList = new ArrayList<>();
+        variant = inputVariant;
+        variantStart = getStart(gain ? cnvExtraPadding : svExtraPadding);
+        variantEnd = getEnd(gain ? cnvExtraPadding : svExtraPadding);
+        boolean isIntergenic = true;
+        for (TranscriptCoordinates transcriptCoordinates : transcriptIndex.getOverlapping(variant.getChromosome(),
+                variantStart - FLANKING_REGION_SIZE, variantEnd + FLANKING_REGION_SIZE)) {
+            consequenceType = new ConsequenceType();
+            consequenceType.setGeneName(transcriptCoordinates.getGeneName());
+            consequenceType.setEnsemblGeneId(transcriptCoordinates.getGeneId());
+            consequenceType.setEnsemblTranscriptId(transcriptCoordinates.getId());
+            consequenceType.setStrand(transcriptCoordinates.getStrand());
+            consequenceType.setBiotype(transcriptCoordinates.getBiotype());
+            consequenceType.setTranscriptAnnotationFlags(transcriptCoordinates.getAnnotationFlags() != null
+                    ? new ArrayList<>(transcriptCoordinates.getAnnotationFlags()) : null);
+            SoNames.clear();
+
+            boolean positiveStrand = "+".equals(transcriptCoordinates.getStrand());
+            boolean overlaps = regionsOverlap(transcriptCoordinates.getStart(), transcriptCoordinates.getEnd(),
+                    variantStart, variantEnd);
+            if (variantStart <= transcriptCoordinates.getStart() && variantEnd >= transcriptCoordinates.getEnd()) {
+                // whole transcript affected
+                SoNames.add(gain ? VariantAnnotationUtils.TRANSCRIPT_AMPLIFICATION : VariantAnnotationUtils.STRUCTURAL_VARIANT);
+            } else if (overlaps) {
+                solveTranscript(transcriptCoordinates, positiveStrand);
+            } else if (positiveStrand) {
+                solveFlankingRegions(transcriptCoordinates, VariantAnnotationUtils.UPSTREAM_GENE_VARIANT,
+                        VariantAnnotationUtils.DOWNSTREAM_GENE_VARIANT);
+            } else {
+                solveFlankingRegions(transcriptCoordinates, VariantAnnotationUtils.DOWNSTREAM_GENE_VARIANT,
+                        VariantAnnotationUtils.UPSTREAM_GENE_VARIANT);
+            }
+            isIntergenic = isIntergenic && !overlaps;
+
+            // Variants not overlapping the transcript just may have upstream/downstream annotations
+            if (overlaps || SoNames.size() > 0) {
+                consequenceType.setSequenceOntologyTerms(getSequenceOntologyTerms(SoNames));
+                consequenceTypeList.add(consequenceType);
+            }
+        }
+
+        solveIntergenic(consequenceTypeList, isIntergenic);
+        solveRegulatoryRegions(overlapsRegulatoryRegion, consequenceTypeList);
+        return consequenceTypeList;
+    }
+
+    private void solveTranscript(TranscriptCoordinates transcriptCoordinates, boolean positiveStrand) {
+        int numExons = transcriptCoordinates.getNumExons();
+        String exonStringSuffix = "/" + numExons;
+        List<ExonOverlap> exonOverlap = new ArrayList<>();
+        for (int i = 0; i < numExons; i++) {
+            int exonStart = transcriptCoordinates.getExonStart(i);
+            int exonEnd = transcriptCoordinates.getExonEnd(i);
+            if (regionsOverlap(exonStart, exonEnd, variantStart, variantEnd)) {
+                int overlapSize = Math.min(exonEnd, variantEnd) - Math.max(exonStart, variantStart) + 1;
+                exonOverlap.add(new ExonOverlap(transcriptCoordinates.getExonNumber(i) + exonStringSuffix,
+                        overlapSize * 100f / (exonEnd - exonStart + 1)));
+            }
+            if (i > 0) {
+                // Exons are in transcript order, the intron lies between this exon and the previous one whatever the
+                // strand. Splice sites at both ends of the intron are left out as in solveJunction
+                int intronStart = Math.min(exonEnd, transcriptCoordinates.getExonEnd(i - 1)) + 1;
+                int intronEnd = Math.max(exonStart, transcriptCoordinates.getExonStart(i - 1)) - 1;
+                if (regionsOverlap(intronStart + 2, intronEnd - 2, variantStart, variantEnd)) {
+                    SoNames.add(VariantAnnotationUtils.INTRON_VARIANT);
+                }
+            }
+        }
+        // A variant partially overlapping the transcript and none of its exons falls within an intron
+        boolean isIntronicVariant = exonOverlap.isEmpty();
+        if (!isIntronicVariant) {
+            consequenceType.setExonOverlap(exonOverlap);
+        }
+
+        switch (transcriptCoordinates.getBiotype()) {
+            /**
+             * Coding biotypes
+             */
+            case VariantAnnotationUtils.NONSENSE_MEDIATED_DECAY:
+                SoNames.add(VariantAnnotationUtils.NMD_TRANSCRIPT_VARIANT);
+            case VariantAnnotationUtils.IG_C_GENE:
+            case VariantAnnotationUtils.IG_D_GENE:
+            case VariantAnnotationUtils.IG_J_GENE:
+            case VariantAnnotationUtils.IG_V_GENE:
+            case VariantAnnotationUtils.TR_C_GENE:  // TR_C_gene
+            case VariantAnnotationUtils.TR_D_GENE:  // TR_D_gene
+            case VariantAnnotationUtils.TR_J_GENE:  // TR_J_gene
+            case VariantAnnotationUtils.TR_V_GENE:  // TR_V_gene
+            case VariantAnnotationUtils.POLYMORPHIC_PSEUDOGENE:
+            case VariantAnnotationUtils.PROTEIN_CODING:    // protein_coding
+            case VariantAnnotationUtils.NON_STOP_DECAY:    // non_stop_decay
+            case VariantAnnotationUtils.TRANSLATED_PROCESSED_PSEUDOGENE:
+            case VariantAnnotationUtils.TRANSLATED_UNPROCESSED_PSEUDOGENE:    // translated_unprocessed_pseudogene
+            case VariantAnnotationUtils.LRG_GENE:    // LRG_gene
+                if (!isIntronicVariant) {
+                    solveCodingRegions(transcriptCoordinates, positiveStrand);
+                }
+                break;
+            /**
+             * Non-coding biotypes
+             */
+            default:
+                addNonCodingSOs(isIntronicVariant);
+                break;
+        }
+    }
+
+    private void solveCodingRegions(TranscriptCoordinates transcriptCoordinates, boolean positiveStrand) {
+        int codingStart = transcriptCoordinates.getGenomicCodingStart();
+        int codingEnd = transcriptCoordinates.getGenomicCodingEnd();
+        boolean startCodonOverlap;
+        boolean stopCodonOverlap;
+        if (positiveStrand) {
+            // Check transcript has 5'/3' UTR
+            if (variantStart < codingStart
+                    && (transcriptCoordinates.getStart() < codingStart || transcriptCoordinates.unconfirmedStart())) {
+                SoNames.add(VariantAnnotationUtils.FIVE_PRIME_UTR_VARIANT);
+            }
+            if (variantEnd > codingEnd
+                    && (transcriptCoordinates.getEnd() > codingEnd || transcriptCoordinates.unconfirmedEnd())) {
+                SoNames.add(VariantAnnotationUtils.THREE_PRIME_UTR_VARIANT);
+            }
+            startCodonOverlap = regionsOverlap(codingStart, codingStart + 2, variantStart, variantEnd);
+            stopCodonOverlap = regionsOverlap(codingEnd - 2, codingEnd, variantStart, variantEnd);
+        } else {
+            if (variantEnd > codingEnd
+                    && (transcriptCoordinates.getEnd() > codingEnd || transcriptCoordinates.unconfirmedStart())) {
+                SoNames.add(VariantAnnotationUtils.FIVE_PRIME_UTR_VARIANT);
+            }
+            if (variantStart < codingStart
+                    && (transcriptCoordinates.getStart() < codingStart || transcriptCoordinates.unconfirmedEnd())) {
+                SoNames.add(VariantAnnotationUtils.THREE_PRIME_UTR_VARIANT);
+            }
+            startCodonOverlap = regionsOverlap(codingEnd - 2, codingEnd, variantStart, variantEnd);
+            stopCodonOverlap = regionsOverlap(codingStart, codingStart + 2, variantStart, variantEnd);
+        }
+
+        if (regionsOverlap(codingStart, codingEnd, variantStart, variantEnd)) {
+            SoNames.add(VariantAnnotationUtils.CODING_SEQUENCE_VARIANT);
+            // cdnaCodingStart < 1 if cds_start_NF and phase!=0
+            if (startCodonOverlap
+                    && (transcriptCoordinates.getCdnaCodingStart() > 0 || !transcriptCoordinates.unconfirmedStart())) {
+                SoNames.add(VariantAnnotationUtils.INITIATOR_CODON_VARIANT);
+            }
+            if (stopCodonOverlap) {
+                SoNames.add(VariantAnnotationUtils.TERMINATOR_CODON_VARIANT);
+            }
+        }
+    }
+
+    private void solveFlankingRegions(TranscriptCoordinates transcriptCoordinates, String leftRegionTag,
+                                      String rightRegionTag) {
+        int transcriptStart = transcriptCoordinates.getStart();
+        int transcriptEnd = transcriptCoordinates.getEnd();
+        // Variant overlaps with -5kb region
+        if (regionsOverlap(transcriptStart - FLANKING_REGION_SIZE, transcriptStart - 1, variantStart, variantEnd)) {
+            // Variant overlaps with -2kb region
+            if (regionsOverlap(transcriptStart - SHORT_FLANKING_REGION_SIZE, transcriptStart - 1, variantStart, variantEnd)) {
+                SoNames.add("2KB_" + leftRegionTag.replace(DOWN_UP_STREAM_GENE_TAG, ""));
+            } else {
+                SoNames.add(leftRegionTag);
+            }
+        }
+        // Variant overlaps with +5kb region
+        if (regionsOverlap(transcriptEnd + 1, transcriptEnd + FLANKING_REGION_SIZE, variantStart, variantEnd)) {
+            // Variant overlaps with +2kb region
+            if (regionsOverlap(transcriptEnd + 1, transcriptEnd + SHORT_FLANKING_REGION_SIZE, variantStart, variantEnd)) {
+                SoNames.add("2KB_" + rightRegionTag.replace(DOWN_UP_STREAM_GENE_TAG, ""));
+            } else {
+                SoNames.add(rightRegionTag);
+            }
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.variant.annotation;
+
+import org.opencb.biodata.models.core.Exon;
+import org.opencb.biodata.models.core.Gene;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.core.Transcript;
+import org.opencb.cellbase.core.api.GeneDBAdaptor;
+import org.opencb.cellbase.core.metrics.MetricsRegistry;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of decoded genes for the variant annotation, one per species and assembly. Genes are always fetched with all
+ * the fields any annotator may need, so a request asking for a subset of them is served from the same cached objects;
+ * requests asking for other fields must query the database. Cached genes are shared and must not be modified.
+ *
+ * Two structures are kept. A tile index maps fixed windows of each chromosome to the id and coordinates of the genes
+ * overlapping them, so the genes of a region are found without querying the database once its tiles are known. And
+ * a map of decoded genes bounded by an estimation of their size in memory, least recently used genes are evicted
+ * first. Exon sequences and expression values make most of the size, so the bound is on the weight and not on the
+ * number of genes. When a GeneIndex is preloaded it replaces the tile index, and genes not cached are decoded from it.
+ */
+public class GeneCache {
+
+    public static final String CACHED_FIELDS = "name,id,chromosome,start,end,transcripts.id,transcripts.start,transcripts.end,"
+            + "transcripts.strand,transcripts.cdsLength,transcripts.annotationFlags,transcripts.biotype,"
+            + "transcripts.genomicCodingStart,transcripts.genomicCodingEnd,transcripts.cdnaCodingStart,"
+            + "transcripts.cdnaCodingEnd,transcripts.exons.start,transcripts.exons.cdsStart,transcripts.exons.end,"
+            + "transcripts.exons.cdsEnd,transcripts.exons.sequence,transcripts.exons.phase,"
+            + "transcripts.exons.exonNumber,mirna.matures,mirna.sequence,mirna.matures.cdnaStart,"
+            + "transcripts.exons.genomicCodingStart,transcripts.exons.genomicCodingEnd,"
+            + "mirna.matures.cdnaEnd,annotation.expression,annotation.diseases,annotation.drugs";
+
+    static final int TILE_SIZE = 100_000;
+    private static final int MAX_TILES = 100_000;
+    private static final String TILE_FIELDS = "id,chromosome,start,end";
+
+    private static final Map<String, GeneCache> CACHES = new ConcurrentHashMap<>();
+    private static final Map<String, String> DEFAULT_ASSEMBLIES = new ConcurrentHashMap<>();
+    // Disabled until the server configures it, other users of the annotation do not keep genes in memory
+    private static volatile long maxWeight;
+
+    private final GeneDBAdaptor geneDBAdaptor;
+    private final Set<String> cachedFields;
+    private final LinkedHashMap<String, List<GeneLocation>> tiles;
+    private final LinkedHashMap<String, CachedGene> genes;
+    private long weight;
+    private volatile GeneIndex index;
+
+    private final MetricsRegistry metricsRegistry;
+    private final Logger logger;
+
+    GeneCache(GeneDBAdaptor geneDBAdaptor) {
+        this.geneDBAdaptor = geneDBAdaptor;
+        this.cachedFields = new HashSet<>(Arrays.asList(CACHED_FIELDS.split(",")));
+        this.tiles = new LinkedHashMap<>(1024, 0.75f, true);
+        this.genes = new LinkedHashMap<>(1024, 0.75f, true);
+
+        this.metricsRegistry = MetricsRegistry.getDefault();
+        this.logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    /**
+     * Returns the cache of a species and assembly, creating it the first time.
+     *
+     * @param species       species
+     * @param assembly      assembly, may be null for the default one
+     * @param geneDBAdaptor adaptor used to fetch the genes not cached
+     * @return the gene cache
+     */
+    public static GeneCache getInstance(String species, String assembly, GeneDBAdaptor geneDBAdaptor) {
+        return CACHES.computeIfAbsent(getKey(species, assembly), k -> new GeneCache(geneDBAdaptor));
+    }
+
+    /**
+     * Sets the assembly of a species used when none is given, so that requests with and without it share the cache.
+     *
+     * @param species  species
+     * @param assembly default assembly of the species
+     */
+    public static void setDefaultAssembly(String species, String assembly) {
+        if (species != null && assembly != null && !assembly.isEmpty()) {
+            DEFAULT_ASSEMBLIES.put(species.toLowerCase(), assembly.toLowerCase());
+        }
+    }
+
+    static String getKey(String species, String assembly) {
+        String speciesKey = species.toLowerCase();
+        String assemblyKey = (assembly == null || assembly.isEmpty())
+                ? DEFAULT_ASSEMBLIES.getOrDefault(speciesKey, "default")
+                : assembly.toLowerCase();
+        return speciesKey + "_" + assemblyKey;
+    }
+
+    /**
+     * Sets the maximum estimated size in bytes of the genes kept by each cache.
+     *
+     * @param maxWeight maximum weight, 0 disables the caches
+     */
+    public static void setMaxWeight(long maxWeight) {
+        GeneCache.maxWeight = maxWeight;
+    }
+
+    public static boolean isEnabled() {
+        return maxWeight > 0;
+    }
+
+    /**
+     * Checks if the fields of a query are a subset of the cached ones, a field is covered if it or any of its parents
+     * is cached, e.g. 'transcripts.exons' covers 'transcripts.exons.sequence'.
+     *
+     * @param includeFields comma separated list of fields
+     * @return true if cached genes can be returned for the fields
+     */
+    public boolean covers(String includeFields) {
+        if (includeFields == null || includeFields.isEmpty()) {
+            return false;
+        }
+        for (String field : includeFields.split(",")) {
+            String path = field.trim();
+            boolean covered = false;
+            while (!covered && !path.isEmpty()) {
+                covered = cachedFields.contains(path);
+                int dot = path.lastIndexOf('.');
+                path = (dot > 0) ? path.substring(0, dot) : "";
+            }
+            if (!covered) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the genes overlapping any of the regions, sorted by chromosome and start and without duplicates. Tiles
+     * and genes not cached are fetched with one query each.
+     *
+     * @param regions regions
+     * @return genes with all the cached fields
+     */
+    public List<Gene> getByRegion(List<Region> regions) {
+        List<String> keys = new ArrayList<>();
+        Set<String> seenKeys = new HashSet<>();
+        for (GeneLocation location : getLocations(regions)) {
+            for (Region region : regions) {
+                if (location.overlaps(region) && seenKeys.add(location.getKey())) {
+                    keys.add(location.getKey());
+                    break;
+                }
+            }
+        }
+        return getGenes(keys);
+    }
+
+    /**
+     * Loads genes in the cache, e.g. the genes of the panels most requested. Their tiles are loaded too.
+     *
+     * @param geneNames gene names or ids
+     * @return number of genes loaded
+     */
+    public int warmUp(List<String> geneNames) {
+        if (geneNames == null || geneNames.isEmpty() || !isEnabled()) {
+            return 0;
+        }
+        List<Gene> geneList = fetchGenes(new Query(GeneDBAdaptor.QueryParams.NAME.key(), String.join(",", geneNames)));
+        geneList.addAll(fetchGenes(new Query(GeneDBAdaptor.QueryParams.ID.key(), String.join(",", geneNames))));
+        List<Region> regions = new ArrayList<>(geneList.size());
+        for (Gene gene : geneList) {
+            regions.add(new Region(gene.getChromosome(), gene.getStart(), gene.getEnd()));
+        }
+        getLocations(regions);
+        logger.info("Gene cache warmed up with {} genes, estimated size {} bytes", geneList.size(), getWeight());
+        return geneList.size();
+    }
+
+    /**
+     * Sets a preloaded index of all the genes, from then on genes are found and decoded from it and the database is
+     * never queried.
+     *
+     * @param index gene index, null to query the database again
+     */
+    public void setIndex(GeneIndex index) {
+        this.index = index;
+    }
+
+    public GeneIndex getIndex() {
+        return index;
+    }
+
+    private List<GeneLocation> getLocations(List<Region> regions) {
+        GeneIndex geneIndex = index;
+        if (geneIndex != null) {
+            return geneIndex.getLocations(regions);
+        }
+
+        List<String> tileKeys = new ArrayList<>();
+        for (Region region : regions) {
+            for (int tile = getTile(region.getStart()); tile <= getTile(region.getEnd()); tile++) {
+                tileKeys.add(getTileKey(region.getChromosome(), tile));
+            }
+        }
+
+        List<GeneLocation> locations = new ArrayList<>();
+        List<String> missingTileKeys = new ArrayList<>();
+        synchronized (this) {
+            for (String tileKey : new LinkedHashSet<>(tileKeys)) {
+                List<GeneLocation> tileLocations = tiles.get(tileKey);
+                if (tileLocations != null) {
+                    locations.addAll(tileLocations);
+                } else {
+                    missingTileKeys.add(tileKey);
+                }
+            }
+        }
+        metricsRegistry.histogram("annotation.geneCache.tileMisses").record(missingTileKeys.size());
+
+        if (!missingTileKeys.isEmpty()) {
+            Map<String, List<GeneLocation>> fetchedTiles = fetchTiles(missingTileKeys);
+            synchronized (this) {
+                tiles.putAll(fetchedTiles);
+                Iterator<String> iterator = tiles.keySet().iterator();
+                while (tiles.size() > MAX_TILES && iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                }
+            }
+            for (List<GeneLocation> tileLocations : fetchedTiles.values()) {
+                locations.addAll(tileLocations);
+            }
+        }
+
+        locations.sort(Comparator.comparing(GeneLocation::getChromosome).thenComparingInt(GeneLocation::getStart));
+        return locations;
+    }
+
+    private Map<String, List<GeneLocation>> fetchTiles(List<String> tileKeys) {
+        List<Region> tileRegions = new ArrayList<>(tileKeys.size());
+        Map<String, List<GeneLocation>> fetchedTiles = new HashMap<>();
+        for (String tileKey : tileKeys) {
+            int separator = tileKey.lastIndexOf(':');
+            int tile = Integer.parseInt(tileKey.substring(separator + 1));
+            tileRegions.add(new Region(tileKey.substring(0, separator), tile * TILE_SIZE + 1, (tile + 1) * TILE_SIZE));
+            fetchedTiles.put(tileKey, new ArrayList<>());
+        }
+
+        QueryOptions queryOptions = new QueryOptions(QueryOptions.INCLUDE, TILE_FIELDS);
+        queryOptions.put("merge", true);
+        List<Gene> geneList = ((QueryResult<Gene>) geneDBAdaptor.getByRegion(tileRegions, queryOptions).get(0)).getResult();
+        for (Gene gene : geneList) {
+            GeneLocation location = new GeneLocation(gene.getId(), gene.getChromosome(), gene.getStart(), gene.getEnd());
+            for (int tile = getTile(gene.getStart()); tile <= getTile(gene.getEnd()); tile++) {
+                List<GeneLocation> tileLocations = fetchedTiles.get(getTileKey(gene.getChromosome(), tile));
+                if (tileLocations != null) {
+                    tileLocations.add(location);
+                }
+            }
+        }
+        return fetchedTiles;
+    }
+
+    private List<Gene> getGenes(List<String> keys) {
+        Map<String, Gene> geneMap = new HashMap<>();
+        List<String> missingKeys = new ArrayList<>();
+        synchronized (this) {
+            for (String key : keys) {
+                CachedGene cachedGene = genes.get(key);
+                if (cachedGene != null) {
+                    geneMap.put(key, cachedGene.gene);
+                } else {
+                    missingKeys.add(key);
+                }
+            }
+        }
+        metricsRegistry.histogram("annotation.geneCache.hits").record(geneMap.size());
+        metricsRegistry.histogram("annotation.geneCache.misses").record(missingKeys.size());
+
+        GeneIndex geneIndex = index;
+        if (!missingKeys.isEmpty() && geneIndex != null) {
+            List<Gene> decodedGenes = new ArrayList<>(missingKeys.size());
+            for (String key : missingKeys) {
+                try {
+                    Gene gene = geneIndex.getGene(key);
+                    if (gene != null) {
+                        decodedGenes.add(gene);
+                        geneMap.put(key, gene);
+                    }
+                } catch (IOException e) {
+                    logger.warn("Gene '{}' could not be decoded from the gene index: {}", key, e.getMessage());
+                }
+            }
+            put(decodedGenes);
+        } else if (!missingKeys.isEmpty()) {
+            List<String> missingIds = new ArrayList<>(missingKeys.size());
+            for (String key : missingKeys) {
+                missingIds.add(key.substring(key.indexOf(':') + 1));
+            }
+            for (Gene gene : fetchGenes(new Query(GeneDBAdaptor.QueryParams.ID.key(), String.join(",", missingIds)))) {
+                geneMap.put(getGeneKey(gene.getChromosome(), gene.getId()), gene);
+            }
+        }
+
+        List<Gene> geneList = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            Gene gene = geneMap.get(key);
+            if (gene != null) {
+                geneList.add(gene);
+            }
+        }
+        return geneList;
+    }
+
+    private List<Gene> fetchGenes(Query query) {
+        QueryResult<Gene> queryResult = geneDBAdaptor.get(query, new QueryOptions(QueryOptions.INCLUDE, CACHED_FIELDS));
+        List<Gene> geneList = new ArrayList<>(queryResult.getResult());
+        put(geneList);
+        return geneList;
+    }
+
+    private synchronized void put(List<Gene> geneList) {
+        for (Gene gene : geneList) {
+            CachedGene previous = genes.put(getGeneKey(gene.getChromosome(), gene.getId()), new CachedGene(gene));
+            weight += estimateWeight(gene) - ((previous != null) ? previous.weight : 0);
+        }
+        evict();
+    }
+
+    private void evict() {
+        Iterator<CachedGene> iterator = genes.values().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            weight -= iterator.next().weight;
+            iterator.remove();
+        }
+    }
+
+    synchronized long getWeight() {
+        return weight;
+    }
+
+    synchronized int size() {
+        return genes.size();
+    }
+
+    /**
+     * Estimates the memory taken by a decoded gene, an approximation is enough to bound the cache.
+     *
+     * @param gene gene
+     * @return estimated size in bytes
+     */
+    static long estimateWeight(Gene gene) {
+        long weight = 512;
+        if (gene.getTranscripts() != null) {
+            for (Transcript transcript : gene.getTranscripts()) {
+                weight += 512;
+                if (transcript.getExons() != null) {
+                    for (Exon exon : transcript.getExons()) {
+                        weight += 128 + ((exon.getSequence() != null) ? 2L * exon.getSequence().length() : 0);
+                    }
+                }
+            }
+        }
+        if (gene.getAnnotation() != null) {
+            if (gene.getAnnotation().getExpression() != null) {
+                weight += 192L * gene.getAnnotation().getExpression().size();
+            }
+            if (gene.getAnnotation().getDiseases() != null) {
+                weight += 256L * gene.getAnnotation().getDiseases().size();
+            }
+            if (gene.getAnnotation().getDrugs() != null) {
+                weight += 256L * gene.getAnnotation().getDrugs().size();
+            }
+        }
+        return weight;
+    }
+
+    static int getTile(int position) {
+        return Math.max(0, position - 1) / TILE_SIZE;
+    }
+
+    private static String getTileKey(String chromosome, int tile) {
+        return chromosome + ":" + tile;
+    }
+
+    private static String getGeneKey(String chromosome, String id) {
+        return chromosome + ":" + id;
+    }
+
+    private static class CachedGene {
+
+        private final Gene gene;
+        private final long weight;
+
+        CachedGene(Gene gene) {
+            this.gene = gene;
+            this.weight = estimateWeight(gene);
+        }
+    }
+
+    static class GeneLocation {
+
+        private final String key;
+        private final String chromosome;
+        private final int start;
+        private final int end;
+
+        GeneLocation(String id, String chromosome, int start, int end) {
+            this.key = getGeneKey(chromosome, id);
+            this.chromosome = chromosome;
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean overlaps(Region region) {
+            return chromosome.equals(region.getChromosome()) && start <= region.getEnd() && end >= region.getStart();
+        }
+
+        String getKey() {
+            return key;
+        }
+
+        String getChromosome() {
+            return chromosome;
+        }
+
+        int getStart() {
+            return start;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.variant.annotation;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.opencb.biodata.models.core.Gene;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.cellbase.core.api.GeneDBAdaptor;
+import org.opencb.cellbase.core.variant.annotation.GeneCache.GeneLocation;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Read-only index of all the genes of a species and assembly, with the fields of GeneCache.CACHED_FIELDS, preloaded
+ * so the variant annotation never queries the database for genes. Coordinates are kept in sorted primitive arrays,
+ * one set per chromosome, and overlap queries are a binary search. Genes are kept serialized and compressed in direct
+ * buffers, out of the Java heap, and decoded on demand; the GeneCache on top keeps the hot genes decoded.
+ *
+ * The index is built from the gene collection, and can be saved to a file at build time so servers load it without
+ * scanning the collection. The file keeps a fingerprint of the collection it was built from, so a file left from a
+ * previous load of the database can be detected and rebuilt. Direct buffers count against -XX:MaxDirectMemorySize,
+ * which may need to be raised.
+ */
+public final class GeneIndex {
+
+    private static final int MAGIC = 0x43424749;
+    private static final int FORMAT_VERSION = 2;
+    private static final int BLOCK_SIZE = 64 * 1024 * 1024;
+
+    private final Map<String, ChromosomeColumns> chromosomes;
+    private final Map<String, Long> recordByKey;
+    private final List<ByteBuffer> blocks;
+    private final ObjectReader geneReader;
+
+    private GeneIndex(Map<String, ChromosomeColumns> chromosomes, Map<String, Long> recordByKey, List<ByteBuffer> blocks) {
+        this.chromosomes = chromosomes;
+        this.recordByKey = recordByKey;
+        this.blocks = blocks;
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        this.geneReader = objectMapper.readerFor(Gene.class);
+    }
+
+    /**
+     * Builds the index scanning the whole gene collection.
+     *
+     * @param geneDBAdaptor gene adaptor of the species and assembly
+     * @return the index
+     * @throws IOException if a gene cannot be serialized
+     */
+    public static GeneIndex build(GeneDBAdaptor geneDBAdaptor) throws IOException {
+        ObjectMapper objectMapper = new ObjectMapper();
+        objectMapper.setSerializationInclusion(JsonInclude.Include.NON_EMPTY);
+        ObjectWriter writer = objectMapper.writer();
+
+        Builder builder = new Builder();
+        QueryOptions queryOptions = new QueryOptions(QueryOptions.INCLUDE, GeneCache.CACHED_FIELDS);
+        Iterator iterator = geneDBAdaptor.nativeIterator(new Query(), queryOptions);
+        try {
+            while (iterator.hasNext()) {
+                Object document = iterator.next();
+                if (!(document instanceof Map)) {
+                    continue;
+                }
+                Map<String, Object> map = (Map<String, Object>) document;
+                map.remove("_id");
+                if (map.get("id") == null || map.get("chromosome") == null) {
+                    continue;
+                }
+                builder.add(map.get("id").toString(), map.get("chromosome").toString(), ((Number) map.get("start")).intValue(),
+                        ((Number) map.get("end")).intValue(), compress(writer.writeValueAsBytes(map)));
+            }
+        } finally {
+            if (iterator instanceof Closeable) {
+                ((Closeable) iterator).close();
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Loads an index saved with save.
+     *
+     * @param path index file
+     * @return the index
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    public static GeneIndex load(Path path) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            readHeader(inputStream, path);
+            Builder builder = new Builder();
+            int numGenes = inputStream.readInt();
+            for (int i = 0; i < numGenes; i++) {
+                String id = inputStream.readUTF();
+                String chromosome = inputStream.readUTF();
+                int start = inputStream.readInt();
+                int end = inputStream.readInt();
+                byte[] record = new byte[inputStream.readInt()];
+                inputStream.readFully(record);
+                builder.add(id, chromosome, start, end, record);
+            }
+            return builder.build();
+        }
+    }
+
+    /**
+     * Reads the fingerprint of the collection an index file was built from, without loading the genes.
+     *
+     * @param path index file
+     * @return the fingerprint given to save
+     * @throws IOException if the file cannot be read or is not an index
+     */
+    public static String readFingerprint(Path path) throws IOException {
+        try (DataInputStream inputStream = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            return readHeader(inputStream, path);
+        }
+    }
+
+    private static String readHeader(DataInputStream inputStream, Path path) throws IOException {
+        if (inputStream.readInt() != MAGIC || inputStream.readInt() != FORMAT_VERSION) {
+            throw new IOException("Not a gene index file: " + path);
+        }
+        return inputStream.readUTF();
+    }
+
+    /**
+     * Saves the index to a file, genes are written compressed as they are kept in memory.
+     *
+     * @param path        index file
+     * @param fingerprint fingerprint of the gene collection the index was built from
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Path path, String fingerprint) throws IOException {
+        try (DataOutputStream outputStream = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            outputStream.writeInt(MAGIC);
+            outputStream.writeInt(FORMAT_VERSION);
+            outputStream.writeUTF(fingerprint);
+            outputStream.writeInt(size());
+            for (ChromosomeColumns columns : chromosomes.values()) {
+                for (int i = 0; i < columns.starts.length; i++) {
+                    byte[] record = readRecord(columns.records[i]);
+                    outputStream.writeUTF(columns.ids[i]);
+                    outputStream.writeUTF(columns.chromosome);
+                    outputStream.writeInt(columns.starts[i]);
+                    outputStream.writeInt(columns.ends[i]);
+                    outputStream.writeInt(record.length);
+                    outputStream.write(record);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the genes overlapping any of the regions.
+     *
+     * @param regions regions
+     * @return gene locations sorted by chromosome and start, a gene overlapping several regions is returned once
+     */
+    List<GeneLocation> getLocations(List<Region> regions) {
+        List<GeneLocation> locations = new ArrayList<>();
+        Set<String> keys = new HashSet<>();
+        for (Region region : regions) {
+            ChromosomeColumns columns = chromosomes.get(region.getChromosome());
+            if (columns == null) {
+                continue;
+            }
+            // Genes overlapping the region start at most maxLength before it
+            int i = columns.firstStartFrom(region.getStart() - columns.maxLength);
+            for (; i < columns.starts.length && columns.starts[i] <= region.getEnd(); i++) {
+                if (columns.ends[i] >= region.getStart()) {
+                    GeneLocation location = new GeneLocation(columns.ids[i], columns.chromosome, columns.starts[i], columns.ends[i]);
+                    if (keys.add(location.getKey())) {
+                        locations.add(location);
+                    }
+                }
+            }
+        }
+        locations.sort(Comparator.comparing(GeneLocation::getChromosome).thenComparingInt(GeneLocation::getStart));
+        return locations;
+    }
+
+    /**
+     * Decodes a gene.
+     *
+     * @param key gene key as built by GeneLocation
+     * @return the gene, null if it is not in the index
+     * @throws IOException if the gene cannot be decoded
+     */
+    Gene getGene(String key) throws IOException {
+        Long record = recordByKey.get(key);
+        if (record == null) {
+            return null;
+        }
+        return geneReader.readValue(decompress(readRecord(record)));
+    }
+
+    public int size() {
+        return recordByKey.size();
+    }
+
+    public long getMemorySize() {
+        long memorySize = 0;
+        for (ByteBuffer block : blocks) {
+            memorySize += block.position();
+        }
+        return memorySize;
+    }
+
+    private byte[] readRecord(long record) {
+        // Records are referenced by block number in the high 32 bits and offset in the low ones
+        ByteBuffer block = blocks.get((int) (record >>> 32)).duplicate();
+        block.position((int) record);
+        byte[] bytes = new byte[block.getInt()];
+        block.get(bytes);
+        return bytes;
+    }
+
+    static byte[] compress(byte[] bytes) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(bytes.length / 3 + 64);
+        DataOutputStream dataOutputStream = new DataOutputStream(outputStream);
+        try {
+            dataOutputStream.writeInt(bytes.length);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                dataOutputStream.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream never fails
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return outputStream.toByteArray();
+    }
+
+    static byte[] decompress(byte[] bytes) throws IOException {
+        int length = ByteBuffer.wrap(bytes).getInt();
+        Inflater inflater = new Inflater();
+        inflater.setInput(bytes, 4, bytes.length - 4);
+        byte[] result = new byte[length];
+        try {
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                read += inflater.inflate(result, read, length - read);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt gene index record", e);
+        } finally {
+            inflater.end();
+        }
+        return result;
+    }
+
+    private static final class ChromosomeColumns {
+
+        private final String chromosome;
+        private final int[] starts;
+        private final int[] ends;
+        private final String[] ids;
+        private final long[] records;
+        private final int maxLength;
+
+        ChromosomeColumns(String chromosome, List<Entry> entries) {
+            entries.sort(Comparator.comparingInt(entry -> entry.start));
+            this.chromosome = chromosome;
+            this.starts = new int[entries.size()];
+            this.ends = new int[entries.size()];
+            this.ids = new String[entries.size()];
+            this.records = new long[entries.size()];
+            int max = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                Entry entry = entries.get(i);
+                starts[i] = entry.start;
+                ends[i] = entry.end;
+                ids[i] = entry.id;
+                records[i] = entry.record;
+                max = Math.max(max, entry.end - entry.start + 1);
+            }
+            this.maxLength = max;
+        }
+
+        private int firstStartFrom(int position) {
+            int low = 0;
+            int high = starts.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (starts[middle] < position) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    private static final class Entry {
+
+        private final String id;
+        private final int start;
+        private final int end;
+        private final long record;
+
+        Entry(String id, int start, int end, long record) {
+            this.id = id;
+            this.start = start;
+            this.end = end;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Accumulates compressed genes in direct buffers, records never span two buffers.
+     */
+    static final class Builder {
+
+        private final Map<String, List<Entry>> entries;
+        private final Map<String, Long> recordByKey;
+        private final List<ByteBuffer> blocks;
+
+        Builder() {
+            entries = new LinkedHashMap<>();
+            recordByKey = new HashMap<>();
+            blocks = new ArrayList<>();
+        }
+
+        Builder add(String id, String chromosome, int start, int end, byte[] record) {
+            ByteBuffer block = blocks.isEmpty() ? null : blocks.get(blocks.size() - 1);
+            if (block == null || block.remaining() < record.length + 4) {
+                block = ByteBuffer.allocateDirect(Math.max(BLOCK_SIZE, record.length + 4));
+                blocks.add(block);
+            }
+            long reference = ((long) (blocks.size() - 1) << 32) | block.position();
+            block.putInt(record.length);
+            block.put(record);
+
+            entries.computeIfAbsent(chromosome, key -> new ArrayList<>()).add(new Entry(id, start, end, reference));
+            recordByKey.put(new GeneLocation(id, chromosome, start, end).getKey(), reference);
+            return this;
+        }
+
+        GeneIndex build() {
+            // The last block is trimmed so it does not keep a whole BLOCK_SIZE reserved
+            if (!blocks.isEmpty() && blocks.get(blocks.size() - 1).hasRemaining()) {
+                ByteBuffer block = blocks.get(blocks.size() - 1);
+                ByteBuffer trimmed = ByteBuffer.allocateDirect(block.position());
+                block.flip();
+                trimmed.put(block);
+                blocks.set(blocks.size() - 1, trimmed);
+            }
+
+            Map<String, ChromosomeColumns> chromosomes = new LinkedHashMap<>();
+            for (Map.Entry<String, List<Entry>> entry : entries.entrySet()) {
+                chromosomes.put(entry.getKey(), new ChromosomeColumns(entry.getKey(), entry.getValue()));
+            }
+            return new GeneIndex(chromosomes, recordByKey, blocks);
+        }
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.variant.annotation;
+
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.annotation.ConsequenceTypeMappings;
+import org.opencb.biodata.models.variant.avro.*;
+import org.opencb.cellbase.core.api.ProteinDBAdaptor;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Adjusts the coding consequence types of phased SNVs that affect the same codon. Keeps a sliding window with the
+ * last SNVs seen, so variants must be added sorted by chromosome and position. The window is kept between calls to
+ * add, which allows a caller to feed the variants of consecutive batches and still find the phased pairs split across
+ * batches. Variants still in the window may be modified by the next variants added or by flush.
+ */
+public class PhasedConsequenceTypeAdjuster {
+
+    // Distance below which two SNVs may affect the same codon
+    private static final int MAX_CODON_DISTANCE = 3;
+
+    private final ProteinDBAdaptor proteinDBAdaptor;
+    private final Queue<Variant> variantBuffer;
+
+    public PhasedConsequenceTypeAdjuster(ProteinDBAdaptor proteinDBAdaptor) {
+        this.proteinDBAdaptor = proteinDBAdaptor;
+        this.variantBuffer = new LinkedList<>();
+    }
+
+    /**
+     * Adds the next variant, consequence types of the variant and of the ones in the window are adjusted as soon as
+     * they can be.
+     *
+     * @param variant annotated variant, variants with no consequence types are not adjusted
+     */
+    public void add(Variant variant) {
+        // Input is sorted, a variant beyond the codon of the first one in the window closes the window
+        Variant firstVariant = variantBuffer.peek();
+        if (firstVariant != null && (!firstVariant.getChromosome().equals(variant.getChromosome())
+                || variant.getStart() - firstVariant.getStart() >= MAX_CODON_DISTANCE)) {
+            flush();
+        }
+
+        // Only SNVs are currently considered for phase adjustment
+        if (VariantType.SNV.equals(variant.getType()) && variant.getAnnotation() != null
+                && variant.getAnnotation().getConsequenceTypes() != null) {
+            // Check and manage variantBuffer for dealing with phased variants
+            switch (variantBuffer.size()) {
+                case 0:
+                    variantBuffer.add(variant);
+                    break;
+                case 1:
+                    if (potentialCodingSNVOverlap(variantBuffer.peek(), variant)) {
+                        variantBuffer.add(variant);
+                    } else {
+                        variantBuffer.poll();
+                        variantBuffer.add(variant);
+                    }
+                    break;
+                case 2:
+                    if (potentialCodingSNVOverlap(variantBuffer.peek(), variant)) {
+                        variantBuffer.add(variant);
+                        adjustPhasedConsequenceTypes(variantBuffer.toArray());
+                        variantBuffer.poll();
+                    } else {
+                        // Adjust consequence types for the two previous variants
+                        adjustPhasedConsequenceTypes(variantBuffer.toArray());
+                        // Remove the two previous variants after adjustment
+                        variantBuffer.poll();
+                        variantBuffer.poll();
+                        variantBuffer.add(variant);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Adjusts the variants remaining in the window, e.g. the two last ones when they are phased and the distance
+     * between them is < 3nts, and empties it.
+     */
+    public void flush() {
+        if (variantBuffer.size() > 1) {
+            adjustPhasedConsequenceTypes(variantBuffer.toArray());
+        }
+        variantBuffer.clear();
+    }
+
+    /**
+     * First variant of the window, this one and all the variants added after it may still be modified.
+     *
+     * @return the variant or null if the window is empty
+     */
+    public Variant getFirstPendingVariant() {
+        return variantBuffer.peek();
+    }
+
+    private void adjustPhasedConsequenceTypes(Object[] variantArray) {
+        Variant variant0 = (Variant) variantArray[0];
+        Variant variant1 = null;
+        Variant variant2 = null;
+
+        boolean variant0DisplayCTNeedsUpdate = false;
+        boolean variant1DisplayCTNeedsUpdate = false;
+        boolean variant2DisplayCTNeedsUpdate = false;
+
+        for (ConsequenceType consequenceType1 : variant0.getAnnotation().getConsequenceTypes()) {
+            ProteinVariantAnnotation newProteinVariantAnnotation = null;
+            // Check if this is a coding consequence type. Also this consequence type may have been already
+            // updated if there are 3 consecutive phased SNVs affecting the same codon.
+            if (isCoding(consequenceType1)
+                    && !transcriptAnnotationUpdated(variant0, consequenceType1.getEnsemblTranscriptId())) {
+                variant1 = (Variant) variantArray[1];
+                ConsequenceType consequenceType2
+                        = findCodingOverlappingConsequenceType(consequenceType1, variant1.getAnnotation().getConsequenceTypes());
+                // The two first variants affect the same codon
+                if (consequenceType2 != null) {
+                    // WARNING: assumes variants are sorted according to their coordinates
+                    int cdnaPosition = consequenceType1.getCdnaPosition();
+                    int cdsPosition = consequenceType1.getCdsPosition();
+                    String codon = null;
+//                    String alternateAA = null;
+                    List<SequenceOntologyTerm> soTerms = null;
+                    ConsequenceType consequenceType3 = null;
+                    variant2 = null;
+                    // Check if the third variant also affects the same codon
+                    if (variantArray.length > 2) {
+                        variant2 = (Variant) variantArray[2];
+                        consequenceType3
+                                = findCodingOverlappingConsequenceType(consequenceType2, variant2.getAnnotation().getConsequenceTypes());
+                    }
+                    // The three SNVs affect the same codon
+                    if (consequenceType3 != null) {
+                        String referenceCodon = consequenceType1.getCodon().split("/")[0].toUpperCase();
+                        // WARNING: assumes variants are sorted according to their coordinates
+                        String alternateCodon = variant0.getAlternate() + variant1.getAlternate()
+                                + variant2.getAlternate();
+                        codon = referenceCodon + "/" + alternateCodon;
+//                            alternateAA = VariantAnnotationUtils.CODON_TO_A.get(alternateCodon);
+                        soTerms = updatePhasedSoTerms(consequenceType1.getSequenceOntologyTerms(),
+                                String.valueOf(referenceCodon), String.valueOf(alternateCodon),
+                                variant1.getChromosome().equals("MT"));
+
+                        // Update consequenceType3
+                        consequenceType3.setCdnaPosition(cdnaPosition);
+                        consequenceType3.setCdsPosition(cdsPosition);
+                        consequenceType3.setCodon(codon);
+                        //                        consequenceType3.getProteinVariantAnnotation().setAlternate(alternateAA);
+                        newProteinVariantAnnotation = getProteinAnnotation(consequenceType3);
+                        consequenceType3.setProteinVariantAnnotation(newProteinVariantAnnotation);
+                        consequenceType3.setSequenceOntologyTerms(soTerms);
+
+                        // Flag these transcripts as already updated for this variant
+                        flagTranscriptAnnotationUpdated(variant2, consequenceType1.getEnsemblTranscriptId());
+
+                        variant2DisplayCTNeedsUpdate = true;
+
+                        // Only the two first SNVs affect the same codon
+                    } else {
+                        int codonIdx1 = getUpperCaseLetterPosition(consequenceType1.getCodon().split("/")[0]);
+                        int codonIdx2 = getUpperCaseLetterPosition(consequenceType2.getCodon().split("/")[0]);
+
+                        // Set referenceCodon  and alternateCodon leaving only the nts that change in uppercase.
+                        // Careful with upper/lower case letters
+                        char[] referenceCodonArray = consequenceType1.getCodon().split("/")[0].toLowerCase().toCharArray();
+                        referenceCodonArray[codonIdx1] = Character.toUpperCase(referenceCodonArray[codonIdx1]);
+                        referenceCodonArray[codonIdx2] = Character.toUpperCase(referenceCodonArray[codonIdx2]);
+                        char[] alternateCodonArray = referenceCodonArray.clone();
+                        alternateCodonArray[codonIdx1] = variant0.getAlternate().toUpperCase().toCharArray()[0];
+                        alternateCodonArray[codonIdx2] = variant1.getAlternate().toUpperCase().toCharArray()[0];
+
+                        codon = String.valueOf(referenceCodonArray) + "/" + String.valueOf(alternateCodonArray);
+//                            alternateAA = VariantAnnotationUtils.CODON_TO_A.get(String.valueOf(alternateCodonArray).toUpperCase());
+                        soTerms = updatePhasedSoTerms(consequenceType1.getSequenceOntologyTerms(),
+                                String.valueOf(referenceCodonArray).toUpperCase(),
+                                String.valueOf(alternateCodonArray).toUpperCase(), variant1.getChromosome().equals("MT"));
+                    }
+
+                    // Update consequenceType1 & 2
+                    consequenceType1.setCodon(codon);
+                    //                    consequenceType1.getProteinVariantAnnotation().setAlternate(alternateAA);
+                    consequenceType1.setProteinVariantAnnotation(newProteinVariantAnnotation == null
+                            ? getProteinAnnotation(consequenceType1) : newProteinVariantAnnotation);
+                    consequenceType1.setSequenceOntologyTerms(soTerms);
+                    consequenceType2.setCdnaPosition(cdnaPosition);
+                    consequenceType2.setCdsPosition(cdsPosition);
+                    consequenceType2.setCodon(codon);
+                    //                    consequenceType2.getProteinVariantAnnotation().setAlternate(alternateAA);
+                    consequenceType2.setProteinVariantAnnotation(consequenceType1.getProteinVariantAnnotation());
+                    consequenceType2.setSequenceOntologyTerms(soTerms);
+
+                    // Flag these transcripts as already updated for this variant
+                    flagTranscriptAnnotationUpdated(variant0, consequenceType1.getEnsemblTranscriptId());
+                    flagTranscriptAnnotationUpdated(variant1, consequenceType1.getEnsemblTranscriptId());
+
+                    variant0DisplayCTNeedsUpdate = true;
+                    variant1DisplayCTNeedsUpdate = true;
+                }
+            }
+        }
+
+        if (variant0DisplayCTNeedsUpdate) {
+            variant0.getAnnotation()
+                    .setDisplayConsequenceType(VariantAnnotationUtils.getMostSevereConsequenceType(variant0.getAnnotation()
+                            .getConsequenceTypes()));
+        }
+        if (variant1DisplayCTNeedsUpdate) {
+            variant1.getAnnotation()
+                    .setDisplayConsequenceType(VariantAnnotationUtils.getMostSevereConsequenceType(variant1.getAnnotation()
+                            .getConsequenceTypes()));
+        }
+        if (variant2DisplayCTNeedsUpdate) {
+            variant2.getAnnotation()
+                    .setDisplayConsequenceType(VariantAnnotationUtils.getMostSevereConsequenceType(variant2.getAnnotation()
+                            .getConsequenceTypes()));
+        }
+    }
+
+    private void flagTranscriptAnnotationUpdated(Variant variant, String ensemblTranscriptId) {
+        Map<String, AdditionalAttribute> additionalAttributesMap = variant.getAnnotation().getAdditionalAttributes();
+        if (additionalAttributesMap == null) {
+            additionalAttributesMap = new HashMap<>();
+            AdditionalAttribute additionalAttribute = new AdditionalAttribute();
+            Map<String, String> transcriptsSet = new HashMap<>();
+            transcriptsSet.put(ensemblTranscriptId, null);
+            additionalAttribute.setAttribute(transcriptsSet);
+            additionalAttributesMap.put("phasedTranscripts", additionalAttribute);
+            variant.getAnnotation().setAdditionalAttributes(additionalAttributesMap);
+        } else if (additionalAttributesMap.get("phasedTranscripts") == null) {
+            AdditionalAttribute additionalAttribute = new AdditionalAttribute();
+            Map<String, String> transcriptsSet = new HashMap<>();
+            transcriptsSet.put(ensemblTranscriptId, null);
+            additionalAttribute.setAttribute(transcriptsSet);
+            additionalAttributesMap.put("phasedTranscripts", additionalAttribute);
+        } else {
+            additionalAttributesMap.get("phasedTranscripts").getAttribute().put(ensemblTranscriptId, null);
+        }
+    }
+
+    private boolean transcriptAnnotationUpdated(Variant variant, String ensemblTranscriptId) {
+        if (variant.getAnnotation().getAdditionalAttributes() != null
+                && variant.getAnnotation().getAdditionalAttributes().get("phasedTranscripts") != null
+                && variant.getAnnotation().getAdditionalAttributes().get("phasedTranscripts")
+                    .getAttribute().containsKey(ensemblTranscriptId)) {
+            return true;
+        }
+        return false;
+    }
+
+    private int getUpperCaseLetterPosition(String string) {
+//        Pattern pat = Pattern.compile("G");
+        Pattern pat = Pattern.compile("[A,C,G,T]");
+        Matcher match = pat.matcher(string);
+        if (match.find()) {
+            return match.start();
+        } else {
+            return -1;
+        }
+    }
+
+    private ConsequenceType findCodingOverlappingConsequenceType(ConsequenceType consequenceType,
+                                                                 List<ConsequenceType> consequenceTypeList) {
+        for (ConsequenceType consequenceType1 : consequenceTypeList) {
+            if (isCoding(consequenceType1)
+                    && consequenceType.getEnsemblTranscriptId().equals(consequenceType1.getEnsemblTranscriptId())
+                    && consequenceType.getProteinVariantAnnotation().getPosition()
+                    .equals(consequenceType1.getProteinVariantAnnotation().getPosition())) {
+                return consequenceType1;
+            }
+        }
+        return null;
+    }
+
+    private boolean isCoding(ConsequenceType consequenceType) {
+        for (SequenceOntologyTerm sequenceOntologyTerm : consequenceType.getSequenceOntologyTerms()) {
+            if (VariantAnnotationUtils.CODING_SO_NAMES.contains(sequenceOntologyTerm.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private List<SequenceOntologyTerm> updatePhasedSoTerms(List<SequenceOntologyTerm> sequenceOntologyTermList,
+                                                           String referenceCodon, String alternateCodon,
+                                                           Boolean useMitochondrialCode) {
+
+        // Removes all coding-associated SO terms
+        int i = 0;
+        do {
+            if (VariantAnnotationUtils.CODING_SO_NAMES.contains(sequenceOntologyTermList.get(i).getName())) {
+                sequenceOntologyTermList.remove(i);
+            } else {
+                i++;
+            }
+        } while(i < sequenceOntologyTermList.size());
+
+        // Add the new coding SO term as appropriate
+        String newSoName = null;
+        if (VariantAnnotationUtils.isSynonymousCodon(useMitochondrialCode, referenceCodon, alternateCodon)) {
+            if (VariantAnnotationUtils.isStopCodon(useMitochondrialCode, referenceCodon)) {
+                newSoName = VariantAnnotationUtils.STOP_RETAINED_VARIANT;
+            } else {  // coding end may be not correctly annotated (incomplete_terminal_codon_variant),
+                // but if the length of the cds%3=0, annotation should be synonymous variant
+                newSoName = VariantAnnotationUtils.SYNONYMOUS_VARIANT;
+            }
+        } else if (VariantAnnotationUtils.isStopCodon(useMitochondrialCode, referenceCodon)) {
+            newSoName = VariantAnnotationUtils.STOP_LOST;
+        } else if (VariantAnnotationUtils.isStopCodon(useMitochondrialCode, alternateCodon)) {
+            newSoName = VariantAnnotationUtils.STOP_GAINED;
+        } else {
+            newSoName = VariantAnnotationUtils.MISSENSE_VARIANT;
+        }
+        sequenceOntologyTermList
+                .add(new SequenceOntologyTerm(ConsequenceTypeMappings.getSoAccessionString(newSoName), newSoName));
+
+        return sequenceOntologyTermList;
+    }
+
+    private boolean potentialCodingSNVOverlap(Variant variant1, Variant variant2) {
+        return Math.abs(variant1.getStart() - variant2.getStart()) < 3
+                && variant1.getChromosome().equals(variant2.getChromosome())
+                && variant1.getType().equals(VariantType.SNV) && variant2.getType().equals(VariantType.SNV)
+                && samePhase(variant1, variant2);
+    }
+
+    private boolean samePhase(Variant variant1, Variant variant2) {
+        if (variant1.getStudies() != null && !variant1.getStudies().isEmpty()) {
+            if (variant2.getStudies() != null && !variant2.getStudies().isEmpty()) {
+                int psIdx1 = variant1.getStudies().get(0).getFormat().indexOf("PS");
+                if (psIdx1 != -1) {
+                    int psIdx2 = variant2.getStudies().get(0).getFormat().indexOf("PS");
+                    if (psIdx2 != -1 &&  // variant2 does have PS set
+                            // same phase set value in both variants
+                            variant2.getStudies().get(0).getSamplesData().get(0).get(psIdx2)
+                                    .equals(variant1.getStudies().get(0).getSamplesData().get(0).get(psIdx1))
+                            // Same genotype call in both variants (e.g. 1|0=1|0).
+                            // WARNING: assuming variant1 and variant2 do have Files.
+                            && variant1.getStudies().get(0).getFiles().get(0).getCall()
+                            .equals(variant2.getStudies().get(0).getFiles().get(0).getCall())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private ProteinVariantAnnotation getProteinAnnotation(ConsequenceType consequenceType) {
+        if (consequenceType.getProteinVariantAnnotation() != null) {
+            QueryResult<ProteinVariantAnnotation> proteinVariantAnnotation = proteinDBAdaptor.getVariantAnnotation(
+                    consequenceType.getEnsemblTranscriptId(),
+                    consequenceType.getProteinVariantAnnotation().getPosition(),
+                    consequenceType.getProteinVariantAnnotation().getReference(),
+                    consequenceType.getProteinVariantAnnotation().getAlternate(), new QueryOptions());
+
+            if (proteinVariantAnnotation.getNumResults() > 0) {
+                return proteinVariantAnnotation.getResult().get(0);
+            }
+        }
+        return null;
+    }
+}
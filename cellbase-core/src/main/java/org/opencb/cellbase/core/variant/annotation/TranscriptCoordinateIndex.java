@@ -0,0 +1,257 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.core.variant.annotation;
+
+import org.opencb.biodata.models.core.Exon;
+import org.opencb.biodata.models.core.Gene;
+import org.opencb.biodata.models.core.Transcript;
+
+import java.util.*;
+
+/**
+ * Coordinates of the transcripts and exons of a batch of genes, the only data needed to annotate structural variants
+ * spanning many genes. Genes are fetched with COORDINATE_FIELDS, sequences and the rest of the transcript are never
+ * loaded. Transcripts are kept in start order, one set of primitive arrays per chromosome, and overlap queries are a
+ * binary search.
+ */
+public final class TranscriptCoordinateIndex {
+
+    public static final String COORDINATE_FIELDS = "name,id,chromosome,start,end,transcripts.id,transcripts.start,"
+            + "transcripts.end,transcripts.strand,transcripts.annotationFlags,transcripts.biotype,"
+            + "transcripts.genomicCodingStart,transcripts.genomicCodingEnd,transcripts.cdnaCodingStart,"
+            + "transcripts.exons.start,transcripts.exons.end,transcripts.exons.exonNumber";
+
+    private final Map<String, ChromosomeColumns> chromosomes;
+    private final int size;
+
+    private TranscriptCoordinateIndex(Map<String, ChromosomeColumns> chromosomes, int size) {
+        this.chromosomes = chromosomes;
+        this.size = size;
+    }
+
+    /**
+     * Builds the index from genes including at least COORDINATE_FIELDS. Genes are not referenced by the index.
+     *
+     * @param geneList genes of the batch
+     * @return the index
+     */
+    public static TranscriptCoordinateIndex build(List<Gene> geneList) {
+        Map<String, List<TranscriptCoordinates>> transcriptsByChromosome = new HashMap<>();
+        int size = 0;
+        for (Gene gene : geneList) {
+            if (gene.getTranscripts() == null) {
+                continue;
+            }
+            List<TranscriptCoordinates> transcripts = transcriptsByChromosome.computeIfAbsent(gene.getChromosome(),
+                    key -> new ArrayList<>());
+            for (Transcript transcript : gene.getTranscripts()) {
+                transcripts.add(new TranscriptCoordinates(gene, transcript));
+                size++;
+            }
+        }
+
+        Map<String, ChromosomeColumns> chromosomes = new HashMap<>();
+        for (Map.Entry<String, List<TranscriptCoordinates>> entry : transcriptsByChromosome.entrySet()) {
+            chromosomes.put(entry.getKey(), new ChromosomeColumns(entry.getValue()));
+        }
+        return new TranscriptCoordinateIndex(chromosomes, size);
+    }
+
+    /**
+     * Transcripts overlapping a region, in start order.
+     *
+     * @param chromosome chromosome of the region
+     * @param start      start of the region, 1-based
+     * @param end        end of the region, inclusive
+     * @return overlapping transcripts, empty if none
+     */
+    public List<TranscriptCoordinates> getOverlapping(String chromosome, int start, int end) {
+        ChromosomeColumns columns = chromosomes.get(chromosome);
+        if (columns == null) {
+            return Collections.emptyList();
+        }
+        List<TranscriptCoordinates> transcripts = new ArrayList<>();
+        // No transcript starting before start - maxLength may reach the region
+        for (int i = columns.firstStartFrom(start - columns.maxLength);
+             i < columns.starts.length && columns.starts[i] <= end; i++) {
+            if (columns.ends[i] >= start) {
+                transcripts.add(columns.transcripts[i]);
+            }
+        }
+        return transcripts;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Coordinates of a transcript. Exons are kept in transcript order, i.e. descending coordinates in the negative
+     * strand, as in Transcript.
+     */
+    public static final class TranscriptCoordinates {
+
+        private final String geneName;
+        private final String geneId;
+        private final String id;
+        private final String strand;
+        private final String biotype;
+        private final List<String> annotationFlags;
+        private final int start;
+        private final int end;
+        private final int genomicCodingStart;
+        private final int genomicCodingEnd;
+        private final int cdnaCodingStart;
+        private final boolean unconfirmedStart;
+        private final boolean unconfirmedEnd;
+        private final int[] exonStarts;
+        private final int[] exonEnds;
+        private final int[] exonNumbers;
+
+        TranscriptCoordinates(Gene gene, Transcript transcript) {
+            this.geneName = gene.getName();
+            this.geneId = gene.getId();
+            this.id = transcript.getId();
+            this.strand = transcript.getStrand();
+            this.biotype = transcript.getBiotype();
+            this.annotationFlags = transcript.getAnnotationFlags() != null
+                    ? new ArrayList<>(transcript.getAnnotationFlags())
+                    : null;
+            this.start = transcript.getStart();
+            this.end = transcript.getEnd();
+            this.genomicCodingStart = transcript.getGenomicCodingStart();
+            this.genomicCodingEnd = transcript.getGenomicCodingEnd();
+            this.cdnaCodingStart = transcript.getCdnaCodingStart();
+            this.unconfirmedStart = transcript.unconfirmedStart();
+            this.unconfirmedEnd = transcript.unconfirmedEnd();
+
+            List<Exon> exons = transcript.getExons() != null ? transcript.getExons() : Collections.emptyList();
+            this.exonStarts = new int[exons.size()];
+            this.exonEnds = new int[exons.size()];
+            this.exonNumbers = new int[exons.size()];
+            for (int i = 0; i < exons.size(); i++) {
+                exonStarts[i] = exons.get(i).getStart();
+                exonEnds[i] = exons.get(i).getEnd();
+                exonNumbers[i] = exons.get(i).getExonNumber();
+            }
+        }
+
+        public boolean unconfirmedStart() {
+            return unconfirmedStart;
+        }
+
+        public boolean unconfirmedEnd() {
+            return unconfirmedEnd;
+        }
+
+        public String getGeneName() {
+            return geneName;
+        }
+
+        public String getGeneId() {
+            return geneId;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getStrand() {
+            return strand;
+        }
+
+        public String getBiotype() {
+            return biotype;
+        }
+
+        public List<String> getAnnotationFlags() {
+            return annotationFlags;
+        }
+
+        public int getStart() {
+            return start;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        public int getGenomicCodingStart() {
+            return genomicCodingStart;
+        }
+
+        public int getGenomicCodingEnd() {
+            return genomicCodingEnd;
+        }
+
+        public int getCdnaCodingStart() {
+            return cdnaCodingStart;
+        }
+
+        public int getNumExons() {
+            return exonStarts.length;
+        }
+
+        public int getExonStart(int i) {
+            return exonStarts[i];
+        }
+
+        public int getExonEnd(int i) {
+            return exonEnds[i];
+        }
+
+        public int getExonNumber(int i) {
+            return exonNumbers[i];
+        }
+    }
+
+    private static final class ChromosomeColumns {
+
+        private final int[] starts;
+        private final int[] ends;
+        private final TranscriptCoordinates[] transcripts;
+        private final int maxLength;
+
+        ChromosomeColumns(List<TranscriptCoordinates> transcriptList) {
+            transcriptList.sort(Comparator.comparingInt(TranscriptCoordinates::getStart));
+            this.starts = new int[transcriptList.size()];
+            this.ends = new int[transcriptList.size()];
+            this.transcripts = transcriptList.toArray(new TranscriptCoordinates[0]);
+            int max = 0;
+            for (int i = 0; i < transcripts.length; i++) {
+                starts[i] = transcripts[i].start;
+                ends[i] = transcripts[i].end;
+                max = Math.max(max, transcripts[i].end - transcripts[i].start + 1);
+            }
+            this.maxLength = max;
+        }
+
+        private int firstStartFrom(int position) {
+            int low = 0;
+            int high = starts.length;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (starts[middle] < position) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+}
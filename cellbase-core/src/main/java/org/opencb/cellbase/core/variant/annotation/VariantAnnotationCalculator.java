@@ -22,11 +22,10 @@ import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.core.RegulatoryFeature;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.VariantBuilder;
-import org.opencb.biodata.models.variant.annotation.ConsequenceTypeMappings;
 import org.opencb.biodata.models.variant.avro.*;
 import org.opencb.biodata.tools.variant.VariantNormalizer;
-import org.opencb.biodata.tools.variant.exceptions.VariantNormalizerException;
 import org.opencb.cellbase.core.api.*;
+import org.opencb.cellbase.core.metrics.MetricsRegistry;
 import org.opencb.cellbase.core.variant.annotation.hgvs.HgvsCalculator;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
@@ -36,8 +35,6 @@ import org.slf4j.LoggerFactory;
 
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 //import org.opencb.cellbase.core.db.api.core.ConservedRegionDBAdaptor;
@@ -72,16 +69,21 @@ public class VariantAnnotationCalculator {
     private String includeGeneFields;
 
     private DBAdaptorFactory dbAdaptorFactory;
+    private final String species;
+    private final String assembly;
     //    private ObjectMapper geneObjectMapper;
     private final VariantNormalizer normalizer;
+    private final CellBaseNormalizerSequenceAdaptor normalizerSequenceAdaptor;
     private boolean normalize = false;
     private boolean useCache = false;
     private boolean phased = false;
     private Boolean imprecise = true;
     private Integer svExtraPadding = 0;
     private Integer cnvExtraPadding = 0;
+    private Integer structuralVariantMinSize = DEFAULT_STRUCTURAL_VARIANT_MIN_SIZE;
 
     private static Logger logger = LoggerFactory.getLogger(VariantAnnotationCalculator.class);
+    private static MetricsRegistry metricsRegistry = MetricsRegistry.getDefault();
     private static HgvsCalculator hgvsCalculator;
 
     private static final String REGULATORY_REGION_FEATURE_TYPE_ATTRIBUTE = "featureType";
@@ -89,6 +91,8 @@ public class VariantAnnotationCalculator {
             + RegulationDBAdaptor.FeatureType.TF_binding_site_motif;
     private static final String REGION = "region";
     private static final String MERGE = "merge";
+    // Region variants from this size on are annotated from transcript coordinates only
+    private static final int DEFAULT_STRUCTURAL_VARIANT_MIN_SIZE = 10000;
 
 //    public VariantAnnotationCalculator(String species, String assembly, MongoDataStore mongoDataStore) {
 ////        super(species, assembly, mongoDataStore);
@@ -101,6 +105,8 @@ public class VariantAnnotationCalculator {
 //        this.normalize = normalize;
 
         this.dbAdaptorFactory = dbAdaptorFactory;
+        this.species = species;
+        this.assembly = assembly;
 
         this.genomeDBAdaptor = dbAdaptorFactory.getGenomeDBAdaptor(species, assembly);
         this.variantDBAdaptor = dbAdaptorFactory.getVariationDBAdaptor(species, assembly);
@@ -110,6 +116,7 @@ public class VariantAnnotationCalculator {
         this.conservationDBAdaptor = dbAdaptorFactory.getConservationDBAdaptor(species, assembly);
         this.clinicalDBAdaptor = dbAdaptorFactory.getClinicalDBAdaptor(species, assembly);
         this.repeatsDBAdaptor = dbAdaptorFactory.getRepeatsDBAdaptor(species, assembly);
+        this.normalizerSequenceAdaptor = new CellBaseNormalizerSequenceAdaptor(genomeDBAdaptor);
         this.normalizer = new VariantNormalizer(getNormalizerConfig());
 
          hgvsCalculator = new HgvsCalculator(genomeDBAdaptor);
@@ -122,7 +129,7 @@ public class VariantAnnotationCalculator {
                 .setReuseVariants(false)
                 .setNormalizeAlleles(false)
                 .setDecomposeMNVs(true)
-                .enableLeftAlign(new CellBaseNormalizerSequenceAdaptor(genomeDBAdaptor));
+                .enableLeftAlign(normalizerSequenceAdaptor);
     }
 
     @Deprecated
@@ -172,6 +179,8 @@ public class VariantAnnotationCalculator {
         }
         List<Variant> normalizedVariantList;
         if (normalize) {
+            // Sequence around the indels of the batch is fetched at once rather than by each left alignment
+            normalizerSequenceAdaptor.prefetch(variantList);
             normalizedVariantList = normalizer.apply(variantList);
         } else {
             normalizedVariantList = variantList;
@@ -395,7 +404,7 @@ public class VariantAnnotationCalculator {
          * Next three async blocks calculate annotations using Futures, this will be calculated in a different thread.
          * Once the main loop has finished then they will be stored. This provides a ~30% of performance improvement.
          */
-        ExecutorService fixedThreadPool = Executors.newFixedThreadPool(5);
+        ExecutorService fixedThreadPool = Executors.newFixedThreadPool(7);
         FutureVariationAnnotator futureVariationAnnotator = null;
         Future<List<QueryResult<Variant>>> variationFuture = null;
 
@@ -406,56 +415,76 @@ public class VariantAnnotationCalculator {
             futureVariationAnnotator = new FutureVariationAnnotator(normalizedVariantList, new QueryOptions("include",
                     "id,annotation.populationFrequencies,annotation.additionalAttributes.dgvSpecificAttributes")
                     .append("imprecise", imprecise));
-            variationFuture = fixedThreadPool.submit(futureVariationAnnotator);
+            variationFuture = submitTimed(fixedThreadPool, "variation", futureVariationAnnotator);
         }
 
         FutureConservationAnnotator futureConservationAnnotator = null;
         Future<List<QueryResult>> conservationFuture = null;
         if (annotatorSet.contains("conservation")) {
             futureConservationAnnotator = new FutureConservationAnnotator(normalizedVariantList, QueryOptions.empty());
-            conservationFuture = fixedThreadPool.submit(futureConservationAnnotator);
+            conservationFuture = submitTimed(fixedThreadPool, "conservation", futureConservationAnnotator);
         }
 
         FutureVariantFunctionalScoreAnnotator futureVariantFunctionalScoreAnnotator = null;
         Future<List<QueryResult<Score>>> variantFunctionalScoreFuture = null;
         if (annotatorSet.contains("functionalScore")) {
             futureVariantFunctionalScoreAnnotator = new FutureVariantFunctionalScoreAnnotator(normalizedVariantList, QueryOptions.empty());
-            variantFunctionalScoreFuture = fixedThreadPool.submit(futureVariantFunctionalScoreAnnotator);
+            variantFunctionalScoreFuture = submitTimed(fixedThreadPool, "functionalScore",
+                    futureVariantFunctionalScoreAnnotator);
         }
 
         FutureClinicalAnnotator futureClinicalAnnotator = null;
         Future<List<QueryResult<Variant>>> clinicalFuture = null;
         if (annotatorSet.contains("clinical")) {
             futureClinicalAnnotator = new FutureClinicalAnnotator(normalizedVariantList, QueryOptions.empty());
-            clinicalFuture = fixedThreadPool.submit(futureClinicalAnnotator);
+            clinicalFuture = submitTimed(fixedThreadPool, "clinical", futureClinicalAnnotator);
         }
 
         FutureRepeatsAnnotator futureRepeatsAnnotator = null;
         Future<List<QueryResult<Repeat>>> repeatsFuture = null;
         if (annotatorSet.contains("repeats")) {
             futureRepeatsAnnotator = new FutureRepeatsAnnotator(normalizedVariantList, QueryOptions.empty());
-            repeatsFuture = fixedThreadPool.submit(futureRepeatsAnnotator);
+            repeatsFuture = submitTimed(fixedThreadPool, "repeats", futureRepeatsAnnotator);
         }
 
         FutureCytobandAnnotator futureCytobandAnnotator = null;
         Future<List<QueryResult<Cytoband>>> cytobandFuture = null;
         if (annotatorSet.contains("cytoband")) {
             futureCytobandAnnotator = new FutureCytobandAnnotator(normalizedVariantList, QueryOptions.empty());
-            cytobandFuture = fixedThreadPool.submit(futureCytobandAnnotator);
+            cytobandFuture = submitTimed(fixedThreadPool, "cytoband", futureCytobandAnnotator);
         }
 
-//        FutureHgvsAnnotator futureHgvsAnnotator = null;
-//        Future<List<QueryResult<String>>> hgvsFuture = null;
-//        if (annotatorSet.contains("hgvs")) {
-//            futureHgvsAnnotator = new FutureHgvsAnnotator(normalizedVariantList, queryOptions);
-//            hgvsFuture = fixedThreadPool.submit(futureHgvsAnnotator);
-//        }
-
         /*
          * We iterate over all variants to get the rest of the annotations and to create the VariantAnnotation objects
          */
-        List<Gene> batchGeneList = getBatchGeneList(normalizedVariantList);
-        Queue<Variant> variantBuffer = new LinkedList<>();
+        long genesStartTime = System.nanoTime();
+        // Genes of large structural variants are fetched apart with their coordinates only, their consequence types
+        // need no sequence and they may span hundreds of genes
+        List<Variant> structuralVariantList = new ArrayList<>();
+        List<Variant> otherVariantList = new ArrayList<>(normalizedVariantList.size());
+        for (Variant variant : normalizedVariantList) {
+            if (isLargeStructuralVariant(variant)) {
+                structuralVariantList.add(variant);
+            } else {
+                otherVariantList.add(variant);
+            }
+        }
+        List<Gene> batchGeneList = getBatchGeneList(otherVariantList, includeGeneFields);
+        List<Gene> structuralVariantGeneList = getBatchGeneList(structuralVariantList, getStructuralVariantGeneFields());
+        TranscriptCoordinateIndex transcriptCoordinateIndex = TranscriptCoordinateIndex.build(structuralVariantGeneList);
+        metricsRegistry.timer("annotation.genes").recordSince(genesStartTime);
+
+        // HGVS is calculated for the whole batch once genes are fetched, neighbouring sequences of all indels are
+        // fetched together
+        FutureHgvsAnnotator futureHgvsAnnotator = null;
+        Future<List<List<String>>> hgvsFuture = null;
+        if (annotatorSet.contains("hgvs")) {
+            futureHgvsAnnotator = new FutureHgvsAnnotator(normalizedVariantList, batchGeneList);
+            hgvsFuture = submitTimed(fixedThreadPool, "hgvs", futureHgvsAnnotator);
+        }
+        PhasedConsequenceTypeAdjuster phasedConsequenceTypeAdjuster = phased
+                ? new PhasedConsequenceTypeAdjuster(proteinDBAdaptor)
+                : null;
         startTime = System.currentTimeMillis();
         for (int i = 0; i < normalizedVariantList.size(); i++) {
             // normalizedVariantList is the passed by reference argument - modifying normalizedVariantList will
@@ -474,54 +503,21 @@ public class VariantAnnotationCalculator {
             variantAnnotation.setReference(normalizedVariantList.get(i).getReference());
             variantAnnotation.setAlternate(normalizedVariantList.get(i).getAlternate());
 
-            List<Gene> variantGeneList = setGeneAnnotation(batchGeneList, normalizedVariantList.get(i));
-
-            // Better not run hgvs calculation with a Future for the following reasons:
-            //   * geneList is needed in order to calculate the hgvs for ALL VARIANTS
-            //   * hgvsCalculator will raise an additional database query to get the genome sequence JUST FOR INDELS
-            //   * If a Future is used and a list of variants is provided to the hgvsCalculator, then the hgvsCalculator
-            //   will require to raise an additional query to the database (that would be performed asynchronously)
-            //   in order to get the geneList FOR ALL VARIANTS
-            //   * If no future is used, then the genome sequence query will be performed synchronously but JUST
-            //   FOR INDELS
-            // Given that the number of indels is expected to be negligible if compared to the number of SNVs, the
-            // decision is to run it synchronously
-            if (annotatorSet.contains("hgvs")) {
-                try {
-                    // Decided to always set normalize = false for a number of reasons:
-                    //   * was raising problems with the normalizer - it could potentially fail in weird multiallelic
-                    //     cases if the normalizer is called twice over the same variant,
-                    //     i.e. normalize(normalize(variant)). Calling the normalizer twice happens when annotating from
-                    //     a VCF, since normalization is carried out before sending variant to the VariantAnnotationCalculator.
-                    //     Therefore, normalize would be false within the VariantAnnotationCalculator, it kept as it was
-                    //     before, !normalize for hgvsCalculator, it'd run normalization twice.
-                    //     This incorrect behaviour of the normalizer must and will be fixed in the future, it was decided not to
-                    //     include it as a hotfix since touches the very core of the normalizer
-                    //   * if normalize = true, the variants in normalizedVariantList are already normalized for sure
-                    //     and should not be normalized again.
-                    //   * if normalize = false, then we could potentially find things like CT/C. In this case, the
-                    //     annotator will consider this as an MNV and the rest of annotation will not exactly be what
-                    //     a typical user would expect for the deletion of the T (which is what it is). Thus, we don't
-                    //     really care that much at this point if the hgvs is not perfectly normalized. Knowing that
-                    //     variants are not normalized the user should always select normalize=true.
-                    variantAnnotation.setHgvs(hgvsCalculator.run(normalizedVariantList.get(i), variantGeneList, false));
-                } catch (VariantNormalizerException e) {
-                    logger.error("Unable to normalize variant {}. Leaving empty HGVS.",
-                            normalizedVariantList.get(i).toString());
-                }
-            }
+            boolean largeStructuralVariant = isLargeStructuralVariant(normalizedVariantList.get(i));
+            List<Gene> variantGeneList = setGeneAnnotation(largeStructuralVariant ? structuralVariantGeneList : batchGeneList,
+                    normalizedVariantList.get(i));
 
             if (annotatorSet.contains("consequenceType")) {
                 try {
-                    List<ConsequenceType> consequenceTypeList = getConsequenceTypeList(normalizedVariantList.get(i),
-                        variantGeneList, true, QueryOptions.empty());
+                    List<ConsequenceType> consequenceTypeList = largeStructuralVariant
+                            ? getStructuralVariantConsequenceTypeList(normalizedVariantList.get(i), transcriptCoordinateIndex)
+                            : getConsequenceTypeList(normalizedVariantList.get(i), variantGeneList, true, QueryOptions.empty());
                     variantAnnotation.setConsequenceTypes(consequenceTypeList);
                     if (phased) {
-                        checkAndAdjustPhasedConsequenceTypes(normalizedVariantList.get(i), variantBuffer);
+                        phasedConsequenceTypeAdjuster.add(normalizedVariantList.get(i));
                     }
-                    variantAnnotation
-                            .setDisplayConsequenceType(getMostSevereConsequenceType(normalizedVariantList.get(i)
-                                    .getAnnotation().getConsequenceTypes()));
+                    variantAnnotation.setDisplayConsequenceType(VariantAnnotationUtils
+                            .getMostSevereConsequenceType(normalizedVariantList.get(i).getAnnotation().getConsequenceTypes()));
                 } catch (UnsupportedURLVariantFormat e) {
                     logger.error("Consequence type was not calculated for variant {}. Unrecognised variant format."
                             + " Leaving an empty consequence type list.", normalizedVariantList.get(i).toString());
@@ -547,10 +543,11 @@ public class VariantAnnotationCalculator {
 
         // Adjust phase of two last variants - if still anything remaining to adjust. This can happen if the two last
         // variants in the batch are phased and the distance between them < 3nts
-        if (phased && variantBuffer.size() > 1) {
-            adjustPhasedConsequenceTypes(variantBuffer.toArray());
+        if (phased) {
+            phasedConsequenceTypeAdjuster.flush();
         }
 
+        metricsRegistry.timer("annotation.consequenceType").record(System.currentTimeMillis() - startTime, TimeUnit.MILLISECONDS);
         logger.debug("Main loop iteration annotation performance is {}ms for {} variants", System.currentTimeMillis()
                 - startTime, normalizedVariantList.size());
 
@@ -559,35 +556,82 @@ public class VariantAnnotationCalculator {
          * Method 'processResults' has been implemented in the same class for sanity.
          */
         if (futureVariationAnnotator != null) {
+            awaitTimed("variation", variationFuture);
             futureVariationAnnotator.processResults(variationFuture, variantAnnotationResultList, annotatorSet);
         }
         if (futureConservationAnnotator != null) {
+            awaitTimed("conservation", conservationFuture);
             futureConservationAnnotator.processResults(conservationFuture, variantAnnotationResultList);
         }
         if (futureVariantFunctionalScoreAnnotator != null) {
+            awaitTimed("functionalScore", variantFunctionalScoreFuture);
             futureVariantFunctionalScoreAnnotator.processResults(variantFunctionalScoreFuture, variantAnnotationResultList);
         }
         if (futureClinicalAnnotator != null) {
+            awaitTimed("clinical", clinicalFuture);
             futureClinicalAnnotator.processResults(clinicalFuture, variantAnnotationResultList);
         }
         if (futureRepeatsAnnotator != null) {
+            awaitTimed("repeats", repeatsFuture);
             futureRepeatsAnnotator.processResults(repeatsFuture, variantAnnotationResultList);
         }
         if (futureCytobandAnnotator != null) {
+            awaitTimed("cytoband", cytobandFuture);
             futureCytobandAnnotator.processResults(cytobandFuture, variantAnnotationResultList);
         }
-//        if (futureHgvsAnnotator != null) {
-//            futureHgvsAnnotator.processResults(hgvsFuture, variantAnnotationResultList);
-//        }
+        if (futureHgvsAnnotator != null) {
+            awaitTimed("hgvs", hgvsFuture);
+            futureHgvsAnnotator.processResults(hgvsFuture, variantAnnotationResultList);
+        }
         fixedThreadPool.shutdown();
 
-
+        metricsRegistry.timer("annotation.batch").record(System.currentTimeMillis() - globalStartTime, TimeUnit.MILLISECONDS);
+        metricsRegistry.histogram("annotation.batchSize").record(normalizedVariantList.size());
         logger.debug("Total batch annotation performance is {}ms for {} variants", System.currentTimeMillis()
                 - globalStartTime, normalizedVariantList.size());
         return variantAnnotationResultList;
     }
 
+    /**
+     * Submits an annotator to the executor recording, in the default MetricsRegistry, how long it waited for a thread
+     * in annotation.queueWait and how long it ran in annotation.[stage].
+     */
+    private <T> Future<T> submitTimed(ExecutorService executorService, String stage, Callable<T> annotator) {
+        long submitTime = System.nanoTime();
+        return executorService.submit(() -> {
+            long startTime = System.nanoTime();
+            metricsRegistry.timer("annotation.queueWait").record(startTime - submitTime, TimeUnit.NANOSECONDS);
+            try {
+                return annotator.call();
+            } finally {
+                metricsRegistry.timer("annotation." + stage).recordSince(startTime);
+            }
+        });
+    }
+
+    /**
+     * Blocks until an annotator has finished recording the time the main thread waited for it. Errors are not handled
+     * here, they are reported by the processResults method of each annotator.
+     */
+    private void awaitTimed(String stage, Future<?> future) throws InterruptedException {
+        long startTime = System.nanoTime();
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            // processResults gets the same exception
+        } finally {
+            metricsRegistry.timer("annotation.futureWait." + stage).recordSince(startTime);
+        }
+    }
+
     private List<Gene> getBatchGeneList(List<Variant> variantList) {
+        return getBatchGeneList(variantList, includeGeneFields);
+    }
+
+    private List<Gene> getBatchGeneList(List<Variant> variantList, String includeFields) {
+        if (variantList.isEmpty()) {
+            return Collections.emptyList();
+        }
         List<Region> regionList = variantListToRegionList(variantList);
         // Add +-5Kb for gene search
         for (Region region : regionList) {
@@ -595,9 +639,17 @@ public class VariantAnnotationCalculator {
             region.setEnd(region.getEnd() + 5000);
         }
 
+        // Genes of hot loci are served from the cache when it holds all the fields required
+        if (GeneCache.isEnabled()) {
+            GeneCache geneCache = GeneCache.getInstance(species, assembly, geneDBAdaptor);
+            if (geneCache.covers(includeFields)) {
+                return geneCache.getByRegion(regionList);
+            }
+        }
+
         // Just return required fields
         // MERGE = true essential so that just one query will be raised with all regions
-        QueryOptions queryOptions = new QueryOptions(QueryOptions.INCLUDE, includeGeneFields);
+        QueryOptions queryOptions = new QueryOptions(QueryOptions.INCLUDE, includeFields);
         queryOptions.put(MERGE, true);
 
         return ((QueryResult) geneDBAdaptor.getByRegion(regionList, queryOptions).get(0)).getResult();
@@ -634,6 +686,11 @@ public class VariantAnnotationCalculator {
         // Default behaviour - no extra padding for CNV
         cnvExtraPadding = (queryOptions.get("cnvExtraPadding") != null ? (Integer) queryOptions.get("cnvExtraPadding") : 0);
         logger.debug("cnvExtraPadding = {}", cnvExtraPadding);
+
+        // Default behaviour - CNVs, duplications and inversions from 10Kb on are annotated from transcript coordinates
+        structuralVariantMinSize = (queryOptions.get("structuralVariantMinSize") != null
+                ? (Integer) queryOptions.get("structuralVariantMinSize") : DEFAULT_STRUCTURAL_VARIANT_MIN_SIZE);
+        logger.debug("structuralVariantMinSize = {}", structuralVariantMinSize);
     }
 
 
@@ -667,326 +724,6 @@ public class VariantAnnotationCalculator {
         }
     }
 
-    private void checkAndAdjustPhasedConsequenceTypes(Variant variant, Queue<Variant> variantBuffer) {
-        // Only SNVs are currently considered for phase adjustment
-        if (variant.getType().equals(VariantType.SNV)) {
-            // Check and manage variantBuffer for dealing with phased variants
-            switch (variantBuffer.size()) {
-                case 0:
-                    variantBuffer.add(variant);
-                    break;
-                case 1:
-                    if (potentialCodingSNVOverlap(variantBuffer.peek(), variant)) {
-                        variantBuffer.add(variant);
-                    } else {
-                        variantBuffer.poll();
-                        variantBuffer.add(variant);
-                    }
-                    break;
-                case 2:
-                    if (potentialCodingSNVOverlap(variantBuffer.peek(), variant)) {
-                        variantBuffer.add(variant);
-                        adjustPhasedConsequenceTypes(variantBuffer.toArray());
-                        variantBuffer.poll();
-                    } else {
-                        // Adjust consequence types for the two previous variants
-                        adjustPhasedConsequenceTypes(variantBuffer.toArray());
-                        // Remove the two previous variants after adjustment
-                        variantBuffer.poll();
-                        variantBuffer.poll();
-                        variantBuffer.add(variant);
-                    }
-                default:
-                    break;
-            }
-        }
-    }
-
-//    private void checkAndAdjustPhasedConsequenceTypes(Queue<Variant> variantBuffer) {
-//        Variant[] variantArray = (Variant[]) variantBuffer.toArray();
-//        // SSACGATATCTT -> where S represents the position of the SNV
-//        if (potentialCodingSNVOverlap(variantArray[0], variantArray[1])) {
-//            // SSSACGATATCTT -> where S represents the position of the SNV. The three SNVs may affect the same codon
-//            if (potentialCodingSNVOverlap(variantArray[1], variantArray[2])) {
-//                adjustPhasedConsequenceTypes(variantArray);
-//            // SSACGATATCVTT -> where S represents the position of the SNV and V represents the position of the third
-//            // variant. Only the two first SNVs may affect the same codon.
-//            } else {
-//                adjustPhasedConsequenceTypes(Arrays.copyOfRange(variantArray, 0,3));
-//            }
-//        }
-//    }
-
-    private void adjustPhasedConsequenceTypes(Object[] variantArray) {
-        Variant variant0 = (Variant) variantArray[0];
-        Variant variant1 = null;
-        Variant variant2 = null;
-
-        boolean variant0DisplayCTNeedsUpdate = false;
-        boolean variant1DisplayCTNeedsUpdate = false;
-        boolean variant2DisplayCTNeedsUpdate = false;
-
-        for (ConsequenceType consequenceType1 : variant0.getAnnotation().getConsequenceTypes()) {
-            ProteinVariantAnnotation newProteinVariantAnnotation = null;
-            // Check if this is a coding consequence type. Also this consequence type may have been already
-            // updated if there are 3 consecutive phased SNVs affecting the same codon.
-            if (isCoding(consequenceType1)
-                    && !transcriptAnnotationUpdated(variant0, consequenceType1.getEnsemblTranscriptId())) {
-                variant1 = (Variant) variantArray[1];
-                ConsequenceType consequenceType2
-                        = findCodingOverlappingConsequenceType(consequenceType1, variant1.getAnnotation().getConsequenceTypes());
-                // The two first variants affect the same codon
-                if (consequenceType2 != null) {
-                    // WARNING: assumes variants are sorted according to their coordinates
-                    int cdnaPosition = consequenceType1.getCdnaPosition();
-                    int cdsPosition = consequenceType1.getCdsPosition();
-                    String codon = null;
-//                    String alternateAA = null;
-                    List<SequenceOntologyTerm> soTerms = null;
-                    ConsequenceType consequenceType3 = null;
-                    variant2 = null;
-                    // Check if the third variant also affects the same codon
-                    if (variantArray.length > 2) {
-                        variant2 = (Variant) variantArray[2];
-                        consequenceType3
-                                = findCodingOverlappingConsequenceType(consequenceType2, variant2.getAnnotation().getConsequenceTypes());
-                    }
-                    // The three SNVs affect the same codon
-                    if (consequenceType3 != null) {
-                        String referenceCodon = consequenceType1.getCodon().split("/")[0].toUpperCase();
-                        // WARNING: assumes variants are sorted according to their coordinates
-                        String alternateCodon = variant0.getAlternate() + variant1.getAlternate()
-                                + variant2.getAlternate();
-                        codon = referenceCodon + "/" + alternateCodon;
-//                            alternateAA = VariantAnnotationUtils.CODON_TO_A.get(alternateCodon);
-                        soTerms = updatePhasedSoTerms(consequenceType1.getSequenceOntologyTerms(),
-                                String.valueOf(referenceCodon), String.valueOf(alternateCodon),
-                                variant1.getChromosome().equals("MT"));
-
-                        // Update consequenceType3
-                        consequenceType3.setCdnaPosition(cdnaPosition);
-                        consequenceType3.setCdsPosition(cdsPosition);
-                        consequenceType3.setCodon(codon);
-                        //                        consequenceType3.getProteinVariantAnnotation().setAlternate(alternateAA);
-                        newProteinVariantAnnotation = getProteinAnnotation(consequenceType3);
-                        consequenceType3.setProteinVariantAnnotation(newProteinVariantAnnotation);
-                        consequenceType3.setSequenceOntologyTerms(soTerms);
-
-                        // Flag these transcripts as already updated for this variant
-                        flagTranscriptAnnotationUpdated(variant2, consequenceType1.getEnsemblTranscriptId());
-
-                        variant2DisplayCTNeedsUpdate = true;
-
-                        // Only the two first SNVs affect the same codon
-                    } else {
-                        int codonIdx1 = getUpperCaseLetterPosition(consequenceType1.getCodon().split("/")[0]);
-                        int codonIdx2 = getUpperCaseLetterPosition(consequenceType2.getCodon().split("/")[0]);
-
-                        // Set referenceCodon  and alternateCodon leaving only the nts that change in uppercase.
-                        // Careful with upper/lower case letters
-                        char[] referenceCodonArray = consequenceType1.getCodon().split("/")[0].toLowerCase().toCharArray();
-                        referenceCodonArray[codonIdx1] = Character.toUpperCase(referenceCodonArray[codonIdx1]);
-                        referenceCodonArray[codonIdx2] = Character.toUpperCase(referenceCodonArray[codonIdx2]);
-                        char[] alternateCodonArray = referenceCodonArray.clone();
-                        alternateCodonArray[codonIdx1] = variant0.getAlternate().toUpperCase().toCharArray()[0];
-                        alternateCodonArray[codonIdx2] = variant1.getAlternate().toUpperCase().toCharArray()[0];
-
-                        codon = String.valueOf(referenceCodonArray) + "/" + String.valueOf(alternateCodonArray);
-//                            alternateAA = VariantAnnotationUtils.CODON_TO_A.get(String.valueOf(alternateCodonArray).toUpperCase());
-                        soTerms = updatePhasedSoTerms(consequenceType1.getSequenceOntologyTerms(),
-                                String.valueOf(referenceCodonArray).toUpperCase(),
-                                String.valueOf(alternateCodonArray).toUpperCase(), variant1.getChromosome().equals("MT"));
-                    }
-
-                    // Update consequenceType1 & 2
-                    consequenceType1.setCodon(codon);
-                    //                    consequenceType1.getProteinVariantAnnotation().setAlternate(alternateAA);
-                    consequenceType1.setProteinVariantAnnotation(newProteinVariantAnnotation == null
-                            ? getProteinAnnotation(consequenceType1) : newProteinVariantAnnotation);
-                    consequenceType1.setSequenceOntologyTerms(soTerms);
-                    consequenceType2.setCdnaPosition(cdnaPosition);
-                    consequenceType2.setCdsPosition(cdsPosition);
-                    consequenceType2.setCodon(codon);
-                    //                    consequenceType2.getProteinVariantAnnotation().setAlternate(alternateAA);
-                    consequenceType2.setProteinVariantAnnotation(consequenceType1.getProteinVariantAnnotation());
-                    consequenceType2.setSequenceOntologyTerms(soTerms);
-
-                    // Flag these transcripts as already updated for this variant
-                    flagTranscriptAnnotationUpdated(variant0, consequenceType1.getEnsemblTranscriptId());
-                    flagTranscriptAnnotationUpdated(variant1, consequenceType1.getEnsemblTranscriptId());
-
-                    variant0DisplayCTNeedsUpdate = true;
-                    variant1DisplayCTNeedsUpdate = true;
-                }
-            }
-        }
-
-        if (variant0DisplayCTNeedsUpdate) {
-            variant0.getAnnotation()
-                    .setDisplayConsequenceType(getMostSevereConsequenceType(variant0.getAnnotation()
-                            .getConsequenceTypes()));
-        }
-        if (variant1DisplayCTNeedsUpdate) {
-            variant1.getAnnotation()
-                    .setDisplayConsequenceType(getMostSevereConsequenceType(variant1.getAnnotation()
-                            .getConsequenceTypes()));
-        }
-        if (variant2DisplayCTNeedsUpdate) {
-            variant2.getAnnotation()
-                    .setDisplayConsequenceType(getMostSevereConsequenceType(variant2.getAnnotation()
-                            .getConsequenceTypes()));
-        }
-    }
-
-    private void flagTranscriptAnnotationUpdated(Variant variant, String ensemblTranscriptId) {
-        Map<String, AdditionalAttribute> additionalAttributesMap = variant.getAnnotation().getAdditionalAttributes();
-        if (additionalAttributesMap == null) {
-            additionalAttributesMap = new HashMap<>();
-            AdditionalAttribute additionalAttribute = new AdditionalAttribute();
-            Map<String, String> transcriptsSet = new HashMap<>();
-            transcriptsSet.put(ensemblTranscriptId, null);
-            additionalAttribute.setAttribute(transcriptsSet);
-            additionalAttributesMap.put("phasedTranscripts", additionalAttribute);
-            variant.getAnnotation().setAdditionalAttributes(additionalAttributesMap);
-        } else if (additionalAttributesMap.get("phasedTranscripts") == null) {
-            AdditionalAttribute additionalAttribute = new AdditionalAttribute();
-            Map<String, String> transcriptsSet = new HashMap<>();
-            transcriptsSet.put(ensemblTranscriptId, null);
-            additionalAttribute.setAttribute(transcriptsSet);
-            additionalAttributesMap.put("phasedTranscripts", additionalAttribute);
-        } else {
-            additionalAttributesMap.get("phasedTranscripts").getAttribute().put(ensemblTranscriptId, null);
-        }
-    }
-
-    private boolean transcriptAnnotationUpdated(Variant variant, String ensemblTranscriptId) {
-        if (variant.getAnnotation().getAdditionalAttributes() != null
-                && variant.getAnnotation().getAdditionalAttributes().get("phasedTranscripts") != null
-                && variant.getAnnotation().getAdditionalAttributes().get("phasedTranscripts")
-                    .getAttribute().containsKey(ensemblTranscriptId)) {
-            return true;
-        }
-        return false;
-    }
-
-    private int getUpperCaseLetterPosition(String string) {
-//        Pattern pat = Pattern.compile("G");
-        Pattern pat = Pattern.compile("[A,C,G,T]");
-        Matcher match = pat.matcher(string);
-        if (match.find()) {
-            return match.start();
-        } else {
-            return -1;
-        }
-    }
-
-    private ConsequenceType findCodingOverlappingConsequenceType(ConsequenceType consequenceType,
-                                                                 List<ConsequenceType> consequenceTypeList) {
-        for (ConsequenceType consequenceType1 : consequenceTypeList) {
-            if (isCoding(consequenceType1)
-                    && consequenceType.getEnsemblTranscriptId().equals(consequenceType1.getEnsemblTranscriptId())
-                    && consequenceType.getProteinVariantAnnotation().getPosition()
-                    .equals(consequenceType1.getProteinVariantAnnotation().getPosition())) {
-                return consequenceType1;
-            }
-        }
-        return null;
-    }
-
-    private boolean isCoding(ConsequenceType consequenceType) {
-        for (SequenceOntologyTerm sequenceOntologyTerm : consequenceType.getSequenceOntologyTerms()) {
-            if (VariantAnnotationUtils.CODING_SO_NAMES.contains(sequenceOntologyTerm.getName())) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    private List<SequenceOntologyTerm> updatePhasedSoTerms(List<SequenceOntologyTerm> sequenceOntologyTermList,
-                                                           String referenceCodon, String alternateCodon,
-                                                           Boolean useMitochondrialCode) {
-
-        // Removes all coding-associated SO terms
-        int i = 0;
-        do {
-            if (VariantAnnotationUtils.CODING_SO_NAMES.contains(sequenceOntologyTermList.get(i).getName())) {
-                sequenceOntologyTermList.remove(i);
-            } else {
-                i++;
-            }
-        } while(i < sequenceOntologyTermList.size());
-
-        // Add the new coding SO term as appropriate
-        String newSoName = null;
-        if (VariantAnnotationUtils.isSynonymousCodon(useMitochondrialCode, referenceCodon, alternateCodon)) {
-            if (VariantAnnotationUtils.isStopCodon(useMitochondrialCode, referenceCodon)) {
-                newSoName = VariantAnnotationUtils.STOP_RETAINED_VARIANT;
-            } else {  // coding end may be not correctly annotated (incomplete_terminal_codon_variant),
-                // but if the length of the cds%3=0, annotation should be synonymous variant
-                newSoName = VariantAnnotationUtils.SYNONYMOUS_VARIANT;
-            }
-        } else if (VariantAnnotationUtils.isStopCodon(useMitochondrialCode, referenceCodon)) {
-            newSoName = VariantAnnotationUtils.STOP_LOST;
-        } else if (VariantAnnotationUtils.isStopCodon(useMitochondrialCode, alternateCodon)) {
-            newSoName = VariantAnnotationUtils.STOP_GAINED;
-        } else {
-            newSoName = VariantAnnotationUtils.MISSENSE_VARIANT;
-        }
-        sequenceOntologyTermList
-                .add(new SequenceOntologyTerm(ConsequenceTypeMappings.getSoAccessionString(newSoName), newSoName));
-
-        return sequenceOntologyTermList;
-    }
-
-    private boolean potentialCodingSNVOverlap(Variant variant1, Variant variant2) {
-        return Math.abs(variant1.getStart() - variant2.getStart()) < 3
-                && variant1.getChromosome().equals(variant2.getChromosome())
-                && variant1.getType().equals(VariantType.SNV) && variant2.getType().equals(VariantType.SNV)
-                && samePhase(variant1, variant2);
-    }
-
-    private boolean samePhase(Variant variant1, Variant variant2) {
-        if (variant1.getStudies() != null && !variant1.getStudies().isEmpty()) {
-            if (variant2.getStudies() != null && !variant2.getStudies().isEmpty()) {
-                int psIdx1 = variant1.getStudies().get(0).getFormat().indexOf("PS");
-                if (psIdx1 != -1) {
-                    int psIdx2 = variant2.getStudies().get(0).getFormat().indexOf("PS");
-                    if (psIdx2 != -1 &&  // variant2 does have PS set
-                            // same phase set value in both variants
-                            variant2.getStudies().get(0).getSamplesData().get(0).get(psIdx2)
-                                    .equals(variant1.getStudies().get(0).getSamplesData().get(0).get(psIdx1))
-                            // Same genotype call in both variants (e.g. 1|0=1|0).
-                            // WARNING: assuming variant1 and variant2 do have Files.
-                            && variant1.getStudies().get(0).getFiles().get(0).getCall()
-                            .equals(variant2.getStudies().get(0).getFiles().get(0).getCall())) {
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
-    }
-
-    private String getMostSevereConsequenceType(List<ConsequenceType> consequenceTypeList) {
-        int max = -1;
-        String mostSevereConsequencetype = null;
-        for (ConsequenceType consequenceType : consequenceTypeList) {
-            for (SequenceOntologyTerm sequenceOntologyTerm : consequenceType.getSequenceOntologyTerms()) {
-                try {
-                    int rank = VariantAnnotationUtils.SO_SEVERITY.get(sequenceOntologyTerm.getName());
-                    if (rank > max) {
-                        max = rank;
-                        mostSevereConsequencetype = sequenceOntologyTerm.getName();
-                    }
-                } catch (Exception e) {
-                    int a = 1;
-                }
-            }
-        }
-
-        return mostSevereConsequencetype;
-    }
-
     private Set<String> getAnnotatorSet(QueryOptions queryOptions) {
         Set<String> annotatorSet;
         List<String> includeList = queryOptions.getAsStringList("include");
@@ -1024,6 +761,46 @@ public class VariantAnnotationCalculator {
         return includeGeneFields;
     }
 
+    private String getStructuralVariantGeneFields() {
+        String includeFields = TranscriptCoordinateIndex.COORDINATE_FIELDS;
+        if (annotatorSet.contains("expression")) {
+            includeFields += ",annotation.expression";
+        }
+        if (annotatorSet.contains("geneDisease")) {
+            includeFields += ",annotation.diseases";
+        }
+        if (annotatorSet.contains("drugInteraction")) {
+            includeFields += ",annotation.drugs";
+        }
+        return includeFields;
+    }
+
+    /**
+     * Region variants solved by the generic region and CNV gain calculators, i.e. CNVs not known to be losses,
+     * duplications and inversions, at least structuralVariantMinSize long. Deletions and CNV losses are left to the
+     * deletion calculator whatever their size: transcripts they truncate get codon level terms, e.g. start_lost or
+     * start_retained_variant, which need the genome sequence and cannot be told from transcript coordinates.
+     */
+    private boolean isLargeStructuralVariant(Variant variant) {
+        if (variant.getEnd() - variant.getStart() + 1 < structuralVariantMinSize) {
+            return false;
+        }
+        try {
+            switch (VariantAnnotationUtils.getVariantType(variant)) {
+                case CNV:
+                    return variant.getSv() == null || variant.getSv().getCopyNumber() == null
+                            || variant.getSv().getCopyNumber() > 2;
+                case DUPLICATION:
+                case INVERSION:
+                    return true;
+                default:
+                    return false;
+            }
+        } catch (UnsupportedURLVariantFormat e) {
+            return false;
+        }
+    }
+
     private List<Gene> getAffectedGenes(List<Gene> batchGeneList, Variant variant) {
         List<Gene> geneList = new ArrayList<>(batchGeneList.size());
         for (Gene gene : batchGeneList) {
@@ -1266,6 +1043,14 @@ public class VariantAnnotationCalculator {
         return consequenceTypeList;
     }
 
+    private List<ConsequenceType> getStructuralVariantConsequenceTypeList(Variant variant,
+                                                                          TranscriptCoordinateIndex transcriptCoordinateIndex) {
+        boolean gain = VariantAnnotationUtils.getVariantType(variant) == VariantType.DUPLICATION
+                || (variant.getSv() != null && variant.getSv().getCopyNumber() != null && variant.getSv().getCopyNumber() > 2);
+        return new ConsequenceTypeStructuralVariantCalculator(gain).run(variant, transcriptCoordinateIndex,
+                getRegulatoryRegionOverlaps(variant), QueryOptions.empty());
+    }
+
     private List<Region> variantListToRegionList(List<Variant> variantList) {
 //        return variantList.stream().map((variant) -> variantToRegion(variant)).collect(Collectors.toList());
 
@@ -1530,24 +1315,38 @@ public class VariantAnnotationCalculator {
 //            List<QueryResult> conservationQueryResultList = conservationDBAdaptor
 //                    .getAllScoresByRegionList(variantListToRegionList(variantList), queryOptions);
 
-            List<QueryResult> queryResultList = new ArrayList<>(variantList.size());
-
             logger.debug("Query conservation");
+            // Regions for all variants are queried at once, there may be more than one region per variant for breakends
+            List<Region> regionList = new ArrayList<>(variantList.size());
+            int[] numRegions = new int[variantList.size()];
+            for (int i = 0; i < variantList.size(); i++) {
+                List<Region> variantRegionList = variantToRegionList(variantList.get(i));
+                numRegions[i] = variantRegionList.size();
+                regionList.addAll(variantRegionList);
+            }
+            List<QueryResult> tmpQueryResultList = conservationDBAdaptor.getAllScoresByRegionList(regionList, queryOptions);
+
             // Want to return only one QueryResult object per Variant
-            for (Variant variant : variantList) {
-                List<QueryResult> tmpQueryResultList = conservationDBAdaptor
-                    .getAllScoresByRegionList(variantToRegionList(variant), queryOptions);
-                // There may be more than one QueryResult per variant for breakends
+            List<QueryResult> queryResultList = new ArrayList<>(variantList.size());
+            int regionIndex = 0;
+            for (int i = 0; i < variantList.size(); i++) {
                 // Reuse one of the QueryResult objects returned by the adaptor
-                QueryResult newQueryResult = tmpQueryResultList.get(0);
-                if (tmpQueryResultList.size() > 1) {
-                    // Reuse one of the QueryResult objects - new result is the set formed by the scores corresponding
-                    // to the two breakpoints
-                    newQueryResult.getResult().addAll(tmpQueryResultList.get(1).getResult());
-                    newQueryResult.setNumResults(newQueryResult.getResult().size());
-                    newQueryResult.setNumTotalResults(newQueryResult.getResult().size());
+                QueryResult newQueryResult = tmpQueryResultList.get(regionIndex);
+                for (int j = 1; j < numRegions[i]; j++) {
+                    // New result is the set formed by the scores corresponding to the two breakpoints
+                    List breakpointResult = tmpQueryResultList.get(regionIndex + j).getResult();
+                    if (breakpointResult != null) {
+                        if (newQueryResult.getResult() == null) {
+                            newQueryResult.setResult(new ArrayList<>(breakpointResult));
+                        } else {
+                            newQueryResult.getResult().addAll(breakpointResult);
+                        }
+                        newQueryResult.setNumResults(newQueryResult.getResult().size());
+                        newQueryResult.setNumTotalResults(newQueryResult.getResult().size());
+                    }
                 }
                 queryResultList.add(newQueryResult);
+                regionIndex += numRegions[i];
             }
 
             logger.debug("Conservation query performance is {}ms for {} variants", System.currentTimeMillis() - startTime,
@@ -1905,51 +1704,45 @@ public class VariantAnnotationCalculator {
         }
     }
 
-//    private class FutureHgvsAnnotator implements Callable<List<QueryResult<String>>> {
-//        private List<Variant> variantList;
-//        private QueryOptions queryOptions;
-//
-//        FutureHgvsAnnotator(List<Variant> variantList, QueryOptions queryOptions) {
-//            this.variantList = variantList;
-//            this.queryOptions = queryOptions;
-//        }
-//
-//        @Override
-//        public List<QueryResult<String>> call() throws Exception {
-//            long startTime = System.currentTimeMillis();
-//            List<QueryResult<String>> queryResultList = hgvsCalculator.run(variantList);
-//            logger.debug("HGVS query performance is {}ms for {} variants", System.currentTimeMillis() - startTime,
-//                    variantList.size());
-//            return queryResultList;
-//        }
-//
-//        public void processResults(Future<List<QueryResult<Cytoband>>> cytobandFuture,
-//                                   List<QueryResult<VariantAnnotation>> variantAnnotationResults)
-//                throws InterruptedException, ExecutionException {
-//            while (!cytobandFuture.isDone()) {
-//                Thread.sleep(1);
-//            }
-//
-//            List<QueryResult<Cytoband>> queryResultList = cytobandFuture.get();
-//            if (queryResultList != null) {
-//                if (queryResultList.isEmpty()) {
-//                    StringBuilder stringbuilder = new StringBuilder(variantList.get(0).toString());
-//                    for (int i = 1; i < variantList.size(); i++) {
-//                        stringbuilder.append(",").append(variantList.get(i).toString());
-//                    }
-//                    logger.warn("NO cytoband was found for any of these variants: {}", stringbuilder.toString());
-//                } else {
-//                    // Cytoband lists are returned in the same order in which variants are queried
-//                    for (int i = 0; i < variantAnnotationResults.size(); i++) {
-//                        QueryResult queryResult = queryResultList.get(i);
-//                        if (queryResult.getResult() != null && queryResult.getResult().size() > 0) {
-//                            variantAnnotationResults.get(i).getResult().get(0).setCytoband(queryResult.getResult());
-//                        }
-//                    }
-//                }
-//            }
-//        }
-//
-//    }
+    class FutureHgvsAnnotator implements Callable<List<List<String>>> {
+        private List<Variant> variantList;
+        private List<Gene> batchGeneList;
+
+        FutureHgvsAnnotator(List<Variant> variantList, List<Gene> batchGeneList) {
+            this.variantList = variantList;
+            this.batchGeneList = batchGeneList;
+        }
+
+        @Override
+        public List<List<String>> call() throws Exception {
+            long startTime = System.currentTimeMillis();
+            // Normalization is always set to false for a number of reasons:
+            //   * was raising problems with the normalizer - it could potentially fail in weird multiallelic
+            //     cases if the normalizer is called twice over the same variant,
+            //     i.e. normalize(normalize(variant)). Calling the normalizer twice happens when annotating from
+            //     a VCF, since normalization is carried out before sending variant to the VariantAnnotationCalculator.
+            //   * if normalize = true, the variants in variantList are already normalized for sure and should not be
+            //     normalized again.
+            //   * if normalize = false, then we could potentially find things like CT/C. In this case, the
+            //     annotator will consider this as an MNV and the rest of annotation will not exactly be what
+            //     a typical user would expect for the deletion of the T (which is what it is). Thus, we don't
+            //     really care that much at this point if the hgvs is not perfectly normalized. Knowing that
+            //     variants are not normalized the user should always select normalize=true.
+            List<List<String>> hgvsLists = hgvsCalculator.run(variantList, batchGeneList, false);
+            logger.debug("HGVS performance is {}ms for {} variants", System.currentTimeMillis() - startTime,
+                    variantList.size());
+            return hgvsLists;
+        }
+
+        public void processResults(Future<List<List<String>>> hgvsFuture,
+                                   List<QueryResult<VariantAnnotation>> variantAnnotationResults)
+                throws InterruptedException, ExecutionException {
+            // HGVS lists are returned in the same order in which variants are queried
+            List<List<String>> hgvsLists = hgvsFuture.get();
+            for (int i = 0; i < variantAnnotationResults.size(); i++) {
+                variantAnnotationResults.get(i).getResult().get(0).setHgvs(hgvsLists.get(i));
+            }
+        }
+    }
 }
 
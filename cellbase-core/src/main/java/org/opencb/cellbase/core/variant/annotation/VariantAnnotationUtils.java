@@ -600,4 +600,21 @@ public class VariantAnnotationUtils {
         return variant.getType();
 //        return getVariantType(variant.getReference(), variant.getAlternate());
     }
+
+    public static String getMostSevereConsequenceType(List<ConsequenceType> consequenceTypeList) {
+        int max = -1;
+        String mostSevereConsequencetype = null;
+        for (ConsequenceType consequenceType : consequenceTypeList) {
+            for (SequenceOntologyTerm sequenceOntologyTerm : consequenceType.getSequenceOntologyTerms()) {
+                // SO terms with no severity rank are skipped
+                Integer rank = SO_SEVERITY.get(sequenceOntologyTerm.getName());
+                if (rank != null && rank > max) {
+                    max = rank;
+                    mostSevereConsequencetype = sequenceOntologyTerm.getName();
+                }
+            }
+        }
+
+        return mostSevereConsequencetype;
+    }
 }
@@ -6,16 +6,16 @@ import org.opencb.biodata.models.core.Gene;
 import org.opencb.biodata.models.core.Transcript;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.tools.variant.VariantNormalizer;
+import org.opencb.biodata.tools.variant.exceptions.VariantNormalizerException;
 import org.opencb.cellbase.core.api.GenomeDBAdaptor;
 import org.opencb.cellbase.core.variant.annotation.UnsupportedURLVariantFormat;
 import org.opencb.cellbase.core.variant.annotation.VariantAnnotationUtils;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.List;
+import java.util.*;
 
 /**
  * Created by fjlopez on 26/01/17.
@@ -24,10 +24,27 @@ public class HgvsCalculator {
 
     private static Logger logger = LoggerFactory.getLogger(HgvsCalculator.class);
     protected static final int NEIGHBOURING_SEQUENCE_SIZE = 100;
+    // Neighbouring sequences closer than this are fetched in one single query, up to MAX_LOCUS_SIZE nts per query
+    private static final int MAX_LOCUS_GAP = 5000;
+    private static final int MAX_LOCUS_SIZE = 100000;
     protected GenomeDBAdaptor genomeDBAdaptor;
 
+    // Variant type calculators are stateless, the same instances are used for all variants
+    private HgvsCalculator snvCalculator;
+    private HgvsCalculator insertionCalculator;
+    private HgvsCalculator deletionCalculator;
+
     public HgvsCalculator(GenomeDBAdaptor genomeDBAdaptor) {
         this.genomeDBAdaptor = genomeDBAdaptor;
+        this.snvCalculator = new HgvsSNVCalculator(genomeDBAdaptor);
+        this.insertionCalculator = new HgvsInsertionCalculator(genomeDBAdaptor);
+        this.deletionCalculator = new HgvsDeletionCalculator(genomeDBAdaptor);
+    }
+
+    /**
+     * Constructor used by the variant type calculators, which set the genomeDBAdaptor themselves.
+     */
+    protected HgvsCalculator() {
     }
 
     // If allele is greater than this use allele length.
@@ -50,6 +67,65 @@ public class HgvsCalculator {
         return hgvsList;
     }
 
+    /**
+     * Calculates the HGVS of a batch of variants. Neighbouring sequences required by indels are fetched before
+     * calculating any HGVS, with one query per group of close indels instead of one query per variant and transcript.
+     *
+     * @param variantList list of variants
+     * @param geneList    genes overlapping the variants of the batch, each variant is only checked against the transcripts
+     *                    it overlaps
+     * @param normalize   whether variants must be normalized before calculating the HGVS
+     * @return one list of HGVS per variant, in the same order than variantList. Variants that cannot be normalized get
+     * an empty list
+     */
+    public List<List<String>> run(List<Variant> variantList, List<Gene> geneList, boolean normalize) {
+        List<Variant> normalizedVariantList = new ArrayList<>(variantList.size());
+        List<HgvsCalculator> hgvsCalculatorList = new ArrayList<>(variantList.size());
+        List<Variant> indelList = new ArrayList<>();
+        for (Variant variant : variantList) {
+            Variant normalizedVariant = null;
+            HgvsCalculator hgvsCalculator = null;
+            try {
+                normalizedVariant = normalize(variant, normalize);
+                hgvsCalculator = getHgvsCalculator(normalizedVariant);
+            } catch (VariantNormalizerException | UnsupportedURLVariantFormat e) {
+                logger.error("Unable to normalize variant {}. Leaving empty HGVS.", variant.toString());
+            }
+            normalizedVariantList.add(normalizedVariant);
+            hgvsCalculatorList.add(hgvsCalculator);
+            if (hgvsCalculator == insertionCalculator || hgvsCalculator == deletionCalculator) {
+                indelList.add(normalizedVariant);
+            }
+        }
+
+        Map<Variant, String> neighbouringSequences = getNeighbouringSequences(indelList);
+        List<List<String>> hgvsLists = new ArrayList<>(variantList.size());
+        for (int i = 0; i < normalizedVariantList.size(); i++) {
+            Variant normalizedVariant = normalizedVariantList.get(i);
+            HgvsCalculator hgvsCalculator = hgvsCalculatorList.get(i);
+            if (hgvsCalculator == null) {
+                hgvsLists.add(Collections.emptyList());
+                continue;
+            }
+
+            List<String> hgvsList = new ArrayList<>();
+            for (Gene gene : geneList) {
+                if (normalizedVariant.getChromosome().equals(gene.getChromosome())) {
+                    for (Transcript transcript : gene.getTranscripts()) {
+                        if (normalizedVariant.getStart() <= transcript.getEnd()
+                                && normalizedVariant.getEnd() >= transcript.getStart()) {
+                            hgvsList.addAll(hgvsCalculator.calculateTranscriptHgvs(normalizedVariant, transcript,
+                                    gene.getId(), neighbouringSequences.get(normalizedVariant)));
+                        }
+                    }
+                }
+            }
+            hgvsLists.add(hgvsList);
+        }
+
+        return hgvsLists;
+    }
+
     public List<String> run(Variant variant, Gene gene) {
         return run(variant, gene, true);
     }
@@ -78,16 +154,84 @@ public class HgvsCalculator {
         return Collections.emptyList();
     }
 
+    /**
+     * Calculates the HGVS of an already normalized variant for one transcript. Implemented by the variant type
+     * calculators.
+     *
+     * @param normalizedVariant    normalized variant
+     * @param transcript           transcript overlapping the variant
+     * @param geneId               id of the gene of the transcript
+     * @param neighbouringSequence genomic sequence from variant start - NEIGHBOURING_SEQUENCE_SIZE to variant start
+     *                             + NEIGHBOURING_SEQUENCE_SIZE, only used by indels
+     * @return list of HGVS strings
+     */
+    protected List<String> calculateTranscriptHgvs(Variant normalizedVariant, Transcript transcript, String geneId,
+                                                   String neighbouringSequence) {
+        return Collections.emptyList();
+    }
+
+    protected String getNeighbouringSequence(Variant variant) {
+        int start = Math.max(variant.getStart() - NEIGHBOURING_SEQUENCE_SIZE, 1);  // TODO: might need to adjust +-1 nt
+        int end = variant.getStart() + NEIGHBOURING_SEQUENCE_SIZE;                 // TODO: might need to adjust +-1 nt
+        return getGenomicSequence(variant.getChromosome(), start, end);
+    }
+
+    /**
+     * Fetches the neighbouring sequences of a list of indels. Indels are grouped by locus, one query is raised per
+     * group of indels closer than MAX_LOCUS_GAP nts and each neighbouring sequence is then cut from the locus sequence.
+     *
+     * @param indelList list of normalized indels
+     * @return map indel -> neighbouring sequence, as would be returned by getNeighbouringSequence
+     */
+    private Map<Variant, String> getNeighbouringSequences(List<Variant> indelList) {
+        Map<Variant, String> neighbouringSequences = new IdentityHashMap<>(indelList.size());
+        List<Variant> sortedIndelList = new ArrayList<>(indelList);
+        sortedIndelList.sort(Comparator.comparing(Variant::getChromosome).thenComparing(Variant::getStart));
+
+        int i = 0;
+        while (i < sortedIndelList.size()) {
+            // Extend the locus while the next indel is close enough
+            String chromosome = sortedIndelList.get(i).getChromosome();
+            int locusStart = Math.max(sortedIndelList.get(i).getStart() - NEIGHBOURING_SEQUENCE_SIZE, 1);
+            int locusEnd = sortedIndelList.get(i).getStart() + NEIGHBOURING_SEQUENCE_SIZE;
+            int j = i + 1;
+            while (j < sortedIndelList.size() && chromosome.equals(sortedIndelList.get(j).getChromosome())
+                    && sortedIndelList.get(j).getStart() - NEIGHBOURING_SEQUENCE_SIZE <= locusEnd + MAX_LOCUS_GAP
+                    && sortedIndelList.get(j).getStart() + NEIGHBOURING_SEQUENCE_SIZE - locusStart < MAX_LOCUS_SIZE) {
+                locusEnd = Math.max(locusEnd, sortedIndelList.get(j).getStart() + NEIGHBOURING_SEQUENCE_SIZE);
+                j++;
+            }
+
+            String locusSequence = getGenomicSequence(chromosome, locusStart, locusEnd);
+            for (int k = i; k < j; k++) {
+                Variant variant = sortedIndelList.get(k);
+                // Same coordinates used by getNeighbouringSequence. Sequence may be shorter than requested at the end
+                // of the chromosome
+                int start = Math.max(variant.getStart() - NEIGHBOURING_SEQUENCE_SIZE, 1) - locusStart;
+                int end = Math.min(variant.getStart() + NEIGHBOURING_SEQUENCE_SIZE - locusStart + 1, locusSequence.length());
+                neighbouringSequences.put(variant, locusSequence.substring(Math.min(start, end), end));
+            }
+            i = j;
+        }
+
+        return neighbouringSequences;
+    }
+
+    private String getGenomicSequence(String chromosome, int start, int end) {
+        Query query = new Query(GenomeDBAdaptor.QueryParams.REGION.key(), chromosome + ":" + start + "-" + end);
+        return genomeDBAdaptor.getGenomicSequence(query, new QueryOptions()).getResult().get(0).getSequence();
+    }
+
     private HgvsCalculator getHgvsCalculator(Variant normalizedVariant) {
 //        switch (VariantAnnotationUtils.getVariantType(normalizedVariant)) {
         switch (normalizedVariant.getType()) {
             case SNV:
-                return new HgvsSNVCalculator(genomeDBAdaptor);
+                return snvCalculator;
             case INDEL:
                 if (StringUtils.isBlank(normalizedVariant.getReference())) {
-                    return new HgvsInsertionCalculator(genomeDBAdaptor);
+                    return insertionCalculator;
                 } else if (StringUtils.isBlank(normalizedVariant.getAlternate())) {
-                    return new HgvsDeletionCalculator(genomeDBAdaptor);
+                    return deletionCalculator;
                 } else {
                     logger.debug("No HGVS implementation available for variant MNV. Returning empty list of HGVS "
                             + "identifiers.");
@@ -3,8 +3,6 @@ package org.opencb.cellbase.core.variant.annotation.hgvs;
 import org.opencb.biodata.models.core.Transcript;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.cellbase.core.api.GenomeDBAdaptor;
-import org.opencb.commons.datastore.core.Query;
-import org.opencb.commons.datastore.core.QueryOptions;
 
 import java.util.Collections;
 import java.util.List;
@@ -17,19 +15,21 @@ public class HgvsDeletionCalculator extends HgvsCalculator {
     private static final String DEL = "del";
 
     public HgvsDeletionCalculator(GenomeDBAdaptor genomeDBAdaptor) {
-        super(genomeDBAdaptor);
+        this.genomeDBAdaptor = genomeDBAdaptor;
     }
 
     @Override
     protected List<String> run(Variant variant, Transcript transcript, String geneId, boolean normalize) {
         Variant normalizedVariant = normalize(variant, normalize);
-        return calculateTranscriptHhgvs(normalizedVariant, transcript, geneId);
+        return calculateTranscriptHgvs(normalizedVariant, transcript, geneId, getNeighbouringSequence(normalizedVariant));
     }
 
-    private List<String> calculateTranscriptHhgvs(Variant variant, Transcript transcript, String geneId) {
+    @Override
+    protected List<String> calculateTranscriptHgvs(Variant variant, Transcript transcript, String geneId,
+                                                   String neighbouringSequence) {
         // Additional normalization required for insertions
         Variant normalizedVariant = new Variant();
-        String mutationType = hgvsNormalize(variant, transcript, normalizedVariant);
+        String mutationType = hgvsNormalize(variant, transcript, normalizedVariant, neighbouringSequence);
 
         // Populate HGVSName parse tree.
         HgvsStringBuilder hgvsStringBuilder = new HgvsStringBuilder();
@@ -50,14 +50,10 @@ public class HgvsDeletionCalculator extends HgvsCalculator {
 
     }
 
-    private String hgvsNormalize(Variant variant, Transcript transcript, Variant normalizedVariant) {
-        // Get genomic sequence around the lesion.
+    private String hgvsNormalize(Variant variant, Transcript transcript, Variant normalizedVariant,
+                                 String genomicSequence) {
+        // Genomic sequence around the lesion starts at this position, see getNeighbouringSequence
         int start = Math.max(variant.getStart() - NEIGHBOURING_SEQUENCE_SIZE, 1);  // TODO: might need to adjust +-1 nt
-        int end = variant.getStart() + NEIGHBOURING_SEQUENCE_SIZE;                 // TODO: might need to adjust +-1 nt
-        Query query = new Query(GenomeDBAdaptor.QueryParams.REGION.key(), variant.getChromosome()
-                + ":" + start + "-" + end);
-        String genomicSequence
-                = genomeDBAdaptor.getGenomicSequence(query, new QueryOptions()).getResult().get(0).getSequence();
 
         // Create normalizedVariant and justify sequence to the right/left as appropriate
         normalizedVariant.setChromosome(variant.getChromosome());
@@ -13,20 +13,22 @@ import java.util.List;
  */
 public class HgvsSNVCalculator extends HgvsCalculator {
     public HgvsSNVCalculator(GenomeDBAdaptor genomeDBAdaptor) {
-        super(genomeDBAdaptor);
+        this.genomeDBAdaptor = genomeDBAdaptor;
     }
 
     @Override
     protected List<String> run(Variant variant, Transcript transcript, String geneId, boolean normalize) {
         Variant normalizedVariant = normalize(variant, normalize);
-        return calculateTranscriptHgvs(normalizedVariant, transcript, geneId);
+        return calculateTranscriptHgvs(normalizedVariant, transcript, geneId, null);
     }
 
     /**
      * Generates cdna HGVS names from an SNV.
      * @param transcript Transcript object that will be used as a reference
      */
-    private List<String> calculateTranscriptHgvs(Variant variant, Transcript transcript, String geneId) {
+    @Override
+    protected List<String> calculateTranscriptHgvs(Variant variant, Transcript transcript, String geneId,
+                                                   String neighbouringSequence) {
 
         String mutationType = ">";
 
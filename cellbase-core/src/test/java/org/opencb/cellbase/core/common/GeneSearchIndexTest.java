@@ -0,0 +1,269 @@
+package org.opencb.cellbase.core.common;
+
+import org.junit.Test;
+import org.opencb.cellbase.core.common.GeneSearchIndex.Match;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class GeneSearchIndexTest {
+
+    @Test
+    public void prefix() throws Exception {
+        GeneSearchIndex index = createIndex();
+
+        assertEquals(Arrays.asList("BRCA1", "BRCA2", "BRCA1P1"), names(index.search("brca", 0, 10)));
+        assertEquals(Arrays.asList("BRCA1", "BRCA1P1"), names(index.search("BRCA1", 0, 10)));
+        assertEquals(Collections.singletonList("BRCA1"), names(index.search("BRCA", 0, 1)));
+        assertTrue(index.search("BRCX", 0, 10).isEmpty());
+        assertTrue(index.search("", 0, 10).isEmpty());
+
+        // Gene and transcript ids and xrefs, each gene returned once for its best match
+        List<Match> matches = index.search("ENSG000001396", 0, 10);
+        assertEquals(Collections.singletonList("BRCA2"), names(matches));
+        assertEquals(GeneSearchIndex.GENE_ID, matches.get(0).getType());
+        assertEquals("ENSG00000139618", matches.get(0).getTerm());
+        matches = index.search("p38398", 0, 10);
+        assertEquals(Collections.singletonList("BRCA1"), names(matches));
+        assertEquals(GeneSearchIndex.XREF, matches.get(0).getType());
+        assertEquals("P38398", matches.get(0).getTerm());
+        assertEquals("17", matches.get(0).getChromosome());
+        assertEquals(41196312, matches.get(0).getStart());
+        assertEquals(41277500, matches.get(0).getEnd());
+        assertEquals(Arrays.asList("BRCA1", "BRCA2"), names(index.search("ENST", 0, 10)));
+    }
+
+    @Test
+    public void ranking() throws Exception {
+        GeneSearchIndex index = createIndex();
+
+        // Exact matches first, then gene names before synonyms and shorter names first
+        List<Match> matches = index.search("TP53", 0, 10);
+        assertEquals(Arrays.asList("TP53", "TP53I3", "TP53BP1"), names(matches));
+        assertTrue(matches.get(0).isExact());
+        matches = index.search("P53", 0, 10);
+        assertEquals(Arrays.asList("TP53", "TP53BP1"), names(matches));
+        assertEquals("p53", matches.get(0).getTerm());
+        assertEquals(Arrays.asList("TP53", "TP53I3", "TP53BP1"), names(index.search("TP5", 0, 10)));
+    }
+
+    @Test
+    public void fuzzy() throws Exception {
+        GeneSearchIndex index = createIndex();
+
+        assertTrue(index.search("BRAC", 0, 10).isEmpty());
+        List<Match> matches = index.search("BRAC", 1, 10);
+        assertEquals(Arrays.asList("BRCA1", "BRCA2", "BRCA1P1"), names(matches).subList(0, 3));
+        for (Match match : matches) {
+            assertEquals(1, match.getEditDistance());
+        }
+        // Exact prefixes before typos
+        matches = index.search("TP53B", 1, 10);
+        assertEquals("TP53BP1", matches.get(0).getName());
+        assertEquals(0, matches.get(0).getEditDistance());
+        assertEquals(1, matches.get(1).getEditDistance());
+
+        assertEquals(Collections.singletonList("TP53BP1"), names(index.search("TP53BQ1", 1, 10)));
+        assertEquals(Collections.singletonList("TP53BP1"), names(index.search("TB53BQ1", 2, 10)));
+        assertTrue(index.search("TB53BQ1", 1, 10).isEmpty());
+        // Edits are capped and lowered for short queries
+        assertTrue(index.search("XXXBQ1", 5, 10).isEmpty());
+        assertTrue(index.search("TQ", 1, 10).isEmpty());
+        assertTrue(index.search("TB5Q", 2, 10).isEmpty());
+        assertEquals(Arrays.asList("TP53", "TP53I3", "TP53BP1"), names(index.search("TB53", 2, 10)));
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        GeneSearchIndex index = createIndex();
+
+        Path path = Files.createTempFile("gene", ".searchindex");
+        try {
+            index.save(path, "62000:5a1d2f0e");
+            assertEquals("62000:5a1d2f0e", GeneSearchIndex.readFingerprint(path));
+            GeneSearchIndex loaded = GeneSearchIndex.load(path);
+            assertEquals(index.size(), loaded.size());
+            assertEquals(index.getNumTerms(), loaded.getNumTerms());
+            for (String query : Arrays.asList("BRCA", "TP5", "P53", "ENST", "BRAC", "TB53BQ1")) {
+                assertEquals(index.search(query, 2, 10).toString(), loaded.search(query, 2, 10).toString());
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void registry() throws Exception {
+        GeneSearchIndex index = createIndex();
+        GeneSearchIndex.register("hsapiens", null, index);
+        try {
+            assertSame(index, GeneSearchIndex.get("hsapiens", ""));
+            assertNull(GeneSearchIndex.get("hsapiens", "GRCh38"));
+        } finally {
+            GeneSearchIndex.unregister("hsapiens", null);
+        }
+        assertNull(GeneSearchIndex.get("hsapiens", null));
+    }
+
+    @Test
+    public void latency() throws Exception {
+        GeneSearchIndex index = createSyntheticIndex(20000, new HashMap<>());
+        List<String> queries = createQueries(1000);
+
+        // Generous bounds, these are milliseconds per query against ~100 for the regex queries on the gene collection
+        assertTrue(averageMillis(index, queries, 0) < 5);
+        assertTrue(averageMillis(index, queries, 1) < 20);
+    }
+
+    @Test
+    public void matchesBruteForce() throws Exception {
+        Map<String, List<String>> termsByGene = new HashMap<>();
+        GeneSearchIndex index = createSyntheticIndex(500, termsByGene);
+
+        for (String query : createQueries(100)) {
+            for (int maxEdits = 0; maxEdits <= 1; maxEdits++) {
+                // Best edit distance of each gene, between the query and the beginning of any of its terms
+                Map<String, Integer> expected = new HashMap<>();
+                for (Map.Entry<String, List<String>> entry : termsByGene.entrySet()) {
+                    int distance = Integer.MAX_VALUE;
+                    for (String term : entry.getValue()) {
+                        distance = Math.min(distance, prefixDistance(query, term));
+                    }
+                    if (distance <= maxEdits) {
+                        expected.put(entry.getKey(), distance);
+                    }
+                }
+
+                List<Match> matches = index.search(query, maxEdits, Integer.MAX_VALUE);
+                Map<String, Integer> actual = new HashMap<>();
+                for (int i = 0; i < matches.size(); i++) {
+                    actual.put(matches.get(i).getId(), matches.get(i).getEditDistance());
+                    if (i > 0) {
+                        // Lower distances first, exact matches first within a distance
+                        Match previous = matches.get(i - 1);
+                        assertTrue(query, previous.getEditDistance() <= matches.get(i).getEditDistance());
+                        assertTrue(query, previous.getEditDistance() < matches.get(i).getEditDistance()
+                                || previous.isExact() || !matches.get(i).isExact());
+                    }
+                }
+                assertEquals(query + " " + maxEdits, expected, actual);
+            }
+        }
+    }
+
+    private static GeneSearchIndex createIndex() {
+        GeneSearchIndex.Builder builder = new GeneSearchIndex.Builder();
+        int brca2 = builder.addGene("ENSG00000139618", "BRCA2", "13", 32889611, 32973805);
+        builder.addTerm(brca2, "BRCA2", GeneSearchIndex.GENE_NAME)
+                .addTerm(brca2, "ENSG00000139618", GeneSearchIndex.GENE_ID)
+                .addTerm(brca2, "ENST00000380152", GeneSearchIndex.TRANSCRIPT)
+                .addTerm(brca2, "BRCA2-001", GeneSearchIndex.TRANSCRIPT)
+                .addTerm(brca2, "P51587", GeneSearchIndex.XREF)
+                .addTerm(brca2, "FANCD1", GeneSearchIndex.XREF);
+        int brca1 = builder.addGene("ENSG00000012048", "BRCA1", "17", 41196312, 41277500);
+        builder.addTerm(brca1, "BRCA1", GeneSearchIndex.GENE_NAME)
+                .addTerm(brca1, "ENSG00000012048", GeneSearchIndex.GENE_ID)
+                .addTerm(brca1, "ENST00000357654", GeneSearchIndex.TRANSCRIPT)
+                .addTerm(brca1, "P38398", GeneSearchIndex.XREF)
+                .addTerm(brca1, "BRCA1", GeneSearchIndex.XREF);
+        int brca1p1 = builder.addGene("ENSG00000267595", "BRCA1P1", "17", 41296973, 41322420);
+        builder.addTerm(brca1p1, "BRCA1P1", GeneSearchIndex.GENE_NAME)
+                .addTerm(brca1p1, "ENSG00000267595", GeneSearchIndex.GENE_ID);
+        int tp53 = builder.addGene("ENSG00000141510", "TP53", "17", 7565097, 7590856);
+        builder.addTerm(tp53, "TP53", GeneSearchIndex.GENE_NAME)
+                .addTerm(tp53, "p53", GeneSearchIndex.XREF)
+                .addTerm(tp53, "LFS1", GeneSearchIndex.XREF);
+        int tp53bp1 = builder.addGene("ENSG00000067369", "TP53BP1", "15", 43695262, 43802707);
+        builder.addTerm(tp53bp1, "TP53BP1", GeneSearchIndex.GENE_NAME)
+                .addTerm(tp53bp1, "P53BP1", GeneSearchIndex.XREF);
+        int tp53i3 = builder.addGene("ENSG00000115129", "TP53I3", "2", 24300720, 24308107);
+        builder.addTerm(tp53i3, "TP53I3", GeneSearchIndex.GENE_NAME)
+                .addTerm(tp53i3, "PIG3", GeneSearchIndex.XREF);
+        return builder.build();
+    }
+
+    // Terms of each gene id are added to termsByGene
+    private static GeneSearchIndex createSyntheticIndex(int numGenes, Map<String, List<String>> termsByGene) {
+        Random random = new Random(5);
+        GeneSearchIndex.Builder builder = new GeneSearchIndex.Builder();
+        for (int i = 0; i < numGenes; i++) {
+            String id = String.format("ENSG%011d", i);
+            String name = randomName(random);
+            List<String> terms = new ArrayList<>(Arrays.asList(name, id));
+            int gene = builder.addGene(id, name, "1", i * 1000 + 1, i * 1000 + 500);
+            builder.addTerm(gene, name, GeneSearchIndex.GENE_NAME)
+                    .addTerm(gene, id, GeneSearchIndex.GENE_ID);
+            for (int j = 0; j < 4; j++) {
+                String transcript = String.format("ENST%011d", i * 4 + j);
+                String xref = randomName(random);
+                String refseq = "NM_" + random.nextInt(1000000);
+                builder.addTerm(gene, transcript, GeneSearchIndex.TRANSCRIPT)
+                        .addTerm(gene, xref, GeneSearchIndex.XREF)
+                        .addTerm(gene, refseq, GeneSearchIndex.XREF);
+                terms.addAll(Arrays.asList(transcript, xref, refseq));
+            }
+            termsByGene.put(id, terms);
+        }
+        return builder.build();
+    }
+
+    private static List<String> createQueries(int numQueries) {
+        Random random = new Random(7);
+        List<String> queries = new ArrayList<>(numQueries);
+        for (int i = 0; i < numQueries; i++) {
+            String name = randomName(random);
+            queries.add(name.substring(0, 3 + random.nextInt(name.length() - 2)));
+        }
+        return queries;
+    }
+
+    private static String randomName(Random random) {
+        StringBuilder name = new StringBuilder();
+        int letters = 2 + random.nextInt(4);
+        for (int i = 0; i < letters; i++) {
+            name.append((char) ('A' + random.nextInt(26)));
+        }
+        return name.append(1 + random.nextInt(20)).toString();
+    }
+
+    // Lowest Levenshtein distance between the query and a non-empty prefix of the term, case insensitive
+    private static int prefixDistance(String query, String term) {
+        String a = query.toUpperCase(Locale.ROOT);
+        String b = term.toUpperCase(Locale.ROOT);
+        int[] row = new int[a.length() + 1];
+        for (int i = 0; i < row.length; i++) {
+            row[i] = i;
+        }
+        int distance = Integer.MAX_VALUE;
+        for (int j = 1; j <= b.length(); j++) {
+            int[] next = new int[row.length];
+            next[0] = j;
+            for (int i = 1; i < row.length; i++) {
+                next[i] = Math.min(Math.min(row[i] + 1, next[i - 1] + 1), row[i - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1));
+            }
+            row = next;
+            distance = Math.min(distance, row[a.length()]);
+        }
+        return distance;
+    }
+
+    private static double averageMillis(GeneSearchIndex index, List<String> queries, int maxEdits) {
+        // Warm up
+        for (String query : queries) {
+            index.search(query, maxEdits, 10);
+        }
+        long start = System.nanoTime();
+        for (String query : queries) {
+            index.search(query, maxEdits, 10);
+        }
+        return (System.nanoTime() - start) / 1e6 / queries.size();
+    }
+
+    private static List<String> names(List<Match> matches) {
+        return matches.stream().map(Match::getName).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,42 @@
+package org.opencb.cellbase.core.common;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class GenomicScoreCodecTest {
+
+    @Test
+    public void conservationRoundTrip() throws Exception {
+        List<Float> values = Arrays.asList(0.123f, -12.3f, 6.17f, 1f, 0f, null, Float.NaN, 100f);
+        byte[] bytes = GenomicScoreCodec.encodeConservation(values);
+
+        assertEquals(values.size() * 2, bytes.length);
+        assertEquals(values.size(), GenomicScoreCodec.getNumConservationValues(bytes));
+        assertEquals(0.123f, GenomicScoreCodec.decodeConservation(bytes, 0), 0.0005f);
+        assertEquals(-12.3f, GenomicScoreCodec.decodeConservation(bytes, 1), 0.0005f);
+        assertEquals(6.17f, GenomicScoreCodec.decodeConservation(bytes, 2), 0.0005f);
+        assertEquals(1f, GenomicScoreCodec.decodeConservation(bytes, 3), 0.0005f);
+        assertEquals(0f, GenomicScoreCodec.decodeConservation(bytes, 4), 0.0005f);
+        // Missing values
+        assertTrue(Float.isNaN(GenomicScoreCodec.decodeConservation(bytes, 5)));
+        assertTrue(Float.isNaN(GenomicScoreCodec.decodeConservation(bytes, 6)));
+        // Out of range values are clamped
+        assertEquals(Short.MAX_VALUE / GenomicScoreCodec.CONSERVATION_RESOLUTION,
+                GenomicScoreCodec.decodeConservation(bytes, 7), 0.0005f);
+    }
+
+    @Test
+    public void caddRoundTrip() throws Exception {
+        List<Long> values = Arrays.asList(2909650398779952672L, 0L, -1L, Long.MIN_VALUE, 421650576018505728L);
+        byte[] bytes = GenomicScoreCodec.encodeCadd(values);
+
+        assertEquals(values.size(), GenomicScoreCodec.getNumCaddValues(bytes));
+        for (int i = 0; i < values.size(); i++) {
+            assertEquals(values.get(i).longValue(), GenomicScoreCodec.decodeCadd(bytes, i));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.opencb.cellbase.core.common;
+
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class HistogramPyramidTest {
+
+    private static final int CHROMOSOME_LENGTH = 5000000;
+
+    @Test
+    public void alignedRangesAreExact() throws Exception {
+        int[] starts = createStarts(20000, 11);
+        HistogramPyramid pyramid = build(starts);
+
+        // One feature out of ten is added to chromosome X too
+        assertEquals(starts.length + starts.length / 10, pyramid.size());
+        Random random = new Random(3);
+        for (int i = 0; i < 1000; i++) {
+            int start = random.nextInt(CHROMOSOME_LENGTH / HistogramPyramid.BIN_SIZE) * HistogramPyramid.BIN_SIZE;
+            int end = start + (random.nextInt(4096) + 1) * HistogramPyramid.BIN_SIZE - 1;
+            assertEquals(start + "-" + end, countStarts(starts, start, end), pyramid.count("1", start, end));
+        }
+        assertEquals(starts.length, pyramid.count("1", 0, Integer.MAX_VALUE));
+        assertEquals(0, pyramid.count("2", 0, Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void intervalsMatchAggregation() throws Exception {
+        int[] starts = createStarts(20000, 13);
+        HistogramPyramid pyramid = build(starts);
+
+        // Chunks of floor(start / interval) as grouped by the histogram aggregation, for power of two intervals
+        for (int interval = HistogramPyramid.BIN_SIZE; interval <= 1 << 22; interval <<= 1) {
+            long[] chunks = new long[CHROMOSOME_LENGTH / interval + 1];
+            for (int start : starts) {
+                chunks[start / interval]++;
+            }
+            for (int chunkId = 0; chunkId < chunks.length; chunkId++) {
+                assertEquals(chunks[chunkId], pyramid.count("1", chunkId * interval, chunkId * interval + interval - 1));
+            }
+        }
+    }
+
+    @Test
+    public void unalignedIntervalsCountEachFeatureOnce() throws Exception {
+        int[] starts = createStarts(20000, 17);
+        HistogramPyramid pyramid = build(starts);
+
+        int interval = 200000;
+        long total = 0;
+        for (int chunkStart = 0; chunkStart < CHROMOSOME_LENGTH; chunkStart += interval) {
+            long count = pyramid.count("1", chunkStart, chunkStart + interval - 1);
+            // Off by the features of at most one bin at each side
+            assertEquals(countStarts(starts, chunkStart, chunkStart + interval - 1), count, 2 * maxBinCount(starts));
+            total += count;
+        }
+        assertEquals(starts.length, total);
+    }
+
+    @Test
+    public void anyRangeCountsFeaturesOfBinsStartingInIt() throws Exception {
+        int[] starts = createStarts(20000, 29);
+        HistogramPyramid pyramid = build(starts);
+
+        Random random = new Random(31);
+        for (int i = 0; i < 2000; i++) {
+            int start = random.nextInt(CHROMOSOME_LENGTH + 10000) - 5000;
+            int end = start + random.nextInt(i % 2 == 0 ? 10000 : CHROMOSOME_LENGTH);
+            assertEquals(start + "-" + end, countBinStarts(starts, start, end), pyramid.count("1", start, end));
+        }
+        assertEquals(0, pyramid.count("1", 2000, 1000));
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        int[] starts = createStarts(5000, 19);
+        HistogramPyramid pyramid = build(starts);
+
+        Path path = Files.createTempFile("histogram", ".pyramid");
+        try {
+            pyramid.save(path, "180000:5a1d2f0e");
+            assertEquals("180000:5a1d2f0e", HistogramPyramid.readFingerprint(path));
+            HistogramPyramid loaded = HistogramPyramid.load(path);
+            assertEquals(pyramid.size(), loaded.size());
+            assertEquals(pyramid.getChromosomes(), loaded.getChromosomes());
+            for (int start = 0; start < CHROMOSOME_LENGTH; start += 65536) {
+                assertEquals(pyramid.count("1", start, start + 65535), loaded.count("1", start, start + 65535));
+                assertEquals(pyramid.count("X", start, start + 65535), loaded.count("X", start, start + 65535));
+            }
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Test
+    public void registry() throws Exception {
+        HistogramPyramid pyramid = build(createStarts(10, 23));
+        HistogramPyramid.register("hsapiens", null, "gene", pyramid);
+
+        assertSame(pyramid, HistogramPyramid.get("hsapiens", "", "gene"));
+        assertSame(pyramid, HistogramPyramid.get("hsapiens", "default", "gene"));
+        assertNull(HistogramPyramid.get("hsapiens", "GRCh38", "gene"));
+        assertNull(HistogramPyramid.get("hsapiens", null, "variation"));
+    }
+
+    private static HistogramPyramid build(int[] starts) {
+        HistogramPyramid.Builder builder = new HistogramPyramid.Builder();
+        for (int i = 0; i < starts.length; i++) {
+            builder.add("1", starts[i]);
+            if (i % 10 == 0) {
+                builder.add("X", starts[i] / 2);
+            }
+        }
+        return builder.build();
+    }
+
+    private static int[] createStarts(int size, long seed) {
+        Random random = new Random(seed);
+        int[] starts = new int[size];
+        for (int i = 0; i < size; i++) {
+            starts[i] = random.nextInt(CHROMOSOME_LENGTH) + 1;
+        }
+        return starts;
+    }
+
+    private static long countStarts(int[] starts, int from, int to) {
+        long count = 0;
+        for (int start : starts) {
+            if (start >= from && start <= to) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Features whose bin starts within the range, one by one
+    private static long countBinStarts(int[] starts, int from, int to) {
+        long count = 0;
+        for (int start : starts) {
+            int binStart = start / HistogramPyramid.BIN_SIZE * HistogramPyramid.BIN_SIZE;
+            if (binStart >= from && binStart <= to) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static long maxBinCount(int[] starts) {
+        Map<Integer, Integer> bins = new HashMap<>();
+        for (int start : starts) {
+            bins.merge(start / HistogramPyramid.BIN_SIZE, 1, Integer::sum);
+        }
+        return Collections.max(bins.values());
+    }
+}
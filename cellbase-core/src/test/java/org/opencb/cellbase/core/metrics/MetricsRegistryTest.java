@@ -0,0 +1,61 @@
+package org.opencb.cellbase.core.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void histogramPercentiles() throws Exception {
+        Histogram histogram = new Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500.5, histogram.getMean(), 0.001);
+        assertEquals(1000, histogram.getMax());
+        // Buckets have a relative error below 25%
+        assertEquals(500, histogram.get50thPercentile(), 125);
+        assertEquals(990, histogram.get99thPercentile(), 250);
+        assertTrue(histogram.get99thPercentile() <= histogram.getMax());
+    }
+
+    @Test
+    public void bucketBounds() throws Exception {
+        long previousUpperBound = -1;
+        for (int i = 0; i < 200; i++) {
+            long upperBound = Histogram.getBucketUpperBound(i);
+            assertTrue(upperBound > previousUpperBound);
+            assertEquals(i, Histogram.getBucketIndex(upperBound));
+            assertEquals(i, Histogram.getBucketIndex(previousUpperBound + 1));
+            previousUpperBound = upperBound;
+        }
+    }
+
+    @Test
+    public void instrument() throws Exception {
+        MetricsRegistry metricsRegistry = new MetricsRegistry(false);
+        Callable<String> callable = metricsRegistry.instrument(Callable.class, () -> "done", "test");
+
+        MetricsRegistry.resetThreadDBCalls();
+        assertEquals("done", callable.call());
+        assertEquals("done", callable.call());
+        assertEquals(2, MetricsRegistry.getThreadDBCalls());
+
+        Timer timer = metricsRegistry.timer("test.Callable.call");
+        assertEquals(2, timer.getCount());
+
+        metricsRegistry.timer("other").record(3, TimeUnit.MILLISECONDS);
+        metricsRegistry.gauge("gauge", () -> 7);
+        Map<String, Object> snapshot = metricsRegistry.snapshot();
+        assertEquals(7.0, snapshot.get("gauge"));
+        assertEquals(3.0, (Double) ((Map) snapshot.get("other")).get("maxMs"), 0.001);
+        assertTrue(snapshot.containsKey("test.Callable.call"));
+    }
+}
@@ -0,0 +1,52 @@
+package org.opencb.cellbase.core.monitor;
+
+import org.junit.Test;
+import org.opencb.cellbase.core.monitor.HealthStatus.ApplicationDetails.DependenciesStatus.DatastoreDependenciesStatus.DatastoreStatus;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HealthSampleTest {
+
+    @Test
+    public void update() throws Exception {
+        HealthSample healthSample = new HealthSample("hsapiens", "GRCh37");
+        assertNull(healthSample.getDependenciesStatus());
+
+        for (int i = 0; i < 5; i++) {
+            assertFalse(healthSample.update(createStatusMap("10ms"), 1000 + i));
+        }
+        assertEquals(1004, healthSample.getSampledAt());
+        assertEquals("10ms", healthSample.getDependenciesStatus().getDatastores().getMongodb().get("host1")
+                .getAverageResponseTime());
+
+        // Sudden increase of the response time
+        assertTrue(healthSample.update(createStatusMap("100ms"), 2000));
+        assertEquals("25ms", healthSample.getDependenciesStatus().getDatastores().getMongodb().get("host1")
+                .getAverageResponseTime());
+
+        // Member not responding
+        assertTrue(healthSample.update(createStatusMap(null), 3000));
+        // Status could not be sampled at all
+        assertTrue(healthSample.update(null, 4000));
+        assertNull(healthSample.getDependenciesStatus().getDatastores().getMongodb());
+    }
+
+    @Test
+    public void parseResponseTime() throws Exception {
+        assertEquals(Long.valueOf(12), HealthSample.parseResponseTime("12ms"));
+        assertEquals(Long.valueOf(12), HealthSample.parseResponseTime("12"));
+        assertNull(HealthSample.parseResponseTime("fast"));
+        assertNull(HealthSample.parseResponseTime(null));
+    }
+
+    private Map<String, DatastoreStatus> createStatusMap(String responseTime) {
+        DatastoreStatus datastoreStatus = new DatastoreStatus();
+        datastoreStatus.setResponseTime(responseTime);
+        Map<String, DatastoreStatus> statusMap = new HashMap<>();
+        statusMap.put("host1", datastoreStatus);
+        return statusMap;
+    }
+}
@@ -0,0 +1,97 @@
+package org.opencb.cellbase.core.variant.annotation;
+
+import org.junit.Test;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.Variant;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CellBaseNormalizerSequenceAdaptorPrefetchTest {
+
+    private static final String CHROMOSOME_1 = createSequence(10000);
+
+    @Test
+    public void prefetchMergesWindows() throws Exception {
+        GenomeDBAdaptorStub genomeDBAdaptor = createGenomeDBAdaptor();
+        List<Region> fetched = genomeDBAdaptor.getFetched();
+        CellBaseNormalizerSequenceAdaptor sequenceAdaptor = new CellBaseNormalizerSequenceAdaptor(genomeDBAdaptor, 10);
+
+        sequenceAdaptor.prefetch(Arrays.asList(
+                new Variant("1:100:A:-"),
+                new Variant("1:115:-:TT"),
+                new Variant("1:500:C:T"),
+                new Variant("1:5000:ACG:A")));
+        // Windows of the first two indels overlap, SNVs are not left aligned
+        assertEquals(Arrays.asList("1:90-125", "1:4990-5012"), toStrings(fetched));
+
+        fetched.clear();
+        assertEquals(CHROMOSOME_1.substring(89, 125), sequenceAdaptor.query("1", 90, 125));
+        assertEquals(CHROMOSOME_1.substring(99, 110), sequenceAdaptor.query("1", 100, 110));
+        assertEquals(CHROMOSOME_1.substring(4994, 5002), sequenceAdaptor.query("1", 4995, 5002));
+        assertTrue(fetched.isEmpty());
+
+        // Left alignment running past the window
+        assertEquals(CHROMOSOME_1.substring(79, 110), sequenceAdaptor.query("1", 80, 110));
+        assertEquals(Collections.singletonList("1:80-110"), toStrings(fetched));
+    }
+
+    @Test
+    public void chromosomeBounds() throws Exception {
+        GenomeDBAdaptorStub genomeDBAdaptor = createGenomeDBAdaptor();
+        List<Region> fetched = genomeDBAdaptor.getFetched();
+        CellBaseNormalizerSequenceAdaptor sequenceAdaptor = new CellBaseNormalizerSequenceAdaptor(genomeDBAdaptor, 10);
+
+        sequenceAdaptor.prefetch(Arrays.asList(new Variant("1:3:A:-"), new Variant("1:9995:A:-"), new Variant("2:100:A:-")));
+        assertEquals(Arrays.asList("1:1-13", "1:9985-10005", "2:90-110"), toStrings(fetched));
+
+        fetched.clear();
+        assertEquals(CHROMOSOME_1.substring(0, 5), sequenceAdaptor.query("1", 1, 5));
+        assertTrue(fetched.isEmpty());
+        // Beyond the end of the chromosome, available nucleotides are returned by the database as before
+        assertEquals(CHROMOSOME_1.substring(9989), sequenceAdaptor.query("1", 9990, 10005));
+        assertEquals(Collections.singletonList("1:9990-10005"), toStrings(fetched));
+
+        try {
+            sequenceAdaptor.query("2", 95, 100);
+            fail();
+        } catch (RuntimeException e) {
+            assertEquals("Unable to find entry for 2:95-100", e.getMessage());
+        }
+    }
+
+    @Test
+    public void prefetchReplacesPreviousBatch() throws Exception {
+        GenomeDBAdaptorStub genomeDBAdaptor = createGenomeDBAdaptor();
+        List<Region> fetched = genomeDBAdaptor.getFetched();
+        CellBaseNormalizerSequenceAdaptor sequenceAdaptor = new CellBaseNormalizerSequenceAdaptor(genomeDBAdaptor, 10);
+
+        sequenceAdaptor.prefetch(Collections.singletonList(new Variant("1:100:A:-")));
+        sequenceAdaptor.prefetch(Collections.singletonList(new Variant("1:200:A:-")));
+        fetched.clear();
+        sequenceAdaptor.query("1", 95, 100);
+        assertEquals(Collections.singletonList("1:95-100"), toStrings(fetched));
+    }
+
+    private static GenomeDBAdaptorStub createGenomeDBAdaptor() {
+        return new GenomeDBAdaptorStub(Collections.singletonMap("1", CHROMOSOME_1));
+    }
+
+    private static List<String> toStrings(List<Region> regions) {
+        List<String> strings = new ArrayList<>();
+        for (Region region : regions) {
+            strings.add(region.toString());
+        }
+        return strings;
+    }
+
+    private static String createSequence(int length) {
+        Random random = new Random(7);
+        StringBuilder sequence = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sequence.append("ACGT".charAt(random.nextInt(4)));
+        }
+        return sequence.toString();
+    }
+}
@@ -0,0 +1,252 @@
+package org.opencb.cellbase.core.variant.annotation;
+
+import org.junit.Test;
+import org.opencb.biodata.models.core.Exon;
+import org.opencb.biodata.models.core.Gene;
+import org.opencb.biodata.models.core.Transcript;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.ConsequenceType;
+import org.opencb.biodata.models.variant.avro.ExonOverlap;
+import org.opencb.biodata.models.variant.avro.SequenceOntologyTerm;
+import org.opencb.cellbase.core.variant.annotation.TranscriptCoordinateIndex.TranscriptCoordinates;
+import org.opencb.commons.datastore.core.QueryOptions;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ConsequenceTypeStructuralVariantCalculatorTest {
+
+    private static final boolean[] NO_REGULATORY_OVERLAP = {false, false};
+    private static final int[] VARIANT_SIZES = {1000, 10000, 100000, 1000000, 10000000, 50000000};
+
+    @Test
+    public void transcriptOverlaps() throws Exception {
+        // Coding transcript in the positive strand, non-coding transcript in the negative strand
+        Gene gene1 = createGene("ENSG01", 10001, 20000, Collections.singletonList(createTranscript("ENST01", "+",
+                VariantAnnotationUtils.PROTEIN_CODING, 10201, 19500,
+                new int[][]{{10001, 10500}, {12001, 12500}, {15001, 15500}, {19001, 20000}})));
+        Gene gene2 = createGene("ENSG02", 30001, 35000, Collections.singletonList(createTranscript("ENST02", "-",
+                VariantAnnotationUtils.LINCRNA, 0, 0, new int[][]{{34001, 35000}, {30001, 31000}})));
+        TranscriptCoordinateIndex transcriptIndex = TranscriptCoordinateIndex.build(Arrays.asList(gene1, gene2));
+        assertEquals(2, transcriptIndex.size());
+
+        List<ConsequenceType> consequenceTypes = run(new Variant("1:12251-26000:<INV>"), false, transcriptIndex);
+        assertEquals(2, consequenceTypes.size());
+        ConsequenceType consequenceType = consequenceTypes.get(0);
+        assertEquals("ENST01", consequenceType.getEnsemblTranscriptId());
+        assertEquals(new HashSet<>(Arrays.asList(VariantAnnotationUtils.INTRON_VARIANT,
+                VariantAnnotationUtils.CODING_SEQUENCE_VARIANT, VariantAnnotationUtils.TERMINATOR_CODON_VARIANT,
+                VariantAnnotationUtils.THREE_PRIME_UTR_VARIANT)), getSoNames(consequenceType));
+        assertEquals(Arrays.asList("2/4", "3/4", "4/4"), consequenceType.getExonOverlap().stream()
+                .map(ExonOverlap::getNumber).collect(Collectors.toList()));
+        assertEquals(50f, consequenceType.getExonOverlap().get(0).getPercentage(), 0.001);
+        assertEquals(100f, consequenceType.getExonOverlap().get(2).getPercentage(), 0.001);
+        // Flanking region of a negative strand transcript, 3kb away from its start
+        assertEquals("ENST02", consequenceTypes.get(1).getEnsemblTranscriptId());
+        assertEquals(Collections.singleton(VariantAnnotationUtils.DOWNSTREAM_GENE_VARIANT), getSoNames(consequenceTypes.get(1)));
+
+        // Within an intron of a non-coding transcript
+        consequenceTypes = run(new Variant("1:31501-33000:<INV>"), false, transcriptIndex);
+        assertEquals(1, consequenceTypes.size());
+        assertEquals(new HashSet<>(Arrays.asList(VariantAnnotationUtils.INTRON_VARIANT,
+                VariantAnnotationUtils.NON_CODING_TRANSCRIPT_VARIANT)), getSoNames(consequenceTypes.get(0)));
+        assertNull(consequenceTypes.get(0).getExonOverlap());
+
+        // Whole transcripts
+        consequenceTypes = run(new Variant("1:5001-40000:<CN4>"), true, transcriptIndex);
+        assertEquals(2, consequenceTypes.size());
+        for (ConsequenceType wholeTranscript : consequenceTypes) {
+            assertEquals(Collections.singleton(VariantAnnotationUtils.TRANSCRIPT_AMPLIFICATION), getSoNames(wholeTranscript));
+        }
+        consequenceTypes = run(new Variant("1:5001-40000:<INV>"), false, transcriptIndex);
+        assertEquals(Collections.singleton(VariantAnnotationUtils.STRUCTURAL_VARIANT), getSoNames(consequenceTypes.get(1)));
+
+        consequenceTypes = run(new Variant("1:50001-60000:<INV>"), false, transcriptIndex);
+        assertEquals(1, consequenceTypes.size());
+        assertNull(consequenceTypes.get(0).getEnsemblTranscriptId());
+        assertEquals(Collections.singleton(VariantAnnotationUtils.INTERGENIC_VARIANT), getSoNames(consequenceTypes.get(0)));
+    }
+
+    @Test
+    public void indexOverlaps() throws Exception {
+        TranscriptCoordinateIndex transcriptIndex = TranscriptCoordinateIndex.build(Arrays.asList(
+                createGene("A", 100, 200, Collections.singletonList(createTranscript("A", "+", VariantAnnotationUtils.LINCRNA,
+                        0, 0, new int[][]{{100, 200}}))),
+                createGene("B", 150, 100000, Collections.singletonList(createTranscript("B", "+", VariantAnnotationUtils.LINCRNA,
+                        0, 0, new int[][]{{150, 100000}}))),
+                createGene("C", 5000, 6000, Collections.singletonList(createTranscript("C", "+", VariantAnnotationUtils.LINCRNA,
+                        0, 0, new int[][]{{5000, 6000}})))));
+
+        assertEquals(Collections.singletonList("B"), getIds(transcriptIndex.getOverlapping("1", 7000, 8000)));
+        assertEquals(Collections.singletonList("A"), getIds(transcriptIndex.getOverlapping("1", 50, 120)));
+        assertEquals(Arrays.asList("A", "B", "C"), getIds(transcriptIndex.getOverlapping("1", 190, 5000)));
+        assertTrue(transcriptIndex.getOverlapping("1", 100001, 200000).isEmpty());
+        assertTrue(transcriptIndex.getOverlapping("2", 1, 200000).isEmpty());
+    }
+
+    @Test
+    public void variantSizes() throws Exception {
+        List<Gene> genes = createGenes(60000000, false);
+        TranscriptCoordinateIndex transcriptIndex = TranscriptCoordinateIndex.build(genes);
+        for (int size : VARIANT_SIZES) {
+            int start = 1003001;
+            int end = start + size - 1;
+            List<ConsequenceType> consequenceTypes = run(new Variant("1:" + start + "-" + end + ":<INV>"), false,
+                    transcriptIndex);
+
+            // Every transcript within 5kb gets a consequence type
+            int numTranscripts = 0;
+            int numWholeTranscripts = 0;
+            for (Gene gene : genes) {
+                for (Transcript transcript : gene.getTranscripts()) {
+                    if (transcript.getStart() <= end + 5000 && transcript.getEnd() >= start - 5000) {
+                        numTranscripts++;
+                    }
+                    if (start <= transcript.getStart() && end >= transcript.getEnd()) {
+                        numWholeTranscripts++;
+                    }
+                }
+            }
+            assertEquals("Variant size " + size, numTranscripts, consequenceTypes.size());
+            assertEquals("Variant size " + size, numWholeTranscripts, consequenceTypes.stream()
+                    .filter(consequenceType -> getSoNames(consequenceType).contains(VariantAnnotationUtils.STRUCTURAL_VARIANT))
+                    .count());
+        }
+    }
+
+    @Test
+    public void sameTermsAsGenericRegionAndCNVGainCalculators() throws Exception {
+        List<Gene> genes = createGenes(200000, true);
+        TranscriptCoordinateIndex transcriptIndex = TranscriptCoordinateIndex.build(genes);
+        // Breakpoints relative to the gene start: 5' UTR, start codon exon, first intron, coding exon, last intron,
+        // stop codon exon, 3' UTR, between both transcripts, non-coding exon, non-coding intron and past the gene
+        int[] offsets = {50, 150, 1000, 4100, 7000, 8050, 8150, 9000, 11100, 12500, 16000};
+        int geneStart = 40001;
+        List<int[]> breakpoints = new ArrayList<>();
+        for (int i = 0; i < offsets.length; i++) {
+            for (int j = i + 1; j < offsets.length; j++) {
+                breakpoints.add(new int[]{geneStart + offsets[i], geneStart + offsets[j]});
+            }
+            for (int offset : offsets) {
+                breakpoints.add(new int[]{geneStart + offsets[i], geneStart + 20000 + offset});
+                breakpoints.add(new int[]{geneStart + offsets[i], geneStart + 60000 + offset});
+            }
+        }
+
+        for (int[] breakpoint : breakpoints) {
+            Variant inversion = new Variant("1:" + breakpoint[0] + "-" + breakpoint[1] + ":<INV>");
+            assertEquals(inversion.toString(), getSoNamesByTranscript(new ConsequenceTypeGenericRegionCalculator()
+                            .run(inversion, getGenes(genes, inversion), NO_REGULATORY_OVERLAP, QueryOptions.empty())),
+                    getSoNamesByTranscript(run(inversion, false, transcriptIndex)));
+
+            Variant gain = new Variant("1:" + breakpoint[0] + "-" + breakpoint[1] + ":<CN4>");
+            assertEquals(gain.toString(), getSoNamesByTranscript(new ConsequenceTypeCNVGainCalculator()
+                            .run(gain, getGenes(genes, gain), NO_REGULATORY_OVERLAP, QueryOptions.empty())),
+                    getSoNamesByTranscript(run(gain, true, transcriptIndex)));
+        }
+    }
+
+    private static List<ConsequenceType> run(Variant variant, boolean gain, TranscriptCoordinateIndex transcriptIndex) {
+        return new ConsequenceTypeStructuralVariantCalculator(gain).run(variant, transcriptIndex, NO_REGULATORY_OVERLAP,
+                QueryOptions.empty());
+    }
+
+    private static Set<String> getSoNames(ConsequenceType consequenceType) {
+        return consequenceType.getSequenceOntologyTerms().stream().map(SequenceOntologyTerm::getName).collect(Collectors.toSet());
+    }
+
+    private static Map<String, Set<String>> getSoNamesByTranscript(List<ConsequenceType> consequenceTypes) {
+        Map<String, Set<String>> soNames = new HashMap<>();
+        for (ConsequenceType consequenceType : consequenceTypes) {
+            soNames.put(consequenceType.getEnsemblTranscriptId(), getSoNames(consequenceType));
+        }
+        return soNames;
+    }
+
+    // Genes passed to the other calculators, as fetched for the variant with 5kb flanks
+    private static List<Gene> getGenes(List<Gene> genes, Variant variant) {
+        return genes.stream()
+                .filter(gene -> gene.getStart() <= variant.getEnd() + 5000 && gene.getEnd() >= variant.getStart() - 5000)
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> getIds(List<TranscriptCoordinates> transcripts) {
+        return transcripts.stream().map(TranscriptCoordinates::getId).collect(Collectors.toList());
+    }
+
+    /**
+     * A gene every 20kb with a coding transcript in the positive strand and a non-coding one in the negative strand,
+     * five 200bp exons each.
+     */
+    private static List<Gene> createGenes(int chromosomeSize, boolean withSequences) {
+        List<Gene> genes = new ArrayList<>();
+        for (int geneStart = 1; geneStart + 20000 <= chromosomeSize; geneStart += 20000) {
+            int[][] positiveExons = new int[5][];
+            int[][] negativeExons = new int[5][];
+            for (int i = 0; i < 5; i++) {
+                positiveExons[i] = new int[]{geneStart + i * 2000, geneStart + i * 2000 + 199};
+                negativeExons[4 - i] = new int[]{geneStart + 10000 + i * 1000, geneStart + 10000 + i * 1000 + 199};
+            }
+            String id = "ENSG" + geneStart;
+            List<Transcript> transcripts = Arrays.asList(
+                    createTranscript(id + ".1", "+", VariantAnnotationUtils.PROTEIN_CODING, geneStart + 100, geneStart + 8100,
+                            positiveExons),
+                    createTranscript(id + ".2", "-", VariantAnnotationUtils.LINCRNA, 0, 0, negativeExons));
+            if (withSequences) {
+                for (Transcript transcript : transcripts) {
+                    for (Exon exon : transcript.getExons()) {
+                        exon.setSequence(String.join("", Collections.nCopies((exon.getEnd() - exon.getStart() + 1) / 4 + 1,
+                                "ACGT")).substring(0, exon.getEnd() - exon.getStart() + 1));
+                    }
+                }
+            }
+            genes.add(createGene(id, geneStart, geneStart + 14199, transcripts));
+        }
+        return genes;
+    }
+
+    private static Gene createGene(String id, int start, int end, List<Transcript> transcripts) {
+        return new Gene(id, id, "protein_coding", "KNOWN", "1", start, end, "+", "Ensembl", "", new ArrayList<>(transcripts),
+                null, null);
+    }
+
+    // Exon coordinates are given in transcript order
+    private static Transcript createTranscript(String id, String strand, String biotype, int genomicCodingStart,
+                                               int genomicCodingEnd, int[][] exons) {
+        Transcript transcript = new Transcript();
+        transcript.setId(id);
+        transcript.setChromosome("1");
+        transcript.setStrand(strand);
+        transcript.setBiotype(biotype);
+        transcript.setStart(Math.min(exons[0][0], exons[exons.length - 1][0]));
+        transcript.setEnd(Math.max(exons[0][1], exons[exons.length - 1][1]));
+        transcript.setGenomicCodingStart(genomicCodingStart);
+        transcript.setGenomicCodingEnd(genomicCodingEnd);
+        List<Exon> exonList = new ArrayList<>();
+        int cdnaPosition = 0;
+        for (int i = 0; i < exons.length; i++) {
+            Exon exon = new Exon();
+            exon.setChromosome("1");
+            exon.setStrand(strand);
+            exon.setStart(exons[i][0]);
+            exon.setEnd(exons[i][1]);
+            exon.setExonNumber(i + 1);
+            exon.setPhase(0);
+            exonList.add(exon);
+            // cDNA positions of the first and last coding nucleotides
+            if (genomicCodingStart > 0 && strand.equals("+") && exons[i][0] <= genomicCodingStart
+                    && exons[i][1] >= genomicCodingStart) {
+                transcript.setCdnaCodingStart(cdnaPosition + genomicCodingStart - exons[i][0] + 1);
+            }
+            if (genomicCodingEnd > 0 && strand.equals("+") && exons[i][0] <= genomicCodingEnd
+                    && exons[i][1] >= genomicCodingEnd) {
+                transcript.setCdnaCodingEnd(cdnaPosition + genomicCodingEnd - exons[i][0] + 1);
+            }
+            cdnaPosition += exons[i][1] - exons[i][0] + 1;
+        }
+        transcript.setExons(exonList);
+        return transcript;
+    }
+}
@@ -0,0 +1,106 @@
+package org.opencb.cellbase.core.variant.annotation;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opencb.biodata.models.core.Gene;
+import org.opencb.biodata.models.core.Region;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class GeneCacheTest {
+
+    private final GeneDBAdaptorStub geneDBAdaptor = new GeneDBAdaptorStub(Arrays.asList(
+            createGene("G1", "1", 1000, 2000),
+            createGene("G2", "1", 150000, 160000),
+            createGene("G3", "1", 90000, 310000),
+            createGene("G4", "2", 1000, 2000)));
+
+    @Before
+    public void setUp() throws Exception {
+        GeneCache.setMaxWeight(64L * 1024 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        GeneCache.setMaxWeight(0);
+    }
+
+    @Test
+    public void getByRegion() throws Exception {
+        GeneCache geneCache = new GeneCache(geneDBAdaptor);
+
+        assertEquals(Collections.singletonList("G1"), getIds(geneCache.getByRegion(regions("1:1500-1600"))));
+        assertEquals(1, geneDBAdaptor.getRegionQueries());
+        assertEquals(1, geneDBAdaptor.getIdQueries());
+
+        // Same locus again, nothing is queried
+        assertEquals(Collections.singletonList("G1"), getIds(geneCache.getByRegion(regions("1:1900-2500"))));
+        assertEquals(1, geneDBAdaptor.getRegionQueries());
+        assertEquals(1, geneDBAdaptor.getIdQueries());
+
+        // Only the new tiles and genes are queried, G3 spans several tiles but is returned once
+        assertEquals(Arrays.asList("G1", "G3", "G2"), getIds(geneCache.getByRegion(regions("1:1500-1600", "1:155000-155001"))));
+        assertEquals(2, geneDBAdaptor.getRegionQueries());
+        assertEquals(2, geneDBAdaptor.getIdQueries());
+        assertEquals(3, geneCache.size());
+
+        assertEquals(Collections.emptyList(), getIds(geneCache.getByRegion(regions("2:5000-6000"))));
+        assertEquals(3, geneDBAdaptor.getRegionQueries());
+        assertEquals(2, geneDBAdaptor.getIdQueries());
+    }
+
+    @Test
+    public void zeroWeightKeepsNoGenes() throws Exception {
+        GeneCache.setMaxWeight(0);
+        assertFalse(GeneCache.isEnabled());
+
+        // Nothing is kept, every request queries the database
+        GeneCache geneCache = new GeneCache(geneDBAdaptor);
+        assertEquals(Collections.singletonList("G1"), getIds(geneCache.getByRegion(regions("1:1500-1600"))));
+        assertEquals(0, geneCache.size());
+    }
+
+    @Test
+    public void defaultAssemblyKey() throws Exception {
+        assertEquals("mmusculus_default", GeneCache.getKey("mmusculus", null));
+        GeneCache.setDefaultAssembly("Mmusculus", "GRCm38");
+        assertEquals("mmusculus_grcm38", GeneCache.getKey("mmusculus", null));
+        assertEquals("mmusculus_grcm38", GeneCache.getKey("mmusculus", ""));
+        assertEquals("mmusculus_grcm38", GeneCache.getKey("mmusculus", "GRCm38"));
+        assertSame(GeneCache.getInstance("mmusculus", null, geneDBAdaptor), GeneCache.getInstance("mmusculus", "grcm38", null));
+    }
+
+    @Test
+    public void covers() throws Exception {
+        GeneCache geneCache = new GeneCache(geneDBAdaptor);
+        assertTrue(geneCache.covers("id,chromosome,start,end,transcripts.exons.sequence,annotation.expression"));
+        assertTrue(geneCache.covers("mirna.matures.id"));
+        assertFalse(geneCache.covers("id,transcripts"));
+        assertFalse(geneCache.covers("id,annotation"));
+        assertFalse(geneCache.covers(null));
+    }
+
+    @Test
+    public void getTile() throws Exception {
+        assertEquals(0, GeneCache.getTile(1));
+        assertEquals(0, GeneCache.getTile(GeneCache.TILE_SIZE));
+        assertEquals(1, GeneCache.getTile(GeneCache.TILE_SIZE + 1));
+    }
+
+    private static List<Region> regions(String... regions) {
+        return Arrays.stream(regions).map(Region::parseRegion).collect(Collectors.toList());
+    }
+
+    private static List<String> getIds(List<Gene> genes) {
+        return genes.stream().map(Gene::getId).collect(Collectors.toList());
+    }
+
+    private static Gene createGene(String id, String chromosome, int start, int end) {
+        return new Gene(id, id, "protein_coding", "KNOWN", chromosome, start, end, "+", "Ensembl", "", new ArrayList<>(),
+                null, null);
+    }
+}
@@ -0,0 +1,153 @@
+package org.opencb.cellbase.core.variant.annotation;
+
+import org.opencb.biodata.models.core.Gene;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.cellbase.core.api.GeneDBAdaptor;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * In-memory gene adaptor for tests, genes are queried by id, name or region. Other queries return empty results.
+ */
+class GeneDBAdaptorStub implements GeneDBAdaptor<Gene> {
+
+    private final List<Gene> genes;
+    private int regionQueries;
+    private int idQueries;
+
+    GeneDBAdaptorStub(List<Gene> genes) {
+        this.genes = genes;
+    }
+
+    @Override
+    public QueryResult<Gene> get(Query query, QueryOptions options) {
+        List<Gene> result = new ArrayList<>();
+        if (query.containsKey(QueryParams.REGION.key())) {
+            regionQueries++;
+            List<Region> regions = new ArrayList<>();
+            for (String region : query.getAsStringList(QueryParams.REGION.key())) {
+                regions.add(Region.parseRegion(region));
+            }
+            for (Gene gene : genes) {
+                for (Region region : regions) {
+                    if (gene.getChromosome().equals(region.getChromosome()) && gene.getStart() <= region.getEnd()
+                            && gene.getEnd() >= region.getStart()) {
+                        result.add(gene);
+                        break;
+                    }
+                }
+            }
+        } else {
+            idQueries++;
+            Set<String> ids = new HashSet<>(query.getAsStringList(QueryParams.ID.key()));
+            Set<String> names = new HashSet<>(query.getAsStringList(QueryParams.NAME.key()));
+            for (Gene gene : genes) {
+                if (ids.contains(gene.getId()) || names.contains(gene.getName())) {
+                    result.add(gene);
+                }
+            }
+        }
+        return new QueryResult<>("", 0, result.size(), result.size(), "", "", result);
+    }
+
+    int getRegionQueries() {
+        return regionQueries;
+    }
+
+    int getIdQueries() {
+        return idQueries;
+    }
+
+    @Override
+    public Iterator<Gene> iterator(Query query, QueryOptions options) {
+        return get(query, options).getResult().iterator();
+    }
+
+    @Override
+    public QueryResult<Long> update(List objectList, String field, String[] innerFields) {
+        return new QueryResult<>();
+    }
+
+    @Override
+    public QueryResult<Long> count(Query query) {
+        return new QueryResult<>();
+    }
+
+    @Override
+    public QueryResult<String> distinct(Query query, String field) {
+        return new QueryResult<>();
+    }
+
+    @Override
+    public QueryResult stats(Query query) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult nativeGet(Query query, QueryOptions options) {
+        return new QueryResult();
+    }
+
+    @Override
+    public Iterator nativeIterator(Query query, QueryOptions options) {
+        return Collections.emptyIterator();
+    }
+
+    @Override
+    public QueryResult rank(Query query, String field, int numResults, boolean asc) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult groupBy(Query query, String field, QueryOptions options) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult groupBy(Query query, List<String> fields, QueryOptions options) {
+        return new QueryResult();
+    }
+
+    @Override
+    public void forEach(Query query, Consumer<? super Object> action, QueryOptions options) {
+    }
+
+    @Override
+    public QueryResult<Gene> next(Query query, QueryOptions options) {
+        return new QueryResult<>();
+    }
+
+    @Override
+    public QueryResult nativeNext(Query query, QueryOptions options) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult getIntervalFrequencies(Query query, int intervalSize, QueryOptions options) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult startsWith(String id, QueryOptions options) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult getRegulatoryElements(Query query, QueryOptions queryOptions) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult getTfbs(Query query, QueryOptions queryOptions) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult<String> getBiotypes(Query query) {
+        return new QueryResult<>();
+    }
+}
@@ -0,0 +1,85 @@
+package org.opencb.cellbase.core.variant.annotation;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencb.biodata.models.core.Gene;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.cellbase.core.variant.annotation.GeneCache.GeneLocation;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class GeneIndexTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void compress() throws Exception {
+        byte[] bytes = "ACGTACGTACGTACGTACGTACGTACGTACGTACGTACGTACGT".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(bytes, GeneIndex.decompress(GeneIndex.compress(bytes)));
+        assertArrayEquals(new byte[0], GeneIndex.decompress(GeneIndex.compress(new byte[0])));
+    }
+
+    @Test
+    public void getLocations() throws Exception {
+        GeneIndex geneIndex = createGeneIndex();
+        assertEquals(4, geneIndex.size());
+
+        assertEquals(Collections.singletonList("G1"), getIds(geneIndex.getLocations(regions("1:1500-1600"))));
+        // G3 is long, it must be found even if it starts far before the region
+        assertEquals(Arrays.asList("G1", "G3", "G2"),
+                getIds(geneIndex.getLocations(regions("1:155000-155001", "1:1500-1600", "1:300000-300001"))));
+        assertEquals(Collections.emptyList(), getIds(geneIndex.getLocations(regions("2:5000-6000", "3:1-100"))));
+    }
+
+    @Test
+    public void saveAndLoad() throws Exception {
+        Path path = temporaryFolder.newFile("hsapiens.geneindex").toPath();
+        createGeneIndex().save(path, "62000:5a1d2f0e");
+        assertEquals("62000:5a1d2f0e", GeneIndex.readFingerprint(path));
+        GeneIndex geneIndex = GeneIndex.load(path);
+
+        assertEquals(4, geneIndex.size());
+        Gene gene = geneIndex.getGene("1:G2");
+        assertEquals("G2", gene.getId());
+        assertEquals(150000, gene.getStart());
+        assertEquals(160000, gene.getEnd());
+        assertNull(geneIndex.getGene("2:G1"));
+    }
+
+    private static GeneIndex createGeneIndex() throws Exception {
+        GeneIndex.Builder builder = new GeneIndex.Builder();
+        add(builder, "G2", "1", 150000, 160000);
+        add(builder, "G1", "1", 1000, 2000);
+        add(builder, "G3", "1", 90000, 310000);
+        add(builder, "G4", "2", 1000, 2000);
+        return builder.build();
+    }
+
+    private static void add(GeneIndex.Builder builder, String id, String chromosome, int start, int end) throws Exception {
+        Map<String, Object> document = new LinkedHashMap<>();
+        document.put("id", id);
+        document.put("name", id);
+        document.put("chromosome", chromosome);
+        document.put("start", start);
+        document.put("end", end);
+        document.put("transcripts", Collections.emptyList());
+        builder.add(id, chromosome, start, end, GeneIndex.compress(new ObjectMapper().writeValueAsBytes(document)));
+    }
+
+    private static List<Region> regions(String... regions) {
+        return Arrays.stream(regions).map(Region::parseRegion).collect(Collectors.toList());
+    }
+
+    private static List<String> getIds(List<GeneLocation> locations) {
+        return locations.stream().map(location -> location.getKey().substring(location.getKey().indexOf(':') + 1))
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,129 @@
+package org.opencb.cellbase.core.variant.annotation;
+
+import org.opencb.biodata.models.core.GenomeSequenceFeature;
+import org.opencb.biodata.models.core.GenomicScoreRegion;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.biodata.models.variant.avro.Cytoband;
+import org.opencb.cellbase.core.api.GenomeDBAdaptor;
+import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryResult;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * In-memory genome adaptor for tests, sequences are served from the given chromosomes and every fetched region is
+ * recorded. Other queries return empty results.
+ */
+class GenomeDBAdaptorStub implements GenomeDBAdaptor {
+
+    private final Map<String, String> chromosomes;
+    private final List<Region> fetched = new ArrayList<>();
+
+    GenomeDBAdaptorStub(Map<String, String> chromosomes) {
+        this.chromosomes = chromosomes;
+    }
+
+    @Override
+    public QueryResult<GenomeSequenceFeature> getSequence(Region region, QueryOptions queryOptions) {
+        fetched.add(region);
+        QueryResult<GenomeSequenceFeature> queryResult = new QueryResult<>(region.toString());
+        queryResult.setResult(Collections.emptyList());
+        String chromosome = chromosomes.get(region.getChromosome());
+        if (chromosome != null && region.getStart() >= 1 && region.getStart() <= chromosome.length()) {
+            String sequence = chromosome.substring(region.getStart() - 1, Math.min(region.getEnd(), chromosome.length()));
+            queryResult.setResult(Collections.singletonList(new GenomeSequenceFeature(region.getChromosome(), region.getStart(),
+                    region.getEnd(), 1, "sequence", "GRCh37", sequence)));
+        }
+        return queryResult;
+    }
+
+    List<Region> getFetched() {
+        return fetched;
+    }
+
+    @Override
+    public QueryResult getGenomeInfo(QueryOptions queryOptions) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult getChromosomeInfo(String chromosomeId, QueryOptions queryOptions) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult<GenomeSequenceFeature> getGenomicSequence(Query query, QueryOptions queryOptions) {
+        return new QueryResult<>();
+    }
+
+    @Override
+    public List<QueryResult<GenomicScoreRegion<Float>>> getConservation(List<Region> regions, QueryOptions queryOptions) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public QueryResult<Cytoband> getCytobands(Region region, QueryOptions queryOptions) {
+        return new QueryResult<>();
+    }
+
+    @Override
+    public QueryResult<Long> update(List objectList, String field, String[] innerFields) {
+        return new QueryResult<>();
+    }
+
+    @Override
+    public QueryResult<Long> count(Query query) {
+        return new QueryResult<>();
+    }
+
+    @Override
+    public QueryResult distinct(Query query, String field) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult stats(Query query) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult get(Query query, QueryOptions options) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult nativeGet(Query query, QueryOptions options) {
+        return new QueryResult();
+    }
+
+    @Override
+    public Iterator iterator(Query query, QueryOptions options) {
+        return Collections.emptyIterator();
+    }
+
+    @Override
+    public Iterator nativeIterator(Query query, QueryOptions options) {
+        return Collections.emptyIterator();
+    }
+
+    @Override
+    public QueryResult rank(Query query, String field, int numResults, boolean asc) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult groupBy(Query query, String field, QueryOptions options) {
+        return new QueryResult();
+    }
+
+    @Override
+    public QueryResult groupBy(Query query, List fields, QueryOptions options) {
+        return new QueryResult();
+    }
+
+    @Override
+    public void forEach(Query query, Consumer action, QueryOptions options) {
+    }
+}
@@ -4,13 +4,15 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.bson.Document;
 import org.opencb.biodata.models.variant.Variant;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.function.Consumer;
 
 /**
  * Created by fjlopez on 11/02/16.
  */
-public class VariantMongoIterator implements Iterator<Variant> {
+public class VariantMongoIterator implements Iterator<Variant>, Closeable {
 
     private Iterator<Document> mongoCursor;
     private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
@@ -33,6 +35,13 @@ public class VariantMongoIterator implements Iterator<Variant> {
         return variant;
     }
 
+    @Override
+    public void close() throws IOException {
+        if (mongoCursor instanceof Closeable) {
+            ((Closeable) mongoCursor).close();
+        }
+    }
+
     @Override
     public void remove() {
         throw new UnsupportedOperationException("can't remove from a VariantMongoIterator");
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.lib.impl;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.cellbase.core.common.GenomicScoreCodec;
+import org.opencb.cellbase.lib.MongoDBCollectionConfiguration;
+import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.mongodb.MongoDBCollection;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Fetches the conservation chunks overlapping a list of regions with one $in query over _chunkIds, instead of one
+ * query per region. Chunk ids are generated and queried in pages while walking the regions, so large regions are
+ * paged by chunk and no single query nor list of ids grows unbounded. Scores are decoded into one primitive float[]
+ * per region and source, positions with no score are set to Float.NaN.
+ */
+class ConservationChunkReader {
+
+    static final int MAX_CHUNK_IDS_PER_QUERY = 500;
+
+    private static final QueryOptions CHUNK_QUERY_OPTIONS =
+            new QueryOptions("include", Arrays.asList("chromosome", "start", "source", "values"));
+
+    private final MongoDBCollection conservationCollection;
+    private int dbTime;
+
+    ConservationChunkReader(MongoDBCollection conservationCollection) {
+        this.conservationCollection = conservationCollection;
+    }
+
+    /**
+     * Returns one map per region, in the same order than regions, with the scores found for each source. Regions
+     * are expected to be fixed with normalize, the ones that are not are normalized without modifying them.
+     *
+     * @param regions list of regions
+     * @return list of maps source -> float[] of length region.end - region.start + 1
+     */
+    List<Map<String, float[]>> read(List<Region> regions) {
+        long dbTimeStart = System.currentTimeMillis();
+        List<Map<String, float[]>> scores = read(regions, this::findChunks);
+        dbTime = (int) (System.currentTimeMillis() - dbTimeStart);
+        return scores;
+    }
+
+    /**
+     * Same as read, chunks are fetched with chunkFinder, which is given one page of at most MAX_CHUNK_IDS_PER_QUERY
+     * chunk ids at a time and passes every chunk document found to the consumer.
+     *
+     * @param regions     list of regions
+     * @param chunkFinder fetches the chunks of a page of chunk ids
+     * @return list of maps source -> float[] of length region.end - region.start + 1
+     */
+    static List<Map<String, float[]>> read(List<Region> regions, BiConsumer<List<String>, Consumer<Document>> chunkFinder) {
+        List<Region> normalizedRegions = normalize(regions);
+        List<Map<String, float[]>> scores = new ArrayList<>(normalizedRegions.size());
+        Map<String, List<Integer>> regionIndexesByChromosome = new HashMap<>();
+        for (int i = 0; i < normalizedRegions.size(); i++) {
+            scores.add(new HashMap<>());
+            regionIndexesByChromosome.computeIfAbsent(normalizedRegions.get(i).getChromosome(), k -> new ArrayList<>()).add(i);
+        }
+        Consumer<Document> chunkDecoder = chunk -> decodeChunk(chunk, normalizedRegions, regionIndexesByChromosome, scores);
+
+        // Chunk ids are generated while walking the regions and queried as soon as a page is full, a chunk shared by
+        // regions in two pages is just decoded twice into the same positions
+        int chunkSize = MongoDBCollectionConfiguration.CONSERVATION_CHUNK_SIZE;
+        Set<String> chunkIdPage = new LinkedHashSet<>();
+        for (Region region : normalizedRegions) {
+            for (int chunkId = region.getStart() / chunkSize; chunkId <= region.getEnd() / chunkSize; chunkId++) {
+                chunkIdPage.add(region.getChromosome() + "_" + chunkId + "_" + chunkSize / 1000 + "k");
+                if (chunkIdPage.size() == MAX_CHUNK_IDS_PER_QUERY) {
+                    chunkFinder.accept(new ArrayList<>(chunkIdPage), chunkDecoder);
+                    chunkIdPage.clear();
+                }
+            }
+        }
+        if (!chunkIdPage.isEmpty()) {
+            chunkFinder.accept(new ArrayList<>(chunkIdPage), chunkDecoder);
+        }
+        return scores;
+    }
+
+    private void findChunks(List<String> chunkIds, Consumer<Document> chunkConsumer) {
+        try (MongoCursor<Document> cursor = conservationCollection.nativeQuery()
+                .find(Filters.in("_chunkIds", chunkIds), CHUNK_QUERY_OPTIONS).iterator()) {
+            while (cursor.hasNext()) {
+                chunkConsumer.accept(cursor.next());
+            }
+        }
+    }
+
+    /**
+     * Returns the regions with start and end fixed to be >= 1 and end >= start. Regions needing no fix are returned
+     * as they are, the others are copied so that the regions of the caller are not modified.
+     *
+     * @param regions list of regions
+     * @return list of regions in the same order
+     */
+    static List<Region> normalize(List<Region> regions) {
+        List<Region> normalizedRegions = new ArrayList<>(regions.size());
+        for (Region region : regions) {
+            // positions below 1 are not allowed
+            int start = Math.max(region.getStart(), 1);
+            int end = Math.max(region.getEnd(), start);
+            normalizedRegions.add((start == region.getStart() && end == region.getEnd())
+                    ? region
+                    : new Region(region.getChromosome(), start, end));
+        }
+        return normalizedRegions;
+    }
+
+    /**
+     * Copies the values of one conservation chunk into the float arrays of every region overlapping it.
+     *
+     * @param chunk                     conservation chunk document, with chromosome, start, source and values
+     * @param regions                   list of regions queried
+     * @param regionIndexesByChromosome indexes in regions grouped by chromosome
+     * @param scores                    one map source -> float[] per region, arrays are created on demand
+     */
+    static void decodeChunk(Document chunk, List<Region> regions, Map<String, List<Integer>> regionIndexesByChromosome,
+                            List<Map<String, float[]>> scores) {
+        List<Integer> regionIndexes = regionIndexesByChromosome.get(chunk.getString("chromosome"));
+        // Values are a BSON binary with quantized scores, see GenomicScoreCodec, or a list of doubles in collections
+        // loaded before the binary format was introduced
+        Object values = chunk.get("values");
+        byte[] encodedValues = (values instanceof Binary) ? ((Binary) values).getData() : null;
+        List listValues = (values instanceof List) ? (List) values : null;
+        int numValues = (encodedValues != null)
+                ? GenomicScoreCodec.getNumConservationValues(encodedValues)
+                : (listValues != null ? listValues.size() : 0);
+        // TODO: temporary patch to skip empty chunks - remove as soon as conservation is reloaded
+        if (regionIndexes == null || numValues == 0) {
+            return;
+        }
+
+        String source = chunk.getString("source");
+        int chunkStart = chunk.getInteger("start");
+        int chunkEnd = chunkStart + numValues - 1;
+        for (int regionIndex : regionIndexes) {
+            Region region = regions.get(regionIndex);
+            int start = Math.max(region.getStart(), chunkStart);
+            int end = Math.min(region.getEnd(), chunkEnd);
+            if (start > end) {
+                continue;
+            }
+
+            float[] regionScores = scores.get(regionIndex).get(source);
+            if (regionScores == null) {
+                regionScores = new float[region.getEnd() - region.getStart() + 1];
+                Arrays.fill(regionScores, Float.NaN);
+                scores.get(regionIndex).put(source, regionScores);
+            }
+            if (encodedValues != null) {
+                for (int position = start; position <= end; position++) {
+                    regionScores[position - region.getStart()] =
+                            GenomicScoreCodec.decodeConservation(encodedValues, position - chunkStart);
+                }
+            } else {
+                for (int position = start; position <= end; position++) {
+                    regionScores[position - region.getStart()] = ((Number) listValues.get(position - chunkStart)).floatValue();
+                }
+            }
+        }
+    }
+
+    /**
+     * Time spent in the last call to read, decoding included.
+     *
+     * @return time in milliseconds
+     */
+    int getDbTime() {
+        return dbTime;
+    }
+}
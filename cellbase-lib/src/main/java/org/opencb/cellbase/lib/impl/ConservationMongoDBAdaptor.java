@@ -16,8 +16,6 @@
 
 package org.opencb.cellbase.lib.impl;
 
-import com.mongodb.BasicDBList;
-import com.mongodb.QueryBuilder;
 import com.mongodb.client.model.Filters;
 import org.bson.Document;
 import org.bson.conversions.Bson;
@@ -25,7 +23,6 @@ import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.variant.avro.Score;
 import org.opencb.cellbase.core.api.ConservationDBAdaptor;
 import org.opencb.biodata.models.core.GenomicScoreRegion;
-import org.opencb.cellbase.lib.MongoDBCollectionConfiguration;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.core.QueryResult;
@@ -125,110 +122,25 @@ public class ConservationMongoDBAdaptor extends MongoDBAdaptor implements Conser
 
 //    @Override
     public List<QueryResult> getAllByRegionList(List regionList, QueryOptions options) {
-        //TODO not finished yet
-        List<Document> queries = new ArrayList<>();
-        List<String> ids = new ArrayList<>(regionList.size());
-        List<String> integerChunkIds;
+        List<Region> regions = ConservationChunkReader.normalize(regionList);
+        // Chunks of large regions are paged, every position is boxed in the response
+        ConservationChunkReader conservationChunkReader = new ConservationChunkReader(mongoDBCollection);
+        List<Map<String, float[]>> scoresList = conservationChunkReader.read(regions);
 
-        List<Region> regions = regionList;
-        for (Region region : regions) {
-            integerChunkIds = new ArrayList<>();
-            // positions below 1 are not allowed
-            if (region.getStart() < 1) {
-                region.setStart(1);
-            }
-            if (region.getEnd() < 1) {
-                region.setEnd(1);
-            }
-
-            // Max region size is 10000bp
-            if (region.getEnd() - region.getStart() > 10000) {
-                region.setEnd(region.getStart() + 10000);
-            }
-
-            QueryBuilder builder;
-            int regionChunkStart = getChunkId(region.getStart(), MongoDBCollectionConfiguration.CONSERVATION_CHUNK_SIZE);
-            int regionChunkEnd = getChunkId(region.getEnd(), MongoDBCollectionConfiguration.CONSERVATION_CHUNK_SIZE);
-            if (regionChunkStart == regionChunkEnd) {
-                builder = QueryBuilder.start("_chunkIds")
-                        .is(getChunkIdPrefix(region.getChromosome(), region.getStart(),
-                                MongoDBCollectionConfiguration.CONSERVATION_CHUNK_SIZE));
-            } else {
-//                for (int chunkId = regionChunkStart; chunkId <= regionChunkEnd; chunkId++) {
-////                    integerChunkIds.add(chunkId);
-//                    integerChunkIds.add(region.getChromosomeInfo() + "_" + chunkId + "_" + this.chunkSize/1000 + "k");
-//                }
-//                builder = QueryBuilder.start("chromosome").is(region.getChromosomeInfo()).and("chunkId").in(integerChunkIds);
-                builder = QueryBuilder.start("chromosome").is(region.getChromosome()).and("end")
-                        .greaterThanEquals(region.getStart()).and("start").lessThanEquals(region.getEnd());
-            }
-//            QueryBuilder builder = QueryBuilder.start("chromosome").is(region.getChromosomeInfo()).and("chunkId").in(hunkIds);
-            /****/
-
-            queries.add(new Document(builder.get().toMap()));
-            ids.add(region.toString());
-
-
-//            logger.debug(builder.get().toString());
-        }
-
-        List<QueryResult> queryResults = executeQueryList2(ids, queries, options);
+        List<QueryResult> queryResults = new ArrayList<>(regions.size());
         for (int i = 0; i < regions.size(); i++) {
             Region region = regions.get(i);
-            QueryResult queryResult = queryResults.get(i);
-//            BasicDBList list = (BasicDBList) queryResult.getResult();
-            List list = queryResult.getResult();
-
-            Map<String, List<Float>> typeMap = new HashMap<>();
-
-
-//            int start = region.getStart();
-
-
-            for (int j = 0; j < list.size(); j++) {
-                Document chunk = (Document) list.get(j);
-                String source = chunk.getString("source");
-                List<Float> valuesList;
-                if (!typeMap.containsKey(source)) {
-                    valuesList = new ArrayList<>(region.getEnd() - region.getStart() + 1);
-                    for (int val = 0; val < region.getEnd() - region.getStart() + 1; val++) {
-                        valuesList.add(null);
-                    }
-                    typeMap.put(source, valuesList);
-                } else {
-                    valuesList = typeMap.get(source);
-                }
-
-//                BasicDBList valuesChunk = (BasicDBList) chunk.get("values");
-                ArrayList valuesChunk = chunk.get("values", ArrayList.class);
-
-                int pos = 0;
-                if (region.getStart() > chunk.getInteger("start")) {
-                    pos = region.getStart() - chunk.getInteger("start");
-                }
-
-
-                for (; pos < valuesChunk.size() && (pos + chunk.getInteger("start") <= region.getEnd()); pos++) {
-//                    System.out.println("valuesList SIZE = " + valuesList.size());
-//                    System.out.println("pos = " + pos);
-//                    System.out.println("DIV " + (chunk.getInt("start") - region.getStart()));
-//                    System.out.println("valuesChunk = " + valuesChunk.get(pos));
-//                    System.out.println("indexFinal = " + (pos + chunk.getInt("start") - region.getStart()));
-                    valuesList.set(pos + chunk.getInteger("start") - region.getStart(), new Float((Double) valuesChunk.get(pos)));
+            List<GenomicScoreRegion<Float>> resultList = new ArrayList<>(scoresList.get(i).size());
+            for (Map.Entry<String, float[]> elem : scoresList.get(i).entrySet()) {
+                List<Float> values = new ArrayList<>(elem.getValue().length);
+                for (float value : elem.getValue()) {
+                    values.add(Float.isNaN(value) ? null : value);
                 }
+                resultList.add(new GenomicScoreRegion<>(region.getChromosome(), region.getStart(), region.getEnd(),
+                        elem.getKey(), values));
             }
-//
-            BasicDBList resultList = new BasicDBList();
-//            ConservationScoreRegion conservedRegionChunk;
-            GenomicScoreRegion<Float> conservedRegionChunk;
-            for (Map.Entry<String, List<Float>> elem : typeMap.entrySet()) {
-//                conservedRegionChunk = new ConservationScoreRegion(region.getChromosome(), region.getStart(),
-//                        region.getEnd(), elem.getKey(), elem.getValue());
-                conservedRegionChunk = new GenomicScoreRegion<>(region.getChromosome(), region.getStart(),
-                        region.getEnd(), elem.getKey(), elem.getValue());
-                resultList.add(conservedRegionChunk);
-            }
-            queryResult.setResult(resultList);
+            queryResults.add(new QueryResult<>(region.toString(), conservationChunkReader.getDbTime(), resultList.size(),
+                    resultList.size(), null, null, resultList));
         }
 
         return queryResults;
@@ -237,117 +149,25 @@ public class ConservationMongoDBAdaptor extends MongoDBAdaptor implements Conser
     @Override
     @Deprecated
     public List<QueryResult> getAllScoresByRegionList(List regionList, QueryOptions options) {
-        //TODO not finished yet
-        List<Document> queries = new ArrayList<>();
-        List<String> ids = new ArrayList<>(regionList.size());
-        List<Integer> integerChunkIds;
-
-        List<Region> regions = regionList;
-        for (Region region : regions) {
-            integerChunkIds = new ArrayList<>();
-            // positions below 1 are not allowed
-            if (region.getStart() < 1) {
-                region.setStart(1);
-            }
-            if (region.getEnd() < 1) {
-                region.setEnd(1);
-            }
-
-            /****/
-            QueryBuilder builder;
-            int regionChunkStart = getChunkId(region.getStart(), MongoDBCollectionConfiguration.CONSERVATION_CHUNK_SIZE);
-            int regionChunkEnd = getChunkId(region.getEnd(), MongoDBCollectionConfiguration.CONSERVATION_CHUNK_SIZE);
-            if (regionChunkStart == regionChunkEnd) {
-                builder = QueryBuilder.start("_chunkIds")
-                        .is(getChunkIdPrefix(region.getChromosome(), region.getStart(),
-                                MongoDBCollectionConfiguration.CONSERVATION_CHUNK_SIZE));
-            } else {
-//                for (int chunkId = regionChunkStart; chunkId <= regionChunkEnd; chunkId++) {
-//                    integerChunkIds.add(chunkId);
-//                }
-//    //            QueryBuilder builder = QueryBuilder.start("chromosome").is(region.getChromosomeInfo()).and("chunkId").in(hunkIds);
-//                builder = QueryBuilder.start("chromosome").is(region.getChromosomeInfo()).and("chunkId").in(integerChunkIds);
-                builder = QueryBuilder.start("chromosome").is(region.getChromosome()).and("end")
-                        .greaterThanEquals(region.getStart()).and("start").lessThanEquals(region.getEnd());
-            }
-            /****/
-
-
-            queries.add(new Document(builder.get().toMap()));
-            ids.add(region.toString());
-
-//            logger.debug(builder.get().toString());
-
-        }
-        List<QueryResult> queryResults = executeQueryList2(ids, queries, options);
-//        List<QueryResult> queryResults = executeQueryList(ids, queries, options);
-
+        List<Region> regions = ConservationChunkReader.normalize(regionList);
+        // One paged $in query for all the regions, scores are decoded into float[] with NaN for missing positions
+        ConservationChunkReader conservationChunkReader = new ConservationChunkReader(mongoDBCollection);
+        List<Map<String, float[]>> scoresList = conservationChunkReader.read(regions);
 
+        List<QueryResult> queryResults = new ArrayList<>(regions.size());
         for (int i = 0; i < regions.size(); i++) {
-            Region region = regions.get(i);
-            QueryResult queryResult = queryResults.get(i);
-            List<Document> list = (List<Document>) queryResult.getResult();
-
-            Map<String, List<Float>> typeMap = new HashMap();
-
-
-//            int start = region.getStart();
-
-
-            for (int j = 0; j < list.size(); j++) {
-                Document chunk = list.get(j);
-
-                if (!chunk.isEmpty()) {
-//                    BasicDBList valuesChunk = (BasicDBList) chunk.get("values");
-                    ArrayList valuesChunk = chunk.get("values", ArrayList.class);
-
-                    if (valuesChunk != null) {  // TODO: temporary patch to skip empty chunks - remove as soon as conservation is reloaded
-                        String source = chunk.getString("source");
-                        List<Float> valuesList;
-                        if (!typeMap.containsKey(source)) {
-                            valuesList = new ArrayList<>(region.getEnd() - region.getStart() + 1);
-                            for (int val = 0; val < region.getEnd() - region.getStart() + 1; val++) {
-                                valuesList.add(null);
-                            }
-                            typeMap.put(source, valuesList);
-                        } else {
-                            valuesList = typeMap.get(source);
-                        }
-
-//                        valuesChunk = (BasicDBList) chunk.get("values");
-                        valuesChunk = chunk.get("values", ArrayList.class);
-                        int pos = 0;
-                        if (region.getStart() > chunk.getInteger("start")) {
-                            pos = region.getStart() - chunk.getInteger("start");
-                        }
-
-                        for (; pos < valuesChunk.size() && (pos + chunk.getInteger("start") <= region.getEnd()); pos++) {
-                            valuesList.set(pos + chunk.getInteger("start") - region.getStart(), new Float((Double) valuesChunk.get(pos)));
-                        }
-                    } else {
-                        logger.error("values field not present in conservation chunk document. This "
-                                + "should not be happening - every conservation chunk must have a list of values."
-                                + " Please check. Chunk id: " + chunk.get("_chunkIds"));
-                        continue;
-                    }
-
-                }
-
-                BasicDBList resultList = new BasicDBList();
-                for (Map.Entry<String, List<Float>> elem : typeMap.entrySet()) {
-                    for (Float value : elem.getValue()) {
-                        if (value != null) {
-                            resultList.add(new Score(new Double(value), elem.getKey(), null));
-                        }
+            List<Score> resultList = new ArrayList<>();
+            for (Map.Entry<String, float[]> elem : scoresList.get(i).entrySet()) {
+                for (float value : elem.getValue()) {
+                    if (!Float.isNaN(value)) {
+                        resultList.add(new Score((double) value, elem.getKey(), null));
                     }
                 }
-                if (!resultList.isEmpty()) {
-                    queryResult.setResult(resultList);
-                } else {
-                    queryResult.setResult(null);
-                }
             }
 
+            QueryResult<Score> queryResult = new QueryResult<>(regions.get(i).toString(), conservationChunkReader.getDbTime(),
+                    resultList.size(), resultList.size(), null, null, resultList.isEmpty() ? null : resultList);
+            queryResults.add(queryResult);
         }
         return queryResults;
     }
@@ -74,6 +74,11 @@ public class GeneMongoDBAdaptor extends MongoDBAdaptor implements GeneDBAdaptor<
     public QueryResult getIntervalFrequencies(Query query, int intervalSize, QueryOptions options) {
         if (query.getString(QueryParams.REGION.key()) != null) {
             Region region = Region.parseRegion(query.getString(QueryParams.REGION.key()));
+            QueryResult queryResult = getPrecomputedIntervalFrequencies("gene", query, region, intervalSize, options,
+                    QueryParams.REGION, QueryParams.values(), this::parseQuery);
+            if (queryResult != null) {
+                return queryResult;
+            }
             Bson bsonDocument = parseQuery(query);
             return getIntervalFrequencies(bsonDocument, region, intervalSize, options);
         }
@@ -133,7 +138,8 @@ public class GeneMongoDBAdaptor extends MongoDBAdaptor implements GeneDBAdaptor<
             return queryResult;
         } else {
             logger.debug("query: {}", bson.toBsonDocument(Document.class, MongoClient.getDefaultCodecRegistry()) .toJson());
-            return mongoDBCollection.find(bson, null, Gene.class, options);
+            QueryOptions queryOptions = options;
+            return coalesce("gene", Gene.class, bson, queryOptions, () -> mongoDBCollection.find(bson, null, Gene.class, queryOptions));
         }
     }
 
@@ -155,6 +161,12 @@ public class GeneMongoDBAdaptor extends MongoDBAdaptor implements GeneDBAdaptor<
         return mongoDBCollection.nativeQuery().find(bson, options).iterator();
     }
 
+    @Override
+    public Iterator rawIterator(Query query, QueryOptions options) {
+        Bson bson = parseQuery(query);
+        return rawFind(GENE, bson, options).iterator();
+    }
+
     @Override
     public void forEach(Query query, Consumer<? super Object> action, QueryOptions options) {
         Objects.requireNonNull(action);
@@ -17,7 +17,6 @@
 package org.opencb.cellbase.lib.impl;
 
 import com.mongodb.MongoClient;
-import com.mongodb.QueryBuilder;
 import com.mongodb.client.model.Filters;
 import org.bson.Document;
 import org.bson.conversions.Bson;
@@ -219,108 +218,28 @@ public class GenomeMongoDBAdaptor extends MongoDBAdaptor implements GenomeDBAdap
     }
 
     @Override
-//    public List<QueryResult<ConservationScoreRegion>> getConservation(List<Region> regionList, QueryOptions options) {
     public List<QueryResult<GenomicScoreRegion<Float>>> getConservation(List<Region> regionList, QueryOptions options) {
-        //TODO not finished yet
-        List<Document> queries = new ArrayList<>();
-        List<String> ids = new ArrayList<>(regionList.size());
-        List<String> integerChunkIds;
-
-        List<Region> regions = regionList;
-        for (Region region : regions) {
-            integerChunkIds = new ArrayList<>();
-            // positions below 1 are not allowed
-            if (region.getStart() < 1) {
-                region.setStart(1);
-            }
-            if (region.getEnd() < 1) {
-                region.setEnd(1);
-            }
-
-            // Max region size is 10000bp
-            if (region.getEnd() - region.getStart() > 10000) {
-                region.setEnd(region.getStart() + 10000);
-            }
-
-            QueryBuilder builder;
-            int regionChunkStart = getChunkId(region.getStart(), MongoDBCollectionConfiguration.CONSERVATION_CHUNK_SIZE);
-            int regionChunkEnd = getChunkId(region.getEnd(), MongoDBCollectionConfiguration.CONSERVATION_CHUNK_SIZE);
-            if (regionChunkStart == regionChunkEnd) {
-                builder = QueryBuilder.start("_chunkIds")
-                        .is(getChunkIdPrefix(region.getChromosome(), region.getStart(),
-                                MongoDBCollectionConfiguration.CONSERVATION_CHUNK_SIZE));
-            } else {
-//                for (int chunkId = regionChunkStart; chunkId <= regionChunkEnd; chunkId++) {
-////                    integerChunkIds.add(chunkId);
-//                    integerChunkIds.add(region.getChromosomeInfo() + "_" + chunkId + "_" + this.chunkSize/1000 + "k");
-//                }
-//                builder = QueryBuilder.start("chromosome").is(region.getChromosomeInfo()).and("chunkId").in(integerChunkIds);
-                builder = QueryBuilder.start("chromosome").is(region.getChromosome()).and("end")
-                        .greaterThanEquals(region.getStart()).and("start").lessThanEquals(region.getEnd());
-            }
-//            QueryBuilder builder = QueryBuilder.start("chromosome").is(region.getChromosomeInfo()).and("chunkId").in(hunkIds);
-            /****/
-
-            queries.add(new Document(builder.get().toMap()));
-            ids.add(region.toString());
-        }
-
-        List<QueryResult> queryResults = executeQueryList2(ids, queries, options, conservationMongoDBCollection);
-//        List<QueryResult<ConservationScoreRegion>> conservationQueryResults = new ArrayList<>();
-        List<QueryResult<GenomicScoreRegion<Float>>> conservationQueryResults = new ArrayList<>();
+        // All chunks for all regions are fetched in pages of chunk ids, large regions are not truncated
+        List<Region> regions = ConservationChunkReader.normalize(regionList);
+        ConservationChunkReader conservationChunkReader = new ConservationChunkReader(conservationMongoDBCollection);
+        List<Map<String, float[]>> scoresList = conservationChunkReader.read(regions);
 
+        List<QueryResult<GenomicScoreRegion<Float>>> conservationQueryResults = new ArrayList<>(regions.size());
         for (int i = 0; i < regions.size(); i++) {
             Region region = regions.get(i);
-            QueryResult queryResult = queryResults.get(i);
-//            QueryResult<ConservationScoreRegion> conservationQueryResult = new QueryResult<>();
-            QueryResult<GenomicScoreRegion<Float>> conservationQueryResult = new QueryResult<>();
-
-//            BasicDBList list = (BasicDBList) queryResult.getResult();
-            List list = queryResult.getResult();
-
-            Map<String, List<Float>> typeMap = new HashMap<>();
-            for (int j = 0; j < list.size(); j++) {
-                Document chunk = (Document) list.get(j);
-                String source = chunk.getString("source");
-                List<Float> valuesList;
-                if (!typeMap.containsKey(source)) {
-                    valuesList = new ArrayList<>(region.getEnd() - region.getStart() + 1);
-                    for (int val = 0; val < region.getEnd() - region.getStart() + 1; val++) {
-                        valuesList.add(null);
-                    }
-                    typeMap.put(source, valuesList);
-                } else {
-                    valuesList = typeMap.get(source);
-                }
-
-//                BasicDBList valuesChunk = (BasicDBList) chunk.get("values");
-                ArrayList valuesChunk = chunk.get("values", ArrayList.class);
-
-                int pos = 0;
-                if (region.getStart() > chunk.getInteger("start")) {
-                    pos = region.getStart() - chunk.getInteger("start");
+            List<GenomicScoreRegion<Float>> resultList = new ArrayList<>(scoresList.get(i).size());
+            for (Map.Entry<String, float[]> elem : scoresList.get(i).entrySet()) {
+                // GenomicScoreRegion model expects null for positions with no score
+                float[] scores = elem.getValue();
+                List<Float> values = new ArrayList<>(scores.length);
+                for (float score : scores) {
+                    values.add(Float.isNaN(score) ? null : score);
                 }
-
-                for (; pos < valuesChunk.size() && (pos + chunk.getInteger("start") <= region.getEnd()); pos++) {
-                    valuesList.set(pos + chunk.getInteger("start") - region.getStart(), new Float((Double) valuesChunk.get(pos)));
-                }
-            }
-
-//            BasicDBList resultList = new BasicDBList();
-//            List<ConservationScoreRegion> resultList = new ArrayList<>();
-            List<GenomicScoreRegion<Float>> resultList = new ArrayList<>();
-//            ConservationScoreRegion conservedRegionChunk;
-            GenomicScoreRegion<Float> conservedRegionChunk;
-            for (Map.Entry<String, List<Float>> elem : typeMap.entrySet()) {
-//                conservedRegionChunk = new ConservationScoreRegion(region.getChromosome(), region.getStart(), region.getEnd(),
-//                        elem.getKey(), elem.getValue());
-                conservedRegionChunk = new GenomicScoreRegion<>(region.getChromosome(), region.getStart(), region.getEnd(),
-                        elem.getKey(), elem.getValue());
-                resultList.add(conservedRegionChunk);
+                resultList.add(new GenomicScoreRegion<>(region.getChromosome(), region.getStart(), region.getEnd(),
+                        elem.getKey(), values));
             }
-//            queryResult.setResult(resultList);
-            conservationQueryResult.setResult(resultList);
-            conservationQueryResults.add(conservationQueryResult);
+            conservationQueryResults.add(new QueryResult<>(region.toString(), conservationChunkReader.getDbTime(),
+                    resultList.size(), resultList.size(), null, null, resultList));
         }
 
         return conservationQueryResults;
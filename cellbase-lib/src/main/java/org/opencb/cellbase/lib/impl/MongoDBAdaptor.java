@@ -17,15 +17,22 @@
 package org.opencb.cellbase.lib.impl;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.MongoClient;
 import com.mongodb.QueryBuilder;
+import com.mongodb.client.AggregateIterable;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoCursor;
 import com.mongodb.client.model.*;
+import org.apache.commons.lang3.StringUtils;
 import org.bson.*;
 import org.bson.conversions.Bson;
 import org.opencb.biodata.models.core.Region;
+import org.opencb.cellbase.core.common.HistogramPyramid;
 import org.opencb.cellbase.core.common.IntervalFeatureFrequency;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
+import org.opencb.commons.datastore.core.QueryParam;
 import org.opencb.commons.datastore.core.QueryResult;
 import org.opencb.commons.datastore.mongodb.MongoDBCollection;
 import org.opencb.commons.datastore.mongodb.MongoDataStore;
@@ -34,11 +41,16 @@ import org.slf4j.LoggerFactory;
 
 import java.math.BigInteger;
 import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 public class MongoDBAdaptor {
 
     enum QueryValueType {INTEGER, STRING}
 
+    // Shared by all adaptors, keys start with the database name so species and assemblies never get mixed
+    private static final SingleFlight<String, QueryResult> IN_FLIGHT_QUERIES = new SingleFlight<>();
+
     protected String species;
     protected String assembly;
 
@@ -96,6 +108,134 @@ public class MongoDBAdaptor {
         return options;
     }
 
+    /**
+     * Runs a find returning the documents as raw BSON, they are not decoded into Document trees so they can be read
+     * field by field, e.g. with a BsonReader. Include, exclude, sort, skip and limit options are honoured.
+     *
+     * @param collectionName name of the collection
+     * @param query          query filter
+     * @param options        query options
+     * @return iterable of raw documents
+     */
+    protected FindIterable<RawBsonDocument> rawFind(String collectionName, Bson query, QueryOptions options) {
+        FindIterable<RawBsonDocument> findIterable = getRawCollection(collectionName).find(query);
+        if (options != null) {
+            Bson projection = createProjection(options);
+            if (projection != null) {
+                findIterable.projection(projection);
+            }
+            Bson sort = createSort(options);
+            if (sort != null) {
+                findIterable.sort(sort);
+            }
+            if (options.getInt("skip", 0) > 0) {
+                findIterable.skip(options.getInt("skip"));
+            }
+            if (options.getInt("limit", 0) > 0) {
+                findIterable.limit(options.getInt("limit"));
+            }
+        }
+        return findIterable;
+    }
+
+    /**
+     * Runs an aggregation returning the documents as raw BSON, see rawFind. Sort, skip and limit options are added
+     * as the last stages of the pipeline, projections are expected to be part of the pipeline.
+     *
+     * @param collectionName name of the collection
+     * @param pipeline       aggregation stages, not modified
+     * @param options        query options
+     * @return iterable of raw documents
+     */
+    protected AggregateIterable<RawBsonDocument> rawAggregate(String collectionName, List<Bson> pipeline, QueryOptions options) {
+        List<Bson> stages = new ArrayList<>(pipeline);
+        if (options != null) {
+            Bson sort = createSort(options);
+            if (sort != null) {
+                stages.add(Aggregates.sort(sort));
+            }
+            if (options.getInt("skip", 0) > 0) {
+                stages.add(Aggregates.skip(options.getInt("skip")));
+            }
+            if (options.getInt("limit", 0) > 0) {
+                stages.add(Aggregates.limit(options.getInt("limit")));
+            }
+        }
+        return getRawCollection(collectionName).aggregate(stages);
+    }
+
+    /**
+     * Runs a query sharing its execution with identical queries already in flight from other threads, e.g. many
+     * concurrent annotation requests looking for the same hot genes make a single round-trip and decode the documents
+     * once. Queries are identical when they have the same database, collection, result class, filter and options.
+     * Each caller gets its own QueryResult but the objects in the result are shared, so callers must not modify them.
+     *
+     * @param collectionName name of the collection, only used to build the key
+     * @param resultClass    class of the objects returned, only used to build the key
+     * @param query          query filter
+     * @param options        query options, including projection, skip and limit
+     * @param supplier       runs the query
+     * @param <T>            type of the objects returned
+     * @return result of the query
+     */
+    protected <T> QueryResult<T> coalesce(String collectionName, Class<T> resultClass, Bson query, QueryOptions options,
+                                          Supplier<QueryResult<T>> supplier) {
+        StringBuilder key = new StringBuilder()
+                .append(mongoDataStore.getDb().getName()).append('/')
+                .append(collectionName).append('/')
+                .append(resultClass.getName()).append('/')
+                .append(query.toBsonDocument(Document.class, MongoClient.getDefaultCodecRegistry()).toJson()).append('/');
+        if (options != null) {
+            // QueryOptions is a map, sorting the keys makes the key independent of the order options were set
+            key.append(new TreeMap<>(options));
+        }
+
+        QueryResult<T> queryResult = IN_FLIGHT_QUERIES.execute(key.toString(), (Supplier) supplier);
+        return new QueryResult<>(queryResult.getId(), queryResult.getDbTime(), queryResult.getNumResults(),
+                queryResult.getNumTotalResults(), queryResult.getWarningMsg(), queryResult.getErrorMsg(),
+                (queryResult.getResult() != null) ? new ArrayList<>(queryResult.getResult()) : null);
+    }
+
+    protected MongoCollection<RawBsonDocument> getRawCollection(String collectionName) {
+        return mongoDataStore.getDb().getCollection(collectionName, RawBsonDocument.class);
+    }
+
+    private Bson createProjection(QueryOptions options) {
+        List<String> include = options.getAsStringList("include");
+        List<String> exclude = options.getAsStringList("exclude");
+        if (include != null && !include.isEmpty()) {
+            // MongoDB does not allow mixing inclusions and exclusions, except for _id
+            if (exclude != null && exclude.contains("_id")) {
+                return Projections.fields(Projections.include(include), Projections.excludeId());
+            }
+            return Projections.include(include);
+        }
+        if (exclude != null && !exclude.isEmpty()) {
+            return Projections.exclude(exclude);
+        }
+        return null;
+    }
+
+    private Bson createSort(QueryOptions options) {
+        // Same sort options as in the native queries: a Bson or Map sort document, or field names and an order
+        Object sort = options.get("sort");
+        if (sort instanceof Bson) {
+            return (Bson) sort;
+        }
+        if (sort instanceof Map) {
+            return new Document((Map<String, Object>) sort);
+        }
+        List<String> fields = options.getAsStringList("sort");
+        if (fields == null || fields.isEmpty()) {
+            return null;
+        }
+        String order = options.getString("order", "DESC");
+        if (order.equalsIgnoreCase("ASC") || order.equalsIgnoreCase("ASCENDING") || order.equals("1")) {
+            return Sorts.ascending(fields);
+        }
+        return Sorts.descending(fields);
+    }
+
     protected void createRegionQuery(Query query, String queryParam, List<Bson> andBsonList) {
         if (query != null && query.getString(queryParam) != null && !query.getString(queryParam).isEmpty()) {
             List<Region> regions = Region.parseRegions(query.getString(queryParam));
@@ -267,6 +407,84 @@ public class MongoDBAdaptor {
 
 
 
+    /**
+     * Interval frequencies counted with the HistogramPyramid registered for the collection, the same documents
+     * getIntervalFrequencies returns without aggregating the whole region. The pyramid counts features by the bin
+     * their start lies in, so:
+     * - The first and last intervals are aggregated, restricted to the part of the region they cover, when the region
+     *   does not start at the first base of its first interval or does not end at the last base of a bin. Those
+     *   intervals also count features starting before the region and overlapping it, which the pyramid cannot tell.
+     * - Intervals not multiple of HistogramPyramid.BIN_SIZE, e.g. the default 200000 of the web services, have inner
+     *   edges not aligned to the bins. A feature is then counted in the interval holding the first base of its bin,
+     *   which may be the next one. Every feature is still counted exactly once.
+     * Counts are the same as aggregated for intervals multiple of HistogramPyramid.BIN_SIZE.
+     *
+     * @param collectionName name of the collection counted by the pyramid
+     * @param query          query of the histogram
+     * @param region         region of the histogram
+     * @param intervalSize   size of the intervals, 50000 if not positive
+     * @param options        options of the aggregation of the first and last intervals
+     * @param regionParam    region parameter of the adaptor
+     * @param queryParams    all the parameters of the adaptor
+     * @param queryParser    parses queries of the adaptor into the Bson aggregated
+     * @return the frequencies, null if there is no pyramid or the query filters by anything else than the region
+     */
+    protected QueryResult getPrecomputedIntervalFrequencies(String collectionName, Query query, Region region, int intervalSize,
+                                                            QueryOptions options, QueryParam regionParam,
+                                                            QueryParam[] queryParams, Function<Query, Bson> queryParser) {
+        HistogramPyramid pyramid = HistogramPyramid.get(species, assembly, collectionName);
+        if (pyramid == null) {
+            return null;
+        }
+        // Queries built by the web services carry every URL parameter, only those of the adaptor are filters
+        for (QueryParam queryParam : queryParams) {
+            if (queryParam != regionParam && StringUtils.isNotEmpty(query.getString(queryParam.key()))) {
+                return null;
+            }
+        }
+
+        int interval = intervalSize > 0 ? intervalSize : 50000;
+        List<Document> resultList = new ArrayList<>();
+        int firstChunkId = getChunkId(region.getStart(), interval);
+        int lastChunkId = getChunkId(region.getEnd(), interval);
+        for (int chunkId = firstChunkId; chunkId <= lastChunkId; chunkId++) {
+            int start = Math.max(getChunkStart(chunkId, interval), region.getStart());
+            int end = Math.min(getChunkEnd(chunkId, interval), region.getEnd());
+            if (start > getChunkStart(chunkId, interval)
+                    || (end < getChunkEnd(chunkId, interval) && (end + 1) % HistogramPyramid.BIN_SIZE != 0)) {
+                Region edge = new Region(region.getChromosome(), start, end);
+                Query edgeQuery = new Query(query);
+                edgeQuery.put(regionParam.key(), edge.toString());
+                resultList.add((Document) getIntervalFrequencies(queryParser.apply(edgeQuery), edge, interval, options)
+                        .getResult().get(0));
+                continue;
+            }
+
+            long count = pyramid.count(region.getChromosome(), getChunkStart(chunkId, interval), end);
+            // Same fields, types and order as the aggregation output
+            Document intervalObj = new Document();
+            if (count == 0) {
+                intervalObj.put("_id", chunkId);
+            } else {
+                intervalObj.put("_id", (long) chunkId);
+                intervalObj.put("features_count", Math.log(count));
+            }
+            intervalObj.put("chromosome", region.getChromosome());
+            intervalObj.put("start", getChunkStart(chunkId, interval));
+            intervalObj.put("end", getChunkEnd(chunkId, interval));
+            if (count == 0) {
+                intervalObj.put("features_count", 0);
+            }
+            resultList.add(intervalObj);
+        }
+
+        QueryResult queryResult = new QueryResult();
+        queryResult.setResult(resultList);
+        queryResult.setId(region.toString());
+        queryResult.setResultType("frequencies");
+        return queryResult;
+    }
+
     public QueryResult getIntervalFrequencies(Bson query, Region region, int intervalSize, QueryOptions options) {
         //  MONGO QUERY TO IMPLEMENT
         //    db.variation.aggregate({$match: {$and: [{chromosome: "1"}, {start: {$gt: 251391, $lt: 2701391}}]}}, {$group:
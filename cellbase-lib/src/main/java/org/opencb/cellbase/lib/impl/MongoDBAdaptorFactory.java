@@ -25,6 +25,7 @@ import org.opencb.cellbase.core.api.*;
 import org.opencb.cellbase.core.config.CellBaseConfiguration;
 import org.opencb.cellbase.core.config.DatabaseCredentials;
 import org.opencb.cellbase.core.config.Species;
+import org.opencb.cellbase.core.metrics.MetricsRegistry;
 import org.opencb.cellbase.core.monitor.HealthStatus;
 import org.opencb.commons.datastore.core.DataStoreServerAddress;
 import org.opencb.commons.datastore.core.QueryResult;
@@ -131,6 +132,11 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
         }
     }
 
+    // DB adaptors are returned wrapped so that the latency of every method is recorded in the default MetricsRegistry
+    private <T> T instrument(Class<T> iface, T dbAdaptor) {
+        return MetricsRegistry.getDefault().instrument(iface, dbAdaptor, "db");
+    }
+
     private MongoDataStore createMongoDBDatastore(String database) {
         DatabaseCredentials mongodbCredentials = cellBaseConfiguration.getDatabases().getMongodb();
         MongoDBConfiguration mongoDBConfiguration;
@@ -303,7 +309,7 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public GenomeDBAdaptor getGenomeDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
-        return new GenomeMongoDBAdaptor(species, assembly, mongoDatastore);
+        return instrument(GenomeDBAdaptor.class, new GenomeMongoDBAdaptor(species, assembly, mongoDatastore));
     }
 
     @Override
@@ -314,7 +320,7 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public CellBaseDBAdaptor<Document> getMetaDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
-        return new MetaMongoDBAdaptor(species, assembly, mongoDatastore);
+        return instrument(CellBaseDBAdaptor.class, new MetaMongoDBAdaptor(species, assembly, mongoDatastore));
     }
 
     @Override
@@ -327,7 +333,7 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
         GeneMongoDBAdaptor geneMongoDBAdaptor = new GeneMongoDBAdaptor(species, assembly, mongoDatastore);
 //        geneMongoDBAdaptor.setClinicalDBAdaptor(getClinicalLegacyDBAdaptor(species, assembly));
-        return geneMongoDBAdaptor;
+        return instrument(GeneDBAdaptor.class, geneMongoDBAdaptor);
     }
 
 
@@ -339,7 +345,7 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public TranscriptDBAdaptor getTranscriptDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
-        return new TranscriptMongoDBAdaptor(species, assembly, mongoDatastore);
+        return instrument(TranscriptDBAdaptor.class, new TranscriptMongoDBAdaptor(species, assembly, mongoDatastore));
     }
 
 
@@ -351,7 +357,7 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public ConservationDBAdaptor getConservationDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
-        return new ConservationMongoDBAdaptor(species, assembly, mongoDatastore);
+        return instrument(ConservationDBAdaptor.class, new ConservationMongoDBAdaptor(species, assembly, mongoDatastore));
     }
 
 
@@ -363,7 +369,7 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public XRefDBAdaptor getXRefDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
-        return new XRefMongoDBAdaptor(species, assembly, mongoDatastore);
+        return instrument(XRefDBAdaptor.class, new XRefMongoDBAdaptor(species, assembly, mongoDatastore));
     }
 
 
@@ -375,7 +381,7 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public VariantDBAdaptor getVariationDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
-        return new VariantMongoDBAdaptor(species, assembly, mongoDatastore);
+        return instrument(VariantDBAdaptor.class, new VariantMongoDBAdaptor(species, assembly, mongoDatastore));
     }
 
 //    @Override
@@ -410,7 +416,7 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public ClinicalDBAdaptor getClinicalLegacyDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
-        return new ClinicalLegacyMongoDBAdaptor(species, assembly, mongoDatastore);
+        return instrument(ClinicalDBAdaptor.class, new ClinicalLegacyMongoDBAdaptor(species, assembly, mongoDatastore));
     }
 
     @Override
@@ -421,13 +427,13 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public ClinicalDBAdaptor getClinicalDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
-        return new ClinicalMongoDBAdaptor(species, assembly, mongoDatastore);
+        return instrument(ClinicalDBAdaptor.class, new ClinicalMongoDBAdaptor(species, assembly, mongoDatastore));
     }
 
     @Override
     public RepeatsDBAdaptor getRepeatsDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
-        return new RepeatsMongoDBAdaptor(species, assembly, mongoDatastore);
+        return instrument(RepeatsDBAdaptor.class, new RepeatsMongoDBAdaptor(species, assembly, mongoDatastore));
     }
 
 
@@ -465,7 +471,7 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public ProteinDBAdaptor getProteinDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
-        return new ProteinMongoDBAdaptor(species, assembly, mongoDatastore);
+        return instrument(ProteinDBAdaptor.class, new ProteinMongoDBAdaptor(species, assembly, mongoDatastore));
     }
 
 
@@ -477,7 +483,8 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public ProteinProteinInteractionDBAdaptor getProteinProteinInteractionDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
-        return new ProteinProteinInteractionMongoDBAdaptor(species, assembly, mongoDatastore);
+        return instrument(ProteinProteinInteractionDBAdaptor.class,
+                new ProteinProteinInteractionMongoDBAdaptor(species, assembly, mongoDatastore));
     }
 
 
@@ -489,7 +496,7 @@ public class MongoDBAdaptorFactory extends DBAdaptorFactory {
     @Override
     public RegulationDBAdaptor getRegulationDBAdaptor(String species, String assembly) {
         MongoDataStore mongoDatastore = createMongoDBDatastore(species, assembly);
-        return new RegulationMongoDBAdaptor(species, assembly, mongoDatastore);
+        return instrument(RegulationDBAdaptor.class, new RegulationMongoDBAdaptor(species, assembly, mongoDatastore));
     }
 //
 //    @Override
@@ -78,6 +78,11 @@ public class RegulationMongoDBAdaptor extends MongoDBAdaptor implements Regulati
     public QueryResult getIntervalFrequencies(Query query, int intervalSize, QueryOptions options) {
         if (query.getString(QueryParams.REGION.key()) != null) {
             Region region = Region.parseRegion(query.getString(QueryParams.REGION.key()));
+            QueryResult queryResult = getPrecomputedIntervalFrequencies("regulatory_region", query, region, intervalSize, options,
+                    QueryParams.REGION, QueryParams.values(), this::parseQuery);
+            if (queryResult != null) {
+                return queryResult;
+            }
             Bson bsonDocument = parseQuery(query);
             return getIntervalFrequencies(bsonDocument, region, intervalSize, options);
         }
@@ -131,6 +136,12 @@ public class RegulationMongoDBAdaptor extends MongoDBAdaptor implements Regulati
         return mongoDBCollection.nativeQuery().find(bson, options).iterator();
     }
 
+    @Override
+    public Iterator rawIterator(Query query, QueryOptions options) {
+        Bson bson = parseQuery(query);
+        return rawFind("regulatory_region", bson, options).iterator();
+    }
+
     @Override
     public void forEach(Query query, Consumer<? super Object> action, QueryOptions options) {
 
@@ -123,6 +123,12 @@ public class TranscriptMongoDBAdaptor extends MongoDBAdaptor implements Transcri
 //        return mongoDBCollection.nativeQuery().find(bson, options).iterator();
     }
 
+    @Override
+    public Iterator rawIterator(Query query, QueryOptions options) {
+        List<Bson> aggregateList = unwindAndMatchTranscripts(query, options);
+        return rawAggregate("gene", aggregateList, options).iterator();
+    }
+
     @Override
     public void forEach(Query query, Consumer action, QueryOptions options) {
 
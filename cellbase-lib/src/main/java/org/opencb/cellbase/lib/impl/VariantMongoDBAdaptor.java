@@ -25,12 +25,14 @@ import com.mongodb.client.model.Projections;
 import org.apache.commons.lang3.StringUtils;
 import org.bson.Document;
 import org.bson.conversions.Bson;
+import org.bson.types.Binary;
 import org.opencb.biodata.models.core.Region;
 import org.opencb.biodata.models.variant.Variant;
 import org.opencb.biodata.models.variant.avro.Score;
 import org.opencb.biodata.models.variant.avro.StructuralVariantType;
 import org.opencb.biodata.models.variant.avro.VariantType;
 import org.opencb.cellbase.core.api.VariantDBAdaptor;
+import org.opencb.cellbase.core.common.GenomicScoreCodec;
 import org.opencb.cellbase.core.variant.annotation.VariantAnnotationUtils;
 import org.opencb.cellbase.lib.MongoDBCollectionConfiguration;
 import org.opencb.cellbase.lib.VariantMongoIterator;
@@ -99,6 +101,11 @@ public class VariantMongoDBAdaptor extends MongoDBAdaptor implements VariantDBAd
     public QueryResult getIntervalFrequencies(Query query, int intervalSize, QueryOptions options) {
         if (query.getString(QueryParams.REGION.key()) != null) {
             Region region = Region.parseRegion(query.getString(QueryParams.REGION.key()));
+            QueryResult queryResult = getPrecomputedIntervalFrequencies("variation", query, region, intervalSize, options,
+                    QueryParams.REGION, QueryParams.values(), this::parseQuery);
+            if (queryResult != null) {
+                return queryResult;
+            }
             Bson bsonDocument = parseQuery(query);
             return getIntervalFrequencies(bsonDocument, region, intervalSize, options);
         }
@@ -488,16 +495,15 @@ public class VariantMongoDBAdaptor extends MongoDBAdaptor implements VariantDBAd
             // will contain queried position - one for raw and one for scaled values
             if (position >= chunkStart && position <= chunkEnd) {
                 int offset = (position - chunkStart);
-                ArrayList basicDBList = dbObject.get("values", ArrayList.class);
-
-//                long l1 = 0L; // TODO: delete
-//                try { // TODO: delete
-                long l1 = Long.parseLong(basicDBList.get(offset).toString());
-//                                 l1 = (Long) basicDBList.get(offset);
-//                } catch (Exception e) {  // TODO: delete
-//                    logger.error("problematic variant: {}", variant.toString());
-//                    throw e;
-//                }
+                // Packed scores are stored in a BSON binary field, collections loaded before the binary format was
+                // introduced store them as an array of int64
+                Object values = dbObject.get("values");
+                long l1;
+                if (values instanceof Binary) {
+                    l1 = GenomicScoreCodec.decodeCadd(((Binary) values).getData(), offset);
+                } else {
+                    l1 = Long.parseLong(((List) values).get(offset).toString());
+                }
 
                 if (dbObject.getString("source").equalsIgnoreCase("cadd_raw")) {
                     float value = 0f;
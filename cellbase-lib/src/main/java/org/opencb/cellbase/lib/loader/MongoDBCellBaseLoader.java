@@ -28,9 +28,11 @@ import com.mongodb.bulk.BulkWriteResult;
 import org.apache.commons.lang3.StringUtils;
 import org.bson.BsonSerializationException;
 import org.bson.Document;
+import org.bson.types.Binary;
 import org.opencb.biodata.formats.io.FileFormatException;
 import org.opencb.cellbase.core.api.CellBaseDBAdaptor;
 import org.opencb.cellbase.core.api.DBAdaptorFactory;
+import org.opencb.cellbase.core.common.GenomicScoreCodec;
 import org.opencb.cellbase.core.config.CellBaseConfiguration;
 import org.opencb.cellbase.core.config.DatabaseCredentials;
 import org.opencb.cellbase.core.loader.CellBaseLoader;
@@ -415,6 +417,7 @@ public class MongoDBCellBaseLoader extends CellBaseLoader {
                         Document document = Document.parse(jsonLine);
                         addChunkId(document);
                         addClinicalPrivateFields(document);
+                        decodeBinaryScores(document);
 //                        addVariationPrivateFields(document);
                         documentBatch.add(document);
                     }
@@ -439,6 +442,14 @@ public class MongoDBCellBaseLoader extends CellBaseLoader {
 //        }
 //    }
 
+    private void decodeBinaryScores(Document document) {
+        // Encoded conservation and CADD values come as a base64 string in the JSON files, they must be stored as
+        // BSON binary to get the size and decoding benefits
+        if (document.containsKey(GenomicScoreCodec.ENCODING_FIELD) && document.get("values") instanceof String) {
+            document.put("values", new Binary(Base64.getDecoder().decode(document.getString("values"))));
+        }
+    }
+
     private void addClinicalPrivateFields(Document document) throws JsonProcessingException, FileFormatException {
         if (collectionName.equals(CLINICAL_VARIANTS_COLLECTION)) {
             Document annotationDocument = (Document) document.get("annotation");
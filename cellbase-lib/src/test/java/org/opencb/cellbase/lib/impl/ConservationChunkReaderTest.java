@@ -0,0 +1,128 @@
+package org.opencb.cellbase.lib.impl;
+
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.Test;
+import org.opencb.biodata.models.core.Region;
+import org.opencb.cellbase.core.common.GenomicScoreCodec;
+import org.opencb.cellbase.lib.MongoDBCollectionConfiguration;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ConservationChunkReaderTest {
+
+    @Test
+    public void decodeChunk() throws Exception {
+        List<Region> regions = Arrays.asList(new Region("1", 1998, 2003), new Region("1", 2001, 2001),
+                new Region("2", 2000, 2001));
+        Map<String, List<Integer>> regionIndexesByChromosome = new HashMap<>();
+        regionIndexesByChromosome.put("1", Arrays.asList(0, 1));
+        regionIndexesByChromosome.put("2", Collections.singletonList(2));
+        List<Map<String, float[]>> scores = Arrays.asList(new HashMap<>(), new HashMap<>(), new HashMap<>());
+
+        Document chunk = new Document("chromosome", "1")
+                .append("start", 2000)
+                .append("source", "phastCons")
+                .append("values", Arrays.asList(0.5, 0.25, 0.125));
+        ConservationChunkReader.decodeChunk(chunk, regions, regionIndexesByChromosome, scores);
+
+        // Positions not covered by the chunk must be NaN
+        assertArrayEquals(new float[]{Float.NaN, Float.NaN, 0.5f, 0.25f, 0.125f, Float.NaN},
+                scores.get(0).get("phastCons"), 0f);
+        assertArrayEquals(new float[]{0.25f}, scores.get(1).get("phastCons"), 0f);
+        // Chunk is on a different chromosome
+        assertTrue(scores.get(2).isEmpty());
+
+        chunk = new Document("chromosome", "1")
+                .append("start", 1998)
+                .append("source", "gerp")
+                .append("values", Arrays.asList(-1.5, 2.0));
+        ConservationChunkReader.decodeChunk(chunk, regions, regionIndexesByChromosome, scores);
+        assertArrayEquals(new float[]{-1.5f, 2.0f, Float.NaN, Float.NaN, Float.NaN, Float.NaN},
+                scores.get(0).get("gerp"), 0f);
+        // Region 1:2001-2001 does not overlap the gerp chunk
+        assertNull(scores.get(1).get("gerp"));
+    }
+
+    @Test
+    public void normalize() throws Exception {
+        Region region = new Region("1", -5, 0);
+        Region normalized = ConservationChunkReader.normalize(Collections.singletonList(region)).get(0);
+        assertEquals(1, normalized.getStart());
+        assertEquals(1, normalized.getEnd());
+        // Regions of the caller are not modified
+        assertEquals(-5, region.getStart());
+        assertEquals(0, region.getEnd());
+
+        // Large regions are not truncated
+        region = new Region("1", 1000, 248956422);
+        assertSame(region, ConservationChunkReader.normalize(Collections.singletonList(region)).get(0));
+        assertEquals(248956422, region.getEnd());
+    }
+
+    @Test
+    public void decodeEmptyChunk() throws Exception {
+        List<Region> regions = Collections.singletonList(new Region("1", 1, 10));
+        Map<String, List<Integer>> regionIndexesByChromosome = Collections.singletonMap("1", Collections.singletonList(0));
+        List<Map<String, float[]>> scores = Collections.singletonList(new HashMap<>());
+
+        ConservationChunkReader.decodeChunk(new Document("chromosome", "1").append("start", 1).append("source", "phylop"),
+                regions, regionIndexesByChromosome, scores);
+        assertTrue(scores.get(0).isEmpty());
+    }
+
+    @Test
+    public void decodeBinaryChunk() throws Exception {
+        List<Region> regions = Collections.singletonList(new Region("1", 2001, 2004));
+        Map<String, List<Integer>> regionIndexesByChromosome = Collections.singletonMap("1", Collections.singletonList(0));
+        List<Map<String, float[]>> scores = Collections.singletonList(new HashMap<>());
+
+        byte[] values = GenomicScoreCodec.encodeConservation(Arrays.asList(0.5f, 0.25f, null, -3.125f));
+        Document chunk = new Document("chromosome", "1")
+                .append("start", 2000)
+                .append("source", "phylop")
+                .append(GenomicScoreCodec.ENCODING_FIELD, GenomicScoreCodec.CONSERVATION_ENCODING)
+                .append("values", new Binary(values));
+        ConservationChunkReader.decodeChunk(chunk, regions, regionIndexesByChromosome, scores);
+
+        assertArrayEquals(new float[]{0.25f, Float.NaN, -3.125f, Float.NaN}, scores.get(0).get("phylop"), 0.0005f);
+    }
+
+    @Test
+    public void readLargeRegion() throws Exception {
+        int chunkSize = MongoDBCollectionConfiguration.CONSERVATION_CHUNK_SIZE;
+        Region region = new Region("1", 1, 1200000);
+        // Chunks with the binary values of every position, keyed by chunk id
+        Map<String, Document> chunks = new HashMap<>();
+        for (int chunkId = 0; chunkId <= region.getEnd() / chunkSize; chunkId++) {
+            List<Float> chunkValues = new ArrayList<>(chunkSize);
+            for (int position = chunkId * chunkSize; position < (chunkId + 1) * chunkSize; position++) {
+                chunkValues.add((position % 1000) / 1000f);
+            }
+            chunks.put("1_" + chunkId + "_" + chunkSize / 1000 + "k", new Document("chromosome", "1")
+                    .append("start", chunkId * chunkSize)
+                    .append("source", "phastCons")
+                    .append(GenomicScoreCodec.ENCODING_FIELD, GenomicScoreCodec.CONSERVATION_ENCODING)
+                    .append("values", new Binary(GenomicScoreCodec.encodeConservation(chunkValues))));
+        }
+
+        List<Integer> pageSizes = new ArrayList<>();
+        List<Map<String, float[]>> scores = ConservationChunkReader.read(Collections.singletonList(region), (chunkIds, consumer) -> {
+            pageSizes.add(chunkIds.size());
+            for (String chunkId : chunkIds) {
+                consumer.accept(chunks.get(chunkId));
+            }
+        });
+
+        // 601 chunk ids are queried in two pages, and every position up to the end of the region is scored
+        assertEquals(Arrays.asList(ConservationChunkReader.MAX_CHUNK_IDS_PER_QUERY, 601 - ConservationChunkReader.MAX_CHUNK_IDS_PER_QUERY),
+                pageSizes);
+        float[] phastCons = scores.get(0).get("phastCons");
+        assertEquals(1200000, phastCons.length);
+        for (int position = region.getStart(); position <= region.getEnd(); position++) {
+            assertEquals((position % 1000) / 1000f, phastCons[position - region.getStart()], 0.0005f);
+        }
+    }
+}
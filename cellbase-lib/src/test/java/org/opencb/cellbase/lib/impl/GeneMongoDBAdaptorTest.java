@@ -1,5 +1,6 @@
 package org.opencb.cellbase.lib.impl;
 
+import org.bson.Document;
 import org.hamcrest.CoreMatchers;
 import org.junit.Before;
 import org.junit.Test;
@@ -7,6 +8,8 @@ import org.opencb.biodata.models.core.Gene;
 import org.opencb.biodata.models.variant.avro.Expression;
 import org.opencb.biodata.models.variant.avro.ExpressionCall;
 import org.opencb.cellbase.core.api.GeneDBAdaptor;
+import org.opencb.cellbase.core.common.GeneSearchIndex;
+import org.opencb.cellbase.core.common.HistogramPyramid;
 import org.opencb.cellbase.lib.GenericMongoDBAdaptorTest;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
@@ -15,6 +18,7 @@ import org.opencb.commons.datastore.core.QueryResult;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
@@ -107,4 +111,87 @@ public class GeneMongoDBAdaptorTest extends GenericMongoDBAdaptorTest {
         }
         assertEquals(true, found);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void precomputedIntervalFrequencies() throws Exception {
+        GeneDBAdaptor geneDBAdaptor = dbAdaptorFactory.getGeneDBAdaptor("hsapiens", "GRCh37");
+        // Regions aligned to the pyramid bins, and regions starting within a chunk, e.g. within BRCA2 which starts at
+        // 32889611, or ending within a bin
+        String[] regions = {"1:1-2097151", "13:32505856-33554431", "22:1-1048575", "13:32890000-33554431",
+                "13:32505856-32900000", "13:32890000-32980000"};
+        int[] intervals = {131072, 1024, 1048576};
+
+        QueryResult[] aggregated = new QueryResult[regions.length * intervals.length];
+        for (int i = 0; i < regions.length; i++) {
+            for (int j = 0; j < intervals.length; j++) {
+                aggregated[i * intervals.length + j] = geneDBAdaptor.getIntervalFrequencies(
+                        new Query(GeneDBAdaptor.QueryParams.REGION.key(), regions[i]), intervals[j], new QueryOptions());
+            }
+        }
+        Query query = new Query(GeneDBAdaptor.QueryParams.REGION.key(), "13:32890000-33554431");
+        QueryResult aggregatedUnaligned = geneDBAdaptor.getIntervalFrequencies(query, 200000, new QueryOptions());
+
+        HistogramPyramid.register("hsapiens", "GRCh37", "gene", HistogramPyramid.build(geneDBAdaptor));
+        try {
+            // Intervals made of whole bins, counts are the same as aggregated
+            for (int i = 0; i < regions.length; i++) {
+                for (int j = 0; j < intervals.length; j++) {
+                    Query regionQuery = new Query(GeneDBAdaptor.QueryParams.REGION.key(), regions[i]);
+                    // Parameters not of the adaptor, e.g. of the web services, do not prevent using the pyramid
+                    regionQuery.put("histogram", "true");
+                    QueryResult precomputed = geneDBAdaptor.getIntervalFrequencies(regionQuery, intervals[j], new QueryOptions());
+                    assertEquals(regions[i] + " " + intervals[j], toStrings(aggregated[i * intervals.length + j].getResult()),
+                            toStrings(precomputed.getResult()));
+                }
+            }
+
+            // Intervals not made of whole bins are rounded to them, except the first and last ones, and still count
+            // every feature once
+            List<?> unaligned = geneDBAdaptor.getIntervalFrequencies(query, 200000, new QueryOptions()).getResult();
+            List<?> expected = aggregatedUnaligned.getResult();
+            assertEquals(expected.size(), unaligned.size());
+            assertEquals(expected.get(0).toString(), unaligned.get(0).toString());
+            assertEquals(expected.get(expected.size() - 1).toString(), unaligned.get(unaligned.size() - 1).toString());
+            assertEquals(countFeatures(expected), countFeatures(unaligned));
+
+            // Other filters are aggregated
+            query.put(GeneDBAdaptor.QueryParams.BIOTYPE.key(), "protein_coding");
+            QueryResult filtered = geneDBAdaptor.getIntervalFrequencies(query, 131072, new QueryOptions());
+            HistogramPyramid.unregister("hsapiens", "GRCh37", "gene");
+            assertEquals(toStrings(geneDBAdaptor.getIntervalFrequencies(query, 131072, new QueryOptions()).getResult()),
+                    toStrings(filtered.getResult()));
+        } finally {
+            HistogramPyramid.unregister("hsapiens", "GRCh37", "gene");
+        }
+    }
+
+    @Test
+    public void geneSearchIndex() throws Exception {
+        GeneDBAdaptor geneDBAdaptor = dbAdaptorFactory.getGeneDBAdaptor("hsapiens", "GRCh37");
+        GeneSearchIndex geneSearchIndex = GeneSearchIndex.build(geneDBAdaptor);
+        assertEquals(24, geneSearchIndex.size());
+
+        List<GeneSearchIndex.Match> matches = geneSearchIndex.search("brca", 0, 10);
+        assertEquals("BRCA2", matches.get(0).getName());
+        assertEquals("ENSG00000139618", matches.get(0).getId());
+        assertEquals("13", matches.get(0).getChromosome());
+        assertEquals("BRCA2", geneSearchIndex.search("ENSG00000139618", 0, 10).get(0).getName());
+        assertEquals("BRCA2", geneSearchIndex.search("BRCX2", 1, 10).get(0).getName());
+    }
+
+    private static long countFeatures(List<?> intervals) {
+        long count = 0;
+        for (Object interval : intervals) {
+            // Counts are given as their logarithm, empty intervals as an integer 0
+            Object featuresCount = ((Document) interval).get("features_count");
+            if (featuresCount instanceof Double) {
+                count += Math.round(Math.exp((Double) featuresCount));
+            }
+        }
+        return count;
+    }
+
+    private static List<String> toStrings(List<?> intervals) {
+        return intervals.stream().map(Object::toString).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,73 @@
+package org.opencb.cellbase.lib.impl;
+
+import org.junit.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+
+    @Test
+    public void concurrentCallsAreCoalesced() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> first = executorService.submit(() -> singleFlight.execute("BRCA2", () -> {
+                executions.incrementAndGet();
+                started.countDown();
+                await(release);
+                return 42;
+            }));
+            started.await();
+
+            AtomicInteger second = new AtomicInteger();
+            Thread thread = new Thread(() -> second.set(singleFlight.execute("BRCA2", executions::incrementAndGet)));
+            thread.start();
+            // The second call parks waiting for the first one
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+            thread.join();
+
+            assertEquals(42, first.get().intValue());
+            assertEquals(42, second.get());
+            assertEquals(1, executions.get());
+            assertEquals(0, singleFlight.getInFlight());
+
+            // Once finished nothing is kept, next call runs again
+            assertEquals(2, singleFlight.execute("BRCA2", executions::incrementAndGet).intValue());
+        } finally {
+            executorService.shutdownNow();
+        }
+    }
+
+    @Test
+    public void exceptionsArePropagatedAndForgotten() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        try {
+            singleFlight.execute("TP53", () -> {
+                throw new IllegalStateException("database down");
+            });
+            fail("Exception expected");
+        } catch (IllegalStateException e) {
+            assertEquals("database down", e.getMessage());
+        }
+        assertEquals(0, singleFlight.getInFlight());
+        assertEquals(1, singleFlight.execute("TP53", () -> 1).intValue());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -17,6 +17,9 @@ import org.opencb.commons.datastore.core.QueryOptions;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -207,7 +210,30 @@ public class HgvsCalculatorTest extends GenericMongoDBAdaptorTest {
 
     }
 
+    @Test
+    public void runBatch() throws Exception {
+        // Close indels share the same neighbouring sequence query
+        List<Variant> variantList = Arrays.asList(new Variant("22", 38308486, "C", "T"),
+                new Variant("22", 38379525, "G", "-"), new Variant("19", 45411941, "T", "C"),
+                new Variant("13", 25457289, "G", "A"), new Variant("13", 25496789, "C", "G"));
+
+        List<Gene> geneList = new ArrayList<>();
+        for (Variant variant : variantList) {
+            geneList.addAll(getGenes(variant));
+        }
+
+        List<List<String>> hgvsLists = hgvsCalculator.run(variantList, geneList, true);
+        assertEquals(variantList.size(), hgvsLists.size());
+        for (int i = 0; i < variantList.size(); i++) {
+            assertEquals(new HashSet<>(getVariantHgvs(variantList.get(i))), new HashSet<>(hgvsLists.get(i)));
+        }
+    }
+
     private List<String> getVariantHgvs(Variant variant) {
+        return hgvsCalculator.run(variant, getGenes(variant));
+    }
+
+    private List<Gene> getGenes(Variant variant) {
 
         List<Gene> geneList = geneDBAdaptor
                 .getByRegion(new Region(variant.getChromosome(), variant.getStart(),
@@ -217,9 +243,9 @@ public class HgvsCalculatorTest extends GenericMongoDBAdaptorTest {
                         + "transcripts.cdnaCodingEnd,transcripts.exons.start,"
                         + "transcripts.exons.genomicCodingStart,transcripts.exons.genomicCodingEnd,"
                         + "transcripts.exons.cdsStart,transcripts.exons.cdsEnd,"
-                        + "transcripts.exons.end")).getResult();
+                        + "transcripts.exons.end,chromosome")).getResult();
 
-        return hgvsCalculator.run(variant, geneList);
+        return geneList;
     }
 
 }
\ No newline at end of file
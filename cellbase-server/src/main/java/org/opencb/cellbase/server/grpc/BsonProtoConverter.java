@@ -0,0 +1,490 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.server.grpc;
+
+import org.bson.BsonBinaryReader;
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.opencb.biodata.models.core.protobuf.GeneModel;
+import org.opencb.biodata.models.core.protobuf.RegulatoryRegionModel;
+import org.opencb.biodata.models.core.protobuf.TranscriptModel;
+
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+import java.util.function.IntConsumer;
+
+/**
+ * Converts raw BSON documents into protobuf messages reading them field by field with a BsonReader, no Document tree
+ * is created. Messages are the same than those created by ProtoConverterUtils: missing strings are set to "" and
+ * missing numbers to -1, unknown fields are skipped.
+ */
+public final class BsonProtoConverter {
+
+    private BsonProtoConverter() {
+    }
+
+    /**
+     * Converts a document returned by a raw or native iterator, documents not in raw BSON are converted with
+     * ProtoConverterUtils.
+     *
+     * @param document RawBsonDocument or Document
+     * @return gene message
+     */
+    public static GeneModel.Gene createGene(Object document) {
+        if (document instanceof RawBsonDocument) {
+            try (BsonBinaryReader reader = createReader((RawBsonDocument) document)) {
+                return readGene(reader);
+            }
+        }
+        return ProtoConverterUtils.createGene((Document) document);
+    }
+
+    /**
+     * Converts a document returned by a raw or native iterator, documents not in raw BSON are converted with
+     * ProtoConverterUtils.
+     *
+     * @param document RawBsonDocument or Document
+     * @return transcript message
+     */
+    public static TranscriptModel.Transcript createTranscript(Object document) {
+        if (document instanceof RawBsonDocument) {
+            try (BsonBinaryReader reader = createReader((RawBsonDocument) document)) {
+                return readTranscript(reader);
+            }
+        }
+        return ProtoConverterUtils.createTranscript((Document) document);
+    }
+
+    /**
+     * Converts a document returned by a raw or native iterator, documents not in raw BSON are converted with
+     * ProtoConverterUtils.
+     *
+     * @param document RawBsonDocument or Document
+     * @return regulatory region message
+     */
+    public static RegulatoryRegionModel.RegulatoryRegion createRegulatoryRegion(Object document) {
+        if (document instanceof RawBsonDocument) {
+            try (BsonBinaryReader reader = createReader((RawBsonDocument) document)) {
+                return readRegulatoryRegion(reader);
+            }
+        }
+        return ProtoConverterUtils.createRegulatoryRegion((Document) document);
+    }
+
+    static GeneModel.Gene readGene(BsonReader reader) {
+        GeneModel.Gene.Builder builder = GeneModel.Gene.newBuilder()
+                .setStart(-1)
+                .setEnd(-1);
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "id":
+                    readString(reader, builder::setId);
+                    break;
+                case "name":
+                    readString(reader, builder::setName);
+                    break;
+                case "chromosome":
+                    readString(reader, builder::setChromosome);
+                    break;
+                case "start":
+                    readInt(reader, builder::setStart);
+                    break;
+                case "end":
+                    readInt(reader, builder::setEnd);
+                    break;
+                case "biotype":
+                    readString(reader, builder::setBiotype);
+                    break;
+                case "status":
+                    readString(reader, builder::setStatus);
+                    break;
+                case "strand":
+                    readString(reader, builder::setStrand);
+                    break;
+                case "source":
+                    readString(reader, builder::setSource);
+                    break;
+                case "description":
+                    readString(reader, builder::setDescription);
+                    break;
+                case "transcripts":
+                    readDocumentArray(reader, () -> builder.addTranscripts(readTranscript(reader)));
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.readEndDocument();
+        return builder.build();
+    }
+
+    static TranscriptModel.Transcript readTranscript(BsonReader reader) {
+        TranscriptModel.Transcript.Builder builder = TranscriptModel.Transcript.newBuilder()
+                .setStart(-1)
+                .setEnd(-1)
+                .setGenomicCodingStart(-1)
+                .setGenomicCodingEnd(-1)
+                .setCdnaCodingStart(-1)
+                .setCdnaCodingEnd(-1)
+                .setCdsLength(-1);
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "id":
+                    readString(reader, builder::setId);
+                    break;
+                case "name":
+                    readString(reader, builder::setName);
+                    break;
+                case "biotype":
+                    readString(reader, builder::setBiotype);
+                    break;
+                case "status":
+                    readString(reader, builder::setStatus);
+                    break;
+                case "chromosome":
+                    readString(reader, builder::setChromosome);
+                    break;
+                case "start":
+                    readInt(reader, builder::setStart);
+                    break;
+                case "end":
+                    readInt(reader, builder::setEnd);
+                    break;
+                case "strand":
+                    readString(reader, builder::setStrand);
+                    break;
+                case "genomicCodingStart":
+                    readInt(reader, builder::setGenomicCodingStart);
+                    break;
+                case "genomicCodingEnd":
+                    readInt(reader, builder::setGenomicCodingEnd);
+                    break;
+                case "cdnaCodingStart":
+                    readInt(reader, builder::setCdnaCodingStart);
+                    break;
+                case "cdnaCodingEnd":
+                    readInt(reader, builder::setCdnaCodingEnd);
+                    break;
+                case "cdsLength":
+                    readInt(reader, builder::setCdsLength);
+                    break;
+                case "proteinID":
+                    // ProtoConverterUtils sets proteinSequence from proteinID too, both converters must return the same
+                    readString(reader, proteinId -> builder.setProteinId(proteinId).setProteinSequence(proteinId));
+                    break;
+                case "cDnaSequence":
+                    readString(reader, builder::setCdnaSequence);
+                    break;
+                case "xrefs":
+                    readDocumentArray(reader, () -> builder.addXrefs(readXref(reader)));
+                    break;
+                case "tfbs":
+                    readDocumentArray(reader, () -> builder.addTfbs(readTranscriptTfbs(reader)));
+                    break;
+                case "exons":
+                    readDocumentArray(reader, () -> builder.addExons(readExon(reader)));
+                    break;
+                case "annotationFlags":
+                    readStringArray(reader, builder::addAnnotationFlags);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.readEndDocument();
+        return builder.build();
+    }
+
+    static TranscriptModel.Xref readXref(BsonReader reader) {
+        TranscriptModel.Xref.Builder builder = TranscriptModel.Xref.newBuilder();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "id":
+                    readString(reader, builder::setId);
+                    break;
+                case "dbName":
+                    readString(reader, builder::setDbName);
+                    break;
+                case "dbDisplayName":
+                    readString(reader, builder::setDbDisplayName);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.readEndDocument();
+        return builder.build();
+    }
+
+    static TranscriptModel.Exon readExon(BsonReader reader) {
+        TranscriptModel.Exon.Builder builder = TranscriptModel.Exon.newBuilder()
+                .setStart(-1)
+                .setEnd(-1)
+                .setGenomicCodingStart(-1)
+                .setGenomicCodingEnd(-1)
+                .setCdnaCodingStart(-1)
+                .setCdnaCodingEnd(-1)
+                .setCdsStart(-1)
+                .setCdsEnd(-1)
+                .setPhase(-1)
+                .setExonNumber(-1);
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "id":
+                    readString(reader, builder::setId);
+                    break;
+                case "chromosome":
+                    readString(reader, builder::setChromosome);
+                    break;
+                case "start":
+                    readInt(reader, builder::setStart);
+                    break;
+                case "end":
+                    readInt(reader, builder::setEnd);
+                    break;
+                case "strand":
+                    readString(reader, builder::setStrand);
+                    break;
+                case "genomicCodingStart":
+                    readInt(reader, builder::setGenomicCodingStart);
+                    break;
+                case "genomicCodingEnd":
+                    readInt(reader, builder::setGenomicCodingEnd);
+                    break;
+                case "cdnaCodingStart":
+                    readInt(reader, builder::setCdnaCodingStart);
+                    break;
+                case "cdnaCodingEnd":
+                    readInt(reader, builder::setCdnaCodingEnd);
+                    break;
+                case "cdsStart":
+                    readInt(reader, builder::setCdsStart);
+                    break;
+                case "cdsEnd":
+                    readInt(reader, builder::setCdsEnd);
+                    break;
+                case "phase":
+                    readInt(reader, builder::setPhase);
+                    break;
+                case "exonNumber":
+                    readInt(reader, builder::setExonNumber);
+                    break;
+                case "sequence":
+                    readString(reader, builder::setSequence);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.readEndDocument();
+        return builder.build();
+    }
+
+    static TranscriptModel.TranscriptTfbs readTranscriptTfbs(BsonReader reader) {
+        TranscriptModel.TranscriptTfbs.Builder builder = TranscriptModel.TranscriptTfbs.newBuilder()
+                .setStart(-1)
+                .setEnd(-1)
+                .setRelativeStart(-1)
+                .setRelativeEnd(-1)
+                .setScore(-1);
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "tfName":
+                    readString(reader, builder::setTfName);
+                    break;
+                case "pwm":
+                    readString(reader, builder::setPwm);
+                    break;
+                case "chromosome":
+                    readString(reader, builder::setChromosome);
+                    break;
+                case "start":
+                    readInt(reader, builder::setStart);
+                    break;
+                case "end":
+                    readInt(reader, builder::setEnd);
+                    break;
+                case "strand":
+                    readString(reader, builder::setStrand);
+                    break;
+                case "relativeStart":
+                    readInt(reader, builder::setRelativeStart);
+                    break;
+                case "relativeEnd":
+                    readInt(reader, builder::setRelativeEnd);
+                    break;
+                case "score":
+                    readDouble(reader, score -> builder.setScore((float) score));
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.readEndDocument();
+        return builder.build();
+    }
+
+    static RegulatoryRegionModel.RegulatoryRegion readRegulatoryRegion(BsonReader reader) {
+        RegulatoryRegionModel.RegulatoryRegion.Builder builder = RegulatoryRegionModel.RegulatoryRegion.newBuilder()
+                .setStart(-1)
+                .setEnd(-1);
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            switch (reader.readName()) {
+                case "id":
+                    readString(reader, builder::setId);
+                    break;
+                case "chromosome":
+                    readString(reader, builder::setChromosome);
+                    break;
+                case "source":
+                    readString(reader, builder::setSource);
+                    break;
+                case "featureType":
+                    readString(reader, builder::setFeatureType);
+                    break;
+                case "start":
+                    readInt(reader, builder::setStart);
+                    break;
+                case "end":
+                    readInt(reader, builder::setEnd);
+                    break;
+                case "score":
+                    readString(reader, builder::setScore);
+                    break;
+                case "strand":
+                    readString(reader, builder::setStrand);
+                    break;
+                case "frame":
+                    readString(reader, builder::setFrame);
+                    break;
+                case "itemRGB":
+                    readString(reader, builder::setItemRGB);
+                    break;
+                case "name":
+                    readString(reader, builder::setName);
+                    break;
+                case "featureClass":
+                    readString(reader, builder::setFeatureClass);
+                    break;
+                case "alias":
+                    readString(reader, builder::setAlias);
+                    break;
+                case "cellTypes":
+                    readStringArray(reader, builder::addCellTypes);
+                    break;
+                case "matrix":
+                    readString(reader, builder::setMatrix);
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.readEndDocument();
+        return builder.build();
+    }
+
+    private static BsonBinaryReader createReader(RawBsonDocument document) {
+        return new BsonBinaryReader(document.getByteBuffer().asNIO());
+    }
+
+    private static void readString(BsonReader reader, Consumer<String> setter) {
+        if (reader.getCurrentBsonType() == BsonType.STRING) {
+            setter.accept(reader.readString());
+        } else {
+            reader.skipValue();
+        }
+    }
+
+    private static void readInt(BsonReader reader, IntConsumer setter) {
+        switch (reader.getCurrentBsonType()) {
+            case INT32:
+                setter.accept(reader.readInt32());
+                break;
+            case INT64:
+                setter.accept((int) reader.readInt64());
+                break;
+            default:
+                reader.skipValue();
+                break;
+        }
+    }
+
+    private static void readDouble(BsonReader reader, DoubleConsumer setter) {
+        switch (reader.getCurrentBsonType()) {
+            case DOUBLE:
+                setter.accept(reader.readDouble());
+                break;
+            case INT32:
+                setter.accept(reader.readInt32());
+                break;
+            case INT64:
+                setter.accept(reader.readInt64());
+                break;
+            default:
+                reader.skipValue();
+                break;
+        }
+    }
+
+    private static void readStringArray(BsonReader reader, Consumer<String> adder) {
+        if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            readString(reader, adder);
+        }
+        reader.readEndArray();
+    }
+
+    /**
+     * Reads an array of embedded documents, elementReader must consume exactly one document from the reader.
+     *
+     * @param reader        BSON reader positioned at the array value
+     * @param elementReader reads the current document and adds it to the message being built
+     */
+    private static void readDocumentArray(BsonReader reader, Runnable elementReader) {
+        if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+            reader.skipValue();
+            return;
+        }
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            if (reader.getCurrentBsonType() == BsonType.DOCUMENT) {
+                elementReader.run();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.readEndArray();
+    }
+}
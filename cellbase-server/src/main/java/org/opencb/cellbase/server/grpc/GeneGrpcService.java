@@ -138,12 +138,8 @@ public class GeneGrpcService extends GeneServiceGrpc.GeneServiceImplBase impleme
 
         Query query = createQuery(request);
         QueryOptions queryOptions = createQueryOptions(request);
-        Iterator iterator = geneDBAdaptor.nativeIterator(query, queryOptions);
-        while (iterator.hasNext()) {
-            Document document = (Document) iterator.next();
-            responseObserver.onNext(ProtoConverterUtils.createGene(document));
-        }
-        responseObserver.onCompleted();
+        Iterator iterator = geneDBAdaptor.rawIterator(query, queryOptions);
+        streamIterator(iterator, BsonProtoConverter::createGene, responseObserver);
     }
 
     @Override
@@ -37,11 +37,7 @@ public class GenomicRegionGrpcService extends GenomicRegionServiceGrpc.GenomicRe
         Query query = createQuery(request);
         QueryOptions queryOptions = createQueryOptions(request);
         Iterator iterator = geneDBAdaptor.nativeIterator(query, queryOptions);
-        while (iterator.hasNext()) {
-            Document gene = (Document) iterator.next();
-            responseObserver.onNext(ProtoConverterUtils.createGene(gene));
-        }
-        responseObserver.onCompleted();
+        streamNativeIterator(iterator, ProtoConverterUtils::createGene, responseObserver);
     }
 
     @Override
@@ -77,15 +73,7 @@ public class GenomicRegionGrpcService extends GenomicRegionServiceGrpc.GenomicRe
         Query query = createQuery(request);
         QueryOptions queryOptions = createQueryOptions(request);
         Iterator iterator = variationDBAdaptor.nativeIterator(query, queryOptions);
-        int count = 0;
-        while (iterator.hasNext()) {
-            Document document = (Document) iterator.next();
-            responseObserver.onNext(ProtoConverterUtils.createVariant(document));
-            if (++count % 1000 == 0) {
-                System.out.println(count);
-            }
-        }
-        responseObserver.onCompleted();
+        streamNativeIterator(iterator, ProtoConverterUtils::createVariant, responseObserver);
     }
 
     @Override
@@ -114,11 +102,7 @@ public class GenomicRegionGrpcService extends GenomicRegionServiceGrpc.GenomicRe
         Query query = createQuery(request);
         QueryOptions queryOptions = createQueryOptions(request);
         Iterator iterator = regulationDBAdaptor.nativeIterator(query, queryOptions);
-        while (iterator.hasNext()) {
-            Document document = (Document) iterator.next();
-            responseObserver.onNext(ProtoConverterUtils.createRegulatoryRegion(document));
-        }
-        responseObserver.onCompleted();
+        streamNativeIterator(iterator, ProtoConverterUtils::createRegulatoryRegion, responseObserver);
     }
 
     @Override
@@ -130,10 +114,6 @@ public class GenomicRegionGrpcService extends GenomicRegionServiceGrpc.GenomicRe
         query.put(RegulationDBAdaptor.QueryParams.FEATURE_TYPE.key(), RegulationDBAdaptor.FeatureType.TF_binding_site + ","
                 + RegulationDBAdaptor.FeatureType.TF_binding_site_motif);
         Iterator iterator = regulationDBAdaptor.nativeIterator(query, queryOptions);
-        while (iterator.hasNext()) {
-            Document document = (Document) iterator.next();
-            responseObserver.onNext(ProtoConverterUtils.createRegulatoryRegion(document));
-        }
-        responseObserver.onCompleted();
+        streamNativeIterator(iterator, ProtoConverterUtils::createRegulatoryRegion, responseObserver);
     }
 }
@@ -18,8 +18,10 @@ package org.opencb.cellbase.server.grpc;
 
 import io.grpc.Server;
 import io.grpc.ServerBuilder;
+import io.grpc.ServerInterceptors;
 import org.opencb.cellbase.core.config.CellBaseConfiguration;
 import org.opencb.cellbase.core.api.DBAdaptorFactory;
+import org.opencb.cellbase.core.metrics.MetricsRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -66,13 +68,14 @@ public class GrpcServer {
     }
 
     private void start() throws Exception {
+        MetricsServerInterceptor metricsInterceptor = new MetricsServerInterceptor(MetricsRegistry.getDefault());
         server = ServerBuilder.forPort(port)
-                .addService(new GeneGrpcService(dbAdaptorFactory))
-                .addService(new TranscriptGrpcService(dbAdaptorFactory))
-                .addService(new VariantGrpcService(dbAdaptorFactory))
-                .addService(new RegulatoryGrpcService(dbAdaptorFactory))
-                .addService(new VariantAnnotationGrpcService(dbAdaptorFactory))
-                .addService(new GenomicRegionGrpcService(dbAdaptorFactory))
+                .addService(ServerInterceptors.intercept(new GeneGrpcService(dbAdaptorFactory), metricsInterceptor))
+                .addService(ServerInterceptors.intercept(new TranscriptGrpcService(dbAdaptorFactory), metricsInterceptor))
+                .addService(ServerInterceptors.intercept(new VariantGrpcService(dbAdaptorFactory), metricsInterceptor))
+                .addService(ServerInterceptors.intercept(new RegulatoryGrpcService(dbAdaptorFactory), metricsInterceptor))
+                .addService(ServerInterceptors.intercept(new VariantAnnotationGrpcService(dbAdaptorFactory), metricsInterceptor))
+                .addService(ServerInterceptors.intercept(new GenomicRegionGrpcService(dbAdaptorFactory), metricsInterceptor))
                 .build()
                 .start();
 
@@ -16,10 +16,16 @@
 
 package org.opencb.cellbase.server.grpc;
 
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.bson.Document;
 import org.opencb.cellbase.core.grpc.service.GenericServiceModel;
 import org.opencb.commons.datastore.core.Query;
 import org.opencb.commons.datastore.core.QueryOptions;
 
+import java.util.Iterator;
+import java.util.function.Function;
+
 /**
  * Created by imedina on 09/08/16.
  */
@@ -45,4 +51,42 @@ public interface IGrpcService {
                 });
         return queryOptions;
     }
+
+    /**
+     * Streams all the documents of a native iterator to the client converting them on the fly, the whole result is never
+     * kept in memory. The database cursor is closed when the stream ends, fails or is cancelled by the client.
+     *
+     * @param iterator         native iterator returned by the DB adaptor
+     * @param converter        function converting each Document into the protobuf message
+     * @param responseObserver gRPC response observer
+     * @param <T>              protobuf message type
+     */
+    default <T> void streamNativeIterator(Iterator iterator, Function<Document, T> converter, StreamObserver<T> responseObserver) {
+        streamIterator(iterator, document -> converter.apply((Document) document), responseObserver);
+    }
+
+    /**
+     * Streams all the elements of an iterator to the client converting them on the fly. Client flow control is honoured,
+     * see IteratorStreamer, so neither the result nor the messages pending to be sent are ever kept in memory.
+     *
+     * @param iterator         native or raw iterator returned by the DB adaptor
+     * @param converter        function converting each element into the protobuf message
+     * @param responseObserver gRPC response observer
+     * @param <T>              protobuf message type
+     */
+    default <T> void streamIterator(Iterator iterator, Function<Object, T> converter, StreamObserver<T> responseObserver) {
+        if (responseObserver instanceof ServerCallStreamObserver) {
+            new IteratorStreamer<>(iterator, converter, (ServerCallStreamObserver<T>) responseObserver).start();
+            return;
+        }
+
+        try {
+            while (iterator.hasNext()) {
+                responseObserver.onNext(converter.apply(iterator.next()));
+            }
+            responseObserver.onCompleted();
+        } finally {
+            IteratorStreamer.closeIterator(iterator);
+        }
+    }
 }
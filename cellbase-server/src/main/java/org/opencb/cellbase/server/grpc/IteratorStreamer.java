@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.server.grpc;
+
+import io.grpc.stub.ServerCallStreamObserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.Function;
+
+/**
+ * Streams an iterator to a gRPC client honouring its flow control: messages are only sent while the call is ready,
+ * when the outbound buffer is full the streamer stops and is resumed by the onReady handler. This way a slow client
+ * never makes the server buffer the whole result, and the database cursor is only read as fast as the client reads.
+ * The cursor is closed when the stream ends, fails or is cancelled.
+ *
+ * @param <T> protobuf message type
+ */
+class IteratorStreamer<T> implements Runnable {
+
+    private final Iterator iterator;
+    private final Function<Object, T> converter;
+    private final ServerCallStreamObserver<T> responseObserver;
+    private boolean finished;
+
+    IteratorStreamer(Iterator iterator, Function<Object, T> converter, ServerCallStreamObserver<T> responseObserver) {
+        this.iterator = iterator;
+        this.converter = converter;
+        this.responseObserver = responseObserver;
+    }
+
+    /**
+     * Registers the handlers and sends the first messages, must be called before the service method returns.
+     */
+    void start() {
+        responseObserver.setOnCancelHandler(this::cancel);
+        responseObserver.setOnReadyHandler(this);
+        run();
+    }
+
+    /**
+     * Sends messages while the call is ready. Called from the onReady handler every time the client can accept more.
+     */
+    @Override
+    public synchronized void run() {
+        if (finished) {
+            return;
+        }
+        try {
+            while (responseObserver.isReady()) {
+                if (!iterator.hasNext()) {
+                    finish();
+                    responseObserver.onCompleted();
+                    return;
+                }
+                responseObserver.onNext(converter.apply(iterator.next()));
+            }
+        } catch (RuntimeException e) {
+            finish();
+            responseObserver.onError(e);
+        }
+    }
+
+    private synchronized void cancel() {
+        if (!finished) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        finished = true;
+        closeIterator(iterator);
+    }
+
+    static void closeIterator(Iterator iterator) {
+        if (iterator instanceof Closeable) {
+            try {
+                ((Closeable) iterator).close();
+            } catch (IOException e) {
+                // nothing else can be done, the cursor will be eventually killed by the server
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.server.grpc;
+
+import io.grpc.ForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import org.opencb.cellbase.core.metrics.MetricsRegistry;
+
+/**
+ * Records the latency of every gRPC call, from the moment it starts until it is closed, in a timer named after the
+ * method, e.g. grpc.GeneService.get. Streaming calls are timed until the last message is sent.
+ */
+public class MetricsServerInterceptor implements ServerInterceptor {
+
+    private final MetricsRegistry metricsRegistry;
+
+    public MetricsServerInterceptor(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        long start = System.nanoTime();
+        String fullMethodName = call.getMethodDescriptor().getFullMethodName();
+        // Package of the service is dropped to keep names short
+        String serviceAndMethod = fullMethodName.substring(fullMethodName.lastIndexOf('.', fullMethodName.indexOf('/')) + 1);
+        String metricName = "grpc." + serviceAndMethod.replace('/', '.');
+
+        ServerCall<ReqT, RespT> timedCall = new ForwardingServerCall.SimpleForwardingServerCall<ReqT, RespT>(call) {
+            @Override
+            public void close(Status status, Metadata trailers) {
+                metricsRegistry.timer(metricName).recordSince(start);
+                if (!status.isOk()) {
+                    metricsRegistry.timer("grpc.errors").recordSince(start);
+                }
+                super.close(status, trailers);
+            }
+        };
+        return next.startCall(timedCall, headers);
+    }
+}
@@ -94,12 +94,8 @@ public class RegulatoryGrpcService extends RegulatoryRegionServiceGrpc.Regulator
 
         Query query = createQuery(request);
         QueryOptions queryOptions = createQueryOptions(request);
-        Iterator iterator = regulationDBAdaptor.nativeIterator(query, queryOptions);
-        while (iterator.hasNext()) {
-            Document document = (Document) iterator.next();
-            responseObserver.onNext(ProtoConverterUtils.createRegulatoryRegion(document));
-        }
-        responseObserver.onCompleted();
+        Iterator iterator = regulationDBAdaptor.rawIterator(query, queryOptions);
+        streamIterator(iterator, BsonProtoConverter::createRegulatoryRegion, responseObserver);
     }
 
 //    @Override
@@ -109,12 +109,8 @@ public class TranscriptGrpcService extends TranscriptServiceGrpc.TranscriptServi
         TranscriptDBAdaptor transcriptDBAdaptor = dbAdaptorFactory.getTranscriptDBAdaptor(request.getSpecies(), request.getAssembly());
         Query query = createQuery(request);
         QueryOptions queryOptions = createQueryOptions(request);
-        Iterator iterator = transcriptDBAdaptor.nativeIterator(query, queryOptions);
-        while (iterator.hasNext()) {
-            Document document = (Document) iterator.next();
-            responseObserver.onNext(ProtoConverterUtils.createTranscript(document));
-        }
-        responseObserver.onCompleted();
+        Iterator iterator = transcriptDBAdaptor.rawIterator(query, queryOptions);
+        streamIterator(iterator, BsonProtoConverter::createTranscript, responseObserver);
     }
 
 }
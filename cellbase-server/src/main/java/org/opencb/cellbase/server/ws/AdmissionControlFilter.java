@@ -0,0 +1,292 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.server.ws;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+import org.opencb.cellbase.core.config.AdmissionControlProperties;
+import org.opencb.cellbase.core.metrics.MetricsRegistry;
+import org.opencb.commons.datastore.core.QueryResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.PreMatching;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Provider;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Admission control of the REST server. Requests are classified by path before being matched to a resource and each
+ * class has its own concurrency limit, so a burst of heavy variant annotations or exports cannot take all the server
+ * threads and database connections from the lookups. Annotation requests cost one permit per variant. Requests that do
+ * not fit are rejected right away with 429 when too many are already waiting, or with 503 when they waited too long,
+ * both with a Retry-After header. Permits are released once the response entity has been written, which for streamed
+ * exports is when the whole stream has been sent, and in any case when the request finishes, so requests failing with
+ * an exception that skips the response filters do not keep them.
+ */
+@Provider
+@PreMatching
+public class AdmissionControlFilter implements ContainerRequestFilter, ContainerResponseFilter, WriterInterceptor,
+        ApplicationEventListener {
+
+    enum EndpointClass {
+        ANNOTATION, EXPORT, QUERY, META
+    }
+
+    private static final String PERMIT_PROPERTY = AdmissionControlFilter.class.getName() + ".permit";
+    private static final int TOO_MANY_REQUESTS = 429;
+    private static final Pattern ANNOTATION_PATH = Pattern.compile(".*/genomic/variant(/[^/]+)?/annotation/?$");
+    private static final Pattern EXPORT_PATH = Pattern.compile(".*/export/?$");
+    private static final Pattern META_PATH = Pattern.compile("^/?[^/]+/meta(/.*)?$");
+    // Configured as the writer of the web services, the filter does not depend on their initialization
+    private static final ObjectWriter JSON_WRITER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .configure(MapperFeature.REQUIRE_SETTERS_FOR_GETTERS, true)
+            .writer();
+
+    // FINISHED is fired once the response has been written or the request has failed, whatever the filters did
+    private static final RequestEventListener RELEASE_ON_FINISHED = event -> {
+        if (event.getType() == RequestEvent.Type.FINISHED) {
+            Object permit = event.getContainerRequest().getProperty(PERMIT_PROPERTY);
+            if (permit != null) {
+                ((ConcurrencyLimiter.Permit) permit).release();
+            }
+        }
+    };
+
+    private final boolean enabled;
+    private final Map<EndpointClass, ConcurrencyLimiter> limiters;
+    private final Logger logger;
+
+    public AdmissionControlFilter() {
+        this(getAdmissionControlProperties(), MetricsRegistry.getDefault());
+    }
+
+    AdmissionControlFilter(AdmissionControlProperties properties, MetricsRegistry metricsRegistry) {
+        enabled = properties.isEnabled();
+        limiters = new EnumMap<>(EndpointClass.class);
+        limiters.put(EndpointClass.ANNOTATION, new ConcurrencyLimiter("annotation", properties.getAnnotation(), metricsRegistry));
+        limiters.put(EndpointClass.EXPORT, new ConcurrencyLimiter("export", properties.getExport(), metricsRegistry));
+        limiters.put(EndpointClass.QUERY, new ConcurrencyLimiter("query", properties.getQuery(), metricsRegistry));
+        logger = LoggerFactory.getLogger(this.getClass());
+    }
+
+    private static AdmissionControlProperties getAdmissionControlProperties() {
+        AdmissionControlProperties properties = null;
+        if (GenericRestWSServer.cellBaseConfiguration != null) {
+            properties = GenericRestWSServer.cellBaseConfiguration.getAdmissionControl();
+        }
+        return (properties != null) ? properties : new AdmissionControlProperties();
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        if (!enabled || "OPTIONS".equals(requestContext.getMethod())) {
+            return;
+        }
+
+        String path = requestContext.getUriInfo().getPath();
+        EndpointClass endpointClass = classify(path);
+        if (endpointClass == EndpointClass.META) {
+            return;
+        }
+        int cost = 1;
+        if (endpointClass == EndpointClass.ANNOTATION) {
+            String pathVariants = getPathVariants(path);
+            cost = (pathVariants != null) ? countVariants(pathVariants) : countVariants(requestContext);
+        }
+
+        ConcurrencyLimiter limiter = limiters.get(endpointClass);
+        ConcurrencyLimiter.Permit permit;
+        try {
+            permit = limiter.acquire(cost);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            requestContext.abortWith(createRejectedResponse(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), limiter,
+                    "Request interrupted while waiting for admission"));
+            return;
+        }
+
+        if (permit.getResult() == ConcurrencyLimiter.Result.ACQUIRED) {
+            requestContext.setProperty(PERMIT_PROPERTY, permit);
+        } else {
+            logger.warn("Rejected {} request with cost {}, {}: {}", limiter.getName(), cost,
+                    (permit.getResult() == ConcurrencyLimiter.Result.QUEUE_FULL)
+                            ? "too many requests waiting"
+                            : "timed out waiting for admission", path);
+            requestContext.abortWith(createRejectedResponse(permit.getResult(), limiter));
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        // Responses with an entity keep their permits until the entity has been written, see aroundWriteTo
+        Object permit = requestContext.getProperty(PERMIT_PROPERTY);
+        if (permit != null && (!responseContext.hasEntity() || "HEAD".equals(requestContext.getMethod()))) {
+            ((ConcurrencyLimiter.Permit) permit).release();
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException {
+        try {
+            context.proceed();
+        } finally {
+            Object permit = context.getProperty(PERMIT_PROPERTY);
+            if (permit != null) {
+                ((ConcurrencyLimiter.Permit) permit).release();
+            }
+        }
+    }
+
+    @Override
+    public void onEvent(ApplicationEvent event) {
+    }
+
+    @Override
+    public RequestEventListener onRequest(RequestEvent requestEvent) {
+        return enabled ? RELEASE_ON_FINISHED : null;
+    }
+
+    /**
+     * Classifies a request by its path, relative to the application.
+     *
+     * @param path path of the request
+     * @return class of the request, META requests are not limited
+     */
+    static EndpointClass classify(String path) {
+        if (ANNOTATION_PATH.matcher(path).matches()) {
+            return EndpointClass.ANNOTATION;
+        } else if (EXPORT_PATH.matcher(path).matches()) {
+            return EndpointClass.EXPORT;
+        } else if (META_PATH.matcher(path).matches()) {
+            return EndpointClass.META;
+        } else {
+            return EndpointClass.QUERY;
+        }
+    }
+
+    /**
+     * Variants of the annotation GET endpoint, the POST endpoint takes them in the body.
+     *
+     * @param path path of an annotation request
+     * @return comma separated variants, null if they are not in the path
+     */
+    static String getPathVariants(String path) {
+        Matcher matcher = ANNOTATION_PATH.matcher(path);
+        return (matcher.matches() && matcher.group(1) != null) ? matcher.group(1).substring(1) : null;
+    }
+
+    ConcurrencyLimiter getLimiter(EndpointClass endpointClass) {
+        return limiters.get(endpointClass);
+    }
+
+    /**
+     * Response of a rejected request: 429 when too many requests were already waiting, 503 when it waited too long.
+     *
+     * @param result  result of the admission, QUEUE_FULL or TIMEOUT
+     * @param limiter limiter of the request class
+     * @return response with a Retry-After header
+     */
+    Response createRejectedResponse(ConcurrencyLimiter.Result result, ConcurrencyLimiter limiter) {
+        if (result == ConcurrencyLimiter.Result.QUEUE_FULL) {
+            return createRejectedResponse(TOO_MANY_REQUESTS, limiter,
+                    "Too many " + limiter.getName() + " requests waiting, please retry later");
+        }
+        return createRejectedResponse(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), limiter,
+                "Server busy with " + limiter.getName() + " requests, please retry later");
+    }
+
+    /**
+     * Counts the variants of a comma separated list, as taken by the annotation GET endpoint.
+     *
+     * @param variants comma separated variants
+     * @return number of variants
+     */
+    static int countVariants(CharSequence variants) {
+        int count = 0;
+        boolean inVariant = false;
+        for (int i = 0; i < variants.length(); i++) {
+            char c = variants.charAt(i);
+            if (c == ',' || c == '\n' || c == '\r') {
+                inVariant = false;
+            } else if (!inVariant && !Character.isWhitespace(c)) {
+                inVariant = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The annotation POST endpoint takes the variants in the body. The body is buffered to count them and then set
+     * back so the resource reads it as usual.
+     */
+    private int countVariants(ContainerRequestContext requestContext) throws IOException {
+        if (!requestContext.hasEntity()) {
+            return 1;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream inputStream = requestContext.getEntityStream()) {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        }
+        byte[] bytes = body.toByteArray();
+        requestContext.setEntityStream(new ByteArrayInputStream(bytes));
+        // Separators are ASCII so the body can be scanned as ISO-8859-1 without decoding errors
+        return countVariants(new String(bytes, "ISO-8859-1"));
+    }
+
+    private Response createRejectedResponse(int status, ConcurrencyLimiter limiter, String message) {
+        QueryResponse queryResponse = new QueryResponse();
+        queryResponse.setError(message);
+        Response.ResponseBuilder builder = Response.status(status)
+                .header(HttpHeaders.RETRY_AFTER, limiter.getRetryAfterSeconds());
+        try {
+            return builder.entity(JSON_WRITER.writeValueAsString(queryResponse))
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .build();
+        } catch (JsonProcessingException e) {
+            return builder.build();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.server.ws;
+
+import org.opencb.cellbase.core.config.AdmissionControlProperties.ConcurrencyLimit;
+import org.opencb.cellbase.core.metrics.MetricsRegistry;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Weighted concurrency limit of one class of requests. A request takes as many permits as its cost, capped to the
+ * capacity so that a single huge request can still run when the server is idle. Requests that do not fit wait in a
+ * fair queue of bounded length and for a bounded time, so overload is rejected fast instead of piling up threads and
+ * database connections.
+ */
+class ConcurrencyLimiter {
+
+    enum Result {
+        ACQUIRED, QUEUE_FULL, TIMEOUT
+    }
+
+    private final String name;
+    private final ConcurrencyLimit limit;
+    private final Semaphore semaphore;
+    private final AtomicInteger queued;
+    private final MetricsRegistry metricsRegistry;
+
+    ConcurrencyLimiter(String name, ConcurrencyLimit limit, MetricsRegistry metricsRegistry) {
+        this.name = name;
+        this.limit = limit;
+        this.semaphore = new Semaphore(Math.max(1, limit.getCapacity()), true);
+        this.queued = new AtomicInteger();
+        this.metricsRegistry = metricsRegistry;
+
+        metricsRegistry.gauge("rest.admission." + name + ".inUse", () -> getCapacity() - semaphore.availablePermits());
+        metricsRegistry.gauge("rest.admission." + name + ".queued", queued::get);
+    }
+
+    /**
+     * Takes the permits of a request, waiting up to the configured time if the capacity is in use.
+     *
+     * @param cost cost of the request, e.g. number of variants to annotate
+     * @return the permit to be released when the request finishes, its result tells if the request was admitted
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    Permit acquire(int cost) throws InterruptedException {
+        int permits = Math.max(1, Math.min(cost, getCapacity()));
+        // The untimed tryAcquire barges ahead of the queued requests, the timed one honours the fairness
+        if (semaphore.tryAcquire(permits, 0, TimeUnit.MILLISECONDS)) {
+            return new Permit(Result.ACQUIRED, permits);
+        }
+
+        long start = System.nanoTime();
+        if (queued.incrementAndGet() > limit.getMaxQueued()) {
+            queued.decrementAndGet();
+            metricsRegistry.timer("rest.admission." + name + ".rejected").record(0, TimeUnit.MILLISECONDS);
+            return new Permit(Result.QUEUE_FULL, 0);
+        }
+        try {
+            if (semaphore.tryAcquire(permits, limit.getMaxWaitMillis(), TimeUnit.MILLISECONDS)) {
+                metricsRegistry.timer("rest.admission." + name + ".queueWait").recordSince(start);
+                return new Permit(Result.ACQUIRED, permits);
+            }
+            metricsRegistry.timer("rest.admission." + name + ".rejected").recordSince(start);
+            return new Permit(Result.TIMEOUT, 0);
+        } finally {
+            queued.decrementAndGet();
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getCapacity() {
+        return Math.max(1, limit.getCapacity());
+    }
+
+    int getQueued() {
+        return queued.get();
+    }
+
+    int getRetryAfterSeconds() {
+        return limit.getRetryAfterSeconds();
+    }
+
+    /**
+     * Permits held by one request, releasing is idempotent as the response filter, the entity writer and the end of
+     * the request may all try.
+     */
+    final class Permit {
+
+        private final Result result;
+        private final int permits;
+        private final AtomicBoolean released;
+
+        private Permit(Result result, int permits) {
+            this.result = result;
+            this.permits = permits;
+            this.released = new AtomicBoolean(false);
+        }
+
+        Result getResult() {
+            return result;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                semaphore.release(permits);
+            }
+        }
+    }
+}
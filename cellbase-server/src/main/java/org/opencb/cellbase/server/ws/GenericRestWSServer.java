@@ -24,14 +24,30 @@ import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.module.jsonSchema.JsonSchema;
 import com.fasterxml.jackson.module.jsonSchema.factories.SchemaFactoryWrapper;
 import com.google.common.base.Splitter;
+import com.mongodb.MongoException;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.avro.file.CodecFactory;
+import org.apache.avro.file.DataFileWriter;
+import org.apache.avro.specific.SpecificDatumWriter;
 import org.apache.commons.lang3.time.StopWatch;
+import org.bson.Document;
+import org.opencb.biodata.models.variant.Variant;
+import org.opencb.biodata.models.variant.avro.VariantAvro;
+import org.opencb.cellbase.core.api.CellBaseDBAdaptor;
 import org.opencb.cellbase.core.api.DBAdaptorFactory;
+import org.opencb.cellbase.core.api.GeneDBAdaptor;
+import org.opencb.cellbase.core.api.VariantDBAdaptor;
+import org.opencb.cellbase.core.common.GeneSearchIndex;
+import org.opencb.cellbase.core.common.HistogramPyramid;
+import org.opencb.cellbase.core.config.CacheProperties;
 import org.opencb.cellbase.core.config.CellBaseConfiguration;
 import org.opencb.cellbase.core.config.Species;
+import org.opencb.cellbase.core.metrics.MetricsRegistry;
 import org.opencb.cellbase.core.monitor.Monitor;
+import org.opencb.cellbase.core.variant.annotation.GeneCache;
+import org.opencb.cellbase.core.variant.annotation.GeneIndex;
 import org.opencb.cellbase.server.exception.SpeciesException;
 import org.opencb.cellbase.server.exception.VersionException;
 import org.opencb.commons.datastore.core.*;
@@ -41,13 +57,17 @@ import org.slf4j.LoggerFactory;
 import javax.servlet.http.HttpServletRequest;
 import javax.ws.rs.*;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.ResourceInfo;
 import javax.ws.rs.core.*;
 import javax.ws.rs.core.Response.ResponseBuilder;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import static org.opencb.commons.datastore.core.QueryOptions.*;
 
@@ -125,6 +145,9 @@ public class GenericRestWSServer implements IWSServer {
     protected UriInfo uriInfo;
     protected HttpServletRequest httpServletRequest;
 
+    @Context
+    private ResourceInfo resourceInfo;
+
     protected static ObjectMapper jsonObjectMapper;
     protected static ObjectWriter jsonObjectWriter;
     protected static final String SERVICE_START_DATE;
@@ -153,6 +176,10 @@ public class GenericRestWSServer implements IWSServer {
 
     private static final int LIMIT_DEFAULT = 1000;
     private static final int LIMIT_MAX = 5000;
+    // Number of streamed records written between two explicit flushes of the HTTP output stream
+    private static final int STREAM_FLUSH_SIZE = 1000;
+    protected static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
+    protected static final String AVRO_MEDIA_TYPE = "avro/binary";
     private static final String ERROR = "error";
     private static final String OK = "ok";
 
@@ -190,6 +217,206 @@ public class GenericRestWSServer implements IWSServer {
 
         // Initialize Monitor
         monitor = new Monitor(dbAdaptorFactory);
+
+        initGeneCache();
+        initHistogramPyramids();
+        initGeneSearchIndexes();
+    }
+
+    private static void initGeneCache() {
+        if (cellBaseConfiguration == null || cellBaseConfiguration.getCache() == null) {
+            return;
+        }
+        CacheProperties cacheProperties = cellBaseConfiguration.getCache();
+        GeneCache.setMaxWeight(cacheProperties.getGeneCacheSizeMB() * 1024L * 1024L);
+        if (!GeneCache.isEnabled()) {
+            return;
+        }
+        for (Species species : cellBaseConfiguration.getAllSpecies()) {
+            GeneCache.setDefaultAssembly(species.getId(), getDefaultAssembly(species.getId()));
+        }
+
+        // Loading indexes and warming up takes a while, server startup must not wait for them
+        startInBackground("gene-cache-init", () -> {
+            if (cacheProperties.getGeneIndexSpecies() != null) {
+                for (String species : cacheProperties.getGeneIndexSpecies()) {
+                    initGeneIndex(species, cacheProperties.getGeneIndexDirectory());
+                }
+            }
+            if (cacheProperties.getHotGenes() != null) {
+                for (Map.Entry<String, List<String>> entry : cacheProperties.getHotGenes().entrySet()) {
+                    try {
+                        GeneCache.getInstance(entry.getKey(), null, dbAdaptorFactory.getGeneDBAdaptor(entry.getKey()))
+                                .warmUp(entry.getValue());
+                    } catch (RuntimeException e) {
+                        logger.warn("Gene cache of '{}' could not be warmed up: {}", entry.getKey(), e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+
+    private static void initGeneIndex(String species, String directory) {
+        try {
+            StopWatch stopWatch = StopWatch.createStarted();
+            GeneDBAdaptor geneDBAdaptor = dbAdaptorFactory.getGeneDBAdaptor(species);
+            GeneIndex geneIndex = loadOrBuild(directory, species + ".geneindex", geneDBAdaptor, GeneIndex::readFingerprint,
+                    GeneIndex::load, () -> GeneIndex.build(geneDBAdaptor), GeneIndex::save);
+            GeneCache.getInstance(species, getDefaultAssembly(species), geneDBAdaptor).setIndex(geneIndex);
+            logger.info("Gene index of '{}' loaded in {}ms: {} genes, {} bytes off-heap", species, stopWatch.getTime(),
+                    geneIndex.size(), geneIndex.getMemorySize());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Gene index of '{}' could not be loaded, genes will be queried: {}", species, e.getMessage());
+        }
+    }
+
+    /**
+     * Loads an index from its file when the file was built from the current collection, otherwise builds the index and
+     * saves it for the next start. Indexes are built every time when no directory is configured.
+     */
+    private static <T> T loadOrBuild(String directory, String fileName, CellBaseDBAdaptor dbAdaptor,
+                                     IndexReader<String> fingerprintReader, IndexReader<T> indexReader,
+                                     IndexBuilder<T> indexBuilder, IndexWriter<T> indexWriter) throws IOException {
+        if (StringUtils.isEmpty(directory)) {
+            return indexBuilder.build();
+        }
+        Path path = Paths.get(directory, fileName);
+        String fingerprint = getFingerprint(dbAdaptor);
+        if (fingerprint.equals(readFingerprint(path, fingerprintReader))) {
+            return indexReader.read(path);
+        }
+        T index = indexBuilder.build();
+        indexWriter.write(index, path, fingerprint);
+        return index;
+    }
+
+    /**
+     * Fingerprint of the collection of an adaptor, the number of documents and the newest ObjectId change whenever
+     * the collection is loaded again, so files built from a previous load are rebuilt.
+     */
+    private static String getFingerprint(CellBaseDBAdaptor dbAdaptor) {
+        QueryOptions queryOptions = new QueryOptions(QueryOptions.INCLUDE, "_id");
+        queryOptions.put(QueryOptions.SORT, new Document("_id", -1));
+        queryOptions.put(QueryOptions.LIMIT, 1);
+        queryOptions.put(QueryOptions.SKIP_COUNT, true);
+        Object newest = dbAdaptor.nativeGet(new Query(), queryOptions).first();
+        Object newestId = (newest instanceof Map) ? ((Map) newest).get("_id") : null;
+        return dbAdaptor.count(new Query()).first() + ":" + newestId;
+    }
+
+    /**
+     * Reads the fingerprint saved in a file, files missing or in an old format are reported as not saved.
+     */
+    private static String readFingerprint(Path path, IndexReader<String> reader) {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            return reader.read(path);
+        } catch (IOException e) {
+            logger.info("File '{}' will be rebuilt: {}", path, e.getMessage());
+            return null;
+        }
+    }
+
+    @FunctionalInterface
+    private interface IndexReader<T> {
+        T read(Path path) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface IndexBuilder<T> {
+        T build() throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface IndexWriter<T> {
+        void write(T index, Path path, String fingerprint) throws IOException;
+    }
+
+    private static void startInBackground(String threadName, Runnable runnable) {
+        Thread thread = new Thread(runnable, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void initHistogramPyramids() {
+        if (cellBaseConfiguration == null || cellBaseConfiguration.getCache() == null
+                || cellBaseConfiguration.getCache().getHistogramSpecies() == null
+                || cellBaseConfiguration.getCache().getHistogramSpecies().isEmpty()) {
+            return;
+        }
+        CacheProperties cacheProperties = cellBaseConfiguration.getCache();
+
+        // Counting the variation collection takes a while, histograms are aggregated meanwhile
+        startInBackground("histogram-pyramid-init", () -> {
+            for (String species : cacheProperties.getHistogramSpecies()) {
+                initHistogramPyramid(species, "gene", dbAdaptorFactory.getGeneDBAdaptor(species),
+                        cacheProperties.getHistogramDirectory());
+                initHistogramPyramid(species, "regulatory_region", dbAdaptorFactory.getRegulationDBAdaptor(species),
+                        cacheProperties.getHistogramDirectory());
+                initHistogramPyramid(species, "variation", dbAdaptorFactory.getVariationDBAdaptor(species),
+                        cacheProperties.getHistogramDirectory());
+            }
+        });
+    }
+
+    private static void initHistogramPyramid(String species, String collection, CellBaseDBAdaptor dbAdaptor, String directory) {
+        try {
+            StopWatch stopWatch = StopWatch.createStarted();
+            HistogramPyramid pyramid = loadOrBuild(directory, species + "." + collection + ".histogram", dbAdaptor,
+                    HistogramPyramid::readFingerprint, HistogramPyramid::load, () -> HistogramPyramid.build(dbAdaptor),
+                    HistogramPyramid::save);
+            // Requests name the default assembly or none
+            HistogramPyramid.register(species, null, collection, pyramid);
+            HistogramPyramid.register(species, getDefaultAssembly(species), collection, pyramid);
+            logger.info("Histogram pyramid of '{}' {} loaded in {}ms: {} features", species, collection, stopWatch.getTime(),
+                    pyramid.size());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Histogram pyramid of '{}' {} could not be loaded, histograms will be aggregated: {}", species,
+                    collection, e.getMessage());
+        }
+    }
+
+    private static void initGeneSearchIndexes() {
+        if (cellBaseConfiguration == null || cellBaseConfiguration.getCache() == null
+                || cellBaseConfiguration.getCache().getSearchIndexSpecies() == null
+                || cellBaseConfiguration.getCache().getSearchIndexSpecies().isEmpty()) {
+            return;
+        }
+        CacheProperties cacheProperties = cellBaseConfiguration.getCache();
+
+        // Autocompletion queries the database until the index is ready
+        startInBackground("gene-search-index-init", () -> {
+            for (String species : cacheProperties.getSearchIndexSpecies()) {
+                initGeneSearchIndex(species, cacheProperties.getSearchIndexDirectory());
+            }
+        });
+    }
+
+    private static void initGeneSearchIndex(String species, String directory) {
+        try {
+            StopWatch stopWatch = StopWatch.createStarted();
+            GeneDBAdaptor geneDBAdaptor = dbAdaptorFactory.getGeneDBAdaptor(species);
+            GeneSearchIndex geneSearchIndex = loadOrBuild(directory, species + ".searchindex", geneDBAdaptor,
+                    GeneSearchIndex::readFingerprint, GeneSearchIndex::load, () -> GeneSearchIndex.build(geneDBAdaptor),
+                    GeneSearchIndex::save);
+            GeneSearchIndex.register(species, null, geneSearchIndex);
+            GeneSearchIndex.register(species, getDefaultAssembly(species), geneSearchIndex);
+            logger.info("Gene search index of '{}' loaded in {}ms: {} genes, {} terms", species, stopWatch.getTime(),
+                    geneSearchIndex.size(), geneSearchIndex.getNumTerms());
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Gene search index of '{}' could not be loaded, genes will be queried: {}", species, e.getMessage());
+        }
+    }
+
+    private static String getDefaultAssembly(String species) {
+        for (Species speciesObject : cellBaseConfiguration.getAllSpecies()) {
+            if (species.equalsIgnoreCase(speciesObject.getId()) && !speciesObject.getAssemblies().isEmpty()) {
+                return speciesObject.getAssemblies().get(0).getName();
+            }
+        }
+        return null;
     }
 
 
@@ -217,6 +444,7 @@ public class GenericRestWSServer implements IWSServer {
 
     protected void init(boolean checkSpecies) throws VersionException, SpeciesException {
         startTime = System.currentTimeMillis();
+        MetricsRegistry.resetThreadDBCalls();
 
         query = new Query();
         // This needs to be an ArrayList since it may be added some extra fields later
@@ -305,6 +533,7 @@ public class GenericRestWSServer implements IWSServer {
     }
 
     protected void logQuery(String status) {
+        recordMetrics(getMetricName(), status);
         try {
             logger.info("{}\t{}\t{}\t{}\t{}",
                     uriInfo.getAbsolutePath().toString(),
@@ -317,6 +546,28 @@ public class GenericRestWSServer implements IWSServer {
         }
     }
 
+    /**
+     * Name of the timer of the resource method being executed, e.g. rest.GeneWSServer.getInfo.
+     *
+     * @return timer name
+     */
+    protected String getMetricName() {
+        if (resourceInfo != null && resourceInfo.getResourceMethod() != null) {
+            return "rest." + resourceInfo.getResourceClass().getSimpleName() + "." + resourceInfo.getResourceMethod().getName();
+        }
+        return "rest.unknown";
+    }
+
+    private void recordMetrics(String metricName, String status) {
+        MetricsRegistry metricsRegistry = MetricsRegistry.getDefault();
+        metricsRegistry.timer(metricName).record(System.currentTimeMillis() - startTime, TimeUnit.MILLISECONDS);
+        if (ERROR.equals(status)) {
+            metricsRegistry.timer("rest.errors").record(System.currentTimeMillis() - startTime, TimeUnit.MILLISECONDS);
+        }
+        // DB round-trips made by this request thread, DB adaptors are instrumented by the DBAdaptorFactory
+        metricsRegistry.histogram("rest.dbCallsPerRequest").record(MetricsRegistry.getThreadDBCalls());
+    }
+
     @GET
     @Path("/help")
     @ApiOperation(httpMethod = "GET", value = "To be implemented", response = QueryResponse.class, hidden = true)
@@ -354,6 +605,11 @@ public class GenericRestWSServer implements IWSServer {
         // First we print the exception in Server logs
         e.printStackTrace();
 
+        // Database errors may be the first sign of a degraded datastore, its status is sampled again right away
+        if (e instanceof MongoException && species != null) {
+            monitor.requestRefresh(species, assembly);
+        }
+
         // Now we prepare the response to client
         queryResponse = new QueryResponse();
         queryResponse.setTime(new Long(System.currentTimeMillis() - startTime).intValue());
@@ -411,6 +667,85 @@ public class GenericRestWSServer implements IWSServer {
         return buildResponse(Response.ok(obj, mediaType).header("content-disposition", "attachment; filename =" + fileName));
     }
 
+    /**
+     * Streams all the documents matching the queries as newline-delimited JSON straight from the database cursor.
+     * LIMIT and SKIP are removed from the query options so that whole chromosomes can be exported with constant
+     * memory, the servlet output stream blocking provides the backpressure towards the database cursor.
+     *
+     * @param dbAdaptor DB adaptor used to open one native iterator per query
+     * @param queries   queries to be exported, results are written in the same order
+     * @return streaming Response with media type application/x-ndjson
+     */
+    protected Response createNdJsonStreamResponse(CellBaseDBAdaptor dbAdaptor, List<Query> queries) {
+        QueryOptions streamOptions = StreamQueryOptions.create(queryOptions);
+        String metricName = getMetricName();
+        StreamingOutput streamingOutput = outputStream -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+            int numWritten = 0;
+            for (Query streamQuery : queries) {
+                Iterator iterator = dbAdaptor.nativeIterator(streamQuery, streamOptions);
+                try {
+                    while (iterator.hasNext()) {
+                        writer.write(jsonObjectWriter.writeValueAsString(iterator.next()));
+                        writer.write('\n');
+                        if (++numWritten % STREAM_FLUSH_SIZE == 0) {
+                            writer.flush();
+                        }
+                    }
+                } finally {
+                    closeIterator(iterator);
+                }
+            }
+            writer.flush();
+            recordMetrics(metricName, OK);
+            logger.info("{}\t{} records streamed in {} ms", uriInfo.getAbsolutePath(), numWritten,
+                    System.currentTimeMillis() - startTime);
+        };
+        return buildResponse(Response.ok(streamingOutput, NDJSON_MEDIA_TYPE));
+    }
+
+    /**
+     * Streams all the variants matching the queries as a deflate-compressed Avro container file using the VariantAvro
+     * schema. Same as in createNdJsonStreamResponse no LIMIT or SKIP are applied.
+     *
+     * @param variantDBAdaptor variation DB adaptor used to open one iterator per query
+     * @param queries          queries to be exported, results are written in the same order
+     * @return streaming Response with media type avro/binary
+     */
+    protected Response createAvroStreamResponse(VariantDBAdaptor<Variant> variantDBAdaptor, List<Query> queries) {
+        QueryOptions streamOptions = StreamQueryOptions.create(queryOptions);
+        String metricName = getMetricName();
+        StreamingOutput streamingOutput = outputStream -> {
+            int numWritten = 0;
+            try (DataFileWriter<VariantAvro> dataFileWriter = new DataFileWriter<>(new SpecificDatumWriter<>(VariantAvro.class))) {
+                dataFileWriter.setCodec(CodecFactory.deflateCodec(CodecFactory.DEFAULT_DEFLATE_LEVEL));
+                dataFileWriter.create(VariantAvro.getClassSchema(), outputStream);
+                for (Query streamQuery : queries) {
+                    Iterator<Variant> iterator = variantDBAdaptor.iterator(streamQuery, streamOptions);
+                    try {
+                        while (iterator.hasNext()) {
+                            dataFileWriter.append(iterator.next().getImpl());
+                            numWritten++;
+                        }
+                    } finally {
+                        closeIterator(iterator);
+                    }
+                }
+            }
+            recordMetrics(metricName, OK);
+            logger.info("{}\t{} records streamed in {} ms", uriInfo.getAbsolutePath(), numWritten,
+                    System.currentTimeMillis() - startTime);
+        };
+        return buildResponse(Response.ok(streamingOutput, AVRO_MEDIA_TYPE));
+    }
+
+    private void closeIterator(Iterator iterator) throws IOException {
+        // Mongo cursors must be released even if the client closes the connection in the middle of the stream
+        if (iterator instanceof Closeable) {
+            ((Closeable) iterator).close();
+        }
+    }
+
     protected Response createStringResponse(String str) {
         return buildResponse(Response.ok(str));
     }
@@ -23,6 +23,7 @@ import org.opencb.cellbase.core.api.CellBaseDBAdaptor;
 import org.opencb.cellbase.core.common.GitRepositoryState;
 import org.opencb.cellbase.core.config.DownloadProperties;
 import org.opencb.cellbase.core.config.SpeciesProperties;
+import org.opencb.cellbase.core.metrics.MetricsRegistry;
 import org.opencb.cellbase.core.monitor.HealthStatus;
 import org.opencb.cellbase.server.exception.SpeciesException;
 import org.opencb.cellbase.server.exception.VersionException;
@@ -55,6 +56,7 @@ public class MetaWSServer extends GenericRestWSServer {
     private static final String PONG = "pong";
     private static final String STATUS = "status";
     private static final String HEALTH = "health";
+    private static final String METRICS = "metrics";
     private static final String LOCALHOST_REST_API = "http://localhost:8080/cellbase";
 
     public MetaWSServer(@PathParam("version")
@@ -170,6 +172,22 @@ public class MetaWSServer extends GenericRestWSServer {
         return createOkResponse(queryResult);
     }
 
+    @GET
+    @Path("/metrics")
+    @ApiOperation(httpMethod = "GET", value = "Returns latency percentiles of REST and gRPC endpoints, DB adaptor methods and"
+            + " annotation stages since the server started, and the current value of the gauges.",
+            response = Map.class, responseContainer = "QueryResponse")
+    public Response getMetrics() {
+        QueryResult queryResult = new QueryResult();
+        queryResult.setId(METRICS);
+        queryResult.setDbTime(0);
+        queryResult.setNumTotalResults(1);
+        queryResult.setNumResults(1);
+        queryResult.setResult(Collections.singletonList(MetricsRegistry.getDefault().snapshot()));
+
+        return createOkResponse(queryResult);
+    }
+
     @GET
     @Path("/{species}/status")
     @ApiOperation(httpMethod = "GET", value = "Reports on the overall system status based on the status of such things "
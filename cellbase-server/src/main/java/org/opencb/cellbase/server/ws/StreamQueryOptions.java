@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 OpenCB
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.opencb.cellbase.server.ws;
+
+import org.opencb.commons.datastore.core.QueryOptions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.opencb.commons.datastore.core.QueryOptions.*;
+
+/**
+ * Query options of the streamed exports, created from the options of the request.
+ */
+final class StreamQueryOptions {
+
+    // Internal fields never returned by the web services
+    private static final List<String> INTERNAL_FIELDS = Arrays.asList("_id", "_chunkIds");
+
+    private StreamQueryOptions() {
+    }
+
+    /**
+     * Copies the options of a request without LIMIT and SKIP, so whole chromosomes are exported, and with the internal
+     * fields excluded as in the paged queries, whatever include or exclude the user set.
+     *
+     * @param queryOptions options of the request, not modified
+     * @return options for the native iterators of the export
+     */
+    static QueryOptions create(QueryOptions queryOptions) {
+        QueryOptions streamOptions = new QueryOptions(queryOptions);
+        streamOptions.remove(LIMIT);
+        streamOptions.remove(SKIP);
+        streamOptions.put(SKIP_COUNT, true);
+
+        List<String> exclude = new ArrayList<>(INTERNAL_FIELDS);
+        for (String field : streamOptions.getAsStringList(EXCLUDE)) {
+            if (!exclude.contains(field)) {
+                exclude.add(field);
+            }
+        }
+        streamOptions.put(EXCLUDE, exclude);
+        List<String> include = new ArrayList<>(streamOptions.getAsStringList(INCLUDE));
+        if (include.removeAll(INTERNAL_FIELDS)) {
+            streamOptions.put(INCLUDE, include);
+        }
+        return streamOptions;
+    }
+}
@@ -24,10 +24,12 @@ import org.bson.Document;
 import org.opencb.biodata.models.core.Xref;
 import org.opencb.cellbase.core.api.GeneDBAdaptor;
 import org.opencb.cellbase.core.api.XRefDBAdaptor;
+import org.opencb.cellbase.core.common.GeneSearchIndex;
 import org.opencb.cellbase.server.exception.SpeciesException;
 import org.opencb.cellbase.server.exception.VersionException;
 import org.opencb.cellbase.server.ws.GenericRestWSServer;
 import org.opencb.commons.datastore.core.Query;
+import org.opencb.commons.datastore.core.QueryOptions;
 import org.opencb.commons.datastore.core.QueryResult;
 
 import javax.servlet.http.HttpServletRequest;
@@ -49,6 +51,8 @@ import java.util.Map;
 @Api(value = "Xref", description = "External References RESTful Web Services API")
 public class IdWSServer extends GenericRestWSServer {
 
+    private static final int AUTOCOMPLETE_LIMIT_DEFAULT = 10;
+
     public IdWSServer(@PathParam("version")
                       @ApiParam(name = "version", value = "Possible values: v3, v4",
                               defaultValue = "v4") String version,
@@ -157,6 +161,57 @@ public class IdWSServer extends GenericRestWSServer {
         }
     }
 
+    @GET
+    @Path("/{id}/autocomplete")
+    @ApiOperation(httpMethod = "GET", value = "Get the genes with a name, id or Xref id starting with the given string, "
+            + "best matches first", notes = "Matches are case insensitive and may allow typos. If the search index of the"
+            + " species is not loaded genes with an Xref id starting with the given string are returned, as in starts_with,"
+            + " with the given string as term",
+            response = GeneSearchIndex.Match.class, responseContainer = "QueryResponse")
+    public Response getAutocomplete(@PathParam("id")
+                                    @ApiParam(name = "id", value = "One single string to be matched at the beginning of"
+                                            + " gene names, ids and Xref ids, e.g.: BRCA", required = true) String id,
+                                    @DefaultValue("0")
+                                    @QueryParam("maxEdits")
+                                    @ApiParam(name = "maxEdits", value = "Maximum number of typos allowed, up to 2. "
+                                            + "Ignored for strings shorter than 3 characters, at most 1 for those shorter"
+                                            + " than 6", required = false) int maxEdits) {
+        try {
+            parseQueryParams();
+            int matchLimit = limit > 0 ? limit : AUTOCOMPLETE_LIMIT_DEFAULT;
+            GeneSearchIndex geneSearchIndex = GeneSearchIndex.get(this.species, this.assembly);
+            List<GeneSearchIndex.Match> matches = geneSearchIndex != null
+                    ? geneSearchIndex.search(id, maxEdits, matchLimit)
+                    : startsWith(id, matchLimit);
+            QueryResult<GeneSearchIndex.Match> queryResult = new QueryResult<>(id);
+            queryResult.setNumResults(matches.size());
+            queryResult.setNumTotalResults(matches.size());
+            queryResult.setResult(matches);
+            return createOkResponse(queryResult);
+        } catch (Exception e) {
+            return createErrorResponse(e);
+        }
+    }
+
+    /**
+     * Genes with an Xref id starting with the given string, queried while the search index is not loaded. The Xref
+     * matched is not returned by the query, so matches hold the string itself as an Xref term.
+     */
+    private List<GeneSearchIndex.Match> startsWith(String id, int matchLimit) {
+        XRefDBAdaptor xRefDBAdaptor = dbAdaptorFactory.getXRefDBAdaptor(this.species, this.assembly);
+        QueryOptions options = new QueryOptions(queryOptions);
+        options.put(QueryOptions.LIMIT, matchLimit);
+        QueryResult<Document> queryResult = xRefDBAdaptor.startsWith(id, options);
+
+        List<GeneSearchIndex.Match> matches = new ArrayList<>(queryResult.getResult().size());
+        for (Document document : queryResult.getResult()) {
+            matches.add(new GeneSearchIndex.Match(document.getString("id"), document.getString("name"),
+                    document.getString("chromosome"), document.getInteger("start", 0), document.getInteger("end", 0),
+                    id.toUpperCase(), GeneSearchIndex.XREF, 0, false));
+        }
+        return matches;
+    }
+
     @GET
     @Path("/{id}/contains")
     @ApiOperation(httpMethod = "GET", value = "Get gene HGNC symbols for which there is an Xref id containing the given "
@@ -858,6 +858,88 @@ public class RegionWSServer extends GenericRestWSServer {
 //        }
 //    }
 
+    @GET
+    @Path("/{chrRegionId}/gene/export")
+    @Produces(NDJSON_MEDIA_TYPE)
+    @ApiOperation(httpMethod = "GET", value = "Streams all the gene objects for the regions as newline-delimited JSON",
+            notes = "No limit is applied and regions can be as large as whole chromosomes, e.g.: 1. Results are streamed "
+            + "straight from the database cursor, use this resource for bulk downloads instead of paging with skip.")
+    public Response exportGenesByRegion(@PathParam("chrRegionId")
+                                        @ApiParam(name = "chrRegionId",
+                                                value = "Comma separated list of genomic regions or chromosomes to be "
+                                                        + "exported, e.g.: 1:6635137-6635325,2",
+                                                required = true) String region) {
+        try {
+            parseQueryParams();
+            GeneDBAdaptor geneDBAdaptor = dbAdaptorFactory.getGeneDBAdaptor(this.species, this.assembly);
+            List<Query> queries = createQueries(region, GeneDBAdaptor.QueryParams.REGION.key());
+            return createNdJsonStreamResponse(geneDBAdaptor, queries);
+        } catch (Exception e) {
+            return createErrorResponse(e);
+        }
+    }
+
+    @GET
+    @Path("/{chrRegionId}/variation/export")
+    @Produces({NDJSON_MEDIA_TYPE, AVRO_MEDIA_TYPE})
+    @ApiOperation(httpMethod = "GET", value = "Streams all the variant objects for the regions as newline-delimited JSON "
+            + "or as an Avro container file", notes = "No limit is applied and regions can be as large as whole chromosomes, "
+            + "e.g.: 1. Use of=avro to get a deflate-compressed Avro file with the VariantAvro schema.")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name = "consequenceType",
+                    value = "Comma separated list of sequence ontology term names, e.g.: missense_variant. Exact text "
+                            + "matches will be returned.",
+                    required = false, dataType = "java.util.List", paramType = "query"),
+            @ApiImplicitParam(name = "gene",
+                    value = "Comma separated list gene ids, e.g.: BRCA2. Gene ids can be either HGNC symbols or "
+                            + " ENSEMBL gene ids. Exact text matches will be returned.",
+                    required = false, dataType = "java.util.List", paramType = "query")
+    })
+    public Response exportVariationByRegion(@PathParam("chrRegionId")
+                                            @ApiParam(name = "chrRegionId",
+                                                    value = "Comma separated list of genomic regions or chromosomes to be "
+                                                            + "exported, e.g.: 1:6635137-6635325,2",
+                                                    required = true) String chrRegionId) {
+        try {
+            parseQueryParams();
+            VariantDBAdaptor variationDBAdaptor = dbAdaptorFactory.getVariationDBAdaptor(this.species, this.assembly);
+            List<Query> queries = createQueries(chrRegionId, VariantDBAdaptor.QueryParams.REGION.key());
+            if ("avro".equalsIgnoreCase(outputFormat)) {
+                return createAvroStreamResponse(variationDBAdaptor, queries);
+            } else {
+                return createNdJsonStreamResponse(variationDBAdaptor, queries);
+            }
+        } catch (Exception e) {
+            return createErrorResponse(e);
+        }
+    }
+
+    @GET
+    @Path("/{chrRegionId}/regulatory/export")
+    @Produces(NDJSON_MEDIA_TYPE)
+    @ApiOperation(httpMethod = "GET", value = "Streams all the regulatory elements for the regions as newline-delimited "
+            + "JSON", notes = "No limit is applied and regions can be as large as whole chromosomes, e.g.: 1.")
+    @ApiImplicitParams({
+            @ApiImplicitParam(name = "featureType",
+                    value = "Comma separated list of regulatory region types, e.g.: "
+                            + "TF_binding_site,histone_acetylation_site. Exact text matches will be returned.",
+                    required = false, dataType = "java.util.List", paramType = "query"),
+    })
+    public Response exportRegulatoryByRegion(@PathParam("chrRegionId")
+                                             @ApiParam(name = "chrRegionId",
+                                                     value = "Comma separated list of genomic regions or chromosomes to be "
+                                                             + "exported, e.g.: 9:3242335-3272335,13",
+                                                     required = true) String chrRegionId) {
+        try {
+            parseQueryParams();
+            RegulationDBAdaptor regulationDBAdaptor = dbAdaptorFactory.getRegulationDBAdaptor(this.species, this.assembly);
+            List<Query> queries = createQueries(chrRegionId, RegulationDBAdaptor.QueryParams.REGION.key());
+            return createNdJsonStreamResponse(regulationDBAdaptor, queries);
+        } catch (Exception e) {
+            return createErrorResponse(e);
+        }
+    }
+
     @GET
     @Path("/{chrRegionId}/conservation")
     @ApiOperation(httpMethod = "GET", value = "Retrieves all the conservation scores", response = GenomicScoreRegion.class,
@@ -0,0 +1,97 @@
+package org.opencb.cellbase.server.grpc;
+
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.Message;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.junit.Test;
+import org.opencb.biodata.models.core.protobuf.GeneModel;
+import org.opencb.biodata.models.core.protobuf.RegulatoryRegionModel;
+import org.opencb.biodata.models.core.protobuf.TranscriptModel;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class BsonProtoConverterTest {
+
+    @Test
+    public void createGene() throws Exception {
+        for (String json : readFixtures("/grpc/genes.json")) {
+            GeneModel.Gene expected = ProtoConverterUtils.createGene(Document.parse(json));
+            GeneModel.Gene actual = BsonProtoConverter.createGene(RawBsonDocument.parse(json));
+            assertSameFields(expected.getId(), expected, actual);
+        }
+    }
+
+    @Test
+    public void createTranscript() throws Exception {
+        for (String json : readFixtures("/grpc/transcripts.json")) {
+            TranscriptModel.Transcript expected = ProtoConverterUtils.createTranscript(Document.parse(json));
+            TranscriptModel.Transcript actual = BsonProtoConverter.createTranscript(RawBsonDocument.parse(json));
+            assertSameFields(expected.getId(), expected, actual);
+        }
+    }
+
+    @Test
+    public void createRegulatoryRegion() throws Exception {
+        for (String json : readFixtures("/grpc/regulatory_regions.json")) {
+            RegulatoryRegionModel.RegulatoryRegion expected = ProtoConverterUtils.createRegulatoryRegion(Document.parse(json));
+            RegulatoryRegionModel.RegulatoryRegion actual = BsonProtoConverter.createRegulatoryRegion(RawBsonDocument.parse(json));
+            assertSameFields(expected.getId(), expected, actual);
+        }
+    }
+
+    @Test
+    public void fieldsAreRead() throws Exception {
+        // Guards against both converters agreeing on an empty message
+        GeneModel.Gene gene = BsonProtoConverter.createGene(RawBsonDocument.parse(readFixtures("/grpc/genes.json").get(0)));
+        assertEquals("BRCA2", gene.getName());
+        assertEquals(32315474, gene.getStart());
+        assertEquals(2, gene.getTranscriptsCount());
+        TranscriptModel.Transcript transcript = gene.getTranscripts(0);
+        assertEquals("ENSP00000369497", transcript.getProteinId());
+        assertEquals(2, transcript.getExonsCount());
+        assertEquals(2, transcript.getExons(1).getExonNumber());
+        assertEquals(0.875f, transcript.getTfbs(0).getScore(), 0f);
+        assertEquals("UniProtKB ACC", transcript.getXrefs(1).getDbDisplayName());
+        assertEquals(-1, gene.getTranscripts(1).getCdsLength());
+    }
+
+    @Test
+    public void documentsAreConvertedWithProtoConverterUtils() throws Exception {
+        String json = readFixtures("/grpc/regulatory_regions.json").get(0);
+        assertEquals(ProtoConverterUtils.createRegulatoryRegion(Document.parse(json)),
+                BsonProtoConverter.createRegulatoryRegion(Document.parse(json)));
+    }
+
+    private List<String> readFixtures(String resource) throws Exception {
+        return Files.readAllLines(Paths.get(getClass().getResource(resource).toURI()));
+    }
+
+    private static void assertSameFields(String path, Message expected, Message actual) {
+        for (Descriptors.FieldDescriptor field : expected.getDescriptorForType().getFields()) {
+            String fieldPath = path + "." + field.getName();
+            if (field.isRepeated()) {
+                assertEquals(fieldPath, expected.getRepeatedFieldCount(field), actual.getRepeatedFieldCount(field));
+                for (int i = 0; i < expected.getRepeatedFieldCount(field); i++) {
+                    assertSameValue(fieldPath + "[" + i + "]", field, expected.getRepeatedField(field, i),
+                            actual.getRepeatedField(field, i));
+                }
+            } else {
+                assertSameValue(fieldPath, field, expected.getField(field), actual.getField(field));
+            }
+        }
+        assertEquals(path, expected, actual);
+    }
+
+    private static void assertSameValue(String path, Descriptors.FieldDescriptor field, Object expected, Object actual) {
+        if (field.getJavaType() == Descriptors.FieldDescriptor.JavaType.MESSAGE) {
+            assertSameFields(path, (Message) expected, (Message) actual);
+        } else {
+            assertEquals(path, expected, actual);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package org.opencb.cellbase.server.ws;
+
+import org.junit.Test;
+import org.opencb.cellbase.core.config.AdmissionControlProperties;
+import org.opencb.cellbase.core.config.AdmissionControlProperties.ConcurrencyLimit;
+import org.opencb.cellbase.core.metrics.MetricsRegistry;
+import org.opencb.cellbase.server.ws.AdmissionControlFilter.EndpointClass;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import static org.junit.Assert.*;
+
+public class AdmissionControlFilterTest {
+
+    @Test
+    public void classify() throws Exception {
+        assertEquals(EndpointClass.ANNOTATION, AdmissionControlFilter.classify("v4/hsapiens/genomic/variant/annotation"));
+        assertEquals(EndpointClass.ANNOTATION,
+                AdmissionControlFilter.classify("v4/hsapiens/genomic/variant/1:1000:A:T,2:2000:A:C/annotation/"));
+        assertEquals(EndpointClass.EXPORT, AdmissionControlFilter.classify("v4/hsapiens/feature/gene/export"));
+        assertEquals(EndpointClass.META, AdmissionControlFilter.classify("v4/meta/about"));
+        assertEquals(EndpointClass.META, AdmissionControlFilter.classify("/v4/meta"));
+        assertEquals(EndpointClass.QUERY, AdmissionControlFilter.classify("v4/hsapiens/feature/gene/BRCA2/info"));
+        assertEquals(EndpointClass.QUERY, AdmissionControlFilter.classify("v4/hsapiens/genomic/variant/1:1000:A:T/consequence_type"));
+    }
+
+    @Test
+    public void variantCost() throws Exception {
+        assertEquals("1:1000:A:T,2:2000:A:C",
+                AdmissionControlFilter.getPathVariants("v4/hsapiens/genomic/variant/1:1000:A:T,2:2000:A:C/annotation"));
+        assertNull(AdmissionControlFilter.getPathVariants("v4/hsapiens/genomic/variant/annotation"));
+
+        assertEquals(2, AdmissionControlFilter.countVariants("1:1000:A:T,2:2000:A:C"));
+        assertEquals(3, AdmissionControlFilter.countVariants(" 1:1000:A:T , 2:2000:A:C,,\n3:3000:G:T\r\n"));
+        assertEquals(0, AdmissionControlFilter.countVariants(" ,\n"));
+    }
+
+    @Test
+    public void requestsAreWeightedByVariants() throws Exception {
+        AdmissionControlFilter filter = createFilter(10, 0);
+        ConcurrencyLimiter limiter = filter.getLimiter(EndpointClass.ANNOTATION);
+
+        ConcurrencyLimiter.Permit permit = limiter.acquire(AdmissionControlFilter.countVariants("1:1:A:T,1:2:A:T,1:3:A:T,1:4:A:T,"
+                + "1:5:A:T,1:6:A:T,1:7:A:T,1:8:A:T"));
+        assertEquals(ConcurrencyLimiter.Result.ACQUIRED, permit.getResult());
+        assertEquals(ConcurrencyLimiter.Result.QUEUE_FULL, limiter.acquire(AdmissionControlFilter.countVariants("1:1:A:T,1:2:A:T,1:3:A:T"))
+                .getResult());
+        assertEquals(ConcurrencyLimiter.Result.ACQUIRED, limiter.acquire(AdmissionControlFilter.countVariants("1:1:A:T,1:2:A:T"))
+                .getResult());
+
+        // Other classes have their own capacity
+        assertEquals(ConcurrencyLimiter.Result.ACQUIRED, filter.getLimiter(EndpointClass.QUERY).acquire(1).getResult());
+    }
+
+    @Test
+    public void rejectedResponses() throws Exception {
+        AdmissionControlFilter filter = createFilter(1, 0);
+        ConcurrencyLimiter limiter = filter.getLimiter(EndpointClass.ANNOTATION);
+
+        Response response = filter.createRejectedResponse(ConcurrencyLimiter.Result.QUEUE_FULL, limiter);
+        assertEquals(429, response.getStatus());
+        assertEquals("5", response.getHeaderString(HttpHeaders.RETRY_AFTER));
+
+        response = filter.createRejectedResponse(ConcurrencyLimiter.Result.TIMEOUT, limiter);
+        assertEquals(Response.Status.SERVICE_UNAVAILABLE.getStatusCode(), response.getStatus());
+        assertEquals("5", response.getHeaderString(HttpHeaders.RETRY_AFTER));
+        assertTrue(((String) response.getEntity()).contains("Server busy with annotation requests"));
+    }
+
+    private static AdmissionControlFilter createFilter(int annotationCapacity, int maxQueued) {
+        AdmissionControlProperties properties = new AdmissionControlProperties()
+                .setEnabled(true)
+                .setAnnotation(new ConcurrencyLimit(annotationCapacity, maxQueued, 0, 5))
+                .setQuery(new ConcurrencyLimit(4, 0, 0, 1))
+                .setExport(new ConcurrencyLimit(1, 0, 0, 1));
+        return new AdmissionControlFilter(properties, new MetricsRegistry(false));
+    }
+}
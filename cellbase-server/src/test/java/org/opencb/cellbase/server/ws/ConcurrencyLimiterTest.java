@@ -0,0 +1,109 @@
+package org.opencb.cellbase.server.ws;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opencb.cellbase.core.config.AdmissionControlProperties.ConcurrencyLimit;
+import org.opencb.cellbase.core.metrics.MetricsRegistry;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class ConcurrencyLimiterTest {
+
+    private final ExecutorService executorService = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() throws Exception {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void acquireUpToCapacity() throws Exception {
+        ConcurrencyLimiter limiter = createLimiter(10, 0, 0);
+
+        ConcurrencyLimiter.Permit first = limiter.acquire(4);
+        assertEquals(ConcurrencyLimiter.Result.ACQUIRED, first.getResult());
+        assertEquals(ConcurrencyLimiter.Result.ACQUIRED, limiter.acquire(6).getResult());
+        assertEquals(ConcurrencyLimiter.Result.QUEUE_FULL, limiter.acquire(1).getResult());
+
+        // Releasing twice must not add permits
+        first.release();
+        first.release();
+        assertEquals(ConcurrencyLimiter.Result.ACQUIRED, limiter.acquire(4).getResult());
+        assertEquals(ConcurrencyLimiter.Result.QUEUE_FULL, limiter.acquire(1).getResult());
+    }
+
+    @Test
+    public void costIsCappedToCapacity() throws Exception {
+        ConcurrencyLimiter limiter = createLimiter(10, 0, 0);
+
+        // A request larger than the capacity still runs alone
+        ConcurrencyLimiter.Permit permit = limiter.acquire(1000);
+        assertEquals(ConcurrencyLimiter.Result.ACQUIRED, permit.getResult());
+        assertEquals(ConcurrencyLimiter.Result.QUEUE_FULL, limiter.acquire(1).getResult());
+        permit.release();
+        assertEquals(ConcurrencyLimiter.Result.ACQUIRED, limiter.acquire(10).getResult());
+    }
+
+    @Test
+    public void queuedRequestsWaitForRelease() throws Exception {
+        ConcurrencyLimiter limiter = createLimiter(1, 1, 10000);
+        ConcurrencyLimiter.Permit permit = limiter.acquire(1);
+
+        Future<ConcurrencyLimiter.Permit> queued = executorService.submit(() -> limiter.acquire(1));
+        waitForQueued(limiter, 1);
+        // The queue is full
+        assertEquals(ConcurrencyLimiter.Result.QUEUE_FULL, limiter.acquire(1).getResult());
+        assertFalse(queued.isDone());
+
+        permit.release();
+        assertEquals(ConcurrencyLimiter.Result.ACQUIRED, queued.get(5, TimeUnit.SECONDS).getResult());
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void queuedRequestsTimeOut() throws Exception {
+        ConcurrencyLimiter limiter = createLimiter(1, 1, 50);
+        limiter.acquire(1);
+
+        long start = System.currentTimeMillis();
+        assertEquals(ConcurrencyLimiter.Result.TIMEOUT, limiter.acquire(1).getResult());
+        assertTrue(System.currentTimeMillis() - start >= 40);
+        assertEquals(0, limiter.getQueued());
+    }
+
+    @Test
+    public void newRequestsDoNotBargeAheadOfQueuedOnes() throws Exception {
+        ConcurrencyLimiter limiter = createLimiter(2, 2, 10000);
+        ConcurrencyLimiter.Permit permit = limiter.acquire(1);
+
+        // Waits for both permits while one is free
+        Future<ConcurrencyLimiter.Permit> queued = executorService.submit(() -> limiter.acquire(2));
+        waitForQueued(limiter, 1);
+        Thread.sleep(50);
+
+        Future<ConcurrencyLimiter.Permit> next = executorService.submit(() -> limiter.acquire(1));
+        waitForQueued(limiter, 2);
+        assertFalse(next.isDone());
+
+        permit.release();
+        ConcurrencyLimiter.Permit queuedPermit = queued.get(5, TimeUnit.SECONDS);
+        assertEquals(ConcurrencyLimiter.Result.ACQUIRED, queuedPermit.getResult());
+        assertFalse(next.isDone());
+        queuedPermit.release();
+        assertEquals(ConcurrencyLimiter.Result.ACQUIRED, next.get(5, TimeUnit.SECONDS).getResult());
+    }
+
+    static ConcurrencyLimiter createLimiter(int capacity, int maxQueued, int maxWaitMillis) {
+        return new ConcurrencyLimiter("test", new ConcurrencyLimit(capacity, maxQueued, maxWaitMillis, 7), new MetricsRegistry(false));
+    }
+
+    private static void waitForQueued(ConcurrencyLimiter limiter, int queued) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (limiter.getQueued() < queued) {
+            assertTrue("Request not queued", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+}
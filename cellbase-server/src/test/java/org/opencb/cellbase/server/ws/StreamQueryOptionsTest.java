@@ -0,0 +1,53 @@
+package org.opencb.cellbase.server.ws;
+
+import org.junit.Test;
+import org.opencb.commons.datastore.core.QueryOptions;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class StreamQueryOptionsTest {
+
+    @Test
+    public void removesPaging() throws Exception {
+        QueryOptions queryOptions = new QueryOptions(QueryOptions.LIMIT, 10);
+        queryOptions.put(QueryOptions.SKIP, 20);
+
+        QueryOptions streamOptions = StreamQueryOptions.create(queryOptions);
+        assertFalse(streamOptions.containsKey(QueryOptions.LIMIT));
+        assertFalse(streamOptions.containsKey(QueryOptions.SKIP));
+        assertTrue(streamOptions.getBoolean(QueryOptions.SKIP_COUNT));
+        // The options of the request are not modified
+        assertEquals(10, queryOptions.getInt(QueryOptions.LIMIT));
+    }
+
+    @Test
+    public void excludesInternalFields() throws Exception {
+        QueryOptions streamOptions = StreamQueryOptions.create(new QueryOptions());
+        assertEquals(Arrays.asList("_id", "_chunkIds"), streamOptions.getAsStringList(QueryOptions.EXCLUDE));
+
+        // User's exclude, with or without the defaults set by init
+        streamOptions = StreamQueryOptions.create(new QueryOptions(QueryOptions.EXCLUDE, "transcripts,annotation"));
+        assertEquals(Arrays.asList("_id", "_chunkIds", "transcripts", "annotation"),
+                streamOptions.getAsStringList(QueryOptions.EXCLUDE));
+        QueryOptions queryOptions = new QueryOptions(QueryOptions.EXCLUDE, new ArrayList<>(Arrays.asList("_id", "_chunkIds",
+                "transcripts")));
+        streamOptions = StreamQueryOptions.create(queryOptions);
+        assertEquals(Arrays.asList("_id", "_chunkIds", "transcripts"), streamOptions.getAsStringList(QueryOptions.EXCLUDE));
+    }
+
+    @Test
+    public void includeNeverReturnsInternalFields() throws Exception {
+        QueryOptions queryOptions = new QueryOptions(QueryOptions.INCLUDE, Arrays.asList("id", "_id", "_chunkIds", "name"));
+        queryOptions.put(QueryOptions.EXCLUDE, Collections.emptyList());
+
+        QueryOptions streamOptions = StreamQueryOptions.create(queryOptions);
+        assertEquals(Arrays.asList("id", "name"), streamOptions.getAsStringList(QueryOptions.INCLUDE));
+        // _id is excluded next to the inclusions, MongoDB allows it in the same projection
+        assertTrue(streamOptions.getAsStringList(QueryOptions.EXCLUDE).contains("_id"));
+        assertEquals(Arrays.asList("id", "_id", "_chunkIds", "name"), queryOptions.getAsStringList(QueryOptions.INCLUDE));
+    }
+}